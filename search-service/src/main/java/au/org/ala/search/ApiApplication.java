@@ -7,6 +7,8 @@
 package au.org.ala.search;
 
 import au.org.ala.search.service.OpenapiService;
+import au.org.ala.search.service.cache.TaxonCache;
+import au.org.ala.search.service.remote.LogService;
 import au.org.ala.search.service.update.AllService;
 import au.org.ala.search.util.RejectedExecutionHandlerImpl;
 import lombok.extern.slf4j.Slf4j;
@@ -61,12 +63,22 @@ public class ApiApplication {
     }
 
     @Bean(name = "processExecutor")
-    public TaskExecutor workExecutor() {
+    public TaskExecutor workExecutor(LogService logService, TaxonCache taxonCache) {
         ThreadPoolTaskExecutor threadPoolTaskExecutor = new ThreadPoolTaskExecutor();
         threadPoolTaskExecutor.setThreadNamePrefix("Async-work-");
-        threadPoolTaskExecutor.setCorePoolSize(5); // size set to 5 to match DwcAImportService (1xDwCAImportService + 4xDwCAImportRunner-perArchiveDir)
+        threadPoolTaskExecutor.setCorePoolSize(5); // DwCAImportService runs on one thread, its readers and pipeline have their own threads
         threadPoolTaskExecutor.setMaxPoolSize(5);
         threadPoolTaskExecutor.setQueueCapacity(100);
+        // the task log is buffered, write it when a task finishes. Cached taxa are invalidated once per task, not for
+        // each write of the task
+        threadPoolTaskExecutor.setTaskDecorator(task -> () -> {
+            try {
+                task.run();
+            } finally {
+                taxonCache.invalidate();
+                logService.flush();
+            }
+        });
         threadPoolTaskExecutor.afterPropertiesSet();
         log.info("ThreadPoolTaskExecutor processExecutor set");
         return threadPoolTaskExecutor;
@@ -87,12 +99,22 @@ public class ApiApplication {
     }
 
     @Bean(name = "elasticSearchUpdate")
-    public TaskExecutor elasticSearchUpdate() {
+    public TaskExecutor elasticSearchUpdate(TaxonCache taxonCache) {
         ThreadPoolTaskExecutor threadPoolTaskExecutor = new ThreadPoolTaskExecutor();
         threadPoolTaskExecutor.setThreadNamePrefix("Async-update-");
         threadPoolTaskExecutor.setCorePoolSize(2);
         threadPoolTaskExecutor.setMaxPoolSize(2);
         threadPoolTaskExecutor.setQueueCapacity(8);
+        // updates may finish after the task that queued them, invalidate cached taxa when no more are queued
+        threadPoolTaskExecutor.setTaskDecorator(task -> () -> {
+            try {
+                task.run();
+            } finally {
+                if (threadPoolTaskExecutor.getQueueSize() == 0) {
+                    taxonCache.invalidate();
+                }
+            }
+        });
         threadPoolTaskExecutor.afterPropertiesSet();
         threadPoolTaskExecutor.setRejectedExecutionHandler(
                 new RejectedExecutionHandlerImpl()); // enable blocking
@@ -7,6 +7,7 @@
 package au.org.ala.search;
 
 import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.util.SearchItemIndexFields;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,8 +22,8 @@ import org.springframework.data.elasticsearch.client.elc.ElasticsearchConfigurat
 import org.springframework.data.elasticsearch.core.convert.ElasticsearchCustomConversions;
 import org.springframework.web.client.RestTemplate;
 
-import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Configuration
 public class Config extends ElasticsearchConfiguration {
@@ -56,103 +57,56 @@ public class Config extends ElasticsearchConfiguration {
     }
 
     @WritingConverter
-    public class SearchItemIndexToElasticsearchConverter implements Converter<SearchItemIndex, Map<String, Object>> {
+    public static class SearchItemIndexToElasticsearchConverter implements Converter<SearchItemIndex, Map<String, Object>> {
         @Override
         public Map<String, Object> convert(SearchItemIndex source) {
             Map<String, Object> target = new HashMap<>();
 
-            for (int i = 0; i < SearchItemIndex.class.getFields().length; i++) {
-                try {
-                    Field f = SearchItemIndex.class.getFields()[i];
-                    Object obj = f.get(source);
-                    if (obj == null) {
-                        continue;
-                    }
-
-                    // use name to detect dynamic fields
-                    if (f.getName().endsWith("Fields")) {
-                        // convert to map
-                        Map<String, String> fields = (Map<String, String>) obj;
-                        if (fields != null) {
-                            target.putAll(fields);
-                        }
-                    } else {
-                        target.put(f.getName(), obj);
-                    }
-                } catch (Exception ignored) {
+            for (SearchItemIndexFields.Accessor accessor : SearchItemIndexFields.accessors()) {
+                Object obj = accessor.get(source);
+                if (obj != null) {
+                    target.put(accessor.name, obj);
                 }
             }
 
+            SearchItemIndexFields.putDynamicFields(source, target);
+
             return target;
         }
     }
 
     @ReadingConverter
-    public class ElasticsearchToSearchItemIndexConverter implements Converter<Map<String, Object>, SearchItemIndex> {
+    public static class ElasticsearchToSearchItemIndexConverter implements Converter<Map<String, Object>, SearchItemIndex> {
+        // fields found in elasticsearch that are not in SearchItemIndex, logged once
+        private final Set<String> unknownFields = ConcurrentHashMap.newKeySet();
+
         @Override
         public SearchItemIndex convert(Map<String, Object> source) {
             SearchItemIndex target = new SearchItemIndex();
 
-            // standard fields
-            for (int i = 0; i < SearchItemIndex.class.getFields().length; i++) {
-                Field f = SearchItemIndex.class.getFields()[i];
-                try {
-                    Object obj = source.get(f.getName());
-
-                    if (obj == null) {
-                        continue;
-                    }
-
-                    if (f.getType().equals(Date.class)) {
-                        obj = new Date((Long) obj);
-                    } else if (obj instanceof List && f.getType().equals(String[].class)) {
-                        obj = ((List) obj).toArray(new String[0]);
-                    }
+            for (Map.Entry<String, Object> entry : source.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if (value == null) {
+                    continue;
+                }
 
-                    f.set(target, obj);
-                } catch (Exception ignored) {
-                    logger.error("Failed to set field: " + f.getName());
+                // check for dynamic fields, default to standard fields
+                if (SearchItemIndexFields.setDynamicField(target, key, value)) {
+                    continue;
                 }
-            }
 
-            for (Map.Entry<String, Object> key : source.entrySet()) {
-                try {
-                    // check for dynamic fields, default to standard fields
-                    if (key.getKey().startsWith("sds_")) {
-                        if (target.sdsFields == null) {
-                            target.sdsFields = new HashMap<>();
-                        }
-                        target.sdsFields.put(key.getKey(), key.getValue().toString());
-                    } else if (key.getKey().startsWith("iucn_")) {
-                        if (target.iucnFields == null) {
-                            target.iucnFields = new HashMap<>();
-                        }
-                        target.iucnFields.put(key.getKey(), key.getValue().toString());
-                    } else if (key.getKey().startsWith("conservation_")) {
-                        if (target.conservationFields == null) {
-                            target.conservationFields = new HashMap<>();
-                        }
-                        target.conservationFields.put(key.getKey(), key.getValue().toString());
-                    } else if (key.getKey().startsWith("rk")) {
-                        if (target.rkFields == null) {
-                            target.rkFields = new HashMap<>();
-                        }
-                        target.rkFields.put(key.getKey(), key.getValue().toString());
-                    } else {
-                        Field f = SearchItemIndex.class.getField(key.getKey());
-
-                        if (f.getType().equals(Date.class)) {
-                            f.set(target, new Date((Long) key.getValue()));
-                        } else if (key.getValue() instanceof List && f.getType().equals(String[].class)) {
-                            f.set(target, ((List) key.getValue()).toArray(new String[0]));
-                        } else {
-                            f.set(target, key.getValue());
-                        }
+                SearchItemIndexFields.Accessor accessor = SearchItemIndexFields.get(key);
+                if (accessor != null) {
+                    try {
+                        accessor.set(target, value);
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to set field: " + key);
                     }
-                } catch (NoSuchFieldException | IllegalAccessException e) {
-                    // This error can be thrown when a field was added to elasticsearch but was not yet added to the
+                } else if (unknownFields.add(key)) {
+                    // This can happen when a field was added to elasticsearch but was not yet added to the
                     // model SearchItemIndex.
-                    logger.warn("Failed to set field: " + key.getKey());
+                    logger.warn("Failed to set field: " + key);
                 }
             }
 
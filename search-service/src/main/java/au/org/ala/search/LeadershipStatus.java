@@ -57,7 +57,7 @@ public class LeadershipStatus {
     }
 
     private void setupAsLeader() {
-        // TODO: do leadership setup here, queue recovery, etc
+        // TODO: do leadership setup here. Queue items are recovered by QueueService on any instance
 
         // 1. identify and restart any failed tasks
         log.error("Leadership setup goes here");
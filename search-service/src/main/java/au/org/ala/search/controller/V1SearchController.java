@@ -26,7 +26,6 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,12 +41,10 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.annotation.Nullable;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.Principal;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 import static io.swagger.v3.oas.annotations.enums.ParameterIn.HEADER;
 
@@ -280,7 +277,7 @@ public class V1SearchController {
         Map<String, List<Profile>> results = new HashMap<>();
 
         for (String q : qs) {
-            List<SearchItemIndex> items = elasticService.getTaxonsByName(q, 10, false);
+            List<SearchItemIndex> items = elasticService.getTaxonsByName(q, 10, false, FormatUtil.PROFILE_FIELDS);
             if (items != null) {
                 results.put(q, FormatUtil.itemsToProfiles(items));
             }
@@ -317,7 +314,7 @@ public class V1SearchController {
             HttpServletRequest request
     ) {
         String id = request.getRequestURI().split(request.getContextPath() + "/v1/guid/")[1];
-        List<SearchItemIndex> items = elasticService.getTaxonsByName(id, 10, false);
+        List<SearchItemIndex> items = elasticService.getTaxonsByName(id, 10, false, FormatUtil.PROFILE_FIELDS);
         if (items != null && !items.isEmpty()) {
             return ResponseEntity.ok(FormatUtil.itemsToProfiles(items));
         } else {
@@ -707,31 +704,37 @@ public class V1SearchController {
                     description = "The name of the file to be downloaded.",
                     example = "myFile.csv"
             )
-            @Nullable @RequestParam(name = "file", required = false, defaultValue = "species.csv") String file
+            @Nullable @RequestParam(name = "file", required = false, defaultValue = "species.csv") String file,
+            @Parameter(hidden = true)
+            @Nullable @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
     ) {
         if (StringUtils.isEmpty(q)) {
             return ResponseEntity.badRequest().build();
         } else {
-            File tmpFile = null;
             try {
-                tmpFile = elasticService.download(q, fqs, fields, true);
-                final File finalFile = tmpFile;
-                return ResponseEntity.ok()
+                // validate the request and decide the columns before the response is committed
+                DownloadPlan plan = elasticService.prepareDownload(q, fqs, fields, true);
+                boolean gzip = FormatUtil.acceptsGzip(acceptEncoding);
+
+                ResponseEntity.BodyBuilder response = ResponseEntity.ok()
                         .contentType(new MediaType("text", "csv"))
-                        .header("Content-Disposition", "attachment;file=" + file)
-                        .body(out -> {
-                            try (InputStream in = new FileInputStream(finalFile)) {
-                                IOUtils.copy(in, out);
-                            } finally {
-                                if (finalFile.exists()) {
-                                    finalFile.delete();
-                                }
-                            }
-                        });
-            } catch (Exception e) {
-                if (tmpFile != null && tmpFile.exists()) {
-                    tmpFile.delete();
+                        .header("Content-Disposition", "attachment;file=" + file);
+                if (gzip) {
+                    response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
                 }
+
+                return response.body(out -> {
+                    if (gzip) {
+                        // close finishes the gzip trailer, and closes the response stream
+                        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                            elasticService.writeDownload(plan, gzipOut);
+                        }
+                    } else {
+                        elasticService.writeDownload(plan, out);
+                    }
+                });
+            } catch (Exception e) {
+                logger.error("download failed: " + e.getMessage());
                 return ResponseEntity.badRequest().build();
             }
         }
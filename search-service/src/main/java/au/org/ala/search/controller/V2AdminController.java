@@ -13,10 +13,12 @@ import au.org.ala.search.model.quality.QualityProfileAdmin;
 import au.org.ala.search.service.AdminService;
 import au.org.ala.search.service.AuthService;
 import au.org.ala.search.service.queue.BroadcastService;
+import au.org.ala.search.service.queue.ConsumerLimits;
 import au.org.ala.search.service.queue.FieldguideConsumerService;
 import au.org.ala.search.service.queue.QueueService;
 import au.org.ala.search.service.queue.SearchConsumerService;
 import au.org.ala.search.service.remote.DataQualityService;
+import au.org.ala.search.service.remote.IndexRebuildService;
 import au.org.ala.search.service.remote.LogService;
 import au.org.ala.search.service.update.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -74,6 +76,8 @@ public class V2AdminController {
     protected final DescriptionsUpdateService descriptionsUpdateService;
     protected final DataQualityService dataQualityService;
     protected final BroadcastService broadcastService;
+    protected final IndexRebuildService indexRebuildService;
+    protected final ConsumerLimits consumerLimits;
 
     public V2AdminController(DwCAImportService dwCAImportService, WordpressImportService wordpressImportService, DigivolImportService digivolImportService,
                              TaskExecutor blockingExecutor, KnowledgebaseImportService knowledgebaseImportService,
@@ -87,7 +91,8 @@ public class V2AdminController {
                              QueueService queueService, FieldguideConsumerService fieldguideConsumerService,
                              SearchConsumerService searchConsumerService,
                              DescriptionsUpdateService descriptionsUpdateService,
-                             DataQualityService dataQualityService, BroadcastService broadcastService) {
+                             DataQualityService dataQualityService, BroadcastService broadcastService,
+                             IndexRebuildService indexRebuildService, ConsumerLimits consumerLimits) {
         this.dwCAImportService = dwCAImportService;
         this.wordpressImportService = wordpressImportService;
         this.digivolImportService = digivolImportService;
@@ -113,6 +118,8 @@ public class V2AdminController {
         this.descriptionsUpdateService = descriptionsUpdateService;
         this.dataQualityService = dataQualityService;
         this.broadcastService = broadcastService;
+        this.indexRebuildService = indexRebuildService;
+        this.consumerLimits = consumerLimits;
     }
 
     @SecurityRequirement(name = "JWT")
@@ -174,6 +181,63 @@ public class V2AdminController {
         return ResponseEntity.ok("{\"message\": \"task queued\"}");
     }
 
+    @SecurityRequirement(name = "JWT")
+    @Operation(tags = "ADMIN", summary = "Move the elastic.index alias back to the previous rebuilt index")
+    @Tag(name = "ADMIN", description = "REST Services for admin")
+    @PostMapping(path = "/v2/admin/rollback", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> rollback(@AuthenticationPrincipal Principal principal) throws IOException {
+        if (!authService.isAdmin(principal)) {
+            throw new AccessDeniedException("Not authorised");
+        }
+
+        if (!indexRebuildService.isEnabled()) {
+            return ResponseEntity.ok().body("{\"message\": \"index rebuild is disabled\"}");
+        }
+
+        String index = indexRebuildService.rollback();
+        if (index == null) {
+            return ResponseEntity.ok().body("{\"message\": \"no previous index\"}");
+        }
+
+        logService.log(TaskType.DWCA, "Rolled back to " + index);
+        return ResponseEntity.ok("{\"message\": \"rolled back to " + index + "\"}");
+    }
+
+    @SecurityRequirement(name = "JWT")
+    @Operation(tags = "ADMIN", summary = "Queue consumer limits of this instance")
+    @Tag(name = "ADMIN", description = "REST Services for admin")
+    @GetMapping(path = "/v2/admin/limits", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> limits(@AuthenticationPrincipal Principal principal) throws IOException {
+        if (!authService.isAdmin(principal)) {
+            throw new AccessDeniedException("Not authorised");
+        }
+
+        return ResponseEntity.ok(new ObjectMapper().writer().writeValueAsString(consumerLimits.status()));
+    }
+
+    @SecurityRequirement(name = "JWT")
+    @Operation(tags = "ADMIN", summary = "Set a queue consumer limit of this instance, until it is restarted")
+    @Tag(name = "ADMIN", description = "REST Services for admin")
+    @PostMapping(path = "/v2/admin/limits", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> setLimit(
+            @RequestParam(name = "name") String name,
+            @RequestParam(name = "limit") Integer limit,
+            @AuthenticationPrincipal Principal principal) throws IOException {
+        if (!authService.isAdmin(principal)) {
+            throw new AccessDeniedException("Not authorised");
+        }
+
+        if (limit < 0) {
+            return ResponseEntity.badRequest().body("{\"message\": \"limit must be 0 or more\"}");
+        }
+
+        if (!consumerLimits.setLimit(name, limit)) {
+            return ResponseEntity.badRequest().body("{\"message\": \"unknown limit\"}");
+        }
+
+        return ResponseEntity.ok(new ObjectMapper().writer().writeValueAsString(consumerLimits.status()));
+    }
+
     @Operation(tags = "ADMIN", summary = "Application info")
     @Tag(name = "ADMIN", description = "REST Services for admin")
     @SecurityRequirement(name = "JWT")
@@ -243,6 +307,7 @@ public class V2AdminController {
         queues.put("search_download", queue);
 
         response.put("queues", queues);
+        response.put("limits", consumerLimits.status());
 
         return ResponseEntity.ok(new ObjectMapper().writer().writeValueAsString(response));
     }
@@ -23,7 +23,8 @@ import au.org.ala.search.service.queue.QueueService;
 import au.org.ala.search.service.remote.DownloadFileStoreService;
 import au.org.ala.search.service.remote.ElasticService;
 import au.org.ala.search.service.remote.UserDataService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import au.org.ala.search.util.FieldProjection;
+import au.org.ala.search.util.FormatUtil;
 import io.micrometer.common.util.StringUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -45,10 +46,8 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Nullable;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
 
 /**
  * bie-index API services, minus some admin services
@@ -58,6 +57,7 @@ import java.util.zip.GZIPInputStream;
 public class V2Controller {
     public static final String SPECIES_ID = "species_v2";
     public static final String LIST_ID = "list_v2";
+
     public static final String DOWNLOAD_ID = "download_v2";
     public static final String DOWNLOAD_FIELDGUIDE = "fieldguide_v2";
     private static final Logger logger = LoggerFactory.getLogger(V2Controller.class);
@@ -119,43 +119,54 @@ public class V2Controller {
             @RequestBody
             List<String> qs,
             @Parameter(
-                    description = "Comma delimited list of fields to return. If not provided, all fields are returned.",
-                    example = "id,scientificName,rank,data.rk_kingdom")
+                    description = "Comma delimited list of fields to return. If not provided, all fields are returned. "
+                            + "A field ending with * returns all fields with that prefix, e.g. rk_*.",
+                    example = "id,scientificName,rank,rk_kingdom")
             @RequestParam(name = "fl", required = false) String fl
     ) {
         if (qs == null || qs.isEmpty()) {
             return ResponseEntity.badRequest().build();
         }
 
-        List<Map> result = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
         for (String q : qs) {
-            if (StringUtils.isBlank(q)) {
-                continue;
+            if (StringUtils.isNotBlank(q)) {
+                ids.add(elasticService.cleanupId(q));
             }
+        }
 
-            String id = elasticService.cleanupId(q);
+        // only fetch the requested fields, and the list fields that listNames is made from
+        FieldProjection projection = FieldProjection.of(fl);
+        if (projection != null && projection.isRequested("listNames")) {
+            projection = projection.require("iucn_*", "conservation_*", "sds_*");
+        }
 
-            Map taxon = elasticService.getTaxonMap(id, true, true);
-            if (taxon == null) {
-                taxon = elasticService.getTaxonVariantByNameMap(id, true);
-            }
-            if (taxon == null) {
-                taxon = elasticService.getTaxonByPreviousIdentifierMap(id, true);
-            }
+        List<Map> taxa = elasticService.getTaxonMaps(ids, projection);
+        if (taxa.contains(null)) {
+            return ResponseEntity.notFound().build();
+        }
 
-            if (taxon == null) {
-                return ResponseEntity.notFound().build();
+        // repeated ids share a taxon, so it is only injected once
+        Map<Map, Map> done = new IdentityHashMap<>();
+        List<Map> result = new ArrayList<>();
+        for (Map found : taxa) {
+            Map taxon = found;
+            if (done.containsKey(found)) {
+                result.add(done.get(found));
+                continue;
             }
 
-            // Inject an object for synonymData, vernacularData, identifierData, variantData.
-            // Replaces JSON string with JSON list.
-            try {
-                ObjectMapper mapper = new ObjectMapper();
-                updateNamesData(taxon, mapper, "synonymData");
-                updateNamesData(taxon, mapper, "vernacularData");
-                updateNamesData(taxon, mapper, "identifierData");
-                updateNamesData(taxon, mapper, "variantData");
-            } catch (IOException ignored) {
+            // Indices built by earlier versions hold names data as base64 + compressed JSON. Replace it with the list.
+            // Names data that cannot be read is removed.
+            for (String name : FormatUtil.NAMES_DATA) {
+                if (taxon.get(name) instanceof String base64) {
+                    List<Map<String, String>> namesData = FormatUtil.decodeNamesData(base64);
+                    if (namesData != null) {
+                        taxon.put(name, namesData);
+                    } else {
+                        taxon.remove(name);
+                    }
+                }
             }
 
             // Inject listId->name mapping so that it is available to the UI
@@ -175,9 +186,8 @@ public class V2Controller {
             }
 
             // Inject vernacular name language info
-            if (taxon.containsKey("vernacularData")) {
-                List<Map> vernacularData = (List<Map>) taxon.get("vernacularData");
-                for (Map vernacular : vernacularData) {
+            if (taxon.get("vernacularData") instanceof List<?> vernacularData) {
+                for (Map vernacular : (List<Map>) vernacularData) {
                     String languageCode = (String) vernacular.get("language");
                     if (StringUtils.isNotEmpty(languageCode)) {
                         LanguageInfo languageInfo = languageService.getLanguageInfo(languageCode);
@@ -189,53 +199,17 @@ public class V2Controller {
                 }
             }
 
-            // Remove fields not requested. For better performance incorporate this at the flatten and inject stages.
-            if (fl != null) {
-                String[] fields = fl.split(",");
-                Map filteredTaxon = new HashMap<>();
-                for (String field : fields) {
-                    if (taxon.containsKey(field)) {
-                        filteredTaxon.put(field, taxon.get(field));
-                    }
-                }
-                taxon = filteredTaxon;
+            // Remove the fields that were fetched to resolve the taxon or build listNames
+            if (projection != null) {
+                taxon = projection.project(taxon, false);
             }
 
+            done.put(found, taxon);
             result.add(taxon);
         }
         return ResponseEntity.ok(result);
     }
 
-    /**
-     * Update the base64 + compressed JSON with a JSON list for a taxon Map object
-     *
-     * @param taxon  taxon Map with the object that is a string of JSON
-     * @param mapper ObjectMapper so it does not need to be created each time
-     * @param name   the name of the object in the taxon Map
-     * @throws IOException
-     */
-    private void updateNamesData(Map taxon, ObjectMapper mapper, String name) throws IOException {
-        if (taxon.containsKey(name)) {
-            String base64 = taxon.get(name).toString();
-            if (base64 != null && !base64.isEmpty()) {
-                byte[] compressedBytes = Base64.getDecoder().decode(base64);
-                ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(compressedBytes);
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-                try (GZIPInputStream gzipInputStream = new GZIPInputStream(byteArrayInputStream)) {
-                    byte[] buffer = new byte[1024];
-                    int len;
-                    while ((len = gzipInputStream.read(buffer)) != -1) {
-                        byteArrayOutputStream.write(buffer, 0, len);
-                    }
-                }
-
-                List data = mapper.readValue(byteArrayOutputStream.toString(StandardCharsets.UTF_8), List.class);
-                taxon.put(name, data);
-            }
-        }
-    }
-
     @Tag(name = "Search")
     @Operation(
             operationId = LIST_ID,
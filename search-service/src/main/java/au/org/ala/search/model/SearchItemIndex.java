@@ -16,6 +16,7 @@ import org.springframework.data.elasticsearch.annotations.Mapping;
 import org.springframework.data.elasticsearch.annotations.Setting;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
@@ -123,10 +124,11 @@ public class SearchItemIndex {
     public String[] nameVariant;
     public String[] additionalIdentifiers;
     public String[] additionalNames_m_s;
-    public String synonymData; // JSON object with synonym data for species page names tab
-    public String variantData; // JSON object with variant data for species page names tab
-    public String identifierData; // JSON object with variant data for species page names tab
-    public String vernacularData; // JSON object with vernacular data for species page names tab
+    // stored and not indexed, for the species page names tab
+    public List<Map<String, String>> synonymData;
+    public List<Map<String, String>> variantData;
+    public List<Map<String, String>> identifierData;
+    public List<Map<String, String>> vernacularData;
     public String nativeIntroduced;
     public String distributions;
     public String geomIdx;
@@ -9,7 +9,7 @@ package au.org.ala.search.model;
 public enum TaskType {
     // Ingestion
     ALL("update search index from all data sources"),
-    DWCA("replace all TAXON, COMMON, IDENTIFIER, TAXONVARIANT records with contents of dwca.dir (empty index only)"),
+    DWCA("replace all TAXON, COMMON, IDENTIFIER, TAXONVARIANT records with contents of dwca.dir (empty index only, or into a new index when elastic.rebuild.enabled)"),
     BIOCACHE("update accepted TAXON records with count and image values from biocache.wsUrl"),
     DIGIVOL("update DIGIVOL records with data from digivol.url"),
     AREA("update LOCALITY, REGION and DISTRIBUTION records with data from spatial.url"),
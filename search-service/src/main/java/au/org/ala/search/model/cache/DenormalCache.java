@@ -7,17 +7,33 @@
 package au.org.ala.search.model.cache;
 
 import au.org.ala.search.model.dto.DatasetInfo;
-import lombok.AllArgsConstructor;
-import lombok.NoArgsConstructor;
 
 import java.util.Map;
 
-@AllArgsConstructor
-@NoArgsConstructor
+/*
+Compact cache of all DwCA archives, used for denormalisation. Rows are stored in column tables with the strings
+deduplicated, so repeated values (parent guids, ranks, statuses, sources, datasetIDs) are held once.
+ */
 public class DenormalCache {
-    public DenormalTaxon[] cacheTaxon;
-    public DenormalIdentifier[] cacheIdentifier;
-    public DenormalVariant[] cacheVariant;
-    public DenormalVernacular[] cacheVernacular;
+    public final StringDictionary strings = new StringDictionary(1 << 20);
+    public final DenormalTable cacheTaxon = new DenormalTable(strings, DenormalTaxon.COLUMNS);
+    public final DenormalTable cacheIdentifier = new DenormalTable(strings, DenormalIdentifier.COLUMNS);
+    public final DenormalTable cacheVariant = new DenormalTable(strings, DenormalVariant.COLUMNS);
+    public final DenormalTable cacheVernacular = new DenormalTable(strings, DenormalVernacular.COLUMNS);
     public Map<String, DatasetInfo> attributionMap;
+
+    public DenormalCache(Map<String, DatasetInfo> attributionMap) {
+        this.attributionMap = attributionMap;
+    }
+
+    /**
+     * Release unused capacity once all archives are cached.
+     */
+    public void trim() {
+        strings.trim();
+        cacheTaxon.trim();
+        cacheIdentifier.trim();
+        cacheVariant.trim();
+        cacheVernacular.trim();
+    }
 }
@@ -14,6 +14,15 @@ Subset of SearchItemIndex for caching
  */
 @SuperBuilder
 public class DenormalIdentifier extends Denormal {
+    // columns in a DenormalTable, after Denormal.KEY
+    public static final int GUID = 1;
+    public static final int SCIENTIFIC_NAME = 2;
+    public static final int NAME_ACCORDING_TO = 3;
+    public static final int NAME_PUBLISHED_IN = 4;
+    public static final int SOURCE = 5;
+    public static final int DATASET_ID = 6;
+    public static final int COLUMNS = 7;
+
     public String guid;
     public String scientificName;
     public String nameAccordingTo;
@@ -30,4 +39,15 @@ public class DenormalIdentifier extends Denormal {
         this.source = item.source;
         this.datasetID = item.datasetID;
     }
+
+    public static void write(DenormalTable table, DenormalIdentifier item) {
+        int row = table.addRow();
+        table.set(row, KEY, item.key);
+        table.set(row, GUID, item.guid);
+        table.set(row, SCIENTIFIC_NAME, item.scientificName);
+        table.set(row, NAME_ACCORDING_TO, item.nameAccordingTo);
+        table.set(row, NAME_PUBLISHED_IN, item.namePublishedIn);
+        table.set(row, SOURCE, item.source);
+        table.set(row, DATASET_ID, item.datasetID);
+    }
 }
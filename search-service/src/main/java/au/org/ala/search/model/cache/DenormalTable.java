@@ -0,0 +1,242 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.model.cache;
+
+import java.util.Arrays;
+
+/**
+ * Column store for one type of cached row. String values are held as ids in a StringDictionary, shared by all tables
+ * of a DenormalCache, and there is one optional int column.
+ * <p>
+ * Rows are appended by a single thread while caching. Tables cached in parallel each have their own dictionary and
+ * are joined with append. Rows are found with an Index, built after caching.
+ */
+public class DenormalTable {
+    // value of an empty number
+    public static final int NULL_NUMBER = Integer.MIN_VALUE;
+
+    private final StringDictionary strings;
+    private final int[][] columns;
+    private int[] numbers;
+    private int size;
+
+    public DenormalTable(StringDictionary strings, int columnCount) {
+        this.strings = strings;
+        this.columns = new int[columnCount][16];
+        this.numbers = new int[16];
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > numbers.length) {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = Arrays.copyOf(columns[i], capacity);
+            }
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+    }
+
+    /**
+     * @return the new row, with all values empty
+     */
+    public int addRow() {
+        if (size == numbers.length) {
+            ensureCapacity(Math.max(16, size + (size >> 1)));
+        }
+        for (int[] column : columns) {
+            column[size] = StringDictionary.NULL;
+        }
+        numbers[size] = NULL_NUMBER;
+        return size++;
+    }
+
+    public void set(int row, int column, String value) {
+        columns[column][row] = strings.add(value);
+    }
+
+    public void setNumber(int row, Integer value) {
+        numbers[row] = value != null ? value : NULL_NUMBER;
+    }
+
+    public String get(int row, int column) {
+        return strings.get(columns[column][row]);
+    }
+
+    /**
+     * @return the dictionary id of the value
+     */
+    public int id(int row, int column) {
+        return columns[column][row];
+    }
+
+    public Integer getNumber(int row) {
+        return numbers[row] != NULL_NUMBER ? numbers[row] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public StringDictionary strings() {
+        return strings;
+    }
+
+    /**
+     * @return a new empty table with the same columns and a new dictionary, used to cache rows in parallel
+     */
+    public DenormalTable emptyCopy() {
+        return new DenormalTable(new StringDictionary(), columns.length);
+    }
+
+    /**
+     * Append all rows of a table created by emptyCopy, adding its strings to the dictionary of this table.
+     */
+    public void append(DenormalTable other) {
+        if (other.columns.length != columns.length) {
+            throw new IllegalArgumentException("Tables do not have the same columns");
+        }
+
+        // id in the other dictionary -> id in this dictionary
+        int[] ids = new int[other.strings.size()];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = other.strings == strings ? id : strings.add(other.strings.get(id));
+        }
+
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < columns.length; i++) {
+            int[] from = other.columns[i];
+            int[] to = columns[i];
+            for (int row = 0; row < other.size; row++) {
+                to[size + row] = from[row] == StringDictionary.NULL ? StringDictionary.NULL : ids[from[row]];
+            }
+        }
+        System.arraycopy(other.numbers, 0, numbers, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Release unused capacity once all rows are added.
+     */
+    public void trim() {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = Arrays.copyOf(columns[i], size);
+        }
+        numbers = Arrays.copyOf(numbers, size);
+    }
+
+    /**
+     * Build an index of the rows with a value in the column.
+     */
+    public Index index(int column) {
+        int[] values = columns[column];
+
+        // sort by (id, row) so that rows with the same value keep the order they were added
+        long[] sorted = new long[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (values[row] != StringDictionary.NULL) {
+                sorted[count++] = ((long) values[row] << 32) | row;
+            }
+        }
+        Arrays.sort(sorted, 0, count);
+
+        int[] order = new int[count];
+        int groups = 0;
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) sorted[i];
+            if (i == 0 || (sorted[i] >>> 32) != (sorted[i - 1] >>> 32)) {
+                groups++;
+            }
+        }
+
+        Index index = new Index(order, groups);
+        int group = -1;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || (sorted[i] >>> 32) != (sorted[i - 1] >>> 32)) {
+                index.addGroup(++group, (int) (sorted[i] >>> 32), i);
+            }
+        }
+        index.start[groups] = count;
+
+        return index;
+    }
+
+    /**
+     * Rows ordered by the value of a column. Rows with the same value are a group, at positions [from, to) of the
+     * group. Groups are found with an open addressing hash table of dictionary ids, so a lookup does not allocate.
+     */
+    public class Index {
+        private final int[] order;
+
+        // first position of each group, and the end of the last group
+        private final int[] start;
+
+        // dictionary id + 1 and group of each slot, 0 for an empty slot
+        private final int[] slotIds;
+        private final int[] slotGroups;
+
+        Index(int[] order, int groups) {
+            this.order = order;
+            this.start = new int[groups + 1];
+
+            // load factor <= 0.75
+            int length = Integer.highestOneBit(Math.max(16, groups + groups / 3) - 1) << 1;
+            this.slotIds = new int[length];
+            this.slotGroups = new int[length];
+        }
+
+        private static int slot(int id, int mask) {
+            int h = id * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void addGroup(int group, int id, int from) {
+            start[group] = from;
+
+            int mask = slotIds.length - 1;
+            int slot = slot(id, mask);
+            while (slotIds[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotIds[slot] = id + 1;
+            slotGroups[slot] = group;
+        }
+
+        /**
+         * @return the group of rows with the value, or -1 when there are none
+         */
+        public int group(String value) {
+            int id = strings.id(value);
+            if (id == StringDictionary.NULL) {
+                return -1;
+            }
+
+            int mask = slotIds.length - 1;
+            int slot = slot(id, mask);
+            int entry;
+            while ((entry = slotIds[slot]) != 0) {
+                if (entry == id + 1) {
+                    return slotGroups[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        public int from(int group) {
+            return start[group];
+        }
+
+        public int to(int group) {
+            return start[group + 1];
+        }
+
+        public int row(int position) {
+            return order[position];
+        }
+    }
+}
@@ -14,6 +14,23 @@ Subset of SearchItemIndex for caching
  */
 @SuperBuilder
 public class DenormalTaxon extends Denormal {
+    // columns in a DenormalTable, after Denormal.KEY
+    public static final int GUID = 1;
+    public static final int NAME = 2;
+    public static final int ACCEPTED_CONCEPT_ID = 3;
+    public static final int SCIENTIFIC_NAME = 4;
+    public static final int NAME_COMPLETE = 5;
+    public static final int RANK = 6;
+    public static final int TAXONOMIC_STATUS = 7;
+    public static final int NAME_TYPE = 8;
+    public static final int FAVOURITE = 9;
+    public static final int NAME_ACCORDING_TO = 10;
+    public static final int NAME_PUBLISHED_IN = 11;
+    public static final int SOURCE = 12;
+    public static final int DATASET_ID = 13;
+    public static final int NAME_FORMATTED = 14;
+    public static final int COLUMNS = 15;
+
     public String guid;
     public String name;
     public String acceptedConceptID;
@@ -48,4 +65,24 @@ public class DenormalTaxon extends Denormal {
         this.datasetID = item.datasetID;
         this.nameFormatted = item.nameFormatted;
     }
+
+    public static void write(DenormalTable table, DenormalTaxon item) {
+        int row = table.addRow();
+        table.set(row, KEY, item.key);
+        table.set(row, GUID, item.guid);
+        table.set(row, NAME, item.name);
+        table.set(row, ACCEPTED_CONCEPT_ID, item.acceptedConceptID);
+        table.set(row, SCIENTIFIC_NAME, item.scientificName);
+        table.set(row, NAME_COMPLETE, item.nameComplete);
+        table.set(row, RANK, item.rank);
+        table.set(row, TAXONOMIC_STATUS, item.taxonomicStatus);
+        table.set(row, NAME_TYPE, item.nameType);
+        table.set(row, FAVOURITE, item.favourite);
+        table.set(row, NAME_ACCORDING_TO, item.nameAccordingTo);
+        table.set(row, NAME_PUBLISHED_IN, item.namePublishedIn);
+        table.set(row, SOURCE, item.source);
+        table.set(row, DATASET_ID, item.datasetID);
+        table.set(row, NAME_FORMATTED, item.nameFormatted);
+        table.setNumber(row, item.rankID);
+    }
 }
@@ -14,6 +14,16 @@ Subset of SearchItemIndex for caching
  */
 @SuperBuilder
 public class DenormalVariant extends Denormal {
+    // columns in a DenormalTable, after Denormal.KEY
+    public static final int SCIENTIFIC_NAME = 1;
+    public static final int NAME_COMPLETE = 2;
+    public static final int NAME_ACCORDING_TO = 3;
+    public static final int NAME_PUBLISHED_IN = 4;
+    public static final int SOURCE = 5;
+    public static final int DATASET_ID = 6;
+    public static final int NAME_FORMATTED = 7;
+    public static final int COLUMNS = 8;
+
     public String scientificName;
     public String nameComplete;
     public Integer priority;
@@ -34,4 +44,17 @@ public class DenormalVariant extends Denormal {
         this.datasetID = item.datasetID;
         this.nameFormatted = item.nameFormatted;
     }
+
+    public static void write(DenormalTable table, DenormalVariant item) {
+        int row = table.addRow();
+        table.set(row, KEY, item.key);
+        table.set(row, SCIENTIFIC_NAME, item.scientificName);
+        table.set(row, NAME_COMPLETE, item.nameComplete);
+        table.set(row, NAME_ACCORDING_TO, item.nameAccordingTo);
+        table.set(row, NAME_PUBLISHED_IN, item.namePublishedIn);
+        table.set(row, SOURCE, item.source);
+        table.set(row, DATASET_ID, item.datasetID);
+        table.set(row, NAME_FORMATTED, item.nameFormatted);
+        table.setNumber(row, item.priority);
+    }
 }
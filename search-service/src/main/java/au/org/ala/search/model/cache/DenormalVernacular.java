@@ -14,6 +14,15 @@ Subset of SearchItemIndex for caching
  */
 @SuperBuilder
 public class DenormalVernacular extends Denormal {
+    // columns in a DenormalTable, after Denormal.KEY
+    public static final int GUID = 1;
+    public static final int NAME = 2;
+    public static final int SOURCE = 3;
+    public static final int DATASET_ID = 4;
+    public static final int STATUS = 5;
+    public static final int LANGUAGE = 6;
+    public static final int COLUMNS = 7;
+
     public String guid;
     public String name;
     public String source; // source URL
@@ -30,4 +39,15 @@ public class DenormalVernacular extends Denormal {
         this.status = item.status;
         this.language = item.language;
     }
+
+    public static void write(DenormalTable table, DenormalVernacular item) {
+        int row = table.addRow();
+        table.set(row, KEY, item.key);
+        table.set(row, GUID, item.guid);
+        table.set(row, NAME, item.name);
+        table.set(row, SOURCE, item.source);
+        table.set(row, DATASET_ID, item.datasetID);
+        table.set(row, STATUS, item.status);
+        table.set(row, LANGUAGE, item.language);
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.model.cache;
+
+import java.util.Arrays;
+
+/**
+ * Deduplicating string store. Each distinct string is held once and is referred to by an int id, starting at 0.
+ * <p>
+ * Ids are found with an open addressing hash table of ids, so a lookup does not allocate. Not thread safe. The row
+ * types of an archive are cached concurrently, each into a table with its own dictionary (DenormalTable.emptyCopy),
+ * and the ids are mapped into the shared dictionary when the tables are appended.
+ */
+public class StringDictionary {
+    // id of null
+    public static final int NULL = -1;
+
+    private String[] values;
+
+    // id + 1 of the string in each slot, 0 for an empty slot
+    private int[] table;
+    private int size;
+
+    public StringDictionary() {
+        this(1024);
+    }
+
+    public StringDictionary(int capacity) {
+        values = new String[Math.max(16, capacity)];
+        table = new int[tableSize(values.length)];
+    }
+
+    private static int tableSize(int capacity) {
+        // load factor <= 0.75
+        return Integer.highestOneBit(Math.max(16, capacity + capacity / 3) - 1) << 1;
+    }
+
+    private static int hash(String value) {
+        int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the id of the value, adding it when it is new
+     */
+    public int add(String value) {
+        if (value == null) {
+            return NULL;
+        }
+
+        int mask = table.length - 1;
+        int slot = hash(value) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (values[entry - 1].equals(value)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        values[size] = value;
+        table[slot] = ++size;
+
+        if (size > table.length - (table.length >> 2)) {
+            rehash(table.length << 1);
+        }
+
+        return size - 1;
+    }
+
+    /**
+     * @return the id of the value, or NULL when it is null or not in the dictionary
+     */
+    public int id(String value) {
+        if (value == null) {
+            return NULL;
+        }
+
+        int mask = table.length - 1;
+        int slot = hash(value) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (values[entry - 1].equals(value)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return NULL;
+    }
+
+    public String get(int id) {
+        return id == NULL ? null : values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Release unused capacity once all strings are added.
+     */
+    public void trim() {
+        values = Arrays.copyOf(values, Math.max(16, size));
+        if (tableSize(values.length) < table.length) {
+            rehash(tableSize(values.length));
+        }
+    }
+
+    private void rehash(int length) {
+        int[] rehashed = new int[length];
+        int mask = length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(values[id]) & mask;
+            while (rehashed[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            rehashed[slot] = id + 1;
+        }
+        table = rehashed;
+    }
+}
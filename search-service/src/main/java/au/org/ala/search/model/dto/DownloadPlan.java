@@ -0,0 +1,34 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.model.dto;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.FieldAndFormat;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * A validated download request. The output columns are decided before any rows are written so that rows can be
+ * streamed directly to the client.
+ */
+@Getter
+@AllArgsConstructor
+public class DownloadPlan {
+    Query query;
+    List<FieldAndFormat> fieldList;
+
+    // requested field names, including those that will not be output
+    String[] fields;
+
+    // positions in fields that have at least one value and will be output
+    int[] columns;
+
+    // header row for the output columns
+    String[] header;
+}
@@ -16,4 +16,11 @@ public class Term {
     public boolean negate = false;
     public String field;
     public String value;
+
+    // field:[from TO to], with a null from or to for an open end (*)
+    public boolean range = false;
+    public String from;
+    public String to;
+    public boolean includeFrom = false;
+    public boolean includeTo = false;
 }
@@ -33,4 +33,9 @@ public class QueueItem {
 
     public QueueRequest queueRequest;
     public Status status;
+
+    // the instance processing the item, until leaseExpires unless renewed
+    public String owner;
+    public LocalDateTime leaseExpires;
+    public int attempts;
 }
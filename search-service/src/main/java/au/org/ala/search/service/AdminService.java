@@ -8,6 +8,7 @@ package au.org.ala.search.service;
 
 import au.org.ala.search.model.ListBackedFields;
 import au.org.ala.search.model.dto.SetRequest;
+import au.org.ala.search.service.cache.TaxonCache;
 import au.org.ala.search.service.remote.DataFileStoreService;
 import au.org.ala.search.service.remote.ElasticService;
 import au.org.ala.search.service.remote.ListService;
@@ -41,6 +42,7 @@ public class AdminService {
     protected final ListService listService;
     protected final StaticFileStoreService staticFileStoreService;
     protected final DataFileStoreService dataFileStoreService;
+    protected final TaxonCache taxonCache;
 
     @Value("${lists.images.hidden.id}")
     private String hiddenImageListId;
@@ -58,12 +60,13 @@ public class AdminService {
     private String descriptionOverridePath;
 
     public AdminService(
-            ElasticsearchOperations elasticsearchOperations, ElasticService elasticService, ListService listService, StaticFileStoreService staticFileStoreService, DataFileStoreService dataFileStoreService) {
+            ElasticsearchOperations elasticsearchOperations, ElasticService elasticService, ListService listService, StaticFileStoreService staticFileStoreService, DataFileStoreService dataFileStoreService, TaxonCache taxonCache) {
         this.elasticsearchOperations = elasticsearchOperations;
         this.elasticService = elasticService;
         this.listService = listService;
         this.staticFileStoreService = staticFileStoreService;
         this.dataFileStoreService = dataFileStoreService;
+        this.taxonCache = taxonCache;
     }
 
     public boolean setValue(SetRequest setRequest) {
@@ -101,6 +104,7 @@ public class AdminService {
         doc.put(setRequest.getField(), setRequest.getValue());
 
         elasticService.updateImmediately(Collections.singletonList(UpdateQuery.builder(esId).withDocument(doc).build()));
+        taxonCache.invalidate();
 
         return true;
     }
@@ -0,0 +1,184 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Least recently used map of cached values, for TaxonCache, QueryPlanCache and ImageMetadataCache.
+ * <p>
+ * Entries are bounded by count and, optionally, by their estimated size, and each has an expiry time. The limits are
+ * read on each put. get and put are synchronized, callers find a missing value without the lock, so that a slow
+ * lookup does not block the others.
+ * <p>
+ * Metrics are the standard cache.* meters with the tag cache=name, and cache.bytes when bounded by size.
+ */
+public class BoundedCache<V> {
+    private final String name;
+    private final IntSupplier maxEntries;
+    // null when not bounded by size
+    private final LongSupplier maxBytes;
+
+    // access ordered, guarded by this
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(String name, IntSupplier maxEntries) {
+        this(name, maxEntries, null);
+    }
+
+    public BoundedCache(String name, IntSupplier maxEntries, LongSupplier maxBytes) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public void bindTo(MeterRegistry meterRegistry) {
+        new Metrics(this).bindTo(meterRegistry);
+    }
+
+    public V get(String key) {
+        return get(key, value -> true);
+    }
+
+    /**
+     * Counts a hit or a miss.
+     *
+     * @param valid false for a value that must not be returned, e.g. of an earlier generation. It is removed.
+     * @return the value, or null when it is not cached, has expired or is not valid
+     */
+    public synchronized V get(String key, Predicate<V> valid) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expires > System.currentTimeMillis() && valid.test(entry.value)) {
+                hits.increment();
+                return entry.value;
+            }
+            remove(key);
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String key, V value) {
+        put(key, value, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Add the value, and evict the least recently used entries over the limits. A value larger than maxBytes is not
+     * added.
+     *
+     * @param expires time in ms when the entry expires
+     * @param size    estimated size of the entry in bytes
+     */
+    public synchronized void put(String key, V value, long expires, long size) {
+        int max = maxEntries.getAsInt();
+        long maxSize = maxBytes != null ? maxBytes.getAsLong() : Long.MAX_VALUE;
+        if (max <= 0 || size > maxSize) {
+            return;
+        }
+
+        Entry<V> previous = entries.put(key, new Entry<>(value, expires, size));
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += size;
+        puts.increment();
+
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (eldest.hasNext() && (entries.size() > max || bytes > maxSize)) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    // caller holds the lock
+    private void remove(String key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.size;
+        }
+    }
+
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expires;
+        final long size;
+
+        Entry(V value, long expires, long size) {
+            this.value = value;
+            this.expires = expires;
+            this.size = size;
+        }
+    }
+
+    private static class Metrics extends CacheMeterBinder<BoundedCache<?>> {
+        Metrics(BoundedCache<?> cache) {
+            super(cache, cache.name, Tags.empty());
+        }
+
+        @Override
+        protected Long size() {
+            return getCache().size();
+        }
+
+        @Override
+        protected long hitCount() {
+            return getCache().hits.sum();
+        }
+
+        @Override
+        protected Long missCount() {
+            return getCache().misses.sum();
+        }
+
+        @Override
+        protected Long evictionCount() {
+            return getCache().evictions.sum();
+        }
+
+        @Override
+        protected long putCount() {
+            return getCache().puts.sum();
+        }
+
+        @Override
+        protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+            if (getCache().maxBytes != null) {
+                Gauge.builder("cache.bytes", getCache(), BoundedCache::bytes)
+                        .tags(getTagsWithCacheName())
+                        .description("The estimated size of the cached values")
+                        .baseUnit("bytes")
+                        .register(registry);
+            }
+        }
+    }
+}
@@ -9,11 +9,10 @@ package au.org.ala.search.service.cache;
 import au.org.ala.search.model.SearchItemIndex;
 import au.org.ala.search.model.query.Op;
 import au.org.ala.search.service.remote.ElasticService;
+import au.org.ala.search.service.remote.PointInTimeCursor;
 import au.org.ala.search.util.QueryParserUtil;
-import co.elastic.clients.elasticsearch._types.FieldValue;
 import co.elastic.clients.elasticsearch._types.query_dsl.FieldAndFormat;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
-import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.json.JsonData;
 import jakarta.annotation.PostConstruct;
@@ -52,11 +51,7 @@ public class CollectoryCache {
 
     @Scheduled(cron = "${collectory.cache.cron}")
     public void cacheRefresh() {
-        String pit = null;
-
         try {
-            pit = elasticService.openPointInTime();
-
             List<FieldAndFormat> fieldList = new ArrayList<>(2);
             fieldList.add(new FieldAndFormat.Builder().field("id").build());
             fieldList.add(new FieldAndFormat.Builder().field("name").build());
@@ -64,40 +59,24 @@ public class CollectoryCache {
             Op op = QueryParserUtil.parse("idxtype:DATARESOURCE", null, elasticService::isValidField);
             Query queryOp = elasticService.opToQuery(op);
 
-            List<FieldValue> searchAfter = null;
             int pageSize = 1000;
 
-            boolean hasMore = true;
-            while (hasMore) {
-                SearchResponse<SearchItemIndex> result =
-                        elasticService.queryPointInTimeAfter(
-                                pit, searchAfter, pageSize, queryOp, fieldList, null, false);
-                List<Hit<SearchItemIndex>> hits = result.hits().hits();
-                searchAfter = hits.isEmpty() ? null : hits.getLast().sort();
-
-                for (Hit<SearchItemIndex> hit : hits) {
-                    JsonData idField = hit.fields().get("id");
-                    String id = idField == null ? null : idField.toJson().asJsonArray().getJsonString(0).getString();
+            try (PointInTimeCursor cursor = elasticService.openCursor(queryOp, fieldList, pageSize)) {
+                for (List<Hit<SearchItemIndex>> hits : cursor) {
+                    for (Hit<SearchItemIndex> hit : hits) {
+                        JsonData idField = hit.fields().get("id");
+                        String id = idField == null ? null : idField.toJson().asJsonArray().getJsonString(0).getString();
 
-                    JsonData nameField = hit.fields().get("name");
-                    String name = nameField == null ? null : nameField.toJson().asJsonArray().getJsonString(0).getString();
+                        JsonData nameField = hit.fields().get("name");
+                        String name = nameField == null ? null : nameField.toJson().asJsonArray().getJsonString(0).getString();
 
-                    dataResourceNames.put(name, id);
+                        dataResourceNames.put(name, id);
+                    }
                 }
-
-                hasMore = hits.size() == pageSize;
             }
         } catch (Exception e) {
             // Note: this error is always logged when the index has not yet been initialized with idxtype:DATARESOURCE
             logger.error("Failed to cache data resource names", e.getMessage());
-        } finally {
-            try {
-                if (pit != null) {
-                    elasticService.closePointInTime(pit);
-                }
-            } catch (Exception e) {
-                logger.error("Failed to close point in time", e);
-            }
         }
     }
 
@@ -0,0 +1,227 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.model.dto.IndexedField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This service provides the fields of the search index mapping, used to validate query fields and to expand field
+ * patterns such as rk_*.
+ * <p>
+ * The fields are an immutable snapshot, replaced by refresh, so lookups do not lock. refresh is called when an import
+ * finishes and on CACHE_RESET. Fields created by the dynamic templates (conservation_*, sds_*, iucn_*, rk_*, rkid_*,
+ * *_s) can appear at any time, so a lookup of an unknown field that matches a template also refreshes the snapshot, at
+ * most once every fieldCatalog.missRefreshSeconds.
+ */
+@Service
+public class FieldCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(FieldCatalog.class);
+
+    private static final String[] DYNAMIC_PREFIXES = {"conservation_", "sds_", "iucn_", "rk_", "rkid_"};
+    private static final String[] DYNAMIC_SUFFIXES = {"_s"};
+
+    private final ElasticsearchOperations elasticsearchOperations;
+
+    @Value("${fieldCatalog.missRefreshSeconds}")
+    private Integer missRefreshSeconds;
+
+    private volatile Snapshot snapshot;
+    private final AtomicLong lastMissRefresh = new AtomicLong();
+
+    public FieldCatalog(ElasticsearchOperations elasticsearchOperations) {
+        this.elasticsearchOperations = elasticsearchOperations;
+    }
+
+    /**
+     * @return all fields of the mapping
+     */
+    public List<IndexedField> fields() {
+        return snapshot().fields;
+    }
+
+    /**
+     * @return the names of all fields of the mapping
+     */
+    public Set<String> names() {
+        return snapshot().names;
+    }
+
+    /**
+     * @return a number that is incremented each time the snapshot is replaced, for use in the keys of values that
+     * depend on the fields
+     */
+    public long version() {
+        return snapshot().version;
+    }
+
+    public boolean isValid(String name) {
+        if (snapshot().names.contains(name)) {
+            return true;
+        }
+
+        if (isDynamic(name)) {
+            long now = System.currentTimeMillis();
+            long last = lastMissRefresh.get();
+            if (now - last > missRefreshSeconds * 1000L && lastMissRefresh.compareAndSet(last, now)) {
+                refresh();
+            }
+            return snapshot.names.contains(name);
+        }
+
+        return false;
+    }
+
+    /**
+     * @param pattern a field name, or a prefix followed by *
+     * @return the matching fields, in name order. A field name that is not in the mapping is returned as is.
+     */
+    public List<String> expand(String pattern) {
+        if (!pattern.endsWith("*")) {
+            return List.of(pattern);
+        }
+
+        String prefix = pattern.substring(0, pattern.length() - 1);
+        String[] sorted = snapshot().sorted;
+        int from = Arrays.binarySearch(sorted, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+
+        List<String> matches = new ArrayList<>();
+        for (int i = from; i < sorted.length && sorted[i].startsWith(prefix); i++) {
+            matches.add(sorted[i]);
+        }
+        return matches;
+    }
+
+    /**
+     * Read the mapping again. The snapshot is only replaced when fields were added, removed or changed type, e.g.
+     * after the index alias was moved to a rebuilt index.
+     *
+     * @return all fields of the mapping
+     */
+    public synchronized List<IndexedField> refresh() {
+        Map<String, Object> properties = (Map<String, Object>) elasticsearchOperations.indexOps(SearchItemIndex.class).getMapping().get("properties");
+
+        Snapshot current = snapshot;
+        Map<String, IndexedField> byName = new LinkedHashMap<>();
+        if (current != null) {
+            for (IndexedField field : current.fields) {
+                byName.put(field.getName(), field);
+            }
+        }
+
+        List<IndexedField> fields = new ArrayList<>(properties.size());
+        Map<String, String> types = new HashMap<>(properties.size() * 2);
+        int added = 0;
+        int changed = 0;
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            String name = property.getKey();
+            String type = (String) ((Map<String, Object>) property.getValue()).get("type");
+            types.put(name, type);
+
+            IndexedField existing = byName.remove(name);
+            if (existing != null && Objects.equals(type, current.types.get(name))) {
+                fields.add(existing);
+            } else {
+                fields.add(toIndexedField(name, type));
+                if (existing != null) {
+                    changed++;
+                } else {
+                    added++;
+                }
+            }
+        }
+        int removed = current != null ? byName.size() : 0;
+
+        if (current == null || added > 0 || removed > 0 || changed > 0) {
+            snapshot = new Snapshot(fields, types, current != null ? current.version + 1 : 0);
+            if (current != null) {
+                logger.info("index fields: " + fields.size() + ", added: " + added + ", removed: " + removed
+                        + ", changed: " + changed);
+            }
+        }
+
+        return snapshot.fields;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            refresh();
+            current = snapshot;
+        }
+        return current;
+    }
+
+    private static boolean isDynamic(String name) {
+        for (String prefix : DYNAMIC_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (String suffix : DYNAMIC_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static IndexedField toIndexedField(String name, String type) {
+        String dataType = switch (type) {
+            case "keyword", "text" -> "string";
+            case "boolean" -> "boolean";
+            case "integer" -> "int";
+            case "long" -> "long";
+            case "double" -> "double";
+            case "float" -> "float";
+            case "object" -> "object";
+            case "nested" -> "nested";
+            case "binary" -> "binary";
+            case null, default -> "other";
+        };
+
+        boolean indexed = !"text".equals(type) && !"nested".equals(type) && !"binary".equals(type) && !"other".equals(type);
+
+        return new IndexedField(name, dataType, indexed, true, null);
+    }
+
+    private static class Snapshot {
+        final List<IndexedField> fields;
+        // mapping type by name
+        final Map<String, String> types;
+        final Set<String> names;
+        // names in order, for prefix lookups
+        final String[] sorted;
+        final long version;
+
+        Snapshot(List<IndexedField> fields, Map<String, String> types, long version) {
+            this.version = version;
+            this.fields = Collections.unmodifiableList(fields);
+            this.types = types;
+
+            Set<String> names = new HashSet<>(fields.size() * 2);
+            for (IndexedField field : fields) {
+                names.add(field.getName());
+            }
+            this.names = Collections.unmodifiableSet(names);
+
+            this.sorted = names.toArray(new String[0]);
+            Arrays.sort(this.sorted);
+        }
+    }
+}
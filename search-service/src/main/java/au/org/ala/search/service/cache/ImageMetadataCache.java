@@ -0,0 +1,152 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import au.org.ala.search.model.ImageUrlType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This service provides a cache of image metadata from the image service, /ws/image/{id}, for fieldguides.
+ * <p>
+ * Entries are least recently used, bounded by images.metadata.cache.maxEntries, and expire after
+ * images.metadata.cache.ttlSeconds. Failed requests are not cached. Missing entries are requested concurrently on
+ * virtual threads, at most images.metadata.concurrency at a time for each call, and time out after
+ * images.metadata.timeoutSeconds.
+ * <p>
+ * The metadata maps are shared by all callers, and must not be changed. Metrics are the BoundedCache meters with the
+ * tag cache=imageMetadata.
+ */
+@Service
+public class ImageMetadataCache {
+    private static final Logger logger = LoggerFactory.getLogger(ImageMetadataCache.class);
+
+    private static final ObjectMapper om = new ObjectMapper();
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${images.url}")
+    private String imagesUrl;
+    @Value("${images.metadata.cache.maxEntries}")
+    private Integer maxEntries;
+    @Value("${images.metadata.cache.ttlSeconds}")
+    private Long ttlSeconds;
+    @Value("${images.metadata.concurrency}")
+    private Integer concurrency;
+    @Value("${images.metadata.timeoutSeconds}")
+    private Integer timeoutSeconds;
+
+    private HttpClient httpClient;
+
+    private final BoundedCache<Map> entries = new BoundedCache<>("imageMetadata", () -> maxEntries);
+
+    public ImageMetadataCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(timeoutSeconds))
+                .build();
+        entries.bindTo(meterRegistry);
+    }
+
+    /**
+     * @param imageIds image ids, duplicates are requested once
+     * @return metadata by image id, without the images that could not be requested
+     */
+    public Map<String, Map> getAll(Collection<String> imageIds) throws InterruptedException {
+        Map<String, Map> found = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+
+        long now = System.currentTimeMillis();
+        for (String id : imageIds) {
+            if (found.containsKey(id) || missing.contains(id)) {
+                continue;
+            }
+            Map value = entries.get(id);
+            if (value != null) {
+                found.put(id, value);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        Semaphore permits = new Semaphore(Math.max(1, concurrency));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Map<String, Future<Map>> futures = new LinkedHashMap<>();
+            for (String id : missing) {
+                futures.put(id, executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return request(id);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            for (Map.Entry<String, Future<Map>> future : futures.entrySet()) {
+                try {
+                    Map metadata = future.getValue().get();
+                    if (metadata != null) {
+                        found.put(future.getKey(), metadata);
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("Error getting image metadata: " + future.getKey() + ", " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    // do not wait for the remaining requests
+                    executor.shutdownNow();
+                    throw e;
+                }
+            }
+        }
+
+        for (String id : missing) {
+            Map value = found.get(id);
+            if (value != null) {
+                entries.put(id, value, now + ttlSeconds * 1000, 0);
+            }
+        }
+        return found;
+    }
+
+    private Map request(String imageId) throws IOException, InterruptedException {
+        String url = imagesUrl + ImageUrlType.METADATA.path + imageId;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() >= 400) {
+            throw new IOException("HTTP " + response.statusCode() + " for " + url);
+        }
+        return om.readValue(response.body(), Map.class);
+    }
+}
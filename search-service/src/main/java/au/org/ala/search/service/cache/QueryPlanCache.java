@@ -0,0 +1,145 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import au.org.ala.search.model.query.Op;
+import au.org.ala.search.util.QueryParserUtil;
+import au.org.ala.search.util.ValidField;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * This service provides a cache of parsed and compiled queries, so that the same q and fq from the UI, facet links and
+ * API clients are only parsed once.
+ * <p>
+ * Entries are least recently used, bounded by queryPlan.cache.maxEntries. The key is the normalised q, the non-empty
+ * normalised fqs in order, and the FieldCatalog version, because parsing depends on which fields are valid. Invalid
+ * queries are also cached.
+ * <p>
+ * A query is normalised without changing its plan: runs of spaces outside quotes are one space, and free text, which
+ * is only matched case-insensitively, is lower case.
+ * <p>
+ * The Op and Query of a plan are shared, and must not be changed. Metrics are the BoundedCache meters with the tag
+ * cache=queryPlan.
+ */
+@Service
+public class QueryPlanCache {
+    private final FieldCatalog fieldCatalog;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${queryPlan.cache.maxEntries}")
+    private Integer maxEntries;
+
+    private final BoundedCache<Plan> plans = new BoundedCache<>("queryPlan", () -> maxEntries);
+
+    public QueryPlanCache(FieldCatalog fieldCatalog, MeterRegistry meterRegistry) {
+        this.fieldCatalog = fieldCatalog;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        plans.bindTo(meterRegistry);
+    }
+
+    /**
+     * @param q   the query, may be empty
+     * @param fqs filter queries, may be null
+     * @return the plan, with a null op and query when the query is not valid or empty
+     */
+    public Plan get(String q, String[] fqs) {
+        if (maxEntries <= 0) {
+            return parse(q, fqs);
+        }
+
+        String key = key(q, fqs, fieldCatalog.version(), fieldCatalog::isValid);
+        Plan plan = plans.get(key);
+        if (plan != null) {
+            return plan;
+        }
+
+        // not locked, a parse can refresh the FieldCatalog
+        plan = parse(q, fqs);
+
+        plans.put(key, plan);
+        return plan;
+    }
+
+    public boolean isValid(String q) {
+        return get(q, null).op != null;
+    }
+
+    private Plan parse(String q, String[] fqs) {
+        Op op = QueryParserUtil.parse(q, fqs, fieldCatalog::isValid);
+        return new Plan(op, op != null ? QueryParserUtil.toQuery(op) : null);
+    }
+
+    static String key(String q, String[] fqs, long version, ValidField validField) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(version).append('\u0000');
+        if (q != null) {
+            normalise(sb, q, validField);
+        }
+        if (fqs != null) {
+            for (String fq : fqs) {
+                if (StringUtils.isNotBlank(fq)) {
+                    sb.append('\u0000');
+                    normalise(sb, fq, validField);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    // appends the query with runs of spaces outside quotes replaced by one space, the only separator of the parser.
+    // Free text is lower case, marked with \u0001 so that it cannot be the key of a query with a field.
+    private static void normalise(StringBuilder sb, String q, ValidField validField) {
+        String trimmed = q.trim();
+        boolean freeText = isFreeText(trimmed, validField);
+        if (freeText) {
+            sb.append('\u0001');
+        }
+
+        boolean inString = false;
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c == '"' && (!inString || trimmed.charAt(i - 1) != '\\')) {
+                inString = !inString;
+            } else if (c == ' ' && !inString && trimmed.charAt(i - 1) == ' ') {
+                continue;
+            }
+            sb.append(freeText ? Character.toLowerCase(c) : c);
+        }
+    }
+
+    // a query that the parser reads as a single value without a field. It is matched by exact_text, which has a
+    // lowercase normalizer, and by analyzed text fields, so its case does not matter
+    private static boolean isFreeText(String q, ValidField validField) {
+        if (q.isEmpty() || StringUtils.containsAny(q, ':', '"', '(', ')', '\\')) {
+            return false;
+        }
+        String first = StringUtils.substringBefore(q, " ");
+        if ("-".equals(first) || "AND".equals(first) || "OR".equals(first)) {
+            return false;
+        }
+        return !validField.isValid(first.startsWith("-") ? first.substring(1) : first);
+    }
+
+    public static class Plan {
+        public final Op op;
+        public final Query query;
+
+        Plan(Op op, Query query) {
+            this.op = op;
+            this.query = query;
+        }
+    }
+}
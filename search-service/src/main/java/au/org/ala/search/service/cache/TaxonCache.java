@@ -0,0 +1,209 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.util.SearchItemIndexFields;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This service provides a cache of taxon lookups by cleaned id or name, for the species page and API lookups.
+ * <p>
+ * Entries are least recently used, bounded by count and by estimated size, and expire after taxon.cache.ttlSeconds.
+ * Not found lookups are also cached. All entries are invalidated when the generation is incremented, when an update
+ * task or queued bulk updates finish, the index alias is moved, or a CACHE_RESET is received. Writes by this instance
+ * are broadcast to the other instances by BroadcastService, at most once every taxon.cache.broadcastMs, so their
+ * entries are at most that old. Keys are the cleaned id or name.
+ * <p>
+ * Values are copied on the way out, because callers change the returned taxon. Metrics are the BoundedCache meters
+ * with the tag cache=taxon, and cache.generation.
+ */
+@Service
+public class TaxonCache {
+    private static final Object NOT_FOUND = new Object();
+
+    // approximate size of an entry without the value
+    private static final int ENTRY_SIZE = 96;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${taxon.cache.maxEntries}")
+    private Integer maxEntries;
+    @Value("${taxon.cache.maxBytes}")
+    private Long maxBytes;
+    @Value("${taxon.cache.ttlSeconds}")
+    private Long ttlSeconds;
+
+    private final BoundedCache<Cached> entries = new BoundedCache<>("taxon", () -> maxEntries, () -> maxBytes);
+
+    private final AtomicLong generation = new AtomicLong();
+
+    // invalidated since the last broadcast
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    public TaxonCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        entries.bindTo(meterRegistry);
+        Gauge.builder("cache.generation", generation, AtomicLong::get)
+                .tags("cache", "taxon")
+                .description("The number of times the cache was invalidated")
+                .register(meterRegistry);
+    }
+
+    public SearchItemIndex getTaxon(String key, Supplier<SearchItemIndex> search) {
+        SearchItemIndex item = (SearchItemIndex) get(key, search);
+        return item != null ? SearchItemIndexFields.copy(item) : null;
+    }
+
+    public Map getTaxonMap(String key, Supplier<Map> search) {
+        return (Map) copy(get(key, search));
+    }
+
+    /**
+     * Batched getTaxonMap. The ids that are not cached are searched with one call.
+     *
+     * @param prefix key prefix, for the kind of lookup
+     * @param ids    cleaned ids, may contain null
+     * @param search the values of the ids it is given, in the same order, with null when not found
+     * @return the values in the order of ids, with null for a null id or when not found. The same Map is returned for
+     * repeated ids.
+     */
+    public List<Map> getTaxonMaps(String prefix, List<String> ids, Function<List<String>, List<Map>> search) {
+        if (maxEntries <= 0) {
+            return search.apply(ids);
+        }
+
+        Map<String, Object> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+
+        long current = generation.get();
+        long now = System.currentTimeMillis();
+        for (String id : ids) {
+            if (id == null || found.containsKey(id) || missing.contains(id)) {
+                continue;
+            }
+            Cached cached = entries.get(prefix + id, it -> it.generation == current);
+            if (cached != null) {
+                found.put(id, cached.value == NOT_FOUND ? null : cached.value);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            // not locked, so a slow search does not block other lookups
+            List<Map> values = search.apply(missing);
+            for (int i = 0; i < missing.size(); i++) {
+                Map value = values.get(i);
+                found.put(missing.get(i), value);
+                put(prefix + missing.get(i), value, current, now);
+            }
+        }
+
+        Map<String, Map> copies = new HashMap<>();
+        List<Map> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Object value = id != null ? found.get(id) : null;
+            result.add(value != null ? copies.computeIfAbsent(id, it -> (Map) copy(value)) : null);
+        }
+        return result;
+    }
+
+    /**
+     * Invalidate all entries, on this instance now, and on the other instances with the next broadcast.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        changed.set(true);
+    }
+
+    /**
+     * Invalidate all entries on this instance only, e.g. when another instance broadcast an invalidation.
+     */
+    public void invalidateLocal() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return true when there were invalidations since the last call, which need to be broadcast
+     */
+    public boolean takeChanged() {
+        return changed.getAndSet(false);
+    }
+
+    private Object get(String key, Supplier<?> search) {
+        if (maxEntries <= 0) {
+            return search.get();
+        }
+
+        long current = generation.get();
+        long now = System.currentTimeMillis();
+        Cached cached = entries.get(key, it -> it.generation == current);
+        if (cached != null) {
+            return cached.value == NOT_FOUND ? null : cached.value;
+        }
+
+        // not locked, so a slow search does not block other lookups
+        Object value = search.get();
+
+        put(key, value, current, now);
+        return value;
+    }
+
+    // generation and time of the lookup
+    private void put(String key, Object value, long generation, long now) {
+        entries.put(key, new Cached(value != null ? value : NOT_FOUND, generation), now + ttlSeconds * 1000,
+                ENTRY_SIZE + key.length() * 2L + (value != null ? estimateSize(value) : 0));
+    }
+
+    private static long estimateSize(Object value) {
+        return value instanceof SearchItemIndex item
+                ? SearchItemIndexFields.estimateSize(item)
+                : SearchItemIndexFields.estimateJsonSize(value);
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new HashMap<>(map.size() * 2);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) {
+                copy.add(copy(item));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static class Cached {
+        final Object value;
+        final long generation;
+
+        Cached(Object value, long generation) {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+}
@@ -8,22 +8,27 @@ package au.org.ala.search.service.queue;
 
 import au.org.ala.search.model.TaskType;
 import au.org.ala.search.service.cache.CollectoryCache;
+import au.org.ala.search.service.cache.FieldCatalog;
 import au.org.ala.search.service.cache.ListCache;
+import au.org.ala.search.service.cache.TaxonCache;
 import au.org.ala.search.service.remote.LogService;
 import au.org.ala.search.util.InstanceUtil;
 import lombok.Getter;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import static au.org.ala.search.service.queue.BroadcastService.BroadcastMessage.CACHE_RESET;
+import static au.org.ala.search.service.queue.BroadcastService.BroadcastMessage.TAXON_CACHE_RESET;
 
 /**
  * Service to send and consume messages from the broadcast queue for all messages that are to be broadcast to all instances.
  * <p>
  * Messages supported:
  * - Cache reset
+ * - Taxon cache reset, sent after this instance wrote to the index
  */
 @Service
 public class BroadcastService {
@@ -34,15 +39,19 @@ public class BroadcastService {
     protected final LogService logService;
     private final CollectoryCache collectoryCache;
     private final ListCache listCache;
+    private final TaxonCache taxonCache;
+    private final FieldCatalog fieldCatalog;
     private final RabbitTemplate rabbitTemplate;
     @Value("${rabbitmq.exchange}")
     private String exchange;
     @Value("${rabbitmq.host:}")
     private String host;
 
-    public BroadcastService(CollectoryCache collectoryCache, ListCache listCache, RabbitTemplate rabbitTemplate, LogService logService) {
+    public BroadcastService(CollectoryCache collectoryCache, ListCache listCache, TaxonCache taxonCache, FieldCatalog fieldCatalog, RabbitTemplate rabbitTemplate, LogService logService) {
         this.collectoryCache = collectoryCache;
         this.listCache = listCache;
+        this.taxonCache = taxonCache;
+        this.fieldCatalog = fieldCatalog;
         this.rabbitTemplate = rabbitTemplate;
         this.logService = logService;
 
@@ -70,6 +79,20 @@ public class BroadcastService {
     public void receiveMessage(String message) {
         if (message.equals(CACHE_RESET.name())) {
             resetCache();
+        } else if (message.equals(TAXON_CACHE_RESET.name())) {
+            taxonCache.invalidateLocal();
+        }
+    }
+
+    /**
+     * Tell the other instances to invalidate their taxon cache, when this instance invalidated its own since the last
+     * call.
+     */
+    @Scheduled(fixedDelayString = "${taxon.cache.broadcastMs}")
+    public void broadcastTaxonCacheReset() {
+        // the local cache is already invalidated
+        if (taxonCache.takeChanged() && StringUtils.isNotEmpty(host)) {
+            sendMessage(TAXON_CACHE_RESET);
         }
     }
 
@@ -77,9 +100,13 @@ public class BroadcastService {
         logService.log(taskType, "reset cache called, instance: " + InstanceUtil.getInstanceId());
         collectoryCache.cacheRefresh();
         listCache.cacheRefresh();
+        // every instance receives CACHE_RESET, so it is not broadcast again
+        taxonCache.invalidateLocal();
+        fieldCatalog.refresh();
     }
 
     public enum BroadcastMessage {
-        CACHE_RESET
+        CACHE_RESET,
+        TAXON_CACHE_RESET
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.queue;
+
+import au.org.ala.search.model.TaskType;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limits of the queue consumers, adjustable at runtime with /v2/admin/limits.
+ * <p>
+ * Each queue is limited to {queue}.consumer.threads items at a time, and the steps of an item that use a shared
+ * resource are limited by that resource: elasticsearch scans and lookups, PDF rendering and file store uploads.
+ * <p>
+ * Metrics are consumer.limit and consumer.active with the tag name, and queue.depth, queue.wait and queue.service
+ * with the tag queue.
+ */
+@Service
+public class ConsumerLimits {
+    private static final Logger logger = LoggerFactory.getLogger(ConsumerLimits.class);
+
+    public static final String ELASTICSEARCH = "elasticsearch";
+    public static final String PDF = "pdf";
+    public static final String UPLOAD = "upload";
+
+    private final MeterRegistry meterRegistry;
+    private final QueueService queueService;
+
+    @Value("${consumer.limit.elasticsearch}")
+    private Integer elasticsearchLimit;
+    @Value("${consumer.limit.pdf}")
+    private Integer pdfLimit;
+    @Value("${consumer.limit.upload}")
+    private Integer uploadLimit;
+
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+    public ConsumerLimits(MeterRegistry meterRegistry, QueueService queueService) {
+        this.meterRegistry = meterRegistry;
+        this.queueService = queueService;
+    }
+
+    @PostConstruct
+    void init() {
+        register(ELASTICSEARCH, elasticsearchLimit);
+        register(PDF, pdfLimit);
+        register(UPLOAD, uploadLimit);
+    }
+
+    /**
+     * Register the limit of a queue, named by its task type.
+     */
+    public Limit queue(TaskType taskType, int limit) {
+        String name = taskType.name().toLowerCase();
+        Gauge.builder("queue.depth", queueService, service -> service.countQueued(taskType))
+                .tag("queue", name)
+                .description("The number of items waiting in the queue, on all instances")
+                .register(meterRegistry);
+        return register(name, limit);
+    }
+
+    public Limit get(String name) {
+        return limits.get(name);
+    }
+
+    /**
+     * @return false when there is no limit with this name
+     */
+    public boolean setLimit(String name, int limit) {
+        Limit l = limits.get(name);
+        if (l == null) {
+            return false;
+        }
+        l.setLimit(limit);
+        logger.info("consumer limit " + name + ": " + limit);
+        return true;
+    }
+
+    /**
+     * @return the limit and number of active permits, by name
+     */
+    public Map<String, Map<String, Integer>> status() {
+        Map<String, Map<String, Integer>> status = new TreeMap<>();
+        for (Limit limit : limits.values()) {
+            status.put(limit.name, Map.of("limit", limit.limit(), "active", limit.active()));
+        }
+        return status;
+    }
+
+    public void recordWait(TaskType taskType, Duration duration) {
+        Timer.builder("queue.wait")
+                .tag("queue", taskType.name().toLowerCase())
+                .description("Time from an item being added to the queue until it is claimed")
+                .register(meterRegistry)
+                .record(duration);
+    }
+
+    public void recordService(TaskType taskType, Duration duration) {
+        Timer.builder("queue.service")
+                .tag("queue", taskType.name().toLowerCase())
+                .description("Time to process an item")
+                .register(meterRegistry)
+                .record(duration);
+    }
+
+    private Limit register(String name, int initial) {
+        Limit limit = limits.computeIfAbsent(name, n -> new Limit(n, initial));
+        Gauge.builder("consumer.limit", limit, Limit::limit)
+                .tag("name", name)
+                .register(meterRegistry);
+        Gauge.builder("consumer.active", limit, Limit::active)
+                .tag("name", name)
+                .register(meterRegistry);
+        return limit;
+    }
+
+    /**
+     * A semaphore with a limit that can be changed while permits are held.
+     * <p>
+     * Not synchronized, so that virtual threads waiting for a permit do not pin a carrier thread.
+     */
+    public static class Limit {
+        final String name;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+
+        // guarded by lock
+        private int limit;
+        private int active;
+
+        Limit(String name, int limit) {
+            this.name = name;
+            this.limit = Math.max(0, limit);
+        }
+
+        public void acquire() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (active >= limit) {
+                    available.await();
+                }
+                active++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void release() {
+            lock.lock();
+            try {
+                active--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void setLimit(int limit) {
+            lock.lock();
+            try {
+                this.limit = Math.max(0, limit);
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int limit() {
+            lock.lock();
+            try {
+                return limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int active() {
+            lock.lock();
+            try {
+                return active;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
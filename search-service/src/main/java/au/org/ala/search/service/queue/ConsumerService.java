@@ -11,20 +11,29 @@ import au.org.ala.search.model.queue.QueueItem;
 import au.org.ala.search.model.queue.StatusCode;
 import au.org.ala.search.service.remote.DownloadFileStoreService;
 import au.org.ala.search.service.remote.LogService;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Consumes the fieldguide queue to produce PDF files.
  * <p>
  * Extending ConsumerService requires implementation of processItem and sendEmail methods, and a call to super.init()
  * <p>
+ * Each item is processed on its own virtual thread. The number of items processed at a time is limited by the queue
+ * limit in ConsumerLimits, initially {queue}.consumer.threads, and can be changed at runtime. Steps that use a shared
+ * resource should also hold that resource's limit, e.g. ConsumerLimits.ELASTICSEARCH.
+ * <p>
  * Example:
  *
  * @PostConstruct void init() {
@@ -39,6 +48,7 @@ public abstract class ConsumerService {
     protected final LogService logService;
     protected final JavaMailSender emailSender;
     protected final DownloadFileStoreService downloadFileStoreService;
+    protected final ConsumerLimits consumerLimits;
     public TaskType taskType;
     @Value("${sandbox.dir}")
     public String sandboxDir;
@@ -47,20 +57,44 @@ public abstract class ConsumerService {
 
     public Map<String, QueueItem> activeItems = new ConcurrentHashMap<>();
 
-    public ConsumerService(LogService logService, QueueService queueService, JavaMailSender emailSender, DownloadFileStoreService downloadFileStoreService) {
+    private ConsumerLimits.Limit limit;
+    private Thread dispatcher;
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+
+    public ConsumerService(LogService logService, QueueService queueService, JavaMailSender emailSender, DownloadFileStoreService downloadFileStoreService, ConsumerLimits consumerLimits) {
         this.logService = logService;
         this.queueService = queueService;
         this.emailSender = emailSender;
         this.downloadFileStoreService = downloadFileStoreService;
+        this.consumerLimits = consumerLimits;
     }
 
     void init(int consumerThreads) {
         logger.info(taskType.name().toLowerCase() + ".consumer.threads: " + consumerThreads);
         this.consumerThreads = consumerThreads;
-        if (consumerThreads > 0) {
-            for (int i = 0; i < consumerThreads; i++) {
-                new Consumer().start();
-            }
+        limit = consumerLimits.queue(taskType, consumerThreads);
+
+        // started when the limit is 0, so that it can be raised at runtime
+        dispatcher = new Thread(this::dispatch, taskType.name().toLowerCase() + "-consumer");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    void destroy() throws InterruptedException {
+        if (dispatcher == null) {
+            return;
+        }
+
+        // interrupted items are added back to the queue
+        dispatcher.interrupt();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
         }
     }
 
@@ -80,44 +114,76 @@ public abstract class ConsumerService {
      * StatusCode.FINISHED is automatically set when the method completes.
      * <p>
      * If an exception is thrown, StatusCode.ERROR is automatically set.
+     * <p>
+     * If interrupted, e.g. while waiting for a ConsumerLimits permit, the item is added back to the queue.
      *
      * @param queueItem item to process. Includes the downloadRequest and status.
      */
-    abstract void processItem(QueueItem queueItem);
-
-    class Consumer extends Thread {
-        @Override
-        public void run() {
-            boolean notInterrupted = true;
-            while (notInterrupted) {
-                // get next item from queue
-                QueueItem item = null;
+    abstract void processItem(QueueItem queueItem) throws InterruptedException;
+
+    // claims the next item when there is a permit, and starts a worker for it
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                limit.acquire();
+
+                boolean started = false;
                 try {
-                    item = queueService.next(taskType);
+                    QueueItem item = queueService.next(taskType);
+
+                    Thread worker = Thread.ofVirtual()
+                            .name(taskType.name().toLowerCase() + "-" + item.id)
+                            .unstarted(() -> {
+                                try {
+                                    consume(item);
+                                } finally {
+                                    workers.remove(Thread.currentThread());
+                                    limit.release();
+                                }
+                            });
+                    workers.add(worker);
+                    worker.start();
+                    started = true;
+                } finally {
+                    if (!started) {
+                        limit.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.error("Error claiming " + taskType.name().toLowerCase(), e);
+            }
+        }
+    }
 
-                    activeItems.put(item.id, item);
+    private void consume(QueueItem item) {
+        long start = System.nanoTime();
+        try {
+            activeItems.put(item.id, item);
 
-                    queueService.updateStatus(item, StatusCode.RUNNING, "");
+            if (item.createdDate != null) {
+                consumerLimits.recordWait(taskType, Duration.between(item.createdDate, LocalDateTime.now()));
+            }
 
-                    processItem(item);
+            queueService.updateStatus(item, StatusCode.RUNNING, "");
 
-                    queueService.updateStatus(item, StatusCode.FINISHED, "");
-                } catch (InterruptedException e) {
-                    notInterrupted = false;
+            processItem(item);
 
-                    // when doing a clean shutdown, add it back to the queue
-                    queueService.updateStatus(item, StatusCode.QUEUED, "interrupted");
+            queueService.updateStatus(item, StatusCode.FINISHED, "");
+        } catch (InterruptedException e) {
+            // when doing a clean shutdown, add it back to the queue for any instance
+            queueService.updateStatus(item, StatusCode.QUEUED, "interrupted");
 
-                    logger.warn("(interrupted) added " + taskType.name().toLowerCase() + " back to the queue: " + item.id);
-                } catch (Exception e) {
-                    queueService.updateStatus(item, StatusCode.ERROR, e.getMessage());
+            logger.warn("(interrupted) added " + taskType.name().toLowerCase() + " back to the queue: " + item.id);
+        } catch (Exception e) {
+            queueService.updateStatus(item, StatusCode.ERROR, e.getMessage());
 
-                    logger.error("Error processing " + taskType.name().toLowerCase(), e);
-                }
-                if (item != null) {
-                    activeItems.remove(item.id);
-                }
-            }
+            logger.error("Error processing " + taskType.name().toLowerCase(), e);
+        } finally {
+            activeItems.remove(item.id);
+            queueService.release(item);
+            consumerLimits.recordService(taskType, Duration.ofNanos(System.nanoTime() - start));
         }
     }
 }
@@ -11,10 +11,10 @@ import au.org.ala.search.model.TaskType;
 import au.org.ala.search.model.queue.FieldguideQueueRequest;
 import au.org.ala.search.model.queue.QueueItem;
 import au.org.ala.search.model.queue.StatusCode;
+import au.org.ala.search.service.cache.ImageMetadataCache;
 import au.org.ala.search.service.remote.DownloadFileStoreService;
 import au.org.ala.search.service.remote.ElasticService;
 import au.org.ala.search.service.remote.LogService;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,9 +33,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.URI;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * Consumes the fieldguide queue to produce PDF files.
@@ -44,6 +44,7 @@ import java.util.*;
 public class FieldguideConsumerService extends ConsumerService {
     private static final Logger logger = LoggerFactory.getLogger(FieldguideConsumerService.class);
     private final ElasticService elasticService;
+    private final ImageMetadataCache imageMetadataCache;
 
     @Value("${images.url}")
     public String imagesUrl;
@@ -79,9 +80,10 @@ public class FieldguideConsumerService extends ConsumerService {
     @Value("#{'${openapi.servers}'.split(',')[0]}")
     private String baseUrl;
 
-    public FieldguideConsumerService(LogService logService, QueueService queueService, JavaMailSender emailSender, DownloadFileStoreService downloadFileStoreService, ElasticService elasticService) {
-        super(logService, queueService, emailSender, downloadFileStoreService);
+    public FieldguideConsumerService(LogService logService, QueueService queueService, JavaMailSender emailSender, DownloadFileStoreService downloadFileStoreService, ConsumerLimits consumerLimits, ElasticService elasticService, ImageMetadataCache imageMetadataCache) {
+        super(logService, queueService, emailSender, downloadFileStoreService, consumerLimits);
         this.elasticService = elasticService;
+        this.imageMetadataCache = imageMetadataCache;
     }
 
     @PostConstruct
@@ -90,12 +92,21 @@ public class FieldguideConsumerService extends ConsumerService {
         super.init(fieldguideConsumerThreads);
     }
 
-    void processItem(QueueItem item) {
+    void processItem(QueueItem item) throws InterruptedException {
         // process item
         logger.info("Processing fieldguide: " + item.id);
 
         try {
-            writePdf(item, generateTemplate(item));
+            Map json = generateTemplate(item);
+
+            ConsumerLimits.Limit pdf = consumerLimits.get(ConsumerLimits.PDF);
+            pdf.acquire();
+            try {
+                writePdf(item, json);
+            } finally {
+                pdf.release();
+            }
+
             sendEmail(item);
         } catch (IOException e) {
             queueService.updateStatus(item, StatusCode.ERROR, e.getMessage());
@@ -103,17 +114,37 @@ public class FieldguideConsumerService extends ConsumerService {
         }
     }
 
-    private Map generateTemplate(QueueItem item) throws IOException {
+    private Map generateTemplate(QueueItem item) throws InterruptedException {
         FieldguideQueueRequest request = (FieldguideQueueRequest) item.queueRequest;
-        ObjectMapper om = new ObjectMapper();
 
         Map<String, Object> json = new HashMap<>();
         json.put("title", request.title);
         json.put("sourceUrl", item.queueRequest.sourceUrl);
 
+        // one batch of lookups for each of taxa, images and data resources, rather than one of each per taxon
+        List<String> ids = Arrays.asList(request.id);
+        Map<String, SearchItemIndex> taxa = elasticsearch(() -> elasticService.getTaxaById(ids));
+
+        Map<String, String> imageIds = new HashMap<>();
+        for (Map.Entry<String, SearchItemIndex> taxon : taxa.entrySet()) {
+            if (taxon.getValue().image != null) {
+                imageIds.put(taxon.getKey(), taxon.getValue().image.split(",")[0]);
+            }
+        }
+        // not holding an elasticsearch permit while waiting for the image service
+        Map<String, Map> images = imageMetadataCache.getAll(imageIds.values());
+
+        Set<String> datasetIDs = new HashSet<>();
+        for (Map.Entry<String, String> imageId : imageIds.entrySet()) {
+            if (images.containsKey(imageId.getValue())) {
+                datasetIDs.add(taxa.get(imageId.getKey()).datasetID);
+            }
+        }
+        Map<String, Map> dataResources = elasticsearch(() -> elasticService.getDocumentMaps(datasetIDs));
+
         HashMap<String, List<Map<String, Object>>> families = new HashMap<>();
-        for (String id : request.id) {
-            SearchItemIndex taxon = elasticService.getTaxon(id);
+        for (String id : ids) {
+            SearchItemIndex taxon = taxa.get(id);
             if (taxon != null) {
                 Map<String, Object> itemMap = new HashMap<>();
                 itemMap.put("guid", taxon.guid);
@@ -122,50 +153,43 @@ public class FieldguideConsumerService extends ConsumerService {
                 itemMap.put("datasetName", taxon.datasetName);
                 itemMap.put("datasetID", taxon.datasetID);
 
-                String imageId = null;
-                if (taxon.image != null) {
-                    imageId = taxon.image.split(",")[0];
-                }
+                String imageId = imageIds.get(id);
 
                 itemMap.put("imageId", imageId);
 
-                if (imageId != null) {
+                Map imgMetadata = imageId != null ? images.get(imageId) : null;
+                if (imgMetadata != null) {
+                    itemMap.put("thumbnailUrl", imagesUrl + "/image/" + imageId + "/thumbnail");
+                    itemMap.put("imageUrl", imagesUrl + "/image/" + imageId + "/large");
+
+                    Integer height = (Integer) imgMetadata.get("height");
+                    Integer width = (Integer) imgMetadata.get("width");
                     try {
-                        Map imgMetadata = om.createParser(URI.create(imagesUrl + "/ws/image/" + imageId).toURL()).readValueAs(Map.class);
-                        itemMap.put("thumbnailUrl", imagesUrl + "/image/" + imageId + "/thumbnail");
-                        itemMap.put("imageUrl", imagesUrl + "/image/" + imageId + "/large");
-
-                        Integer height = (Integer) imgMetadata.get("height");
-                        Integer width = (Integer) imgMetadata.get("width");
-                        try {
-                            if (width / (double) height > maxTaxonWidth / (double) maxTaxonHeight) {
-                                // limit by width
-                                itemMap.put("imgWidth", maxTaxonWidth);
-                                itemMap.put("imgHeight", (int) (height / (double) width * maxTaxonWidth));
-                            } else {
-                                // limit by height
-                                itemMap.put("imgHeight", maxTaxonHeight);
-                                itemMap.put("imgWidth", (int) (width / (double) height * maxTaxonHeight));
-                            }
-                        } catch (Exception ignored) {
-                            itemMap.put("imgHeight", maxTaxonHeight);
+                        if (width / (double) height > maxTaxonWidth / (double) maxTaxonHeight) {
+                            // limit by width
                             itemMap.put("imgWidth", maxTaxonWidth);
+                            itemMap.put("imgHeight", (int) (height / (double) width * maxTaxonWidth));
+                        } else {
+                            // limit by height
+                            itemMap.put("imgHeight", maxTaxonHeight);
+                            itemMap.put("imgWidth", (int) (width / (double) height * maxTaxonHeight));
                         }
+                    } catch (Exception ignored) {
+                        itemMap.put("imgHeight", maxTaxonHeight);
+                        itemMap.put("imgWidth", maxTaxonWidth);
+                    }
 
-                        Map dataResource = elasticService.getDocumentMap(taxon.datasetID);
-                        if (dataResource != null) {
-                            itemMap.put("imageDataResourceURL", dataResource.get("image"));
-                            itemMap.put("imageDataResourceName", dataResource.get("name"));
-                        }
-                        itemMap.put("imageDataResourceUid", imgMetadata.get("dataResourceUid"));
-                        itemMap.put("imageCreator", imgMetadata.get("creator"));
-                        itemMap.put("imageRights", imgMetadata.get("rights"));
-                        if (imgMetadata.get("recognisedLicence") != null) {
-                            itemMap.put("imageLicence", ((Map) imgMetadata.get("recognisedLicence")).get("acronym"));
-                            itemMap.put("imageLicenceUrl", ((Map) imgMetadata.get("recognisedLicence")).get("url"));
-                        }
-                    } catch (IOException e) {
-                        logger.error("Error getting image metadata: " + id);
+                    Map dataResource = taxon.datasetID != null ? dataResources.get(taxon.datasetID) : null;
+                    if (dataResource != null) {
+                        itemMap.put("imageDataResourceURL", dataResource.get("image"));
+                        itemMap.put("imageDataResourceName", dataResource.get("name"));
+                    }
+                    itemMap.put("imageDataResourceUid", imgMetadata.get("dataResourceUid"));
+                    itemMap.put("imageCreator", imgMetadata.get("creator"));
+                    itemMap.put("imageRights", imgMetadata.get("rights"));
+                    if (imgMetadata.get("recognisedLicence") != null) {
+                        itemMap.put("imageLicence", ((Map) imgMetadata.get("recognisedLicence")).get("acronym"));
+                        itemMap.put("imageLicenceUrl", ((Map) imgMetadata.get("recognisedLicence")).get("url"));
                     }
                 }
 
@@ -196,6 +220,16 @@ public class FieldguideConsumerService extends ConsumerService {
         return json;
     }
 
+    private <T> T elasticsearch(Supplier<T> request) throws InterruptedException {
+        ConsumerLimits.Limit elasticsearch = consumerLimits.get(ConsumerLimits.ELASTICSEARCH);
+        elasticsearch.acquire();
+        try {
+            return request.get();
+        } finally {
+            elasticsearch.release();
+        }
+    }
+
     private void writePdf(QueueItem item, Map json) throws IOException {
         ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
         resolver.setTemplateMode(TemplateMode.HTML);
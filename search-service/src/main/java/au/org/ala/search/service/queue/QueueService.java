@@ -10,33 +10,111 @@ import au.org.ala.search.model.TaskType;
 import au.org.ala.search.model.queue.*;
 import au.org.ala.search.repo.QueueMongoRepository;
 import au.org.ala.search.service.remote.ElasticService;
-import au.org.ala.search.util.QueryParserUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Cluster wide work queue for downloads, fieldguides and sandbox uploads, persisted in the userqueue collection.
+ * <p>
+ * An item is QUEUED until a consumer on any instance claims it, with an atomic update that sets it RUNNING with this
+ * instance as owner and a lease of queue.leaseSeconds. Leases of the items being processed are renewed every
+ * queue.heartbeatMs, on a thread of its own so that other scheduled tasks cannot delay it. An item whose lease expired,
+ * because its instance stopped, is queued again, or set to ERROR after queue.maxAttempts. A RUNNING item without a
+ * lease, written before leases, is expired. Items are claimed fairly, the oldest item of the user with the fewest
+ * running items first.
+ * <p>
+ * Only the owner of an item can update its status. When the lease was lost, e.g. the item expired while this instance
+ * was paused, the item is CANCELLED on this instance, and a RUNNING update throws so that processing stops.
+ * <p>
+ * Consumers poll every queue.pollMs, and are woken immediately by items added on the same instance.
+ */
 @Service
 public class QueueService {
 
     private static final Logger logger = LoggerFactory.getLogger(QueueService.class);
 
+    // number of queued items considered for each claim
+    private static final int CANDIDATES = 100;
+
     protected final QueueMongoRepository queueMongoRepository;
+    protected final MongoTemplate mongoTemplate;
     private final ElasticService elasticService;
 
-    Map<String, LinkedBlockingQueue<QueueItem>> queues = new ConcurrentHashMap<>();
+    @Value("${queue.leaseSeconds}")
+    private Integer leaseSeconds;
+
+    @Value("${queue.heartbeatMs}")
+    private Long heartbeatMs;
+
+    @Value("${queue.pollMs}")
+    private Long pollMs;
+
+    @Value("${queue.maxAttempts}")
+    private Integer maxAttempts;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // items claimed by this instance, by id
+    private final Map<String, QueueItem> leased = new ConcurrentHashMap<>();
+
+    // notified when an item is added on this instance
+    private final Object added = new Object();
 
-    public QueueService(QueueMongoRepository queueMongoRepository, ElasticService elasticService) {
+    private ScheduledExecutorService heartbeatExecutor;
+
+    public QueueService(QueueMongoRepository queueMongoRepository, MongoTemplate mongoTemplate, ElasticService elasticService) {
         this.queueMongoRepository = queueMongoRepository;
+        this.mongoTemplate = mongoTemplate;
         this.elasticService = elasticService;
     }
 
+    @PostConstruct
+    void init() {
+        mongoTemplate.indexOps(QueueItem.class).ensureIndex(new Index()
+                .on("status.statusCode", Sort.Direction.ASC)
+                .on("queueRequest.taskType", Sort.Direction.ASC)
+                .on("createdDate", Sort.Direction.ASC));
+
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "queue-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                heartbeat();
+            } catch (Exception e) {
+                // a failed heartbeat must not stop the next
+                logger.error("queue heartbeat failed: " + e.getMessage());
+            }
+        }, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void destroy() {
+        heartbeatExecutor.shutdownNow();
+    }
+
     public Status add(QueueRequest queueRequest) {
         String requestType = queueRequest.taskType.name();
         logger.info("Adding download request to queue: " + requestType);
@@ -51,22 +129,21 @@ public class QueueService {
 
         LocalDateTime now = LocalDateTime.now();
 
-        // persist the request in a db
-        QueueItem queueItem = queueMongoRepository.save(QueueItem.builder()
+        // persist the request in a db, where it is available to the consumers of all instances. It is saved once, with
+        // its statusId, because it can be claimed as soon as it is saved
+        String id = new ObjectId().toHexString();
+        Status status = Status.builder().id(id).statusCode(StatusCode.QUEUED).message("added to queue").lastUpdated(now).build();
+        queueMongoRepository.save(QueueItem.builder()
+                .id(id)
                 .createdDate(now)
                 .queueRequest(queueRequest)
-                .status(Status.builder().statusCode(StatusCode.QUEUED).build()).build());
+                .status(status).build());
 
-        // add the request to the queue
-        LinkedBlockingQueue<QueueItem> queue = queues.get(requestType);
-        if (queue == null) {
-            queue = new LinkedBlockingQueue<>();
-            queues.put(requestType, queue);
+        synchronized (added) {
+            added.notifyAll();
         }
-        queue.add(queueItem);
 
-        // save statusId
-        return updateStatus(queueItem, StatusCode.QUEUED, "added to queue");
+        return status;
     }
 
     private void fixFilenames(QueueRequest queueRequest) {
@@ -82,23 +159,129 @@ public class QueueService {
     }
 
     /**
-     * Get the next item from the queue, waiting if necessary until an element becomes available.
+     * Claim the next item from the queue, waiting if necessary until an item becomes available. The item must be
+     * released when it is finished.
      *
      * @param taskType taskType of the queue
      * @return the next item from the queue
      */
     public QueueItem next(TaskType taskType) throws InterruptedException {
-        LinkedBlockingQueue<QueueItem> queue = queues.get(taskType.name());
-        if (queue == null) {
-            // initialize an empty queue
-            queue = new LinkedBlockingQueue<>();
-            queues.put(taskType.name(), queue);
+        while (true) {
+            QueueItem item = claim(taskType);
+            if (item != null) {
+                logger.info("Retrieved item from queue: " + item.id);
+                return item;
+            }
+
+            synchronized (added) {
+                added.wait(pollMs);
+            }
+        }
+    }
+
+    /**
+     * Stop renewing the lease of an item claimed by this instance.
+     */
+    public void release(QueueItem item) {
+        if (item != null) {
+            leased.remove(item.id);
+        }
+    }
+
+    private QueueItem claim(TaskType taskType) {
+        // running items by user, for fair scheduling
+        Map<String, Integer> running = new HashMap<>();
+        Query runningQuery = new Query(Criteria.where("status.statusCode").is(StatusCode.RUNNING)
+                .and("queueRequest.taskType").is(taskType));
+        runningQuery.fields().include("userId", "queueRequest.email");
+        for (QueueItem item : mongoTemplate.find(runningQuery, QueueItem.class)) {
+            running.merge(user(item), 1, Integer::sum);
+        }
+
+        Query queuedQuery = new Query(Criteria.where("status.statusCode").is(StatusCode.QUEUED)
+                .and("queueRequest.taskType").is(taskType))
+                .with(Sort.by(Sort.Direction.ASC, "createdDate"))
+                .limit(CANDIDATES);
+        queuedQuery.fields().include("userId", "queueRequest.email", "createdDate");
+        List<QueueItem> candidates = mongoTemplate.find(queuedQuery, QueueItem.class);
+
+        // oldest first, and stable, so this is the oldest item of the user with the fewest running items
+        candidates.sort(Comparator.comparingInt(item -> running.getOrDefault(user(item), 0)));
+
+        LocalDateTime now = LocalDateTime.now();
+        for (QueueItem candidate : candidates) {
+            Query query = new Query(Criteria.where("_id").is(candidate.id).and("status.statusCode").is(StatusCode.QUEUED));
+            Update update = new Update()
+                    .set("status.statusCode", StatusCode.RUNNING)
+                    .set("status.message", "")
+                    .set("status.lastUpdated", now)
+                    .set("owner", instanceId)
+                    .set("leaseExpires", now.plusSeconds(leaseSeconds))
+                    .inc("attempts", 1);
+
+            QueueItem item = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), QueueItem.class);
+            if (item != null) {
+                item.status.id = item.id;
+                leased.put(item.id, item);
+                return item;
+            }
+            // claimed by another instance
         }
 
-        QueueItem item = queue.take();
-        logger.info("Retrieved item from queue: " + item);
+        return null;
+    }
 
-        return item;
+    private static String user(QueueItem item) {
+        if (item.userId != null) {
+            return item.userId;
+        }
+        return item.queueRequest != null && item.queueRequest.email != null ? item.queueRequest.email : "";
+    }
+
+    /**
+     * Renew the leases of the items claimed by this instance, and recover items with an expired lease.
+     */
+    public void heartbeat() {
+        LocalDateTime now = LocalDateTime.now();
+
+        if (!leased.isEmpty()) {
+            mongoTemplate.updateMulti(
+                    new Query(Criteria.where("_id").in(leased.keySet()).and("owner").is(instanceId)
+                            .and("status.statusCode").is(StatusCode.RUNNING)),
+                    new Update().set("leaseExpires", now.plusSeconds(leaseSeconds)),
+                    QueueItem.class);
+        }
+
+        Criteria expired = Criteria.where("status.statusCode").is(StatusCode.RUNNING).orOperator(
+                Criteria.where("leaseExpires").exists(false),
+                Criteria.where("leaseExpires").lt(now));
+
+        long failed = mongoTemplate.updateMulti(
+                new Query(new Criteria().andOperator(expired, Criteria.where("attempts").gte(maxAttempts))),
+                new Update()
+                        .set("status.statusCode", StatusCode.ERROR)
+                        .set("status.message", "failed after " + maxAttempts + " attempts")
+                        .set("status.lastUpdated", now)
+                        .unset("owner")
+                        .unset("leaseExpires"),
+                QueueItem.class).getModifiedCount();
+
+        long requeued = mongoTemplate.updateMulti(
+                new Query(expired),
+                new Update()
+                        .set("status.statusCode", StatusCode.QUEUED)
+                        .set("status.message", "lease expired, added back to the queue")
+                        .set("status.lastUpdated", now)
+                        .unset("owner")
+                        .unset("leaseExpires"),
+                QueueItem.class).getModifiedCount();
+
+        if (failed > 0 || requeued > 0) {
+            logger.warn("expired queue leases, requeued: " + requeued + ", failed: " + failed);
+            synchronized (added) {
+                added.notifyAll();
+            }
+        }
     }
 
     public QueueItem get(String id) {
@@ -117,7 +300,7 @@ public class QueueService {
 
         if (queueRequest instanceof SearchQueueRequest searchDownloadRequest) {
             for (String q : searchDownloadRequest.q) {
-                if (StringUtils.isNotEmpty(q) && !QueryParserUtil.isValid(q, elasticService::isValidField)) {
+                if (StringUtils.isNotEmpty(q) && !elasticService.isValidQuery(q)) {
                     return "invalid query";
                 }
             }
@@ -140,19 +323,43 @@ public class QueueService {
     }
 
     public List<QueueItem> list(String queueName) {
-        return queues.get(queueName).stream().toList();
+        Query query = new Query(Criteria.where("status.statusCode").is(StatusCode.QUEUED)
+                .and("queueRequest.taskType").is(TaskType.valueOf(queueName)))
+                .with(Sort.by(Sort.Direction.ASC, "createdDate"));
+        return mongoTemplate.find(query, QueueItem.class);
     }
 
-    public Status updateStatus(QueueItem item, StatusCode statusCode, String s) {
-        if (statusCode.equals(StatusCode.QUEUED)) {
-            // TODO: when there exists an external queue, and this is a clean shutdown, add it back to the queue
-        }
+    public long countQueued(TaskType taskType) {
+        return mongoTemplate.count(new Query(Criteria.where("status.statusCode").is(StatusCode.QUEUED)
+                .and("queueRequest.taskType").is(taskType)), QueueItem.class);
+    }
 
+    public Status updateStatus(QueueItem item, StatusCode statusCode, String s) {
         // do not update status if it is already cancelled or has an error
         if (!item.status.statusCode.equals(StatusCode.CANCELLED) && !item.status.statusCode.equals(StatusCode.ERROR)) {
             Status newStatus = Status.builder().id(item.id).statusCode(statusCode).message(s).lastUpdated(LocalDateTime.now()).build();
             item.setStatus(newStatus);
-            queueMongoRepository.save(item);
+
+            // only the status, so that the lease renewed by the heartbeat is not overwritten
+            Update update = new Update().set("status", newStatus);
+            if (statusCode.equals(StatusCode.QUEUED)) {
+                // e.g. a clean shutdown, so another instance can claim it
+                update.unset("owner").unset("leaseExpires");
+                release(item);
+            }
+            long matched = mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(item.id).and("owner").is(instanceId)),
+                    update, QueueItem.class).getMatchedCount();
+
+            if (matched == 0) {
+                // requeued after the lease expired, and maybe claimed by another instance. Later updates are ignored
+                logger.warn("lost the lease of queue item " + item.id + ", status not updated: " + statusCode);
+                item.setStatus(Status.builder().id(item.id).statusCode(StatusCode.CANCELLED).message("lease lost").lastUpdated(newStatus.lastUpdated).build());
+                release(item);
+                if (statusCode.equals(StatusCode.RUNNING)) {
+                    throw new IllegalStateException("Lost the lease of queue item " + item.id);
+                }
+                return item.getStatus();
+            }
 
             return newStatus;
         }
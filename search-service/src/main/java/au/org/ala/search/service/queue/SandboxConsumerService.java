@@ -60,8 +60,8 @@ public class SandboxConsumerService extends ConsumerService {
     @Value("${solr.collection}")
     public String solrCollection;
 
-    public SandboxConsumerService(LogService logService, QueueService queueService, JavaMailSender emailSender, DownloadFileStoreService downloadFileStoreService) {
-        super(logService, queueService, emailSender, downloadFileStoreService);
+    public SandboxConsumerService(LogService logService, QueueService queueService, JavaMailSender emailSender, DownloadFileStoreService downloadFileStoreService, ConsumerLimits consumerLimits) {
+        super(logService, queueService, emailSender, downloadFileStoreService, consumerLimits);
     }
 
     @PostConstruct
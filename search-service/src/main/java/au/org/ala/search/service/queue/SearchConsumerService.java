@@ -7,6 +7,7 @@
 package au.org.ala.search.service.queue;
 
 import au.org.ala.search.model.TaskType;
+import au.org.ala.search.model.dto.DownloadPlan;
 import au.org.ala.search.model.queue.QueueItem;
 import au.org.ala.search.model.queue.SearchQueueRequest;
 import au.org.ala.search.model.queue.StatusCode;
@@ -20,10 +21,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StreamUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.Arrays;
 import java.util.zip.ZipEntry;
@@ -39,8 +38,8 @@ public class SearchConsumerService extends ConsumerService {
     @Value("${search.consumer.threads}")
     public Integer searchConsumerThreads;
 
-    public SearchConsumerService(LogService logService, QueueService queueService, JavaMailSender emailSender, DownloadFileStoreService downloadFileStoreService, ElasticService elasticService) {
-        super(logService, queueService, emailSender, downloadFileStoreService);
+    public SearchConsumerService(LogService logService, QueueService queueService, JavaMailSender emailSender, DownloadFileStoreService downloadFileStoreService, ConsumerLimits consumerLimits, ElasticService elasticService) {
+        super(logService, queueService, emailSender, downloadFileStoreService, consumerLimits);
         this.elasticService = elasticService;
     }
 
@@ -50,7 +49,7 @@ public class SearchConsumerService extends ConsumerService {
         super.init(searchConsumerThreads);
     }
 
-    void processItem(QueueItem item) {
+    void processItem(QueueItem item) throws InterruptedException {
         SearchQueueRequest request = (SearchQueueRequest) item.queueRequest;
 
         String q = request.q[0];
@@ -69,31 +68,42 @@ public class SearchConsumerService extends ConsumerService {
                 file = new File(downloadFileStoreService.getFilePath(item));
             }
 
-            File tmpFile = null;
-
             try (FileOutputStream fos = new FileOutputStream(file)) {
                 ZipOutputStream zos = new ZipOutputStream(fos);
 
                 ZipEntry ze = new ZipEntry(csvFilename);
                 zos.putNextEntry(ze);
 
-                tmpFile = elasticService.download(q, fqs, StringUtils.join(request.getFl(), ","), false);
-                StreamUtils.copy(new FileInputStream(tmpFile), zos);
+                // stream the CSV directly into the zip entry
+                ConsumerLimits.Limit elasticsearch = consumerLimits.get(ConsumerLimits.ELASTICSEARCH);
+                elasticsearch.acquire();
+                try {
+                    DownloadPlan plan = elasticService.prepareDownload(q, fqs, StringUtils.join(request.getFl(), ","), false);
+                    elasticService.writeDownload(plan, zos);
+                } finally {
+                    elasticsearch.release();
+                }
 
                 zos.closeEntry();
                 zos.close();
+            } catch (InterruptedException e) {
+                throw e;
             } catch (Exception e) {
                 logger.error("search download: " + item.id, e);
                 queueService.updateStatus(item, StatusCode.ERROR, e.getMessage());
-            } finally {
-                if (tmpFile != null) {
-                    tmpFile.delete();
-                }
             }
 
             if (downloadFileStoreService.isS3()) {
-                downloadFileStoreService.copyToFileStore(file, item, true);
+                ConsumerLimits.Limit upload = consumerLimits.get(ConsumerLimits.UPLOAD);
+                upload.acquire();
+                try {
+                    downloadFileStoreService.copyToFileStore(file, item, true);
+                } finally {
+                    upload.release();
+                }
             }
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("search download: " + item.id, e);
             queueService.updateStatus(item, StatusCode.ERROR, e.getMessage());
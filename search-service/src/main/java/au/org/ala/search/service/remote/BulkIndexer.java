@@ -0,0 +1,286 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.remote;
+
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.util.SearchItemIndexFields;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.RestStatusException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Sends bulk index and update requests for all callers of ElasticService.
+ * <p>
+ * A list of queries is split into bulk requests of at most maxItems queries and maxBytes estimated bytes. The number
+ * of bulk requests in flight, across all callers, is limited. The limit grows by one while requests complete within
+ * targetLatencyMs, shrinks by one when they are slower, and halves when elasticsearch rejects a request (HTTP 429).
+ * <p>
+ * Only the failed queries of a request are retried, with exponential backoff, when the failure is a rejection, a
+ * server error or a failure of the whole request. Queries that fail for other reasons, e.g. a mapping error, or are
+ * still failing after maxRetries are logged and counted as failed.
+ * <p>
+ * Failures are reported by document id, so a bulk request never holds two queries with the same id and each failure
+ * is matched to the position of its query. A failure that matches no query, e.g. of a query without an id where
+ * elasticsearch generated the id, is counted as failed and not retried.
+ */
+public class BulkIndexer {
+    private static final Logger logger = LoggerFactory.getLogger(BulkIndexer.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final int maxItems;
+    private final long maxBytes;
+    private final int maxConcurrency;
+    private final long targetLatencyMs;
+    private final int maxRetries;
+    private final long backoffMs;
+
+    // in flight limit, guarded by this
+    private int limit = 1;
+    private int inFlight;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public BulkIndexer(ElasticsearchOperations elasticsearchOperations, int maxItems, long maxBytes, int maxConcurrency,
+                       long targetLatencyMs, int maxRetries, long backoffMs) {
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.maxItems = Math.max(1, maxItems);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.targetLatencyMs = targetLatencyMs;
+        this.maxRetries = maxRetries;
+        this.backoffMs = backoffMs;
+    }
+
+    /**
+     * @return the number of queries indexed
+     */
+    public int index(List<IndexQuery> queries) {
+        return index(queries, null);
+    }
+
+    /**
+     * @param index the index to write to, or null for the SearchItemIndex index
+     * @return the number of queries indexed
+     */
+    public int index(List<IndexQuery> queries, IndexCoordinates index) {
+        return bulk(queries, IndexQuery::getId, BulkIndexer::estimateSize, index == null
+                ? batch -> elasticsearchOperations.bulkIndex(batch, SearchItemIndex.class)
+                : batch -> elasticsearchOperations.bulkIndex(batch, index));
+    }
+
+    /**
+     * @return the number of queries updated
+     */
+    public int update(List<UpdateQuery> queries) {
+        return bulk(queries, UpdateQuery::getId, BulkIndexer::estimateSize,
+                batch -> elasticsearchOperations.bulkUpdate(batch, SearchItemIndex.class));
+    }
+
+    private <T> int bulk(List<T> queries, Function<T, String> id, ToLongFunction<T> size, Consumer<List<T>> send) {
+        int count = 0;
+        List<T> batch = new ArrayList<>();
+        Set<String> batchIds = new HashSet<>();
+        long batchBytes = 0;
+        for (T query : queries) {
+            long querySize = size.applyAsLong(query);
+            String queryId = id.apply(query);
+            if (!batch.isEmpty() && (batch.size() >= maxItems || batchBytes + querySize > maxBytes
+                    || (queryId != null && batchIds.contains(queryId)))) {
+                count += send(batch, batchBytes, id, send);
+                batch = new ArrayList<>();
+                batchIds.clear();
+                batchBytes = 0;
+            }
+            batch.add(query);
+            if (queryId != null) {
+                batchIds.add(queryId);
+            }
+            batchBytes += querySize;
+        }
+        if (!batch.isEmpty()) {
+            count += send(batch, batchBytes, id, send);
+        }
+        return count;
+    }
+
+    private <T> int send(List<T> batch, long batchBytes, Function<T, String> id, Consumer<List<T>> send) {
+        List<T> pending = batch;
+        int lost = 0;
+        for (int attempt = 0; ; attempt++) {
+            // position of each query id in the request
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < pending.size(); i++) {
+                String queryId = id.apply(pending.get(i));
+                if (queryId != null) {
+                    positions.put(queryId, i);
+                }
+            }
+
+            boolean[] retry = new boolean[pending.size()];
+            boolean tooManyRequests = false;
+            boolean retryAll = false;
+
+            acquire();
+            long start = System.nanoTime();
+            try {
+                send.accept(pending);
+            } catch (BulkFailureException e) {
+                for (Map.Entry<String, BulkFailureException.FailureDetails> entry : e.getFailedDocuments().entrySet()) {
+                    Integer status = entry.getValue().status();
+                    Integer position = positions.get(entry.getKey());
+                    if (position == null) {
+                        lost++;
+                        logger.error("bulk failed for " + entry.getKey() + ", which matches no query: "
+                                + entry.getValue().errorMessage());
+                    } else if (status == null || status == TOO_MANY_REQUESTS || status >= 500) {
+                        tooManyRequests |= status != null && status == TOO_MANY_REQUESTS;
+                        retry[position] = true;
+                    } else {
+                        lost++;
+                        logger.error("bulk failed for " + entry.getKey() + ": " + entry.getValue().errorMessage());
+                    }
+                }
+            } catch (Exception e) {
+                tooManyRequests = isTooManyRequests(e);
+                retryAll = true;
+                logger.warn("bulk request of " + pending.size() + " failed: " + e.getMessage());
+            } finally {
+                long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                release(latencyMs, tooManyRequests);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("bulk of " + pending.size() + " items, " + batchBytes + " bytes took " + latencyMs
+                            + "ms (" + (pending.size() * 1000L / Math.max(1, latencyMs)) + " items/s)");
+                }
+            }
+
+            if (tooManyRequests) {
+                rejected.incrementAndGet();
+            }
+
+            List<T> next = pending;
+            if (!retryAll) {
+                next = new ArrayList<>();
+                for (int i = 0; i < retry.length; i++) {
+                    if (retry[i]) {
+                        next.add(pending.get(i));
+                    }
+                }
+            }
+            if (next.isEmpty()) {
+                break;
+            }
+
+            if (attempt >= maxRetries) {
+                lost += next.size();
+                logger.error("bulk failed for " + next.size() + " items after " + maxRetries + " retries");
+                break;
+            }
+
+            retried.addAndGet(next.size());
+            try {
+                // exponential backoff with jitter
+                long backoff = backoffMs << Math.min(attempt, 16);
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lost += next.size();
+                break;
+            }
+            pending = next;
+        }
+
+        int indexed = batch.size() - lost;
+        items.addAndGet(indexed);
+        bytes.addAndGet(batchBytes);
+        failed.addAndGet(lost);
+        if (batches.incrementAndGet() % 100 == 0) {
+            logger.info("bulk progress: " + this);
+        }
+
+        return indexed;
+    }
+
+    private synchronized void acquire() {
+        while (inFlight >= limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // send anyway, the caller is responsible for the interrupt
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        inFlight++;
+    }
+
+    private synchronized void release(long latencyMs, boolean tooManyRequests) {
+        inFlight--;
+        if (tooManyRequests) {
+            limit = Math.max(1, limit / 2);
+        } else if (latencyMs > targetLatencyMs) {
+            limit = Math.max(1, limit - 1);
+        } else if (limit < maxConcurrency && inFlight + 1 >= limit) {
+            // only grow when the limit is in use
+            limit++;
+        }
+        notifyAll();
+    }
+
+    private static boolean isTooManyRequests(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ElasticsearchException ee && ee.status() == TOO_MANY_REQUESTS) {
+                return true;
+            }
+            if (cause instanceof RestStatusException rse && rse.getStatus() == TOO_MANY_REQUESTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long estimateSize(IndexQuery query) {
+        if (query.getObject() instanceof SearchItemIndex item) {
+            return SearchItemIndexFields.estimateSize(item);
+        } else if (query.getSource() != null) {
+            return query.getSource().length();
+        }
+        return 1024;
+    }
+
+    private static long estimateSize(UpdateQuery query) {
+        return query.getDocument() != null ? SearchItemIndexFields.estimateJsonSize(query.getDocument()) : 1024;
+    }
+
+    @Override
+    public String toString() {
+        synchronized (this) {
+            return "batches=" + batches.get() + ", items=" + items.get() + ", bytes=" + bytes.get()
+                    + ", retried=" + retried.get() + ", rejected=" + rejected.get() + ", failed=" + failed.get()
+                    + ", limit=" + limit;
+        }
+    }
+}
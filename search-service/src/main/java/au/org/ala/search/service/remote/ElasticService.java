@@ -12,16 +12,21 @@ import au.org.ala.search.model.IndexDocType;
 import au.org.ala.search.model.SearchItemIndex;
 import au.org.ala.search.model.dto.*;
 import au.org.ala.search.model.query.Op;
-import au.org.ala.search.model.query.Term;
 import au.org.ala.search.names.VernacularType;
 import au.org.ala.search.service.LegacyService;
+import au.org.ala.search.service.cache.FieldCatalog;
+import au.org.ala.search.service.cache.QueryPlanCache;
+import au.org.ala.search.service.cache.TaxonCache;
+import au.org.ala.search.util.FieldProjection;
 import au.org.ala.search.util.QueryParserUtil;
 import au.org.ala.search.util.Weight;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.FieldValue;
 import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SlicedScroll;
 import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
 import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
 import co.elastic.clients.elasticsearch._types.aggregations.AggregationBuilders;
 import co.elastic.clients.elasticsearch._types.aggregations.MultiBucketAggregateBase;
@@ -34,16 +39,17 @@ import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.core.search.PointInTimeReference;
 import co.elastic.clients.json.JsonData;
-import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
-import com.opencsv.exceptions.CsvValidationException;
 import jakarta.annotation.PostConstruct;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonString;
 import jakarta.json.JsonValue;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregation;
 import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregations;
@@ -62,27 +68,62 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+// when elastic.rebuild.enabled, IndexRebuildService creates elastic.index as an alias before init creates it as an index
 @Service
+@DependsOn("indexRebuildService")
 public class ElasticService {
     final static int BULK_BATCH_SIZE = 100;
     private static final Logger logger = LoggerFactory.getLogger(ElasticService.class);
     protected final ElasticsearchOperations elasticsearchOperations;
     protected final ElasticsearchClient elasticsearchClient;
+    protected final TaxonCache taxonCache;
+    protected final FieldCatalog fieldCatalog;
+    protected final QueryPlanCache queryPlanCache;
     protected final LegacyService legacyService;
     private final MessageSource messageSource;
 
     final private Integer MAX_RESULTS = 10000;
+    // acceptedConceptID is followed at most this many times
+    private static final int MAX_ACCEPTED_DEPTH = 10;
+    // fields read by getShortProfile
+    private static final FieldProjection SHORT_PROFILE_FIELDS = FieldProjection.of(new String[]{"guid", "scientificName",
+            "scientificNameAuthorship", "rank", "rankID", "rk_kingdom", "rk_family", "commonNameSingle", "image"});
+    // fields read by formatDoc for a TAXON
+    private static final FieldProjection TAXON_DOC_FIELDS = FieldProjection.of(new String[]{"id", "guid",
+            "linkIdentifier", "idxtype", "scientificName", "nomenclaturalCode", "scientificNameAuthorship", "nameComplete",
+            "nameFormatted", "taxonomicStatus", "nomenclaturalStatus", "parentGuid", "rank", "rankID", "rankOrder",
+            "commonName", "commonNameSingle", "occurrenceCount", "favourite", "datasetName", "datasetID",
+            "acceptedConceptID", "acceptedConceptName", "image", "rk_*", "rkid_*"});
     public Map<String, SearchItemIndex> datasetMap;
-    List<IndexedField> indexFieldsList = null;
-    Set<String> validFieldNames = null;
     @Value("${elastic.index}")
     private String elasticIndex;
     @Value("${elastic.pageSize}")
     private Integer elasticPageSize;
+    @Value("${elastic.prefetchPages}")
+    private Integer elasticPrefetchPages;
+    @Value("${elastic.queryItems.slices}")
+    private Integer queryItemsSlices;
+    @Value("${elastic.bulk.maxItems}")
+    private Integer bulkMaxItems;
+    @Value("${elastic.bulk.maxBytes}")
+    private Long bulkMaxBytes;
+    @Value("${elastic.bulk.maxConcurrency}")
+    private Integer bulkMaxConcurrency;
+    @Value("${elastic.bulk.targetLatencyMs}")
+    private Long bulkTargetLatencyMs;
+    @Value("${elastic.bulk.maxRetries}")
+    private Integer bulkMaxRetries;
+    @Value("${elastic.bulk.backoffMs}")
+    private Long bulkBackoffMs;
     @Value("${priority.norm}")
     private Double priorityNorm;
     @Value("${priority.min}")
@@ -110,14 +151,19 @@ public class ElasticService {
     @Value("${defaultDownloadFields}")
     private String defaultDownloadFields;
     private Integer vernacularNameCommonPriority;
+    private BulkIndexer bulkIndexer;
 
     @Value("${downloadMaxRows}")
     private Integer downloadMaxRows;
 
     public ElasticService(
-            ElasticsearchOperations elasticsearchOperations, ElasticsearchClient elasticsearchClient, LegacyService legacyService, MessageSource messageSource) {
+            ElasticsearchOperations elasticsearchOperations, ElasticsearchClient elasticsearchClient, LegacyService legacyService, MessageSource messageSource,
+            TaxonCache taxonCache, FieldCatalog fieldCatalog, QueryPlanCache queryPlanCache) {
         this.elasticsearchOperations = elasticsearchOperations;
         this.elasticsearchClient = elasticsearchClient;
+        this.taxonCache = taxonCache;
+        this.fieldCatalog = fieldCatalog;
+        this.queryPlanCache = queryPlanCache;
         this.legacyService = legacyService;
         this.messageSource = messageSource;
     }
@@ -131,7 +177,11 @@ public class ElasticService {
             logger.error("config vernacularNameCommon=" + vernacularNameCommon + " is invalid");
         }
 
-        // @Document(createIndex=true) is not working as expected when >1 @Document, so create explicitly if !exist
+        bulkIndexer = new BulkIndexer(elasticsearchOperations, bulkMaxItems, bulkMaxBytes, bulkMaxConcurrency,
+                bulkTargetLatencyMs, bulkMaxRetries, bulkBackoffMs);
+
+        // @Document(createIndex=true) is not working as expected when >1 @Document, so create explicitly if !exist.
+        // When elastic.rebuild.enabled the IndexRebuildService has already created elastic.index as an alias
         IndexOperations indexOperations = elasticsearchOperations.indexOps(AdminIndex.class);
         if (!indexOperations.exists()) {
             indexOperations.createWithMapping();
@@ -153,7 +203,7 @@ public class ElasticService {
             currentPage = queryItems(field + ":\"" + value + "\"", "id", new String[]{"modified"}, -1);
         }
 
-        Map<String, Date> result = new HashMap<>();
+        Map<String, Date> result = new HashMap<>(currentPage.size() * 2);
         for (Map.Entry<String, String[]> entry : currentPage.entrySet()) {
             result.put(entry.getKey(), new Date(Long.parseLong(entry.getValue()[0])));
         }
@@ -161,14 +211,20 @@ public class ElasticService {
         return result;
     }
 
-    public Map<String, String[]> queryItems(String queryString, String keyField, String[] otherFields, int max) {
+    /**
+     * Snapshot the existing items for an import, read from elastic.queryItems.slices point in time slices in
+     * parallel.
+     * <p>
+     * Multiple values of a field are comma delimited. Equal values, e.g. a datasetID or modified date repeated across
+     * the items, are the same String instance, so a large snapshot only holds each distinct value once.
+     *
+     * @param pageSize the page size, or -1 for elastic.pageSize
+     * @return values of otherFields by keyField value, or an empty map when the query fails
+     */
+    public Map<String, String[]> queryItems(String queryString, String keyField, String[] otherFields, int pageSize) {
         Map<String, String[]> currentPage = new HashMap<>();
-        String pit = null;
         try {
-            pit = openPointInTime();
-
-            Op op = QueryParserUtil.parse(queryString, null, this::isValidField);
-            co.elastic.clients.elasticsearch._types.query_dsl.Query queryOp = opToQuery(op);
+            co.elastic.clients.elasticsearch._types.query_dsl.Query queryOp = queryPlanCache.get(queryString, null).query;
 
             List<FieldAndFormat> fieldList = null;
             if (otherFields != null) {
@@ -193,58 +249,79 @@ public class ElasticService {
                 }
             }
 
-            List<FieldValue> searchAfter = null;
-            int pageSize = max == -1 ? elasticPageSize : max;
-
-            boolean hasMore = true;
-            while (hasMore) {
-                SearchResponse<SearchItemIndex> result =
-                        queryPointInTimeAfter(
-                                pit, searchAfter, pageSize, queryOp, fieldList, null, false);
-                List<Hit<SearchItemIndex>> hits = result.hits().hits();
-                searchAfter = hits.isEmpty() ? null : hits.getLast().sort();
-
-                for (Hit<SearchItemIndex> hit : hits) {
-                    JsonData keyJsonData = hit.fields().get(keyField);
-                    String keyValue = keyJsonData.toJson().asJsonArray().getJsonString(0).getString();
-
-                    String[] values = new String[otherFields.length];
-                    for (int i = 0; i < otherFields.length; i++) {
-                        JsonData jsonData = hit.fields().get(otherFields[i]);
-                        if (jsonData != null) {
-                            values[i] = "";
-                            for (int j = 0; j < jsonData.toJson().asJsonArray().size(); j++) {
-                                if (!values[i].isEmpty()) values[i] += ",";
-                                if (jsonData.toJson().asJsonArray().get(j).getValueType().equals(JsonValue.ValueType.STRING)) {
-                                    values[i] += jsonData.toJson().asJsonArray().getString(j);
-                                } else {
-                                    values[i] += String.valueOf(jsonData.toJson().asJsonArray().get(j));
-                                }
-                            }
-                        } else {
-
-                            values[i] = null;
-                        }
-                    }
-
-                    currentPage.put(keyValue, values);
+            List<PointInTimeCursor> cursors = openCursors(queryOp, fieldList, pageSize == -1 ? elasticPageSize : pageSize, queryItemsSlices);
+            List<Future<Map<String, String[]>>> futures = new ArrayList<>(cursors.size());
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (PointInTimeCursor cursor : cursors) {
+                    futures.add(executor.submit(() -> queryItemsSlice(cursor, keyField, otherFields)));
                 }
+            } finally {
+                cursors.forEach(PointInTimeCursor::close);
+            }
 
-                hasMore = hits.size() == pageSize;
+            List<Map<String, String[]>> slices = new ArrayList<>(futures.size());
+            int size = 0;
+            for (Future<Map<String, String[]>> future : futures) {
+                Map<String, String[]> slice = future.get();
+                slices.add(slice);
+                size += slice.size();
+            }
+
+            currentPage = new HashMap<>(size * 4 / 3 + 1);
+            for (Map<String, String[]> slice : slices) {
+                currentPage.putAll(slice);
             }
         } catch (Exception e) {
             logger.warn("Failed to page through elasticsearch (e.g. query field may not yet exist: " + queryString + ")", e.getMessage());
-        } finally {
-            try {
-                if (pit != null) {
-                    closePointInTime(pit);
+        }
+
+        return currentPage;
+    }
+
+    private Map<String, String[]> queryItemsSlice(PointInTimeCursor cursor, String keyField, String[] otherFields) {
+        Map<String, String[]> items = new HashMap<>();
+        // one instance of each distinct value
+        Map<String, String> dictionary = new HashMap<>();
+
+        for (List<Hit<SearchItemIndex>> hits : cursor) {
+            for (Hit<SearchItemIndex> hit : hits) {
+                Map<String, JsonData> fields = hit.fields();
+                String keyValue = fields.get(keyField).toJson().asJsonArray().getString(0);
+
+                String[] values = new String[otherFields.length];
+                for (int i = 0; i < otherFields.length; i++) {
+                    JsonData jsonData = fields.get(otherFields[i]);
+                    if (jsonData != null) {
+                        String value = otherFields[i].equals(keyField) ? keyValue : jsonToString(jsonData.toJson().asJsonArray());
+                        values[i] = dictionary.computeIfAbsent(value, Function.identity());
+                    }
                 }
-            } catch (Exception e) {
-                logger.error("Failed to close point in time", e);
+
+                items.put(keyValue, values);
             }
         }
 
-        return currentPage;
+        return items;
+    }
+
+    // comma delimited values
+    private static String jsonToString(JsonArray array) {
+        if (array.size() == 1) {
+            return jsonToString(array.get(0));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (JsonValue value : array) {
+            if (!sb.isEmpty()) {
+                sb.append(',');
+            }
+            sb.append(jsonToString(value));
+        }
+        return sb.toString();
+    }
+
+    private static String jsonToString(JsonValue value) {
+        return value.getValueType() == JsonValue.ValueType.STRING ? ((JsonString) value).getString() : value.toString();
     }
 
     public SearchItemIndex getDocument(String id) {
@@ -269,6 +346,32 @@ public class ElasticService {
         return result.map(SearchHit::getContent).orElse(null);
     }
 
+    /**
+     * Batched getDocumentMap.
+     *
+     * @return documents by id, without the ids that are not found
+     */
+    public Map<String, Map> getDocumentMaps(Collection<String> ids) {
+        Map<String, Map> documents = new HashMap<>();
+
+        List<String> distinct = ids.stream().filter(StringUtils::isNotEmpty).distinct().toList();
+        for (int i = 0; i < distinct.size(); i += BULK_BATCH_SIZE) {
+            List<FieldValue> batch = distinct.subList(i, Math.min(i + BULK_BATCH_SIZE, distinct.size())).stream().map(FieldValue::of).toList();
+
+            Query query = NativeQuery.builder()
+                    .withQuery(q -> q.terms(t -> t.field("id").terms(ts -> ts.value(batch))))
+                    .withMaxResults(batch.size())
+                    .withTrackScores(false)
+                    .build();
+
+            for (SearchHit<Map> hit : elasticsearchOperations.search(query, Map.class, IndexCoordinates.of(elasticIndex))) {
+                documents.put((String) hit.getContent().get("id"), hit.getContent());
+            }
+        }
+
+        return documents;
+    }
+
     // This retrieves the document id for the guid. It will be idxtype TAXON and not have an acceptedConceptID.
     public String queryTaxonId(String guid) {
         Query query = NativeQuery.builder()
@@ -313,19 +416,30 @@ public class ElasticService {
     public void flush(List<IndexQuery> buffer) {
         if (!buffer.isEmpty()) {
             try {
-                elasticsearchOperations.bulkIndex(buffer, SearchItemIndex.class);
+                bulkIndexer.index(buffer);
             } catch (Exception e) {
                 logger.error("failed: " + e.getMessage(), e);
             }
         }
     }
 
+    /**
+     * @return the number of items indexed. Items that failed after retries are logged and not counted.
+     */
     public int flushImmediately(List<IndexQuery> buffer) {
-        int count = buffer.size();
+        return flushImmediately(buffer, null);
+    }
+
+    /**
+     * @param index the index to write to, e.g. an index being rebuilt, or null for elastic.index
+     * @return the number of items indexed. Items that failed after retries are logged and not counted.
+     */
+    public int flushImmediately(List<IndexQuery> buffer, IndexCoordinates index) {
+        int count = 0;
 
         if (!buffer.isEmpty()) {
             // this does inserts and updates
-            elasticsearchOperations.bulkIndex(buffer, SearchItemIndex.class);
+            count = bulkIndexer.index(buffer, index);
 
             buffer.clear();
         }
@@ -340,18 +454,29 @@ public class ElasticService {
     public void update(List<UpdateQuery> buffer) {
         if (!buffer.isEmpty()) {
             try {
-                elasticsearchOperations.bulkUpdate(buffer, SearchItemIndex.class);
+                bulkIndexer.update(buffer);
             } catch (Exception e) {
                 logger.error("failed: " + e.getMessage(), e);
             }
         }
     }
 
-    public void updateImmediately(List<UpdateQuery> buffer) {
+    public int updateImmediately(List<UpdateQuery> buffer) {
+        int count = 0;
+
         if (!buffer.isEmpty()) {
             // this does inserts and updates
-            elasticsearchOperations.bulkUpdate(buffer, SearchItemIndex.class);
+            count = bulkIndexer.update(buffer);
         }
+
+        return count;
+    }
+
+    /**
+     * @return bulk request counts, for logging
+     */
+    public String bulkStatus() {
+        return bulkIndexer.toString();
     }
 
     public long removeDeletedItems(Map<String, Date> existingItems) {
@@ -432,6 +557,29 @@ public class ElasticService {
         elasticsearchClient.closePointInTime(request);
     }
 
+    /**
+     * Open a new point in time and page through all results for the query. The next pages are fetched in the
+     * background while the current page is processed. The cursor must be closed.
+     */
+    public PointInTimeCursor openCursor(
+            co.elastic.clients.elasticsearch._types.query_dsl.Query opQuery,
+            List<FieldAndFormat> fieldList,
+            int pageSize) throws IOException {
+        return openCursors(opQuery, fieldList, pageSize, 1).getFirst();
+    }
+
+    /**
+     * Open one point in time and split it into disjoint slices, one cursor per slice, so that the results can be read
+     * in parallel. The point in time is released when all cursors are finished or closed.
+     */
+    public List<PointInTimeCursor> openCursors(
+            co.elastic.clients.elasticsearch._types.query_dsl.Query opQuery,
+            List<FieldAndFormat> fieldList,
+            int pageSize,
+            int slices) throws IOException {
+        return PointInTimeCursor.open(this, opQuery, fieldList, pageSize, elasticPrefetchPages, slices);
+    }
+
     public SearchResponse<SearchItemIndex> queryPointInTimeAfter(
             String pit,
             List<FieldValue> searchAfter,
@@ -441,6 +589,19 @@ public class ElasticService {
             List<SortOptions> sortOptions,
             Boolean trackTotalHits)
             throws IOException {
+        return queryPointInTimeAfter(pit, searchAfter, pageSize, opQuery, fieldList, sortOptions, trackTotalHits, null);
+    }
+
+    public SearchResponse<SearchItemIndex> queryPointInTimeAfter(
+            String pit,
+            List<FieldValue> searchAfter,
+            Integer pageSize,
+            co.elastic.clients.elasticsearch._types.query_dsl.Query opQuery,
+            List<FieldAndFormat> fieldList,
+            List<SortOptions> sortOptions,
+            Boolean trackTotalHits,
+            SlicedScroll slice)
+            throws IOException {
 
         SearchRequest.Builder searchRequest = new SearchRequest.Builder()
                 .size(pageSize)
@@ -458,6 +619,9 @@ public class ElasticService {
         if (pit != null) {
             searchRequest.sort(s -> s.field(fs -> fs.field("_shard_doc").order(SortOrder.Asc)));
             searchRequest.pit(new PointInTimeReference.Builder().id(pit).keepAlive(t -> t.time("60m")).build());
+            if (slice != null) {
+                searchRequest.slice(slice);
+            }
         } else if (sortOptions != null) {
             searchRequest.sort(sortOptions);
         } else {
@@ -471,51 +635,19 @@ public class ElasticService {
         return elasticsearchClient.search(searchRequest.build(), SearchItemIndex.class);
     }
 
+    /**
+     * @param forceUpdate read the mapping again, e.g. after an import that may add dynamic fields
+     */
     public List<IndexedField> indexFields(boolean forceUpdate) {
-        if (indexFieldsList == null || forceUpdate) {
-            List<IndexedField> result = new ArrayList<>(250);
-
-            Map<String, Object> properties = (Map<String, Object>) elasticsearchOperations.indexOps(SearchItemIndex.class).getMapping().get("properties");
-
-            for (Map.Entry<String, Object> item : properties.entrySet()) {
-                result.addAll(propertyToIndexedFields(item));
-            }
-
-            indexFieldsList = result;
-            validFieldNames = result.stream().map(IndexedField::getName).collect(Collectors.toSet());
-        }
-
-        return indexFieldsList;
+        return forceUpdate ? fieldCatalog.refresh() : fieldCatalog.fields();
     }
 
     public Set<String> validFields(boolean forceUpdate) {
-        if (indexFieldsList == null || forceUpdate) {
-            indexFields(true);
+        if (forceUpdate) {
+            fieldCatalog.refresh();
         }
 
-        return validFieldNames;
-    }
-
-    private Collection<IndexedField> propertyToIndexedFields(Map.Entry<String, Object> item) {
-        Map<String, Object> attr = (Map<String, Object>) item.getValue();
-
-        String type = (String) attr.get("type");
-        String dataType = switch (type) {
-            case "keyword", "text" -> "string";
-            case "boolean" -> "boolean";
-            case "integer" -> "int";
-            case "long" -> "long";
-            case "double" -> "double";
-            case "float" -> "float";
-            case "object" -> "object";
-            case "nested" -> "nested";
-            case "binary" -> "binary";
-            default -> "other";
-        };
-
-        boolean indexed = !"text".equals(type) && !"nested".equals(type) && !"binary".equals(type) && !"other".equals(type);
-
-        return Collections.singleton(new IndexedField(item.getKey(), dataType, indexed, true, null));
+        return fieldCatalog.names();
     }
 
     public List<Classification> getClassification(SearchItemIndex taxon) {
@@ -549,6 +681,19 @@ public class ElasticService {
     }
 
     public SearchItemIndex getTaxon(String q, boolean follow, boolean nameFallback) {
+        return getTaxon(q, follow, nameFallback, null);
+    }
+
+    /**
+     * @param projection the fields to fetch, or null for all fields
+     */
+    public SearchItemIndex getTaxon(String q, boolean follow, boolean nameFallback, FieldProjection projection) {
+        String id = cleanupId(q);
+        return taxonCache.getTaxon("taxon:" + follow + ":" + nameFallback + ":" + projection + ":" + id,
+                () -> searchTaxon(id, follow, nameFallback, projection != null ? projection.require("acceptedConceptID") : null));
+    }
+
+    private SearchItemIndex searchTaxon(String q, boolean follow, boolean nameFallback, FieldProjection projection) {
         NativeQueryBuilder query =
                 NativeQuery.builder().withQuery(wq -> wq.bool(bq -> {
                     bq.filter(f -> f.term(t -> t.field("idxtype").value("TAXON")));
@@ -559,20 +704,25 @@ public class ElasticService {
                     }));
                     return bq;
                 })).withMaxResults(1);
+        if (projection != null) {
+            query.withSourceFilter(projection.sourceFilter());
+        }
 
         SearchHits<SearchItemIndex> result = elasticsearchOperations.search(query.build(), SearchItemIndex.class);
         if (result.getTotalHits() > 0) {
             // return accepted
             SearchItemIndex item = result.getSearchHits().getFirst().getContent();
             if (follow && StringUtils.isNotEmpty(item.getAcceptedConceptID())) {
-                return getTaxon(item.getAcceptedConceptID());
+                return getTaxon(item.getAcceptedConceptID(), true, true, projection);
             } else {
                 return item;
             }
         } else if (nameFallback) {
-            SearchItemIndex item = getTaxonByName(q, true);
+            SearchItemIndex item = projection == null
+                    ? getTaxonByName(q, true)
+                    : getTaxonsByName(q, 1, true, projection).stream().findFirst().orElse(null);
             if (follow && item != null && StringUtils.isNotEmpty(item.acceptedConceptID)) {
-                return getTaxon(item.acceptedConceptID);
+                return getTaxon(item.acceptedConceptID, true, true, projection);
             } else {
                 return item;
             }
@@ -580,19 +730,84 @@ public class ElasticService {
         return null;
     }
 
+    /**
+     * Batched getTaxon(id), for many ids. The ids are looked up by guid and linkIdentifier with a terms query, and
+     * synonyms with a second terms query for their accepted taxa. The few ids that are not resolved, e.g. names,
+     * use getTaxon.
+     *
+     * @return the accepted taxon by id, without the ids that are not found
+     */
+    public Map<String, SearchItemIndex> getTaxaById(Collection<String> ids) {
+        Map<String, SearchItemIndex> taxa = new HashMap<>();
+
+        List<String> distinct = ids.stream().filter(StringUtils::isNotEmpty).distinct().toList();
+        Map<String, SearchItemIndex> found = searchTaxaById(distinct);
+
+        Set<String> accepted = new HashSet<>();
+        for (SearchItemIndex item : found.values()) {
+            if (StringUtils.isNotEmpty(item.acceptedConceptID)) {
+                accepted.add(item.acceptedConceptID);
+            }
+        }
+        Map<String, SearchItemIndex> acceptedFound = searchTaxaById(new ArrayList<>(accepted));
+
+        for (String id : distinct) {
+            SearchItemIndex item = found.get(id);
+            if (item != null && StringUtils.isNotEmpty(item.acceptedConceptID)) {
+                item = acceptedFound.get(item.acceptedConceptID);
+            }
+
+            // not found, or a synonym of a synonym
+            if (item == null || StringUtils.isNotEmpty(item.acceptedConceptID)) {
+                item = getTaxon(id);
+            }
+
+            if (item != null) {
+                taxa.put(id, item);
+            }
+        }
+
+        return taxa;
+    }
+
+    // by guid and linkIdentifier
+    private Map<String, SearchItemIndex> searchTaxaById(List<String> ids) {
+        Map<String, SearchItemIndex> found = new HashMap<>();
+
+        for (int i = 0; i < ids.size(); i += BULK_BATCH_SIZE) {
+            List<FieldValue> batch = ids.subList(i, Math.min(i + BULK_BATCH_SIZE, ids.size())).stream().map(FieldValue::of).toList();
+
+            NativeQuery query = NativeQuery.builder()
+                    .withQuery(wq -> wq.bool(bq -> {
+                        bq.filter(f -> f.term(t -> t.field("idxtype").value("TAXON")));
+                        bq.should(bqq -> bqq.terms(t -> t.field("guid").terms(tq -> tq.value(batch))));
+                        bq.should(bqq -> bqq.terms(t -> t.field("linkIdentifier").terms(tq -> tq.value(batch))));
+                        bq.minimumShouldMatch("1");
+                        return bq;
+                    }))
+                    .withMaxResults(batch.size() * 2)
+                    .withTrackScores(false)
+                    .build();
+
+            for (SearchHit<SearchItemIndex> hit : elasticsearchOperations.search(query, SearchItemIndex.class)) {
+                SearchItemIndex item = hit.getContent();
+                found.put(item.guid, item);
+                if (StringUtils.isNotEmpty(item.linkIdentifier)) {
+                    found.putIfAbsent(item.linkIdentifier, item);
+                }
+            }
+        }
+
+        return found;
+    }
+
     public Map getTaxonMap(String q, boolean follow, boolean nameFallback) {
-        NativeQueryBuilder query =
-                NativeQuery.builder().withQuery(wq -> wq.bool(bq -> {
-                    bq.filter(f -> f.term(t -> t.field("idxtype").value("TAXON")));
-                    bq.must(bqq -> bqq.bool(b -> {
-                        b.should(s -> s.term(t2 -> t2.field("guid").value(q)));
-                        b.should(s -> s.term(t3 -> t3.field("linkIdentifier").caseInsensitive(true).value(q)));
-                        return b;
-                    }));
-                    return bq;
-                })).withMaxResults(1);
+        String id = cleanupId(q);
+        return taxonCache.getTaxonMap("taxonMap:" + follow + ":" + nameFallback + ":" + id, () -> searchTaxonMap(id, follow, nameFallback));
+    }
 
-        SearchHits<Map> result = elasticsearchOperations.search(query.build(), Map.class, IndexCoordinates.of(elasticIndex));
+    private Map searchTaxonMap(String q, boolean follow, boolean nameFallback) {
+        SearchHits<Map> result = elasticsearchOperations.search(taxonMapQuery(q), Map.class, IndexCoordinates.of(elasticIndex));
         if (result.getTotalHits() > 0) {
             // return accepted
             Map item = result.getSearchHits().getFirst().getContent();
@@ -613,24 +828,37 @@ public class ElasticService {
     }
 
     public SearchItemIndex getTaxonByName(String q, boolean searchVernacular) {
-        List<SearchItemIndex> list = getTaxonsByName(q, 1, searchVernacular);
-        if (!list.isEmpty()) {
-            return list.getFirst();
-        } else {
-            return null;
-        }
+        // getTaxonsByName cleans q
+        return taxonCache.getTaxon("name:" + searchVernacular + ":" + cleanupId(q), () -> {
+            List<SearchItemIndex> list = getTaxonsByName(q, 1, searchVernacular);
+            if (!list.isEmpty()) {
+                return list.getFirst();
+            } else {
+                return null;
+            }
+        });
     }
 
     public Map getTaxonByNameMap(String q, boolean searchVernacular) {
-        List<Map> list = getTaxonsByNameMap(q, 1, searchVernacular);
-        if (!list.isEmpty()) {
-            return list.getFirst();
-        } else {
-            return null;
-        }
+        // getTaxonsByNameMap cleans q
+        return taxonCache.getTaxonMap("nameMap:" + searchVernacular + ":" + cleanupId(q), () -> {
+            List<Map> list = getTaxonsByNameMap(q, 1, searchVernacular);
+            if (!list.isEmpty()) {
+                return list.getFirst();
+            } else {
+                return null;
+            }
+        });
     }
 
     public List<SearchItemIndex> getTaxonsByName(String q, int max, boolean searchVernacular) {
+        return getTaxonsByName(q, max, searchVernacular, null);
+    }
+
+    /**
+     * @param projection the fields to fetch, or null for all fields
+     */
+    public List<SearchItemIndex> getTaxonsByName(String q, int max, boolean searchVernacular, FieldProjection projection) {
         final String cleanQ = cleanupId(q);
 
         List<SearchItemIndex> list = new ArrayList<>();
@@ -650,6 +878,9 @@ public class ElasticService {
                 })).functions(fs1 -> fs1.fieldValueFactor(fv -> fv.field("searchWeight")))))
                 .withMaxResults(max) // this is used by the legacy /guid/{name} field, and it has a max of 10
                 .withTrackScores(true);
+        if (projection != null) {
+            query.withSourceFilter(projection.sourceFilter());
+        }
 
         SearchHits<SearchItemIndex> result = elasticsearchOperations.search(query.build(), SearchItemIndex.class);
         if (result.getTotalHits() > 0) {
@@ -661,11 +892,34 @@ public class ElasticService {
     }
 
     public List<Map> getTaxonsByNameMap(String q, int max, boolean searchVernacular) {
-        final String cleanQ = cleanupId(q);
-
         List<Map> list = new ArrayList<>();
 
-        NativeQueryBuilder query = NativeQuery.builder()
+        SearchHits<Map> result = elasticsearchOperations.search(taxonsByNameMapQuery(q, max, searchVernacular), Map.class, IndexCoordinates.of(elasticIndex));
+        if (result.getTotalHits() > 0) {
+            for (SearchHit<Map> hit : result.getSearchHits()) {
+                list.add(hit.getContent());
+            }
+        }
+        return list;
+    }
+
+    private Query taxonMapQuery(String q) {
+        return NativeQuery.builder().withQuery(wq -> wq.bool(bq -> {
+                    bq.filter(f -> f.term(t -> t.field("idxtype").value("TAXON")));
+                    bq.must(bqq -> bqq.bool(b -> {
+                        b.should(s -> s.term(t2 -> t2.field("guid").value(q)));
+                        b.should(s -> s.term(t3 -> t3.field("linkIdentifier").caseInsensitive(true).value(q)));
+                        return b;
+                    }));
+                    return bq;
+                })).withMaxResults(1)
+                .build();
+    }
+
+    private Query taxonsByNameMapQuery(String q, int max, boolean searchVernacular) {
+        final String cleanQ = cleanupId(q);
+
+        return NativeQuery.builder()
                 .withQuery(wq -> wq.functionScore(fs -> fs.query(fsq -> fsq.bool(bq -> {
                     bq.filter(f -> f.term(t -> t.field("idxtype").value("TAXON")));
                     bq.must(bqq -> bqq.bool(b -> {
@@ -679,15 +933,8 @@ public class ElasticService {
                     return bq;
                 })).functions(fs1 -> fs1.fieldValueFactor(fv -> fv.field("searchWeight")))))
                 .withMaxResults(max) // this is used by the legacy /guid/{name} field, and it has a max of 10
-                .withTrackScores(true);
-
-        SearchHits<Map> result = elasticsearchOperations.search(query.build(), Map.class, IndexCoordinates.of(elasticIndex));
-        if (result.getTotalHits() > 0) {
-            for (SearchHit<Map> hit : result.getSearchHits()) {
-                list.add(hit.getContent());
-            }
-        }
-        return list;
+                .withTrackScores(true)
+                .build();
     }
 
     public SearchItemIndex getTaxonByPreviousIdentifier(String q, boolean follow) {
@@ -710,15 +957,7 @@ public class ElasticService {
     }
 
     public Map getTaxonByPreviousIdentifierMap(String q, boolean follow) {
-        NativeQueryBuilder query = NativeQuery.builder()
-                .withQuery(wq -> wq.bool(bq -> {
-                    bq.filter(f -> f.term(t -> t.field("guid").value(q)));
-                    return bq;
-                }))
-                .withMaxResults(1)
-                .withTrackScores(false);
-
-        SearchHits<Map> result = elasticsearchOperations.search(query.build(), Map.class, IndexCoordinates.of(elasticIndex));
+        SearchHits<Map> result = elasticsearchOperations.search(previousIdentifierMapQuery(q), Map.class, IndexCoordinates.of(elasticIndex));
         if (result.getTotalHits() > 0) {
             String taxonGuid = (String) result.getSearchHits().getFirst().getContent().get("taxonGuid");
             if (StringUtils.isNotEmpty(taxonGuid)) {
@@ -814,7 +1053,17 @@ public class ElasticService {
     }
 
     public Map getTaxonVariantByNameMap(String q, boolean follow) {
-        NativeQueryBuilder query = NativeQuery.builder()
+        SearchHits<Map> result = elasticsearchOperations.search(taxonVariantByNameMapQuery(q), Map.class, IndexCoordinates.of(elasticIndex));
+        if (result.getTotalHits() > 0) {
+            // return taxonGuid TAXON
+            return getTaxonMap((String) result.getSearchHits().getFirst().getContent().get("taxonGuid"), follow, false);
+        } else {
+            return null;
+        }
+    }
+
+    private Query taxonVariantByNameMapQuery(String q) {
+        return NativeQuery.builder()
                 .withQuery(wq1 -> wq1.functionScore(fs -> fs.query(wq -> wq.bool(bq -> {
                     bq.filter(f -> f.term(t -> t.field("idxtype").value("TAXONVARIANT")));
                     bq.must(bqq -> bqq.bool(b -> b.should(s -> s.term(t -> t.field("scientificName").value(q).caseInsensitive(true)))
@@ -822,15 +1071,160 @@ public class ElasticService {
                     return bq;
                 })).functions(fn -> fn.fieldValueFactor(fv -> fv.field("searchWeight")))))
                 .withMaxResults(1)
-                .withTrackScores(false);
+                .withTrackScores(false)
+                .build();
+    }
 
-        SearchHits<Map> result = elasticsearchOperations.search(query.build(), Map.class, IndexCoordinates.of(elasticIndex));
-        if (result.getTotalHits() > 0) {
-            // return taxonGuid TAXON
-            return getTaxonMap((String) result.getSearchHits().getFirst().getContent().get("taxonGuid"), follow, false);
-        } else {
-            return null;
+    private Query previousIdentifierMapQuery(String q) {
+        return NativeQuery.builder()
+                .withQuery(wq -> wq.bool(bq -> {
+                    bq.filter(f -> f.term(t -> t.field("guid").value(q)));
+                    return bq;
+                }))
+                .withMaxResults(1)
+                .withTrackScores(false)
+                .build();
+    }
+
+    /**
+     * Find the accepted TAXON of each q, the same as trying getTaxonMap(q, true, true), then
+     * getTaxonVariantByNameMap(q, true), then getTaxonByPreviousIdentifierMap(q, true) for each q.
+     * <p>
+     * Each step is one multi search for all qs that are not yet found, and following acceptedConceptID is done in
+     * further multi searches, so the number of requests does not depend on the number of qs.
+     *
+     * @return the taxa in the order of qs, with null when not found. The same Map is returned for repeated qs.
+     */
+    public List<Map> getTaxonMaps(List<String> qs) {
+        return getTaxonMaps(qs, null);
+    }
+
+    /**
+     * getTaxonMaps that only fetches the projected fields. The taxa also have the acceptedConceptID and taxonGuid
+     * fields, used to resolve them.
+     *
+     * @param projection the fields to fetch, or null for all fields
+     */
+    public List<Map> getTaxonMaps(List<String> qs, FieldProjection projection) {
+        List<String> ids = new ArrayList<>(qs.size());
+        for (String q : qs) {
+            ids.add(cleanupId(q));
+        }
+        return taxonCache.getTaxonMaps("taxonMaps:" + projection + ":", ids, missing -> searchTaxonMaps(missing, projection));
+    }
+
+    private List<Map> searchTaxonMaps(List<String> qs, FieldProjection projection) {
+        SourceFilter sourceFilter = projection != null ? projection.require("acceptedConceptID", "taxonGuid").sourceFilter() : null;
+        String[] pending = qs.toArray(new String[0]);
+        Map[] taxa = resolveTaxonMaps(pending, true, sourceFilter);
+
+        // TAXONVARIANT scientificName or nameComplete, then a previous identifier, and use the taxonGuid of the match
+        List<Function<String, Query>> tiers = List.of(this::taxonVariantByNameMapQuery, this::previousIdentifierMapQuery);
+        for (Function<String, Query> tier : tiers) {
+            Set<String> missing = new LinkedHashSet<>();
+            for (int i = 0; i < taxa.length; i++) {
+                if (taxa[i] == null && qs.get(i) != null) {
+                    missing.add(qs.get(i));
+                }
+            }
+            Map<String, Map> found = multiSearchFirst(missing, tier, sourceFilter);
+
+            String[] taxonGuids = new String[taxa.length];
+            for (int i = 0; i < taxa.length; i++) {
+                Map item = taxa[i] == null ? found.get(qs.get(i)) : null;
+                taxonGuids[i] = item != null ? (String) item.get("taxonGuid") : null;
+            }
+
+            Map[] resolved = resolveTaxonMaps(taxonGuids, false, sourceFilter);
+            for (int i = 0; i < taxa.length; i++) {
+                if (taxa[i] == null) {
+                    taxa[i] = resolved[i];
+                }
+            }
+        }
+
+        return Arrays.asList(taxa);
+    }
+
+    /**
+     * Batched getTaxonMap(q, true, nameFallback) for each q that is not null.
+     */
+    private Map[] resolveTaxonMaps(String[] qs, boolean nameFallback, SourceFilter sourceFilter) {
+        Map[] taxa = new Map[qs.length];
+        String[] pending = qs.clone();
+        boolean[] fallback = new boolean[qs.length];
+        Arrays.fill(fallback, nameFallback);
+
+        // each pass follows one acceptedConceptID, the limit stops a loop of accepted concepts
+        for (int depth = 0; depth < MAX_ACCEPTED_DEPTH; depth++) {
+            Set<String> ids = new LinkedHashSet<>();
+            for (String q : pending) {
+                if (q != null) {
+                    ids.add(q);
+                }
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            Map<String, Map> byId = multiSearchFirst(ids, this::taxonMapQuery, sourceFilter);
+
+            Set<String> names = new LinkedHashSet<>();
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i] != null && fallback[i] && !byId.containsKey(pending[i])) {
+                    names.add(pending[i]);
+                }
+            }
+            Map<String, Map> byName = multiSearchFirst(names, q -> taxonsByNameMapQuery(q, 1, true), sourceFilter);
+
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i] == null) {
+                    continue;
+                }
+
+                Map item = byId.get(pending[i]);
+                if (item == null && fallback[i]) {
+                    item = byName.get(pending[i]);
+                }
+
+                String accepted = item != null ? (String) item.get("acceptedConceptID") : null;
+                if (StringUtils.isNotEmpty(accepted)) {
+                    // return accepted
+                    pending[i] = accepted;
+                    fallback[i] = true;
+                } else {
+                    taxa[i] = item;
+                    pending[i] = null;
+                }
+            }
         }
+        return taxa;
+    }
+
+    /**
+     * @return the first hit of the query for each q that has a hit
+     */
+    private Map<String, Map> multiSearchFirst(Collection<String> qs, Function<String, Query> query, SourceFilter sourceFilter) {
+        Map<String, Map> found = new HashMap<>();
+        if (qs.isEmpty()) {
+            return found;
+        }
+
+        List<String> keys = new ArrayList<>(qs);
+        List<Query> queries = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Query q = query.apply(key);
+            if (sourceFilter != null) {
+                q.addSourceFilter(sourceFilter);
+            }
+            queries.add(q);
+        }
+        List<SearchHits<Map>> results = elasticsearchOperations.multiSearch(queries, Map.class, IndexCoordinates.of(elasticIndex));
+        for (int i = 0; i < keys.size(); i++) {
+            if (results.get(i).hasSearchHits()) {
+                found.put(keys.get(i), results.get(i).getSearchHits().getFirst().getContent());
+            }
+        }
+        return found;
     }
 
     public List<ChildConcept> getChildConcepts(String taxonID, Integer within, Boolean unranked) {
@@ -925,7 +1319,8 @@ public class ElasticService {
                     }
                     return bq;
                 }))
-                .withPageable(PageRequest.of(start / rows, rows));
+                .withPageable(PageRequest.of(start / rows, rows))
+                .withSourceFilter(TAXON_DOC_FIELDS.sourceFilter());
 
         SearchHits<SearchItemIndex> searchResults = elasticsearchOperations.search(query.build(), SearchItemIndex.class);
 
@@ -943,7 +1338,7 @@ public class ElasticService {
     }
 
     public ShortProfile getShortProfile(String taxonID) {
-        SearchItemIndex item = getTaxon(taxonID);
+        SearchItemIndex item = getTaxon(taxonID, true, true, SHORT_PROFILE_FIELDS);
 
         if (item != null) {
             String thumbnail = null;
@@ -1120,7 +1515,14 @@ public class ElasticService {
         return map;
     }
 
+    /**
+     * @return the id decoded and trimmed, or null when it is null
+     */
     public String cleanupId(String id) {
+        if (id == null) {
+            return null;
+        }
+
         id = id.replaceAll("\\+", " ");
 
         // attempt decode
@@ -1560,7 +1962,13 @@ public class ElasticService {
         return doc;
     }
 
-    public File download(String q, String[] fqs, String fields, boolean legacyFormat) throws Exception {
+    /**
+     * Validate a download request and decide which columns will be output.
+     * <p>
+     * Columns that have no values for the query are dropped. This is decided up front with a single aggregation
+     * request, so that the rows can then be streamed in one pass with writeDownload.
+     */
+    public DownloadPlan prepareDownload(String q, String[] fqs, String fields, boolean legacyFormat) throws Exception {
         if (StringUtils.isEmpty(fields)) {
             // default fields
             fields = defaultDownloadFields;
@@ -1582,7 +1990,12 @@ public class ElasticService {
             }
         }
 
-        String[] fieldsSplit = fields.split(",");
+        // expand field patterns, e.g. rk_*, to the fields in the index
+        List<String> expandedFields = new ArrayList<>();
+        for (String f : fields.split(",")) {
+            expandedFields.addAll(fieldCatalog.expand(f));
+        }
+        String[] fieldsSplit = expandedFields.toArray(new String[0]);
         List<FieldAndFormat> fieldList = new ArrayList<>(fieldsSplit.length);
 
         for (String f : fieldsSplit) {
@@ -1598,124 +2011,100 @@ public class ElasticService {
                 fieldList.add(new FieldAndFormat.Builder().field(f).build());
             }
         }
-        int[] columnCount = new int[fieldList.size()];
-        Arrays.fill(columnCount, 0);
 
         // exclude idxtype IDENTIFIER and TAXONVARIANT
         List<String> allFqs = fqs == null ? new ArrayList() : new ArrayList<>(Arrays.asList(fqs));
         allFqs.add("-idxtype:IDENTIFIER");
         allFqs.add("-idxtype:TAXONVARIANT");
 
-        Op op = QueryParserUtil.parse(q, allFqs.toArray(new String[0]), this::isValidField);
-        if (op == null) {
+        co.elastic.clients.elasticsearch._types.query_dsl.Query query = queryPlanCache.get(q, allFqs.toArray(new String[0])).query;
+        if (query == null) {
             throw new Exception("Invalid query");
         }
 
-        // generate tmpFile, includes empty columns
-        File tmpFile = File.createTempFile("download", "csv");
-        String pit = null;
-        try (CSVWriter writer = new CSVWriter(new FileWriter(tmpFile))) {
-            pit = openPointInTime();
+        int[] columns = nonEmptyColumns(query, fieldsSplit);
 
-            writer.writeNext(Arrays.stream(fieldsSplit).map(it -> {
-                if (!legacyFormat) {
-                    return it;
-                } else {
-                    String formattedField = it;
-                    if (it.startsWith("rk_")) {
-                        formattedField = it.substring(3);
-                    } else if (formattedField.startsWith("rkid_")) {
-                        formattedField = it.substring(5) + "ID";
-                    }
-                    return messageSource.getMessage("download." + formattedField, null, formattedField, Locale.getDefault());
+        String[] header = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String field = fieldsSplit[columns[i]];
+            if (!legacyFormat) {
+                header[i] = field;
+            } else {
+                String formattedField = field;
+                if (field.startsWith("rk_")) {
+                    formattedField = field.substring(3);
+                } else if (formattedField.startsWith("rkid_")) {
+                    formattedField = field.substring(5) + "ID";
                 }
-            }).toArray(String[]::new));
+                header[i] = messageSource.getMessage("download." + formattedField, null, formattedField, Locale.getDefault());
+            }
+        }
 
-            String[] row = new String[fieldsSplit.length];
+        return new DownloadPlan(query, fieldList, fieldsSplit, columns, header);
+    }
 
-            int count = 0;
+    /**
+     * Returns the positions of fields that have at least one value for the query, using one filter aggregation per
+     * field.
+     */
+    private int[] nonEmptyColumns(co.elastic.clients.elasticsearch._types.query_dsl.Query query, String[] fields) throws IOException {
+        Map<String, Aggregation> aggregations = new HashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            String field = fields[i];
+            aggregations.put(String.valueOf(i), Aggregation.of(a -> a.filter(f -> f.exists(e -> e.field(field)))));
+        }
 
-            List<FieldValue> searchAfter = null;
-            boolean hasMore = true;
-            while (hasMore && count < downloadMaxRows) {
-                SearchResponse<SearchItemIndex> result = queryPointInTimeAfter(
-                        pit, searchAfter, elasticPageSize, opToQuery(op), fieldList, null, false);
-                List<Hit<SearchItemIndex>> hits = result.hits().hits();
+        SearchRequest request = new SearchRequest.Builder()
+                .index(elasticIndex)
+                .size(0)
+                .trackTotalHits(t -> t.enabled(false))
+                .query(query)
+                .aggregations(aggregations)
+                .build();
 
-                if (hits.isEmpty()) {
-                    hasMore = false;
-                    continue;
-                }
+        Map<String, Aggregate> result = elasticsearchClient.search(request, Void.class).aggregations();
+
+        return IntStream.range(0, fields.length)
+                .filter(i -> result.get(String.valueOf(i)).filter().docCount() > 0)
+                .toArray();
+    }
+
+    /**
+     * Write the CSV for a download plan to the output stream, one page at a time. The stream is flushed but not
+     * closed.
+     */
+    public void writeDownload(DownloadPlan plan, OutputStream out) throws IOException {
+        CSVWriter writer = new CSVWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+        writer.writeNext(plan.getHeader());
 
-                searchAfter = hits.isEmpty() ? null : hits.getLast().sort();
+        String[] fieldsSplit = plan.getFields();
+        int[] columns = plan.getColumns();
+        String[] row = new String[columns.length];
 
-                for (Hit<SearchItemIndex> item : hits) {
+        int count = 0;
+        try (PointInTimeCursor cursor = openCursor(plan.getQuery(), plan.getFieldList(), elasticPageSize)) {
+            while (count < downloadMaxRows && cursor.hasNext()) {
+                for (Hit<SearchItemIndex> item : cursor.next()) {
                     count++;
                     if (count >= downloadMaxRows) {
                         break;
                     }
 
-                    for (int i = 0; i < fieldsSplit.length; i++) {
-                        String field = fieldsSplit[i];
-                        if (item.fields().get(field) != null) {
-                            String value = item.fields().get(field).toJson().asJsonArray().getJsonString(0).getString();
-                            row[i] = value;
-                            columnCount[i]++;
-                        } else {
-                            row[i] = "";
-                        }
+                    for (int i = 0; i < columns.length; i++) {
+                        JsonData value = item.fields().get(fieldsSplit[columns[i]]);
+                        row[i] = value != null ? value.toJson().asJsonArray().getJsonString(0).getString() : "";
                     }
                     writer.writeNext(row);
                 }
 
-                hasMore = hits.size() == elasticPageSize;
-            }
-
-            writer.flush();
-        } finally {
-            try {
-                if (pit != null) {
-                    closePointInTime(pit);
-                }
-            } catch (Exception e) {
-                logger.error("Error closing point in time", e);
-            }
-        }
-
-        int totalColumns = 0;
-        for (int j : columnCount) {
-            if (j > 0) {
-                totalColumns++;
-            }
-        }
-        int fTotalColumns = totalColumns;
-
-        File tmpFinalFile = File.createTempFile("download", ".csv");
-        try (FileOutputStream out = new FileOutputStream(tmpFinalFile)) {
-            try (CSVWriter writer = new CSVWriter(new OutputStreamWriter(out))) {
-                String[] outputRow = new String[fTotalColumns];
-                try (CSVReader reader = new CSVReader(new FileReader(tmpFile))) {
-                    String[] inputRow;
-                    while ((inputRow = reader.readNext()) != null) {
-                        // map tmpFile to output CSV and skip empty columns
-                        for (int i = 0, pos = 0; i < columnCount.length; i++) {
-                            if (columnCount[i] > 0) {
-                                outputRow[pos++] = inputRow[i];
-                            }
-                        }
-                        writer.writeNext(outputRow);
-                    }
-                } catch (CsvValidationException e) {
-                    // not expected because it is reading a CSV it wrote moments ago
-                    throw new RuntimeException(e);
-                }
+                // send each page to the client as it arrives
                 writer.flush();
             }
-        } finally {
-            tmpFile.delete();
         }
 
-        return tmpFinalFile;
+        // the header, when there are no rows
+        writer.flush();
     }
 
     public SearchHits<SearchItemIndex> search(Op op, int page, int pageSize) {
@@ -1730,77 +2119,7 @@ public class ElasticService {
     }
 
     public co.elastic.clients.elasticsearch._types.query_dsl.Query opToQuery(Op op) {
-        if (op.terms.size() == 1) {
-            // single term
-            return termToQuery(op.terms.get(0), false);
-        } else {
-            // multiple terms
-            return BoolQuery.of(bq -> {
-                for (Term term : op.terms) {
-                    if (op.andOp) {
-                        if (term.negate) {
-                            bq.mustNot(termToQuery(term, true));
-                        } else {
-                            bq.must(termToQuery(term, true));
-                        }
-                    } else {
-                        bq.should(termToQuery(term, false));
-                    }
-                }
-                return bq;
-            })._toQuery();
-        }
-    }
-
-    private co.elastic.clients.elasticsearch._types.query_dsl.Query termToQuery(Term term, boolean negated) {
-        if (!negated && term.negate) {
-            return BoolQuery.of(bq -> {
-                bq.mustNot(termToQuery(term, true));
-                return bq;
-            })._toQuery();
-        } else {
-            if (term.op != null) {
-                return opToQuery(term.op);
-            } else if (term.field == null) {
-                // dismax? attempting to match
-                return DisMaxQuery.of(dmq -> dmq.queries(
-                        TermQuery.of(tq -> tq.field("exact_text").value(term.value))._toQuery(),
-                        MatchQuery.of(mq -> {
-                            // default search field for free text search
-                            mq.field("all");
-                            mq.query(term.value);
-                            return mq;
-                        })._toQuery(),
-                        MatchQuery.of(mq -> {
-                            // default search field for free text search
-                            mq.field("description");
-                            mq.query(term.value);
-                            mq.boost(0.2f);
-                            return mq;
-                        })._toQuery()
-                ).tieBreaker(0.0))._toQuery();
-            } else if ("*".equals(term.value)) {
-                return ExistsQuery.of(eq -> eq.field(term.field))._toQuery();
-            } else {
-                if (isKeywordField(term.field)) {
-                    return TermQuery.of(tq -> tq.field(term.field).value(term.value))._toQuery();
-                } else {
-                    return MatchPhraseQuery.of(m -> m.field(term.field).query(term.value))._toQuery();
-                }
-            }
-        }
-    }
-
-    // TODO: document this somewhere so that when a change is made to mappings.json this is also updated, or maybe it
-    //  loads mappings.json and uses that to determine if it is a keyword field.
-    private boolean isKeywordField(String field) {
-        boolean textField = "commonName".equals(field) || "description".equals(field);
-        if (textField) {
-            return false;
-        }
-
-        boolean keywordDataField = field.startsWith("conservation_") || field.startsWith("rk");
-        return !keywordDataField;
+        return QueryParserUtil.toQuery(op);
     }
 
     /**
@@ -1819,13 +2138,13 @@ public class ElasticService {
         } else {
             newFqs = new String[]{"-idxtype:IDENTIFIER", "-idxtype:TAXONVARIANT"};
         }
-        Op op = QueryParserUtil.parse(q, newFqs, this::isValidField);
-        if (op == null) {
+        co.elastic.clients.elasticsearch._types.query_dsl.Query queryOp = queryPlanCache.get(q, newFqs).query;
+        if (queryOp == null) {
             return null;
         }
 
         NativeQueryBuilder query = NativeQuery.builder()
-                .withQuery((wq1 -> wq1.functionScore(fs -> fs.query(opToQuery(op))
+                .withQuery((wq1 -> wq1.functionScore(fs -> fs.query(queryOp)
                         .functions(fn -> fn.fieldValueFactor(fv -> fv.field("searchWeight"))))))
                 .withPageable(pageRequest)
                 .withTrackTotalHits(true);
@@ -1881,19 +2200,20 @@ public class ElasticService {
     public Map<String, Object> search(String q, String[] fqs, int page, int pageSize, String sort, String dir, String facets, String[] fl) {
         PageRequest pageRequest = PageRequest.of(page, Math.max(1, pageSize));
 
-        Op op = QueryParserUtil.parse(q, fqs, this::isValidField);
-        if (op == null) {
+        co.elastic.clients.elasticsearch._types.query_dsl.Query queryOp = queryPlanCache.get(q, fqs).query;
+        if (queryOp == null) {
             return null;
         }
 
         NativeQueryBuilder query = NativeQuery.builder()
-                .withQuery((wq1 -> wq1.functionScore(fs -> fs.query(opToQuery(op))
+                .withQuery((wq1 -> wq1.functionScore(fs -> fs.query(queryOp)
                         .functions(fn -> fn.fieldValueFactor(fv -> fv.field("searchWeight"))))))
                 .withPageable(pageRequest)
                 .withTrackTotalHits(true);
 
-        if (fl != null && fl.length > 0) {
-            query.withSourceFilter(new FetchSourceFilter(fl, null));
+        FieldProjection projection = FieldProjection.of(fl);
+        if (projection != null) {
+            query.withSourceFilter(projection.sourceFilter());
         }
 
         if (StringUtils.isNotEmpty(sort) && StringUtils.isNotEmpty(dir)) {
@@ -1915,16 +2235,8 @@ public class ElasticService {
         mapResult.put("queryTitle", getQueryTitle(q));
 
         for (SearchHit<Map> item : result) {
-            if (fl != null && fl.length > 0) {
-                Map values = new HashMap();
-                try {
-                    for (int i = 0; i < fl.length; i++) {
-                        values.put(fl[i], item.getContent().get(fl[i]));
-                    }
-                    searchResults.add(values);
-                } catch (Exception e) {
-                    logger.error("Error processing search result: " + e.getMessage());
-                }
+            if (projection != null) {
+                searchResults.add(projection.project(item.getContent(), true));
             } else {
                 searchResults.add(item.getContent());
             }
@@ -1982,8 +2294,14 @@ public class ElasticService {
         return queryTitle;
     }
 
+    /**
+     * @return true when the query can be parsed, using the QueryPlanCache
+     */
+    public boolean isValidQuery(String q) {
+        return queryPlanCache.isValid(q);
+    }
+
     public boolean isValidField(String fieldName) {
-        // nested fields appear in validFields without a prefix, so also search with a prefix
-        return validFields(false).contains(fieldName);
+        return fieldCatalog.isValid(fieldName);
     }
 }
@@ -0,0 +1,310 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.remote;
+
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.service.cache.TaxonCache;
+import au.org.ala.search.util.FormatUtil;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.HealthStatus;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch.cluster.HealthResponse;
+import co.elastic.clients.elasticsearch.core.ReindexResponse;
+import co.elastic.clients.elasticsearch.indices.get_mapping.IndexMappingRecord;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Blue/green rebuild of the search index.
+ * <p>
+ * elastic.index is an alias. A rebuild loads a new index named elastic.index-yyyyMMddHHmmss, with no replicas and
+ * refresh disabled, while searches continue on the index behind the alias. The new index is then given its replicas
+ * and refresh interval, warmed, and the alias is moved to it in a single request. The previous index is kept for
+ * rollback, and older rebuilt indices beyond elastic.rebuild.keep are deleted.
+ * <p>
+ * The documents of the types not being rebuilt are copied from the current index with a reindex. Writes to the current
+ * index after the reindex starts, e.g. by a LISTS or BIOCACHE task running at the same time as the DWCA task, are not
+ * in the new index. Run the other tasks again after a rebuild, or do not schedule them while the DWCA task runs.
+ * <p>
+ * At startup, an elastic.index with the binary names data mapping of earlier versions is refused, unless it can be
+ * rebuilt, because taxa with names data cannot be written to it.
+ */
+@Service
+public class IndexRebuildService {
+    private static final Logger logger = LoggerFactory.getLogger(IndexRebuildService.class);
+
+    protected final ElasticsearchOperations elasticsearchOperations;
+    protected final ElasticsearchClient elasticsearchClient;
+    protected final TaxonCache taxonCache;
+
+    @Value("${elastic.index}")
+    private String elasticIndex;
+    @Value("${elastic.rebuild.enabled}")
+    private Boolean rebuildEnabled;
+    @Value("${elastic.rebuild.replicas}")
+    private String rebuildReplicas;
+    @Value("${elastic.rebuild.refreshInterval}")
+    private String rebuildRefreshInterval;
+    @Value("${elastic.rebuild.keep}")
+    private Integer rebuildKeep;
+    @Value("${elastic.rebuild.healthTimeout}")
+    private String rebuildHealthTimeout;
+
+    public IndexRebuildService(ElasticsearchOperations elasticsearchOperations, ElasticsearchClient elasticsearchClient,
+                               TaxonCache taxonCache) {
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.elasticsearchClient = elasticsearchClient;
+        this.taxonCache = taxonCache;
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        // start with an empty index behind the alias, otherwise ElasticService creates elastic.index as an index
+        if (rebuildEnabled && !elasticsearchClient.indices().exists(e -> e.index(elasticIndex)).value()) {
+            swap(create().getIndexName());
+        }
+
+        checkNamesDataMapping();
+    }
+
+    /**
+     * Names data was a binary field, holding base64 gzipped JSON, before it was stored as objects. Writing a taxon
+     * with names data to an index with the binary mapping fails with a mapper_parsing_exception, so the DWCA task does
+     * not write to it. Search still reads the base64 values.
+     */
+    private void checkNamesDataMapping() throws IOException {
+        Set<String> binary = binaryNamesData();
+        if (binary.isEmpty()) {
+            return;
+        }
+
+        if (rebuildEnabled && canRebuild()) {
+            logger.warn(elasticIndex + " has the binary names data mapping of an earlier version " + binary
+                    + ", run the DWCA task to rebuild it");
+        } else {
+            logger.warn(elasticIndex + " has the binary names data mapping of an earlier version " + binary
+                    + ". The DWCA task cannot write taxa to it. Set elastic.index to a new index, or enable "
+                    + "elastic.rebuild.enabled with an alias, and run the DWCA task. See the README, Upgrading the "
+                    + "names data mapping.");
+        }
+    }
+
+    /**
+     * @return the names data fields of elastic.index with the binary mapping of an earlier version
+     */
+    public Set<String> binaryNamesData() throws IOException {
+        if (!elasticsearchClient.indices().exists(e -> e.index(elasticIndex)).value()) {
+            return Set.of();
+        }
+
+        Set<String> binary = new TreeSet<>();
+        for (IndexMappingRecord record : elasticsearchClient.indices().getMapping(g -> g.index(elasticIndex)).result().values()) {
+            Map<String, Property> properties = record.mappings().properties();
+            for (String field : FormatUtil.NAMES_DATA) {
+                Property property = properties.get(field);
+                if (property != null && property.isBinary()) {
+                    binary.add(field);
+                }
+            }
+        }
+        return binary;
+    }
+
+    public boolean isEnabled() {
+        return rebuildEnabled;
+    }
+
+    /**
+     * @return true when elastic.index is an alias, or does not exist yet and can be created as an alias
+     */
+    public boolean canRebuild() throws IOException {
+        return elasticsearchClient.indices().existsAlias(e -> e.name(elasticIndex)).value()
+                || !elasticsearchClient.indices().exists(e -> e.index(elasticIndex)).value();
+    }
+
+    /**
+     * Create a new index with the SearchItemIndex settings and mapping, configured for loading.
+     *
+     * @return the new index
+     */
+    public IndexCoordinates create() {
+        String name = elasticIndex + "-" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+
+        IndexOperations searchItemIndexOps = elasticsearchOperations.indexOps(SearchItemIndex.class);
+        Map<String, Object> settings = new LinkedHashMap<>(searchItemIndexOps.createSettings());
+        settings.put("number_of_replicas", 0);
+        settings.put("refresh_interval", "-1");
+        Document mapping = searchItemIndexOps.createMapping();
+
+        IndexCoordinates index = IndexCoordinates.of(name);
+        elasticsearchOperations.indexOps(index).create(settings, mapping);
+
+        logger.info("created index " + name);
+        return index;
+    }
+
+    /**
+     * Copy the documents of the current index, except those with an idxtype that is being rebuilt. Writes to the
+     * current index after this starts are not copied.
+     *
+     * @return the number of documents copied
+     * @throws IllegalStateException when documents failed to copy or the copy timed out, so the index must not be
+     *                               published
+     */
+    public long copyOther(IndexCoordinates index, Collection<String> rebuiltTypes) throws IOException {
+        if (!elasticsearchClient.indices().exists(e -> e.index(elasticIndex)).value()) {
+            return 0;
+        }
+
+        List<FieldValue> types = rebuiltTypes.stream().map(FieldValue::of).toList();
+        ReindexResponse response = elasticsearchClient.reindex(r -> r
+                .source(s -> s
+                        .index(elasticIndex)
+                        .query(q -> q.bool(b -> b.mustNot(mn -> mn.terms(t -> t.field("idxtype").terms(ts -> ts.value(types)))))))
+                .dest(d -> d.index(index.getIndexName()))
+                .waitForCompletion(true));
+
+        if (response.failures() != null && !response.failures().isEmpty()) {
+            logger.error("failed to copy " + response.failures().size() + " documents to " + index.getIndexName()
+                    + ", first failure: " + response.failures().getFirst().cause().reason());
+            throw new IllegalStateException("failed to copy " + response.failures().size() + " documents to "
+                    + index.getIndexName());
+        }
+        if (Boolean.TRUE.equals(response.timedOut())) {
+            throw new IllegalStateException("copy to " + index.getIndexName() + " timed out");
+        }
+        return response.created() != null ? response.created() : 0;
+    }
+
+    /**
+     * Restore the replicas and refresh interval of a loaded index, wait for it to be allocated, warm it, and move
+     * the alias to it.
+     *
+     * @return the index that the alias was moved from, or null
+     * @throws IllegalStateException when the index is not allocated within elastic.rebuild.healthTimeout. The alias
+     *                               is not moved.
+     */
+    public String publish(IndexCoordinates index) throws IOException {
+        String name = index.getIndexName();
+
+        elasticsearchClient.indices().putSettings(p -> p
+                .index(name)
+                .settings(s -> s
+                        .numberOfReplicas(rebuildReplicas)
+                        .refreshInterval(t -> t.time(rebuildRefreshInterval))));
+        elasticsearchClient.indices().refresh(r -> r.index(name));
+
+        // yellow, because a single node cluster cannot allocate replicas
+        HealthResponse health = elasticsearchClient.cluster().health(h -> h
+                .index(name)
+                .waitForStatus(HealthStatus.Yellow)
+                .timeout(t -> t.time(rebuildHealthTimeout)));
+        logger.info("index " + name + " health " + health.status() + (health.timedOut() ? " (timed out)" : ""));
+        if (health.timedOut()) {
+            throw new IllegalStateException("index " + name + " was not allocated within " + rebuildHealthTimeout
+                    + ", health " + health.status());
+        }
+
+        warm(name);
+
+        String previous = swap(name);
+        deleteOld();
+        return previous;
+    }
+
+    /**
+     * Move the alias back to the rebuilt index before the current one.
+     *
+     * @return the index the alias now points to, or null when there is no previous index
+     */
+    public String rollback() throws IOException {
+        List<String> indices = rebuiltIndices();
+        Set<String> current = aliasIndices();
+
+        String previous = null;
+        for (String index : indices) {
+            if (current.contains(index)) {
+                break;
+            }
+            previous = index;
+        }
+
+        if (previous == null) {
+            return null;
+        }
+
+        swap(previous);
+        return previous;
+    }
+
+    // run the common searches, so that the first user searches are not slow
+    private void warm(String name) throws IOException {
+        elasticsearchClient.search(s -> s
+                .index(name)
+                .size(0)
+                .aggregations("idxtype", a -> a.terms(t -> t.field("idxtype"))), Void.class);
+        elasticsearchClient.search(s -> s
+                .index(name)
+                .size(10)
+                .query(q -> q.queryString(qs -> qs.query("name:a*"))), Map.class);
+    }
+
+    private String swap(String name) throws IOException {
+        Set<String> current = aliasIndices();
+
+        List<Action> actions = new ArrayList<>();
+        for (String index : current) {
+            actions.add(Action.of(a -> a.remove(r -> r.index(index).alias(elasticIndex))));
+        }
+        actions.add(Action.of(a -> a.add(ad -> ad.index(name).alias(elasticIndex))));
+        elasticsearchClient.indices().updateAliases(u -> u.actions(actions));
+        taxonCache.invalidate();
+
+        String previous = current.isEmpty() ? null : current.iterator().next();
+        logger.info("alias " + elasticIndex + " moved from " + previous + " to " + name);
+        return previous;
+    }
+
+    private Set<String> aliasIndices() throws IOException {
+        if (!elasticsearchClient.indices().existsAlias(e -> e.name(elasticIndex)).value()) {
+            return Set.of();
+        }
+        return elasticsearchClient.indices().getAlias(g -> g.name(elasticIndex)).result().keySet();
+    }
+
+    // oldest first
+    private List<String> rebuiltIndices() throws IOException {
+        List<String> indices = new ArrayList<>(elasticsearchClient.indices().get(g -> g.index(elasticIndex + "-*")).result().keySet());
+        Collections.sort(indices);
+        return indices;
+    }
+
+    private void deleteOld() throws IOException {
+        List<String> indices = rebuiltIndices();
+        Set<String> current = aliasIndices();
+        for (int i = 0; i < indices.size() - Math.max(1, rebuildKeep); i++) {
+            String index = indices.get(i);
+            if (!current.contains(index)) {
+                elasticsearchClient.indices().delete(d -> d.index(index));
+                logger.info("deleted old index " + index);
+            }
+        }
+    }
+}
@@ -9,6 +9,8 @@ package au.org.ala.search.service.remote;
 import au.org.ala.search.model.AdminIndex;
 import au.org.ala.search.model.TaskType;
 import co.elastic.clients.elasticsearch._types.SortOrder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -22,10 +24,23 @@ import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.Query;
 import org.springframework.stereotype.Service;
 
-import java.util.Collections;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Task log, written to the admin index.
+ * <p>
+ * log does not wait for elasticsearch. Messages are added to a buffer of log.bufferSize, and a background writer
+ * indexes them in batches of up to log.batchSize, at least every log.flushMs. When the buffer is full the caller
+ * writes the buffer itself. flush is called when a processExecutor task finishes and on shutdown.
+ * <p>
+ * The modified time of a message is unique and increasing for each task, so that messages are in the order they were
+ * logged. getStatus reads the last log.tailSize messages of a task that has logged on this instance from memory, after
+ * checking that the index has no newer message. The check is skipped while the task has logged on this instance within
+ * log.tailFreshMs. Other tasks, and a task that has since logged on another instance, are read from the index.
+ */
 @Service
 public class LogService {
 
@@ -35,23 +50,142 @@ public class LogService {
     @Value("${elastic.adminIndex}")
     private String elasticAdminIndex;
 
+    @Value("${log.bufferSize}")
+    private Integer bufferSize;
+
+    @Value("${log.batchSize}")
+    private Integer batchSize;
+
+    @Value("${log.flushMs}")
+    private Long flushMs;
+
+    @Value("${log.tailSize}")
+    private Integer tailSize;
+
+    @Value("${log.tailFreshMs}")
+    private Long tailFreshMs;
+
+    private BlockingQueue<AdminIndex> buffer;
+    private Thread writer;
+    private volatile boolean running;
+
+    // held while writing, so that flush returns after the buffer is written
+    private final Object writeLock = new Object();
+    // notified when a batch is ready
+    private final Object signal = new Object();
+
+    // guarded by tails
+    private final Map<TaskType, Tail> tails = new EnumMap<>(TaskType.class);
+
     public LogService(ElasticsearchOperations elasticsearchOperations) {
         this.elasticsearchOperations = elasticsearchOperations;
     }
 
+    @PostConstruct
+    void init() {
+        buffer = new ArrayBlockingQueue<>(Math.max(1, bufferSize));
+        running = true;
+        writer = new Thread(this::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    void destroy() throws InterruptedException {
+        running = false;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        flush();
+    }
+
     public void log(TaskType task, String message) {
-        long time = System.currentTimeMillis();
-        IndexQuery item = new IndexQueryBuilder()
-                .withId(task.name() + "-" + time)
-                .withObject(AdminIndex.builder().id(task.name() + time)
-                        .message(message)
-                        .task(task.name())
-                        .modified(new Date(time)))
-                .build();
-        elasticsearchOperations.bulkIndex(Collections.singletonList(item), AdminIndex.class);
+        AdminIndex item;
+        synchronized (tails) {
+            Tail tail = tails.computeIfAbsent(task, t -> new Tail());
+
+            // unique and increasing for the task
+            long time = Math.max(System.currentTimeMillis(), tail.lastTime + 1);
+            tail.lastTime = time;
+            tail.loggedAt = System.currentTimeMillis();
+
+            item = AdminIndex.builder().id(task.name() + "-" + time)
+                    .message(message)
+                    .task(task.name())
+                    .modified(new Date(time))
+                    .build();
+
+            tail.add(item, tailSize);
+        }
+
+        if (!buffer.offer(item)) {
+            // the writer is behind
+            flush();
+            if (!buffer.offer(item)) {
+                synchronized (writeLock) {
+                    writeBatch(List.of(item));
+                }
+            }
+        }
+
+        if (buffer.size() >= batchSize) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write all buffered messages.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            List<AdminIndex> batch = new ArrayList<>(batchSize);
+            while (buffer.drainTo(batch, batchSize) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
     }
 
     public List<AdminIndex> getStatus(TaskType task, int size) {
+        Tail tail;
+        boolean fresh;
+        synchronized (tails) {
+            tail = tails.get(task);
+            fresh = tail != null && System.currentTimeMillis() - tail.loggedAt < tailFreshMs;
+        }
+
+        if (tail != null && size <= tailSize && !fresh) {
+            // a newer message in the index is from another instance, e.g. the task now runs there
+            List<AdminIndex> newest = search(task, 1);
+            synchronized (tails) {
+                if (!newest.isEmpty() && tail.isBehind(newest.getFirst())) {
+                    tail.reset();
+                    tail = null;
+                }
+            }
+        }
+
+        if (tail != null && size <= tailSize) {
+            if (!tail.seeded) {
+                // messages logged before this instance started
+                List<AdminIndex> previous = search(task, tailSize);
+                synchronized (tails) {
+                    tail.seed(previous, tailSize);
+                }
+            }
+            synchronized (tails) {
+                return tail.last(size);
+            }
+        }
+
+        flush();
+        return search(task, size);
+    }
+
+    private List<AdminIndex> search(TaskType task, int size) {
         PageRequest p = PageRequest.of(0, size);
 
         Query query = NativeQuery.builder()
@@ -62,4 +196,95 @@ public class LogService {
 
         return elasticsearchOperations.search(query, AdminIndex.class, IndexCoordinates.of(elasticAdminIndex)).stream().map(SearchHit::getContent).toList();
     }
+
+    private void write() {
+        while (running) {
+            try {
+                synchronized (signal) {
+                    if (buffer.size() < batchSize) {
+                        signal.wait(flushMs);
+                    }
+                }
+                flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("failed to write the task log: " + e.getMessage());
+            }
+        }
+    }
+
+    private void writeBatch(List<AdminIndex> batch) {
+        List<IndexQuery> queries = new ArrayList<>(batch.size());
+        for (AdminIndex item : batch) {
+            queries.add(new IndexQueryBuilder().withId(item.getId()).withObject(item).build());
+        }
+
+        try {
+            elasticsearchOperations.bulkIndex(queries, AdminIndex.class);
+        } catch (Exception e) {
+            logger.error("failed to write " + batch.size() + " task log messages: " + e.getMessage());
+        }
+    }
+
+    private static class Tail {
+        // oldest first
+        final ArrayDeque<AdminIndex> items = new ArrayDeque<>();
+        long lastTime;
+        // wall clock time of the last log on this instance
+        long loggedAt;
+        boolean seeded;
+
+        void add(AdminIndex item, int max) {
+            items.addLast(item);
+            while (items.size() > max) {
+                items.removeFirst();
+            }
+        }
+
+        // previous is most recent first, and may include items already in the tail
+        void seed(List<AdminIndex> previous, int max) {
+            if (seeded) {
+                return;
+            }
+            seeded = true;
+
+            Set<String> ids = new HashSet<>();
+            for (AdminIndex item : items) {
+                ids.add(item.getId());
+            }
+            for (AdminIndex item : previous) {
+                if (items.size() >= max) {
+                    break;
+                }
+                if (!ids.contains(item.getId())) {
+                    items.addFirst(item);
+                }
+            }
+        }
+
+        // true when the newest message of the index is not in the tail, and not older than the tail
+        boolean isBehind(AdminIndex newest) {
+            AdminIndex last = items.peekLast();
+            return last == null
+                    || (!last.getId().equals(newest.getId()) && !newest.getModified().before(last.getModified()));
+        }
+
+        // keeps lastTime, so that the next message logged on this instance is still unique
+        void reset() {
+            items.clear();
+            seeded = false;
+        }
+
+        // most recent first, like the search
+        List<AdminIndex> last(int size) {
+            List<AdminIndex> last = new ArrayList<>(Math.min(size, items.size()));
+            Iterator<AdminIndex> it = items.descendingIterator();
+            while (it.hasNext() && last.size() < size) {
+                last.add(it.next());
+            }
+            return last;
+        }
+    }
 }
@@ -0,0 +1,203 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.remote;
+
+import au.org.ala.search.model.SearchItemIndex;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SlicedScroll;
+import co.elastic.clients.elasticsearch._types.query_dsl.FieldAndFormat;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pages through a point in time, fetching the next pages in the background while the caller processes the current
+ * page.
+ * <p>
+ * At most prefetchPages pages are held in addition to the page being processed. A point in time can be split into
+ * slices, one cursor per slice, that share the point in time. It is closed when every cursor has read its last page,
+ * failed, or been closed. Usage:
+ * <pre>
+ * try (PointInTimeCursor cursor = elasticService.openCursor(query, fieldList, pageSize)) {
+ *     for (List&lt;Hit&lt;SearchItemIndex&gt;&gt; hits : cursor) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class PointInTimeCursor implements Iterable<List<Hit<SearchItemIndex>>>, Iterator<List<Hit<SearchItemIndex>>>, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PointInTimeCursor.class);
+
+    // queue marker for the end of the results
+    private static final Page END = new Page(Collections.emptyList(), null);
+
+    private final ElasticService elasticService;
+    private final Query query;
+    private final List<FieldAndFormat> fieldList;
+    private final int pageSize;
+    private final SharedPointInTime pit;
+    private final SlicedScroll slice;
+    private final BlockingQueue<Page> pages;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private Thread producer;
+    private Page next;
+    private volatile boolean closed = false;
+
+    private PointInTimeCursor(ElasticService elasticService, Query query, List<FieldAndFormat> fieldList, int pageSize,
+                              int prefetchPages, SharedPointInTime pit, SlicedScroll slice) {
+        this.elasticService = elasticService;
+        this.query = query;
+        this.fieldList = fieldList;
+        this.pageSize = pageSize;
+        this.pit = pit;
+        this.slice = slice;
+        this.pages = new ArrayBlockingQueue<>(Math.max(1, prefetchPages));
+    }
+
+    static List<PointInTimeCursor> open(ElasticService elasticService, Query query, List<FieldAndFormat> fieldList,
+                                        int pageSize, int prefetchPages, int slices) throws IOException {
+        int sliceCount = Math.max(1, slices);
+        SharedPointInTime pit = new SharedPointInTime(elasticService, elasticService.openPointInTime(), sliceCount);
+
+        List<PointInTimeCursor> cursors = new ArrayList<>(sliceCount);
+        for (int i = 0; i < sliceCount; i++) {
+            final int id = i;
+            SlicedScroll slice = sliceCount > 1 ? SlicedScroll.of(s -> s.id(String.valueOf(id)).max(sliceCount)) : null;
+            cursors.add(new PointInTimeCursor(elasticService, query, fieldList, pageSize, prefetchPages, pit, slice));
+        }
+        for (PointInTimeCursor cursor : cursors) {
+            cursor.producer = Thread.ofVirtual().name("pit-cursor").start(cursor::produce);
+        }
+
+        return cursors;
+    }
+
+    private void produce() {
+        try {
+            List<FieldValue> searchAfter = null;
+            boolean hasMore = true;
+            while (hasMore && !closed) {
+                List<Hit<SearchItemIndex>> hits = elasticService.queryPointInTimeAfter(
+                        pit.id, searchAfter, pageSize, query, fieldList, null, false, slice).hits().hits();
+
+                if (!hits.isEmpty()) {
+                    searchAfter = hits.getLast().sort();
+                    pages.put(new Page(hits, null));
+                }
+
+                hasMore = hits.size() == pageSize;
+            }
+            pages.put(END);
+        } catch (InterruptedException ignored) {
+            // closed by the consumer
+        } catch (Exception e) {
+            pages.clear();
+            pages.offer(new Page(null, e));
+        } finally {
+            // clear any interrupt from close() so that the point in time can still be released
+            Thread.interrupted();
+            release();
+        }
+    }
+
+    @Override
+    public Iterator<List<Hit<SearchItemIndex>>> iterator() {
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = pages.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the next page", e);
+            }
+        }
+
+        if (next.error != null) {
+            throw new RuntimeException("Failed to page through elasticsearch: " + next.error.getMessage(), next.error);
+        }
+
+        return next != END;
+    }
+
+    @Override
+    public List<Hit<SearchItemIndex>> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        List<Hit<SearchItemIndex>> hits = next.hits;
+        next = null;
+        return hits;
+    }
+
+    /**
+     * Stop prefetching and release the point in time. Safe to call more than once. hasNext is false after close.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        producer.interrupt();
+        pages.clear();
+        // END may have been cleared from the pages
+        next = END;
+    }
+
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            pit.release();
+        }
+    }
+
+    private static class SharedPointInTime {
+        final ElasticService elasticService;
+        final String id;
+        final AtomicInteger users;
+
+        SharedPointInTime(ElasticService elasticService, String id, int users) {
+            this.elasticService = elasticService;
+            this.id = id;
+            this.users = new AtomicInteger(users);
+        }
+
+        void release() {
+            if (users.decrementAndGet() == 0) {
+                try {
+                    elasticService.closePointInTime(id);
+                } catch (Exception e) {
+                    logger.error("Failed to close point in time", e);
+                }
+            }
+        }
+    }
+
+    private static class Page {
+        final List<Hit<SearchItemIndex>> hits;
+        final Exception error;
+
+        Page(List<Hit<SearchItemIndex>> hits, Exception error) {
+            this.hits = hits;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.update;
+
+import au.org.ala.search.model.cache.Denormal;
+import au.org.ala.search.model.cache.DenormalTable;
+import au.org.ala.search.model.cache.DenormalTaxon;
+import au.org.ala.search.model.dto.RankedName;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+
+/**
+ * Parent pointer tree of the cached taxa, used to build the rk_* classification of a taxon.
+ * <p>
+ * Each taxon points to its nearest ancestor with a rank. The classification of a ranked taxon is computed once, from
+ * the classification of its ranked parent, when a child of the taxon is first classified, and then copied for each
+ * child. Memory is a few ints per taxon, and the classifications of the ranked taxa that are a parent.
+ * <p>
+ * A parentGuid loop is cut at the first repeated taxon for the taxa above it. The classification of a taxon in a
+ * loop instead follows parents until it returns to the taxon itself, as the previous recursive walk did.
+ */
+class ClassificationTree {
+    static final int NONE = -1;
+    private static final int UNKNOWN = -2;
+    private static final int VISITING = -3;
+
+    private final DenormalTable taxa;
+
+    private final int[] parent;
+
+    // taxa in a parentGuid loop
+    private final BitSet inLoop = new BitSet();
+
+    // nearest ancestor with a rank, or NONE
+    private final int[] rankedParent;
+
+    // position in ranks, or NONE when the taxon is not in a classification
+    private final int[] rank;
+    private final RankKeys[] ranks;
+
+    // only for taxa that are a parent
+    private final RankedName[] names;
+
+    // classification starting at a ranked taxon, computed on first use. Immutable, so a race only computes it twice
+    private final Classification[] classifications;
+
+    private int cycles;
+
+    ClassificationTree(DenormalTable taxa, DenormalTable.Index taxonByGuid) {
+        this.taxa = taxa;
+        int size = taxa.size();
+
+        parent = new int[size];
+        rank = new int[size];
+        Map<String, Integer> rankPositions = new HashMap<>();
+        List<RankKeys> rankList = new ArrayList<>();
+        for (int row = 0; row < size; row++) {
+            // key == parentGuid for DenormalTaxon
+            int group = taxonByGuid.group(taxa.get(row, Denormal.KEY));
+            parent[row] = group < 0 ? NONE : taxonByGuid.row(taxonByGuid.from(group));
+
+            String rankName = taxa.get(row, DenormalTaxon.RANK);
+            Integer rankID = taxa.getNumber(row);
+            if (StringUtils.isNotEmpty(rankName) && rankID != null && rankID != 0) {
+                rank[row] = rankPositions.computeIfAbsent(rankName, it -> {
+                    rankList.add(new RankKeys(DwCADenormaliseImportService.normaliseRank(it)));
+                    return rankList.size() - 1;
+                });
+            } else {
+                rank[row] = NONE;
+            }
+        }
+        ranks = rankList.toArray(new RankKeys[0]);
+
+        names = new RankedName[size];
+        for (int row = 0; row < size; row++) {
+            int p = parent[row];
+            if (p != NONE && rank[p] != NONE && names[p] == null) {
+                names[p] = new RankedName(taxa.get(p, DenormalTaxon.SCIENTIFIC_NAME).toLowerCase(), ranks[rank[p]].name);
+            }
+        }
+
+        classifications = new Classification[size];
+
+        rankedParent = new int[size];
+        Arrays.fill(rankedParent, UNKNOWN);
+        int[] stack = new int[64];
+        for (int row = 0; row < size; row++) {
+            // follow parents until one with a known ranked parent, then fill in the path back to row
+            int depth = 0;
+            int current = row;
+            while (current != NONE && rankedParent[current] == UNKNOWN) {
+                rankedParent[current] = VISITING;
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = current;
+                current = parent[current];
+            }
+
+            if (current != NONE && rankedParent[current] == VISITING) {
+                // parentGuid loop, cut it at the first repeated taxon
+                cycles++;
+                rankedParent[current] = NONE;
+                for (int i = depth - 1; i >= 0; i--) {
+                    inLoop.set(stack[i]);
+                    if (stack[i] == current) {
+                        break;
+                    }
+                }
+            }
+
+            while (depth > 0) {
+                int child = stack[--depth];
+                int p = parent[child];
+                if (p == NONE || rankedParent[child] != VISITING) {
+                    rankedParent[child] = NONE;
+                } else {
+                    rankedParent[child] = rank[p] != NONE ? p : rankedParent[p];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of parentGuid loops found
+     */
+    int cycles() {
+        return cycles;
+    }
+
+    /**
+     * Add the classification of a taxon to parentData, rankedNames and rankSeen, starting at its parent and following
+     * parents to the root. Repeated ranks are numbered, e.g. rk_genus, rk_genus1. parentData, rankedNames and rankSeen
+     * are expected to be empty.
+     *
+     * @param self   row of the taxon, or NONE. Only used when there are loops, see cycles().
+     * @param parent row of the parent taxon, or NONE
+     */
+    void classify(int self, int parent, Map<String, String> parentData, List<RankedName> rankedNames, List<String> rankSeen) {
+        if (self != NONE && inLoop.get(self)) {
+            // the parent is always added, then stop when the loop returns to the taxon
+            int row = parent;
+            while (row != NONE) {
+                if (rank[row] != NONE) {
+                    add(row, parentData, rankedNames, rankSeen);
+                }
+                row = this.parent[row] == self ? NONE : this.parent[row];
+            }
+            return;
+        }
+
+        int row = parent == NONE || rank[parent] != NONE ? parent : rankedParent[parent];
+        if (row != NONE) {
+            classification(row).copyTo(parentData, rankedNames, rankSeen);
+        }
+    }
+
+    // the classification of a ranked taxon, the taxon followed by the classification of its ranked parent
+    private Classification classification(int row) {
+        Classification classification = classifications[row];
+        if (classification != null) {
+            return classification;
+        }
+
+        Classification parentClassification = rankedParent[row] != NONE ? classification(rankedParent[row]) : Classification.EMPTY;
+        RankKeys keys = ranks[rank[row]];
+
+        int[] rows = new int[parentClassification.rows.length + 1];
+        rows[0] = row;
+        System.arraycopy(parentClassification.rows, 0, rows, 1, parentClassification.rows.length);
+
+        if (!parentClassification.contains(keys.rk)) {
+            // the keys of the parent classification are not renumbered
+            String[] data = new String[parentClassification.data.length + 6];
+            data[0] = keys.rk;
+            data[1] = taxa.get(row, DenormalTaxon.SCIENTIFIC_NAME);
+            data[2] = keys.rkid;
+            data[3] = taxa.get(row, DenormalTaxon.GUID);
+            data[4] = keys.rkf;
+            data[5] = taxa.get(row, DenormalTaxon.NAME_FORMATTED);
+            System.arraycopy(parentClassification.data, 0, data, 6, parentClassification.data.length);
+
+            String[] rankSeen = new String[parentClassification.rankSeen.length + 1];
+            rankSeen[0] = keys.name;
+            System.arraycopy(parentClassification.rankSeen, 0, rankSeen, 1, parentClassification.rankSeen.length);
+
+            RankedName[] rankedNames = new RankedName[parentClassification.rankedNames.length + 1];
+            rankedNames[0] = rankedName(row);
+            System.arraycopy(parentClassification.rankedNames, 0, rankedNames, 1, parentClassification.rankedNames.length);
+
+            classification = new Classification(rows, data, rankSeen, rankedNames);
+        } else {
+            // a repeated rank, number the repeats again in the order of the walk
+            Map<String, String> parentData = new LinkedHashMap<>();
+            List<RankedName> rankedNames = new ArrayList<>(rows.length);
+            List<String> rankSeen = new ArrayList<>(rows.length);
+            for (int r : rows) {
+                add(r, parentData, rankedNames, rankSeen);
+            }
+
+            String[] data = new String[parentData.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, String> entry : parentData.entrySet()) {
+                data[i++] = entry.getKey();
+                data[i++] = entry.getValue();
+            }
+
+            classification = new Classification(rows, data, rankSeen.toArray(new String[0]), rankedNames.toArray(new RankedName[0]));
+        }
+
+        classifications[row] = classification;
+        return classification;
+    }
+
+    private void add(int row, Map<String, String> parentData, List<RankedName> rankedNames, List<String> rankSeen) {
+        RankKeys keys = ranks[rank[row]];
+
+        // re-number duplicates
+        String uniqueSuffix = "";
+        if (parentData.containsKey(keys.rk)) {
+            int unique = 1;
+            while (parentData.containsKey(keys.rk + unique)) {
+                unique++;
+            }
+            uniqueSuffix = String.valueOf(unique);
+        }
+
+        String scientificName = taxa.get(row, DenormalTaxon.SCIENTIFIC_NAME);
+        if (uniqueSuffix.isEmpty()) {
+            parentData.put(keys.rk, scientificName);
+            parentData.put(keys.rkid, taxa.get(row, DenormalTaxon.GUID));
+            parentData.put(keys.rkf, taxa.get(row, DenormalTaxon.NAME_FORMATTED));
+        } else {
+            parentData.put(keys.rk + uniqueSuffix, scientificName);
+            parentData.put(keys.rkid + uniqueSuffix, taxa.get(row, DenormalTaxon.GUID));
+            parentData.put(keys.rkf + uniqueSuffix, taxa.get(row, DenormalTaxon.NAME_FORMATTED));
+        }
+
+        // order
+        rankSeen.add(keys.name + uniqueSuffix);
+
+        // keep the name so it can be used to find the species group later
+        rankedNames.add(rankedName(row));
+    }
+
+    private RankedName rankedName(int row) {
+        RankedName rankedName = names[row];
+        return rankedName != null
+                ? rankedName
+                : new RankedName(taxa.get(row, DenormalTaxon.SCIENTIFIC_NAME).toLowerCase(), ranks[rank[row]].name);
+    }
+
+    private static class Classification {
+        static final Classification EMPTY = new Classification(new int[0], new String[0], new String[0], new RankedName[0]);
+
+        // ranked taxa, nearest first
+        final int[] rows;
+        // rk_, rkid_ and rkf_ keys and values, key then value
+        final String[] data;
+        final String[] rankSeen;
+        final RankedName[] rankedNames;
+
+        Classification(int[] rows, String[] data, String[] rankSeen, RankedName[] rankedNames) {
+            this.rows = rows;
+            this.data = data;
+            this.rankSeen = rankSeen;
+            this.rankedNames = rankedNames;
+        }
+
+        boolean contains(String key) {
+            for (int i = 0; i < data.length; i += 2) {
+                if (data[i].equals(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void copyTo(Map<String, String> parentData, List<RankedName> rankedNames, List<String> rankSeen) {
+            for (int i = 0; i < data.length; i += 2) {
+                parentData.put(data[i], data[i + 1]);
+            }
+            Collections.addAll(rankedNames, this.rankedNames);
+            Collections.addAll(rankSeen, this.rankSeen);
+        }
+    }
+
+    private static class RankKeys {
+        final String name;
+        final String rk;
+        final String rkid;
+        final String rkf;
+
+        RankKeys(String name) {
+            this.name = name;
+            this.rk = "rk_" + name;
+            this.rkid = "rkid_" + name;
+            this.rkf = "rkf_" + name;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import au.org.ala.search.util.QueryParserUtil;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -42,10 +43,15 @@ import org.springframework.stereotype.Service;
 import java.io.*;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.*;
+import java.util.function.ToIntFunction;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -103,6 +109,21 @@ public class DashboardService {
     @Value("${dashboard.summarySpeciesCountQuery}")
     private String summarySpeciesCountQuery;
 
+    @Value("${dashboard.concurrency}")
+    private Integer dashboardConcurrency;
+
+    @Value("${dashboard.requestTimeoutSeconds}")
+    private Integer dashboardRequestTimeoutSeconds;
+
+    @Value("${dashboard.sectionTimeoutSeconds}")
+    private Integer dashboardSectionTimeoutSeconds;
+
+    private HttpClient httpClient;
+    private Semaphore requestPermits;
+
+    // upstream responses of the current run, by url, so that each url is requested once per run
+    private Map<String, CompletableFuture<String>> responses = new ConcurrentHashMap<>();
+
     public DashboardService(LogService logService, StaticFileStoreService staticFileStoreService, ElasticService elasticService) {
         this.logService = logService;
         this.staticFileStoreService = staticFileStoreService;
@@ -111,11 +132,22 @@ public class DashboardService {
         objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
     }
 
+    @PostConstruct
+    void init() {
+        httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(dashboardRequestTimeoutSeconds))
+                .build();
+        requestPermits = new Semaphore(Math.max(1, dashboardConcurrency));
+    }
+
+    // synchronized, because a run uses the responses of its own requests
     @Async("processExecutor")
-    public CompletableFuture<Boolean> run() {
+    public synchronized CompletableFuture<Boolean> run() {
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
         logService.log(taskType, "Starting");
+        responses = new ConcurrentHashMap<>();
         int errorCount = 0;
         try {
             DashboardData existingData = load();
@@ -130,11 +162,61 @@ public class DashboardService {
         } catch (IOException e) {
             logService.log(taskType, "Failed to save: " + dataDir + "/dashboard.json, errors:" + (errorCount + 1));
             logger.error("failed to save: " + dataDir + "/dashboard.json");
+        } finally {
+            responses = new ConcurrentHashMap<>();
         }
 
         return CompletableFuture.completedFuture(true);
     }
 
+    /**
+     * GET a url. Concurrent and repeated requests for the same url in a run share one request, including a failed
+     * one. At most dashboard.concurrency requests are made at the same time.
+     */
+    private String fetch(String url) throws IOException {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        CompletableFuture<String> existing = responses.putIfAbsent(url, response);
+        if (existing == null) {
+            try {
+                response.complete(request(url));
+            } catch (Exception e) {
+                response.completeExceptionally(e);
+            }
+        } else {
+            response = existing;
+        }
+
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for " + url);
+        }
+    }
+
+    private String request(String url) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(dashboardRequestTimeoutSeconds))
+                .GET()
+                .build();
+
+        requestPermits.acquire();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (response.statusCode() >= 400) {
+                throw new IOException("HTTP " + response.statusCode() + " for " + url);
+            }
+            return response.body();
+        } finally {
+            requestPermits.release();
+        }
+    }
+
     private DashboardData load() {
         File file = new File(dataDir + "/dashboard.json");
         if (file.exists()) {
@@ -252,13 +334,13 @@ public class DashboardService {
     }
 
     private Integer getSpeciesCount() throws IOException {
-        List result = objectMapper.readValue(IOUtils.toString(URI.create(biocacheWsUrl + summarySpeciesCountQuery), StandardCharsets.UTF_8), List.class);
+        List result = objectMapper.readValue(fetch(biocacheWsUrl + summarySpeciesCountQuery), List.class);
 
         return (Integer) ((Map)result.get(0)).get("count");
     }
 
     private Integer getDatasetCount() throws IOException {
-        Map result = objectMapper.readValue(IOUtils.toString(URI.create(collectoryUrl + "/ws/dataResource/count/resourceType?public=true"), StandardCharsets.UTF_8), Map.class);
+        Map result = objectMapper.readValue(fetch(collectoryUrl + "/ws/dataResource/count/resourceType?public=true"), Map.class);
         return (Integer) result.get("total");
     }
 
@@ -271,72 +353,125 @@ public class DashboardService {
     }
 
     private Integer getDatasetCount1YA() throws IOException {
-        Map result = objectMapper.readValue(IOUtils.toString(URI.create(collectoryUrl + "/ws/dataResource/count/resourceType?public=true&createdBefore=" + getIsoDate1YA()), StandardCharsets.UTF_8), Map.class);
+        Map result = objectMapper.readValue(fetch(collectoryUrl + "/ws/dataResource/count/resourceType?public=true&createdBefore=" + getIsoDate1YA()), Map.class);
         return (Integer) result.get("total");
     }
 
     private UserStats getUserCounts(String url) throws IOException {
-        return objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), UserStats.class);
+        return objectMapper.readValue(fetch(url), UserStats.class);
     }
 
+    /**
+     * Update all sections concurrently. Each section writes to its own DashboardData, which is copied to dashboardData
+     * when the section finishes within dashboard.sectionTimeoutSeconds of the start. A section that does not finish in
+     * time is cancelled, counted as an error, and keeps its previous value.
+     */
     private int update(DashboardData dashboardData) {
+        Map<String, ToIntFunction<DashboardData>> sections = new LinkedHashMap<>();
+        sections.put("kingdoms", this::addKingdoms);
+        sections.put("occurrenceCount", this::addOccurrenceCount);
+        sections.put("datasets", this::addDatasets);
+        sections.put("basisOfRecord", this::addBasisOfRecord);
+        sections.put("bhl", this::addBhl);
+        sections.put("digivol", this::addDigivol);
+        sections.put("recordsByDate", this::addRecordsByDate);
+        sections.put("nationalSpeciesLists", this::addNationalSpeciesLists);
+        sections.put("usageStats", this::addUsageStats);
+        sections.put("emailDownloads", this::addEmailDownloads);
+        sections.put("reasonDownloads", this::addReasonDownloads);
+        sections.put("specimenTypes", this::addSpecimenTypes);
+        sections.put("conservation", this::addConservation);
+        sections.put("decade", data -> addFacet(data, "decade"));
+        sections.put("states", this::addStates);
+        sections.put("dataProviderUid", data -> addFacet(data, "dataProviderUid"));
+        sections.put("institutionUid", data -> addFacet(data, "institutionUid"));
+        sections.put("speciesGroup", data -> addFacet(data, "speciesGroup"));
+        sections.put("species", this::addSpecies);
+        sections.put("spatialLayers", this::addSpatialLayers);
+        sections.put("image", this::addImage);
+        sections.put("collections", this::addCollections);
+
+        List<Section> running = new ArrayList<>();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for (Map.Entry<String, ToIntFunction<DashboardData>> entry : sections.entrySet()) {
+                Section section = new Section(entry.getKey());
+                section.future = executor.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        return entry.getValue().applyAsInt(section.data);
+                    } finally {
+                        section.durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                });
+                running.add(section);
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(dashboardSectionTimeoutSeconds);
+            for (Section section : running) {
+                try {
+                    section.errors = section.future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    dashboardData.data.putAll(section.data.data);
+                } catch (TimeoutException e) {
+                    section.future.cancel(true);
+                    section.errors = 1;
+                    section.durationMs = TimeUnit.SECONDS.toMillis(dashboardSectionTimeoutSeconds);
+                    logService.log(taskType, "timed out updating " + section.name + ", the previous value is kept");
+                } catch (ExecutionException e) {
+                    section.errors = 1;
+                    logService.log(taskType, "failed to update " + section.name + ": " + e.getCause().getMessage());
+                    logger.error("failed to update " + section.name + ": " + e.getCause().getMessage(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    section.errors = 1;
+                }
+            }
+        } finally {
+            // do not wait for cancelled sections
+            executor.shutdownNow();
+        }
+
         int errorCount = 0;
-        errorCount += addKingdoms(dashboardData);
-        errorCount += addOccurrenceCount(dashboardData);
-        errorCount += addDatasets(dashboardData);
-        errorCount += addBasisOfRecord(dashboardData);
-        errorCount += addBhl(dashboardData);
-        errorCount += addDigivol(dashboardData);
-        errorCount += addRecordsByDate(dashboardData);
-        errorCount += addNationalSpeciesLists(dashboardData);
-        errorCount += addUsageStats(dashboardData);
-        errorCount += addEmailDownloads(dashboardData);
-        errorCount += addReasonDownloads(dashboardData);
-        errorCount += addSpecimenTypes(dashboardData);
-        errorCount += addConservation(dashboardData);
-        errorCount += addFacet(dashboardData, "decade");
-        errorCount += addStates(dashboardData);
-        errorCount += addFacet(dashboardData, "dataProviderUid");
-        errorCount += addFacet(dashboardData, "institutionUid");
-        errorCount += addFacet(dashboardData, "speciesGroup");
-        errorCount += addSpecies(dashboardData);
-        errorCount += addSpatialLayers(dashboardData);
-        errorCount += addImage(dashboardData);
-        errorCount += addCollections(dashboardData);
+        StringBuilder sb = new StringBuilder();
+        for (Section section : running) {
+            errorCount += section.errors;
+            sb.append(sb.isEmpty() ? "" : ", ").append(section);
+        }
+        logService.log(taskType, "Sections: " + sb);
 
         return errorCount;
     }
 
     private ImageStatistics getImage(String url) throws IOException {
-        return objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), ImageStatistics.class);
+        return objectMapper.readValue(fetch(url), ImageStatistics.class);
     }
 
     private List<SpatialField> getSpatialFields(String url) throws IOException {
-        return Arrays.asList(objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), SpatialField[].class));
+        return Arrays.asList(objectMapper.readValue(fetch(url), SpatialField[].class));
     }
 
     private BiocacheSearch getBiocache(String url) throws IOException {
-        return objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), BiocacheSearch.class);
+        return objectMapper.readValue(fetch(url), BiocacheSearch.class);
     }
 
     private LoggerSearch getLogger(String url) throws IOException {
-        return objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), LoggerSearch.class);
+        return objectMapper.readValue(fetch(url), LoggerSearch.class);
     }
 
     private CollectionsSearch getCollection(String url) throws IOException {
-        return objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), CollectionsSearch.class);
+        return objectMapper.readValue(fetch(url), CollectionsSearch.class);
     }
 
     private List<DataResource> getDataResourceList(String url) throws IOException {
-        return Arrays.asList(objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), DataResource[].class));
+        return Arrays.asList(objectMapper.readValue(fetch(url), DataResource[].class));
     }
 
     private List<Facet> getBiocacheFacets(String url) throws IOException {
-        return Arrays.asList(objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), Facet[].class));
+        return Arrays.asList(objectMapper.readValue(fetch(url), Facet[].class));
     }
 
     private DigivolSearch getDigivol(String url) throws IOException {
-        return objectMapper.readValue(IOUtils.toString(URI.create(url), StandardCharsets.UTF_8), DigivolSearch.class);
+        return objectMapper.readValue(fetch(url), DigivolSearch.class);
     }
 
     private int addKingdoms(DashboardData dashboardData) {
@@ -431,7 +566,8 @@ public class DashboardService {
             record.tables = new ArrayList<>();
             record.tables.add(table);
 
-            record.count = getCollection(collectoryUrl + "/ws/dataResource/count/resourceType?public=true").total;
+            CollectionsSearch resourceTypes = getCollection(collectoryUrl + "/ws/dataResource/count/resourceType?public=true");
+            record.count = resourceTypes.total;
 
             table.rows.add(new TableRow("institutions", null,
                     new Integer[]{getCollection(collectoryUrl + "/ws/institution/count").total}));
@@ -442,20 +578,20 @@ public class DashboardService {
 
             table.rows.add(new TableRow("dataResources",
                     collectoryUrl + "/datasets#filters=resourceType%3Arecords",
-                    new Integer[]{getCollection(collectoryUrl + "/ws/dataResource/count/resourceType?public=true").groups.get("records")}));
+                    new Integer[]{resourceTypes.groups.get("records")}));
 
             table.rows.add(new TableRow("descriptionOnly",
                     null,
-                    new Integer[]{getCollection(collectoryUrl + "/ws/dataResource/count/resourceType?public=true").groups.get("records")
+                    new Integer[]{resourceTypes.groups.get("records")
                             - getBiocacheFacets(biocacheWsUrl + "/occurrence/facets?q=data_resource_uid:*&facets=data_resource_uid&flimit=0&facet=true").getFirst().count}));
 
             table.rows.add(new TableRow("speciesLists",
                     collectoryUrl + "/datasets#filters=resourceType%3Aspecies-list",
-                    new Integer[]{getCollection(collectoryUrl + "/ws/dataResource/count/resourceType?public=true").groups.get("species-list")}));
+                    new Integer[]{resourceTypes.groups.get("species-list")}));
 
             table.rows.add(new TableRow("documents",
                     collectoryUrl + "/datasets#filters=resourceType%3Adocument",
-                    new Integer[]{getCollection(collectoryUrl + "/ws/dataResource/count/resourceType?public=true").groups.get("document")}));
+                    new Integer[]{resourceTypes.groups.get("document")}));
 
             List<DataResource> dataResources = getDataResourceList(collectoryUrl + "/ws/dataResource");
             record.mostRecent = new HashMap<>();
@@ -478,7 +614,7 @@ public class DashboardService {
         }
         try {
             logService.log(taskType, "updating bhl");
-            String html = IOUtils.toString(URI.create(bhlUrl), StandardCharsets.UTF_8);
+            String html = fetch(bhlUrl);
             int startidx = html.indexOf("onlinestats");
             String[] block = html.substring(startidx, startidx + 500).replaceAll(",", "").split("<strong>");
 
@@ -1144,5 +1280,21 @@ public class DashboardService {
         SearchHits<SearchItemIndex> result = elasticService.search(op, 0, 1);
         return result != null ? (int) result.getTotalHits() : 0;
     }
-}
 
+    private static class Section {
+        final String name;
+        final DashboardData data = new DashboardData();
+        Future<Integer> future;
+        volatile long durationMs;
+        int errors;
+
+        Section(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + durationMs + "ms" + (errors > 0 ? " (errors: " + errors + ")" : "");
+        }
+    }
+}
@@ -12,9 +12,8 @@ import au.org.ala.search.model.TaskType;
 import au.org.ala.search.service.remote.DataFileStoreService;
 import au.org.ala.search.service.remote.ElasticService;
 import au.org.ala.search.service.remote.LogService;
-import co.elastic.clients.elasticsearch._types.FieldValue;
+import au.org.ala.search.service.remote.PointInTimeCursor;
 import co.elastic.clients.elasticsearch._types.query_dsl.FieldAndFormat;
-import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.json.JsonData;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -100,17 +99,13 @@ public class DescriptionsUpdateService {
     private void updateCurrentDocuments(Map<String, Object> newHeroDescriptions) {
         List<UpdateQuery> updates = new ArrayList<>();
 
-        String pit = null;
         int updatedRecords = 0;
         int deletedRecords = 0;
         try {
-            pit = elasticService.openPointInTime();
             co.elastic.clients.elasticsearch._types.query_dsl.Query queryOp = co.elastic.clients.elasticsearch._types.query_dsl.Query.of(q -> q
                     .exists(e -> e.field("heroDescription"))
             );
             int pageSize = 1000;
-            List<FieldValue> searchAfter = null;
-            boolean hasMore = true;
 
             List<FieldAndFormat> fieldList = Arrays.asList(
                     new FieldAndFormat.Builder().field("id").build(),
@@ -118,15 +113,8 @@ public class DescriptionsUpdateService {
                     new FieldAndFormat.Builder().field("heroDescription").build()
             );
 
-            while (hasMore) {
-                SearchResponse<SearchItemIndex> response = elasticService.queryPointInTimeAfter(
-                        pit, searchAfter, pageSize, queryOp, fieldList, null, false
-                );
-
-                List<Hit<SearchItemIndex>> hits = response.hits().hits();
-                if (!hits.isEmpty()) {
-                    searchAfter = hits.get(hits.size() - 1).sort();
-
+            try (PointInTimeCursor cursor = elasticService.openCursor(queryOp, fieldList, pageSize)) {
+                for (List<Hit<SearchItemIndex>> hits : cursor) {
                     for (Hit<SearchItemIndex> hit : hits) {
                         String documentId = hit.id();
 
@@ -145,7 +133,6 @@ public class DescriptionsUpdateService {
                         }
                     }
                 }
-                hasMore = hits.size() == pageSize;
             }
 
             if (!updates.isEmpty()) {
@@ -153,14 +140,6 @@ public class DescriptionsUpdateService {
             }
         } catch (Exception e) {
             logger.error("Failed to fetch current documents from Elasticsearch", e);
-        } finally {
-            if (pit != null) {
-                try {
-                    elasticService.closePointInTime(pit);
-                } catch (Exception e) {
-                    logger.error("Failed to close point in time", e);
-                }
-            }
         }
 
         logService.log(taskType, "Updated hero descriptions: " + updatedRecords);
@@ -13,7 +13,6 @@ import au.org.ala.search.model.dto.DatasetInfo;
 import au.org.ala.search.model.dto.RankedName;
 import au.org.ala.search.service.SpeciesGroupService;
 import au.org.ala.search.service.remote.LogService;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
 import org.gbif.utils.file.csv.CSVReader;
 import org.slf4j.Logger;
@@ -21,12 +20,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.zip.GZIPOutputStream;
 
 @Service
 public class DwCADenormaliseImportService {
@@ -38,13 +33,20 @@ public class DwCADenormaliseImportService {
     protected final SpeciesGroupService speciesGroupService;
     protected final LogService logService;
 
-    List<DenormalTaxon> parentNodes;
-    Map<String, DenormalTaxon> linkIdentifiers;
-    Set<String> linkIdentifierConflict;
     Set<String> alreadyDenormalized = new HashSet<>();
     Map<String, String> cacheCommonName;
-    Integer[] sortByAcceptedConceptID;
-    Integer[] sortByGuid;
+
+    // taxon row for each linkText, by linkTexts id
+    StringDictionary linkTexts;
+    int[] linkIdentifiers;
+    BitSet linkIdentifierConflict;
+
+    DenormalTable.Index taxonByGuid;
+    DenormalTable.Index taxonByAcceptedConceptID;
+    DenormalTable.Index identifierByTaxon;
+    DenormalTable.Index variantByTaxon;
+    DenormalTable.Index vernacularByTaxon;
+    ClassificationTree classificationTree;
     private DenormalCache cache;
 
     @Value("${priority.norm}")
@@ -69,76 +71,63 @@ public class DwCADenormaliseImportService {
         this.cache = cache;
 
         logService.log(taskType, "Starting cache for denormalize");
-        Arrays.sort(cache.cacheTaxon, new Denormal.DenormalCompare());
-        Arrays.sort(cache.cacheIdentifier, new Denormal.DenormalCompare());
-        Arrays.sort(cache.cacheVariant, new Denormal.DenormalCompare());
-        Arrays.sort(cache.cacheVernacular, new Denormal.DenormalCompare());
-
-        // find parent nodes and linkIdentifier items
-        parentNodes = new ArrayList<>();
-        linkIdentifiers = new HashMap<>(600000);
-        linkIdentifierConflict = new HashSet<>(100000);
-        for (DenormalTaxon de : cache.cacheTaxon) {
-            if (de.acceptedConceptID == null && de.key == null) { // .key is parentGuid
-                parentNodes.add(de);
-            }
-
-            String linkText = buildLinkText(de.scientificName);
+        DenormalTable taxa = cache.cacheTaxon;
+        taxonByGuid = taxa.index(DenormalTaxon.GUID);
+        taxonByAcceptedConceptID = taxa.index(DenormalTaxon.ACCEPTED_CONCEPT_ID);
+        identifierByTaxon = cache.cacheIdentifier.index(Denormal.KEY);
+        variantByTaxon = cache.cacheVariant.index(Denormal.KEY);
+        vernacularByTaxon = cache.cacheVernacular.index(Denormal.KEY);
+
+        classificationTree = new ClassificationTree(taxa, taxonByGuid);
+        if (classificationTree.cycles() > 0) {
+            logService.log(taskType, "infinite loops for parentGuid follow: " + classificationTree.cycles());
+            logger.error("infinite loops for parentGuid follow: " + classificationTree.cycles());
+        }
 
-            DenormalTaxon ltItem = linkIdentifiers.get(linkText);
-            if (ltItem == null) {
-                linkIdentifiers.put(linkText, de);
+        // find linkIdentifier items
+        linkTexts = new StringDictionary(taxa.size());
+        linkIdentifiers = new int[taxa.size()];
+        Arrays.fill(linkIdentifiers, -1);
+        linkIdentifierConflict = new BitSet();
+        for (int row = 0; row < taxa.size(); row++) {
+            int linkText = linkTexts.add(buildLinkText(taxa.get(row, DenormalTaxon.SCIENTIFIC_NAME)));
+
+            int ltRow = linkIdentifiers[linkText];
+            if (ltRow == -1) {
+                linkIdentifiers[linkText] = row;
             } else {
-                int diff = getPriorityDiff(ltItem.taxonomicStatus, de.taxonomicStatus);
+                int diff = getPriorityDiff(taxa.get(ltRow, DenormalTaxon.TAXONOMIC_STATUS), taxa.get(row, DenormalTaxon.TAXONOMIC_STATUS));
                 if (diff < 0) {
-                    linkIdentifiers.put(linkText, de);
+                    linkIdentifiers[linkText] = row;
 
                     // no longer a conflict for this linkText, if there was one
-                    linkIdentifierConflict.remove(linkText);
+                    linkIdentifierConflict.clear(linkText);
                 } else if (diff == 0) {
                     // need to flag that there is a conflict, so we do not use it.
-                    linkIdentifierConflict.add(linkText);
+                    linkIdentifierConflict.set(linkText);
                 }
             }
         }
-
-        // resort cacheTaxon for acceptedConceptID search
-        sortByAcceptedConceptID = new Integer[cache.cacheTaxon.length];
-        for (int i = 0; i < sortByAcceptedConceptID.length; i++) sortByAcceptedConceptID[i] = i;
-        final DenormalTaxon[] finalCacheTaxon = cache.cacheTaxon;
-        Arrays.sort(sortByAcceptedConceptID, (o1, o2) -> {
-            String a = finalCacheTaxon[o1].acceptedConceptID;
-            String b = finalCacheTaxon[o2].acceptedConceptID;
-
-            a = a == null ? "" : a;
-            b = b == null ? "" : b;
-            return a.compareTo(b);
-        });
-
-        // resort cacheTaxon for guid search
-        sortByGuid = new Integer[cache.cacheTaxon.length];
-        for (int i = 0; i < sortByGuid.length; i++) sortByGuid[i] = i;
-        Arrays.sort(sortByGuid, (o1, o2) -> {
-            String a = finalCacheTaxon[o1].guid;
-            String b = finalCacheTaxon[o2].guid;
-
-            a = a == null ? "" : a;
-            b = b == null ? "" : b;
-            return a.compareTo(b);
-        });
+        linkTexts.trim();
 
         cacheCommonName();
-        logService.log(taskType, "Finished cache for denormalize");
+        logService.log(taskType, "Finished cache for denormalize: " + taxa.size() + " taxa, "
+                + cache.strings.size() + " distinct values");
     }
 
     public void deleteCaches() {
         // clear caches
         cache = null;
+        linkTexts = null;
         linkIdentifiers = null;
-        parentNodes = null;
+        linkIdentifierConflict = null;
         cacheCommonName = null;
-        sortByAcceptedConceptID = null;
-        sortByGuid = null;
+        taxonByGuid = null;
+        taxonByAcceptedConceptID = null;
+        identifierByTaxon = null;
+        variantByTaxon = null;
+        vernacularByTaxon = null;
+        classificationTree = null;
 
         alreadyDenormalized.clear();
     }
@@ -162,112 +151,12 @@ public class DwCADenormaliseImportService {
         }
     }
 
-    public <T extends Denormal> T[] findCachedTaxon(String guid, T[] cacheArray) {
-        int anyIdx = Arrays.binarySearch(cacheArray, new Denormal(guid), new Denormal.DenormalCompare());
-
-        if (anyIdx < 0) {
-            return null;
-        }
-
-        int firstIdx = anyIdx;
-        while (firstIdx > 0 && cacheArray[firstIdx - 1].key != null && cacheArray[firstIdx - 1].key.equals(guid)) {
-            firstIdx--;
-        }
-
-        int lastIdx = anyIdx;
-        while (lastIdx < cacheArray.length - 2 && cacheArray[lastIdx + 1].key.equals(guid)) {
-            lastIdx++;
-        }
-
-        return Arrays.copyOfRange(cacheArray, firstIdx, lastIdx + 1);
-    }
-
-    private String[] findAssociatedNames(final String guid) {
-        final DenormalTaxon[] fa = cache.cacheTaxon;
-        int anyIdx = Arrays.binarySearch(sortByAcceptedConceptID, -1, (o1, o2) -> {
-            String a = o1 == -1 ? guid : fa[o1].acceptedConceptID;
-            String b = o2 == -1 ? guid : fa[o2].acceptedConceptID;
-
-            a = a == null ? "" : a;
-            b = b == null ? "" : b;
-            return a.compareTo(b);
-        });
-
-        if (anyIdx < 0) {
-            return null;
-        }
-
-        int firstIdx = anyIdx;
-        while (firstIdx > 0 && fa[sortByAcceptedConceptID[firstIdx - 1]].acceptedConceptID != null
-                && fa[sortByAcceptedConceptID[firstIdx - 1]].acceptedConceptID.equals(guid)) {
-            firstIdx--;
-        }
-
-        int lastIdx = anyIdx;
-        while (lastIdx < fa.length - 2 && fa[sortByAcceptedConceptID[lastIdx + 1]].acceptedConceptID != null
-                && fa[sortByAcceptedConceptID[lastIdx + 1]].acceptedConceptID.equals(guid)) {
-            lastIdx++;
-        }
-
-        String[] found = new String[lastIdx - firstIdx + 1];
-        for (int i = firstIdx; i <= lastIdx; i++) {
-            found[i - firstIdx] = fa[sortByAcceptedConceptID[i]].scientificName;
-        }
-        return found;
-    }
-
-    private DenormalTaxon[] findAssociatedTaxon(final String guid) {
-        final DenormalTaxon[] fa = cache.cacheTaxon;
-        int anyIdx = Arrays.binarySearch(sortByAcceptedConceptID, -1, (o1, o2) -> {
-            String a = o1 == -1 ? guid : fa[o1].acceptedConceptID;
-            String b = o2 == -1 ? guid : fa[o2].acceptedConceptID;
-
-            a = a == null ? "" : a;
-            b = b == null ? "" : b;
-            return a.compareTo(b);
-        });
-
-        if (anyIdx < 0) {
-            return null;
-        }
-
-        int firstIdx = anyIdx;
-        while (firstIdx > 0
-                && fa[sortByAcceptedConceptID[firstIdx - 1]].acceptedConceptID != null
-                && fa[sortByAcceptedConceptID[firstIdx - 1]].acceptedConceptID.equals(guid)) {
-            firstIdx--;
-        }
-
-        int lastIdx = anyIdx;
-        while (lastIdx < fa.length - 2
-                && fa[sortByAcceptedConceptID[lastIdx + 1]].acceptedConceptID != null
-                && fa[sortByAcceptedConceptID[lastIdx + 1]].acceptedConceptID.equals(guid)) {
-            lastIdx++;
-        }
-
-        DenormalTaxon[] found = new DenormalTaxon[lastIdx - firstIdx + 1];
-        for (int i = firstIdx; i <= lastIdx; i++) {
-            found[i - firstIdx] = fa[sortByAcceptedConceptID[i]];
-        }
-        return found;
-    }
-
-    private DenormalTaxon findCachedTaxonByGuid(final String guid) {
-        final DenormalTaxon[] fa = cache.cacheTaxon;
-        int idx = Arrays.binarySearch(sortByGuid, -1, (o1, o2) -> {
-            String a = o1 == -1 ? guid : fa[o1].guid;
-            String b = o2 == -1 ? guid : fa[o2].guid;
-
-            a = a == null ? "" : a;
-            b = b == null ? "" : b;
-            return a.compareTo(b);
-        });
-
-        if (idx < 0) {
-            return null;
-        }
-
-        return fa[sortByGuid[idx]];
+    /**
+     * @return the row of the taxon, or -1 when it is not in the cache
+     */
+    private int findCachedTaxonByGuid(final String guid) {
+        int group = taxonByGuid.group(guid);
+        return group < 0 ? -1 : taxonByGuid.row(taxonByGuid.from(group));
     }
 
     // < 0 is A < B
@@ -286,65 +175,38 @@ public class DwCADenormaliseImportService {
         return orderA - orderB;
     }
 
-    private void getParentValues(String guid, Map<String, String> parentData, List<RankedName> rankedNames, List<String> seenGuid, List<String> rankSeen) {
-        DenormalTaxon parent = findCachedTaxonByGuid(guid);
-        if (parent != null) {
-            if (StringUtils.isNotEmpty(parent.rank) && parent.rankID != 0) {
-                String normalisedRank = normaliseRank(parent.rank);
-
-                // re-number duplicates
-                int unique = 0;
-                String uniqueSuffix = "";
-                while (parentData.containsKey("rk_" + normalisedRank + uniqueSuffix)) {
-                    unique++;
-                    uniqueSuffix = String.valueOf(unique);
-                }
-                parentData.put("rk_" + normalisedRank + uniqueSuffix, parent.scientificName);
-                parentData.put("rkid_" + normalisedRank + uniqueSuffix, parent.guid);
-                parentData.put("rkf_" + normalisedRank + uniqueSuffix, parent.nameFormatted);
-
-                // order
-                rankSeen.add(normalisedRank + uniqueSuffix);
-
-                // we have a unique rank name and value, keep the value so it can be used to find the species group later
-                RankedName rn = new RankedName(parent.scientificName.toLowerCase(), normalisedRank);
-                rankedNames.add(rn);
-            }
-            // key == parentGuid for DenormalTaxon
-            if (parent.key != null) {
-                // This test was in bie-index, and while it should never happen, test just in case
-                if (seenGuid.contains(parent.key)) {
-                    logService.log(taskType, "infinite loop for parentGuid follow for: " + guid);
-                    logger.error("infinite loop for parentGuid follow for: " + guid);
-                    return;
-                }
-
-                getParentValues(parent.key, parentData, rankedNames, seenGuid, rankSeen);
-            }
+    /**
+     * @return the linkIdentifier for the item, or null when the item is not the preferred taxon for its linkText
+     */
+    private String findLinkIdentifier(SearchItemIndex item) {
+        String linkText = buildLinkText(item.scientificName);
+        int id = linkTexts.id(linkText);
+        if (id == StringDictionary.NULL || linkIdentifierConflict.get(id)) {
+            return null;
         }
+
+        String guid = cache.cacheTaxon.get(linkIdentifiers[id], DenormalTaxon.GUID);
+        return guid.equals(item.guid) ? linkText : null;
     }
 
     public void denormalizeVernacularOnly(SearchItemIndex item) {
-        DenormalTaxon taxon = findCachedTaxonByGuid(item.taxonGuid);
-        if (taxon == null) {
+        int taxon = findCachedTaxonByGuid(item.taxonGuid);
+        if (taxon < 0) {
             return;
         }
 
-        item.setAcceptedConceptName(taxon.scientificName);
+        item.setAcceptedConceptName(cache.cacheTaxon.get(taxon, DenormalTaxon.SCIENTIFIC_NAME));
     }
 
     // The purpose of this is to denormalize during ingestion making use of cached data.
     // e.g. instead of the old denormalize (parent + recursion for children), this will follow to the parent
     // to get the data.rk* values
     public void denormalizeItemOnly(SearchItemIndex item) {
-        ObjectMapper objectMapper = new ObjectMapper();
-
         // taxon with acceptedTaxonID value undergo different denormalization
         if (item.acceptedConceptID != null) {
-            String linkText = buildLinkText(item.scientificName);
-            DenormalTaxon ltItem = linkIdentifiers.get(linkText);
-            if (ltItem != null && ltItem.guid.equals(item.guid) && !linkIdentifierConflict.contains(linkText)) {
-                item.linkIdentifier = linkText;
+            String linkIdentifier = findLinkIdentifier(item);
+            if (linkIdentifier != null) {
+                item.linkIdentifier = linkIdentifier;
             }
 
             return;
@@ -353,12 +215,11 @@ public class DwCADenormaliseImportService {
         // find parent data.rk* values
         if (item.parentGuid != null) {
             Map<String, String> parentData = new HashMap<>();
-            List<String> seenGuid = new ArrayList<>();
             List<String> rankSeen = new ArrayList<>();
             List<RankedName> rankNames = new ArrayList<>();
-            seenGuid.add(item.guid);
 
-            getParentValues(item.parentGuid, parentData, rankNames, seenGuid, rankSeen);
+            int self = classificationTree.cycles() > 0 ? findCachedTaxonByGuid(item.guid) : ClassificationTree.NONE;
+            classificationTree.classify(self, findCachedTaxonByGuid(item.parentGuid), parentData, rankNames, rankSeen);
 
             // An approach to retain the order rk_*/rkid_* as the tree is traversed. Probably not the best approach.
             parentData.put("rankOrder", StringUtils.join(rankSeen, ","));
@@ -384,163 +245,154 @@ public class DwCADenormaliseImportService {
             }
         }
 
-        DenormalIdentifier[] identifiers = findCachedTaxon(item.guid, cache.cacheIdentifier);
-        DenormalVariant[] variants = findCachedTaxon(item.guid, cache.cacheVariant);
-        DenormalVernacular[] commonNames = findCachedTaxon(item.guid, cache.cacheVernacular);
-
+        DenormalTable variants = cache.cacheVariant;
+        int variantGroup = variantByTaxon.group(item.guid);
         Integer priority = null;
-        if (variants != null) {
+        if (variantGroup >= 0) {
             List<String> names = new ArrayList<>();
-            for (DenormalVariant it : variants) {
-                int p = it.priority != null ? it.priority : priorityNorm;
+            for (int i = variantByTaxon.from(variantGroup); i < variantByTaxon.to(variantGroup); i++) {
+                int row = variantByTaxon.row(i);
+                Integer variantPriority = variants.getNumber(row);
+                int p = variantPriority != null ? variantPriority : priorityNorm;
                 if (priority == null || p > priority) {
                     priority = p;
                 }
-                if (StringUtils.isNotEmpty(it.scientificName)) names.add(it.scientificName);
-                if (StringUtils.isNotEmpty(it.nameComplete)) names.add(it.nameComplete);
+                String scientificName = variants.get(row, DenormalVariant.SCIENTIFIC_NAME);
+                String nameComplete = variants.get(row, DenormalVariant.NAME_COMPLETE);
+                if (StringUtils.isNotEmpty(scientificName)) names.add(scientificName);
+                if (StringUtils.isNotEmpty(nameComplete)) names.add(nameComplete);
             }
             names.remove(item.scientificName);
             names.remove(item.nameComplete);
             if (!names.isEmpty()) item.nameVariant = names.toArray(new String[0]);
 
-            // convert variants to JSON String for storage (not indexed)
+            // variants for storage (not indexed)
             List<Map<String, String>> variantData = new ArrayList<>();
             // copy scientificName, nameAccordingTo, namePublishedIn, source, datasetID into synonymData
-            for (DenormalVariant variant : variants) {
+            for (int i = variantByTaxon.from(variantGroup); i < variantByTaxon.to(variantGroup); i++) {
+                int row = variantByTaxon.row(i);
                 Map<String, String> variantItem = new HashMap<>();
-                if (variant.scientificName != null)
-                    variantItem.put("nameFormatted", StringUtils.isNotEmpty(variant.nameFormatted) ? variant.nameFormatted : variant.scientificName);
-                if (variant.nameAccordingTo != null) variantItem.put("nameAccordingTo", variant.nameAccordingTo);
-                if (variant.namePublishedIn != null) variantItem.put("namePublishedIn", variant.namePublishedIn);
-                if (variant.source != null) variantItem.put("source", variant.source);
-
-                DatasetInfo attribution = cache.attributionMap.getOrDefault(variant.datasetID, null);
-                if (attribution != null && attribution.datasetName != null)
-                    variantItem.put("datasetName", attribution.datasetName);
+                String scientificName = variants.get(row, DenormalVariant.SCIENTIFIC_NAME);
+                String nameFormatted = variants.get(row, DenormalVariant.NAME_FORMATTED);
+                if (scientificName != null)
+                    variantItem.put("nameFormatted", StringUtils.isNotEmpty(nameFormatted) ? nameFormatted : scientificName);
+                putIfNotNull(variantItem, "nameAccordingTo", variants.get(row, DenormalVariant.NAME_ACCORDING_TO));
+                putIfNotNull(variantItem, "namePublishedIn", variants.get(row, DenormalVariant.NAME_PUBLISHED_IN));
+                putIfNotNull(variantItem, "source", variants.get(row, DenormalVariant.SOURCE));
+                putDatasetName(variantItem, variants.get(row, DenormalVariant.DATASET_ID));
                 variantData.add(variantItem);
             }
 
-            try {
-                item.variantData = formatBinary(objectMapper.writeValueAsString(variantData));
-            } catch (IOException ignored) {
-            }
+            item.variantData = variantData;
         }
         item.priority = priority != null ? priority : priorityNorm;
 
-        if (commonNames != null) {
-            item.commonName = Arrays.stream(commonNames).map(it -> it.name).distinct().toArray(String[]::new);
+        DenormalTable commonNames = cache.cacheVernacular;
+        int commonNameGroup = vernacularByTaxon.group(item.guid);
+        if (commonNameGroup >= 0) {
+            int first = vernacularByTaxon.from(commonNameGroup);
+            int last = vernacularByTaxon.to(commonNameGroup);
+
+            Set<String> distinctNames = new LinkedHashSet<>();
+            for (int i = first; i < last; i++) {
+                distinctNames.add(commonNames.get(vernacularByTaxon.row(i), DenormalVernacular.NAME));
+            }
+            item.commonName = distinctNames.toArray(new String[0]);
 
             // aligns commonName with namematching-service
             String namesServiceCommonName = cacheCommonName.get(item.guid);
-            item.commonNameSingle = namesServiceCommonName != null ? namesServiceCommonName : commonNames[0].name;
+            item.commonNameSingle = namesServiceCommonName != null ? namesServiceCommonName : commonNames.get(vernacularByTaxon.row(first), DenormalVernacular.NAME);
 
             List<Map<String, String>> vernacularData = new ArrayList<>();
             // copy scientificName, nameAccordingTo, namePublishedIn, source, datasetID, status into vernacularData
-            for (DenormalVernacular commonName : commonNames) {
+            for (int i = first; i < last; i++) {
+                int row = vernacularByTaxon.row(i);
                 Map<String, String> vern = new HashMap<>();
-                if (commonName.name != null) vern.put("name", commonName.name);
-                if (commonName.source != null) vern.put("source", commonName.source);
-                if (commonName.status != null) vern.put("status", commonName.status);
-                if (commonName.language != null) vern.put("language", commonName.language);
-
-                DatasetInfo attribution = cache.attributionMap.getOrDefault(commonName.datasetID, null);
-                if (attribution != null && attribution.datasetName != null)
-                    vern.put("datasetName", attribution.datasetName);
+                putIfNotNull(vern, "name", commonNames.get(row, DenormalVernacular.NAME));
+                putIfNotNull(vern, "source", commonNames.get(row, DenormalVernacular.SOURCE));
+                putIfNotNull(vern, "status", commonNames.get(row, DenormalVernacular.STATUS));
+                putIfNotNull(vern, "language", commonNames.get(row, DenormalVernacular.LANGUAGE));
+                putDatasetName(vern, commonNames.get(row, DenormalVernacular.DATASET_ID));
 
                 vernacularData.add(vern);
             }
 
-            try {
-                item.vernacularData = formatBinary(objectMapper.writeValueAsString(vernacularData));
-            } catch (IOException ignored) {
-            }
+            item.vernacularData = vernacularData;
         }
 
-        if (identifiers != null) {
-            item.additionalIdentifiers = Arrays.stream(identifiers).map(it -> it.guid).distinct().toArray(String[]::new);
+        DenormalTable identifiers = cache.cacheIdentifier;
+        int identifierGroup = identifierByTaxon.group(item.guid);
+        if (identifierGroup >= 0) {
+            Set<String> distinctIdentifiers = new LinkedHashSet<>();
 
-            // convert identifiers to JSON String for storage (not indexed)
+            // identifiers for storage (not indexed)
             List<Map<String, String>> identifierData = new ArrayList<>();
             // copy scientificName, nameAccordingTo, namePublishedIn, source, datasetID into synonymData
-            for (DenormalIdentifier identifier : identifiers) {
-                Map<String, String> identifierItem = new HashMap<>();
-                identifierItem.put("guid", identifier.guid);
-                if (identifier.nameAccordingTo != null)
-                    identifierItem.put("nameAccordingTo", identifier.nameAccordingTo);
-                if (identifier.namePublishedIn != null)
-                    identifierItem.put("namePublishedIn", identifier.namePublishedIn);
-                if (identifier.source != null) identifierItem.put("source", identifier.source);
+            for (int i = identifierByTaxon.from(identifierGroup); i < identifierByTaxon.to(identifierGroup); i++) {
+                int row = identifierByTaxon.row(i);
+                String guid = identifiers.get(row, DenormalIdentifier.GUID);
+                distinctIdentifiers.add(guid);
 
-                DatasetInfo attribution = cache.attributionMap.getOrDefault(identifier.datasetID, null);
-                if (attribution != null && attribution.datasetName != null)
-                    identifierItem.put("datasetName", attribution.datasetName);
+                Map<String, String> identifierItem = new HashMap<>();
+                identifierItem.put("guid", guid);
+                putIfNotNull(identifierItem, "nameAccordingTo", identifiers.get(row, DenormalIdentifier.NAME_ACCORDING_TO));
+                putIfNotNull(identifierItem, "namePublishedIn", identifiers.get(row, DenormalIdentifier.NAME_PUBLISHED_IN));
+                putIfNotNull(identifierItem, "source", identifiers.get(row, DenormalIdentifier.SOURCE));
+                putDatasetName(identifierItem, identifiers.get(row, DenormalIdentifier.DATASET_ID));
 
                 identifierData.add(identifierItem);
             }
+            item.additionalIdentifiers = distinctIdentifiers.toArray(new String[0]);
 
-            try {
-                item.identifierData = formatBinary(objectMapper.writeValueAsString(identifierData));
-            } catch (IOException ignored) {
-            }
+            item.identifierData = identifierData;
         }
 
-        String[] names = findAssociatedNames(item.guid);
-        if (names != null) {
-            item.additionalNames_m_s = Arrays.stream(names).distinct().toArray(String[]::new);
+        // taxa with this taxon as the acceptedConceptID
+        DenormalTable taxa = cache.cacheTaxon;
+        int synonymGroup = taxonByAcceptedConceptID.group(item.guid);
+        if (synonymGroup >= 0) {
+            Set<String> names = new LinkedHashSet<>();
+            for (int i = taxonByAcceptedConceptID.from(synonymGroup); i < taxonByAcceptedConceptID.to(synonymGroup); i++) {
+                names.add(taxa.get(taxonByAcceptedConceptID.row(i), DenormalTaxon.SCIENTIFIC_NAME));
+            }
+            item.additionalNames_m_s = names.toArray(new String[0]);
         }
 
-        String linkText = buildLinkText(item.scientificName);
-        DenormalTaxon ltItem = linkIdentifiers.get(linkText);
-        if (ltItem != null && ltItem.guid.equals(item.guid) && !linkIdentifierConflict.contains(linkText)) {
-            item.linkIdentifier = linkText;
+        String linkIdentifier = findLinkIdentifier(item);
+        if (linkIdentifier != null) {
+            item.linkIdentifier = linkIdentifier;
         }
 
         // aggregate some synonym data for this TAXON, if it is the accepted concept
-        if (item.acceptedConceptID == null) {
-            DenormalTaxon[] synonyms = findAssociatedTaxon(item.guid);
-
+        if (item.acceptedConceptID == null && synonymGroup >= 0) {
             List<Map<String, String>> synonymData = new ArrayList<>();
             // copy scientificName, nameAccordingTo, namePublishedIn, source, datasetID into synonymData
-            if (synonyms != null) {
-                for (DenormalTaxon synonym : synonyms) {
-                    Map<String, String> syn = new HashMap<>();
-                    syn.put("nameFormatted", StringUtils.isNotEmpty(synonym.nameFormatted) ? synonym.nameFormatted : synonym.scientificName);
-                    if (synonym.nameAccordingTo != null) syn.put("nameAccordingTo", synonym.nameAccordingTo);
-                    if (synonym.namePublishedIn != null) syn.put("namePublishedIn", synonym.namePublishedIn);
-                    if (synonym.source != null) syn.put("source", synonym.source);
-
-                    DatasetInfo attribution = cache.attributionMap.getOrDefault(synonym.datasetID, null);
-                    if (attribution != null && attribution.datasetName != null)
-                        syn.put("datasetName", attribution.datasetName);
-
-                    synonymData.add(syn);
-                }
-                try {
-                    item.synonymData = formatBinary(objectMapper.writeValueAsString(synonymData));
-                } catch (IOException ignored) {
-                }
+            for (int i = taxonByAcceptedConceptID.from(synonymGroup); i < taxonByAcceptedConceptID.to(synonymGroup); i++) {
+                int row = taxonByAcceptedConceptID.row(i);
+                Map<String, String> syn = new HashMap<>();
+                String nameFormatted = taxa.get(row, DenormalTaxon.NAME_FORMATTED);
+                syn.put("nameFormatted", StringUtils.isNotEmpty(nameFormatted) ? nameFormatted : taxa.get(row, DenormalTaxon.SCIENTIFIC_NAME));
+                putIfNotNull(syn, "nameAccordingTo", taxa.get(row, DenormalTaxon.NAME_ACCORDING_TO));
+                putIfNotNull(syn, "namePublishedIn", taxa.get(row, DenormalTaxon.NAME_PUBLISHED_IN));
+                putIfNotNull(syn, "source", taxa.get(row, DenormalTaxon.SOURCE));
+                putDatasetName(syn, taxa.get(row, DenormalTaxon.DATASET_ID));
+
+                synonymData.add(syn);
             }
+            item.synonymData = synonymData;
         }
     }
 
-    /**
-     * Convert the input string to a compressed and base64 encoded string.
-     *
-     * @param input
-     * @return
-     * @throws IOException
-     */
-    private String formatBinary(String input) throws IOException {
-        if (input == null || input.isEmpty()) {
-            return "";
+    private static void putIfNotNull(Map<String, String> map, String key, String value) {
+        if (value != null) {
+            map.put(key, value);
         }
+    }
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
-            gzipOutputStream.write(input.getBytes(StandardCharsets.UTF_8));
+    private void putDatasetName(Map<String, String> map, String datasetID) {
+        DatasetInfo attribution = cache.attributionMap.getOrDefault(datasetID, null);
+        if (attribution != null && attribution.datasetName != null) {
+            map.put("datasetName", attribution.datasetName);
         }
-
-        byte[] compressedBytes = byteArrayOutputStream.toByteArray();
-        return Base64.getEncoder().encodeToString(compressedBytes);
     }
 }
@@ -0,0 +1,299 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.update;
+
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.model.TaskType;
+import au.org.ala.search.service.remote.ElasticService;
+import au.org.ala.search.service.remote.LogService;
+import au.org.ala.search.util.SearchItemIndexFields;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Staged pipeline for the DwCA import.
+ * <p>
+ * Readers add chunks of built items with submit. Denormalise workers run the chunk's denormaliser and build the index
+ * queries. The queries are batched by count and by estimated bytes, and bulk workers index the batches. Both stages
+ * have bounded queues, so a slow stage blocks the stage before it. Each stage counts its items and the time it was
+ * busy or blocked, and the counts are logged by close.
+ * <p>
+ * When a worker dies, e.g. with an OutOfMemoryError, the pipeline is aborted: the other workers are stopped, the queues
+ * are drained, and submit and close throw, so that the import is not reported as finished.
+ */
+public class DwCAImportPipeline implements AutoCloseable {
+    private static final TaskType taskType = TaskType.DWCA;
+    private static final Logger logger = LoggerFactory.getLogger(DwCAImportPipeline.class);
+
+    // queue marker for no more work
+    private static final Chunk END = new Chunk(List.of(), null);
+    private static final List<IndexQuery> END_BATCH = List.of();
+
+    private final ElasticService elasticService;
+    private final LogService logService;
+    private final IndexCoordinates index;
+    private final int batchSize;
+    private final long batchBytes;
+
+    private final BlockingQueue<Chunk> chunks;
+    private final BlockingQueue<List<IndexQuery>> batches;
+    private final List<Thread> denormaliseWorkers = new ArrayList<>();
+    private final List<Thread> bulkWorkers = new ArrayList<>();
+
+    // batch being filled, guarded by this
+    private List<IndexQuery> batch = new ArrayList<>();
+    private long bytes;
+
+    private final Stage read = new Stage("read");
+    private final Stage denormalise = new Stage("denormalise");
+    private final Stage bulk = new Stage("bulk");
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong bytesIndexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // first error that stopped a worker
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    /**
+     * @param index the index to write to, or null for elastic.index
+     */
+    public DwCAImportPipeline(ElasticService elasticService, LogService logService, IndexCoordinates index, int threads,
+                              int bulkThreads, int batchSize, long batchBytes) {
+        this.elasticService = elasticService;
+        this.logService = logService;
+        this.index = index;
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+
+        int denormaliseThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.chunks = new ArrayBlockingQueue<>(denormaliseThreads * 2);
+        this.batches = new ArrayBlockingQueue<>(Math.max(1, bulkThreads) * 2);
+
+        for (int i = 0; i < denormaliseThreads; i++) {
+            denormaliseWorkers.add(Thread.ofPlatform().name("dwca-denormalise-" + i).start(this::denormalise));
+        }
+        for (int i = 0; i < Math.max(1, bulkThreads); i++) {
+            bulkWorkers.add(Thread.ofPlatform().name("dwca-bulk-" + i).start(this::bulk));
+        }
+
+        logService.log(taskType, "Import pipeline started with " + denormaliseThreads + " denormalise and "
+                + bulkWorkers.size() + " bulk threads");
+    }
+
+    /**
+     * Queue items for denormalising and indexing. Blocks while the denormalise stage is full.
+     *
+     * @param denormaliser applied to each item before it is indexed, may be null
+     * @throws IllegalStateException when the pipeline was aborted
+     */
+    public void submit(List<SearchItemIndex> items, Consumer<SearchItemIndex> denormaliser) throws InterruptedException {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        read.items.addAndGet(items.size());
+        long start = System.nanoTime();
+        boolean queued = put(chunks, new Chunk(items, denormaliser));
+        read.blocked.addAndGet(System.nanoTime() - start);
+        if (!queued) {
+            throw aborted();
+        }
+    }
+
+    /**
+     * @return false, without waiting for space, when the pipeline was aborted
+     */
+    private <T> boolean put(BlockingQueue<T> queue, T value) throws InterruptedException {
+        while (error.get() == null) {
+            if (queue.offer(value, 1, TimeUnit.SECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void abort(Throwable e) {
+        if (error.compareAndSet(null, e)) {
+            logService.log(taskType, "Import pipeline failed: " + e);
+            logger.error("Import pipeline failed: " + e.getMessage(), e);
+
+            denormaliseWorkers.forEach(Thread::interrupt);
+            bulkWorkers.forEach(Thread::interrupt);
+            chunks.clear();
+            batches.clear();
+        }
+    }
+
+    /**
+     * @return the number of items that failed to denormalise or index
+     */
+    public long failed() {
+        return failed.get();
+    }
+
+    private IllegalStateException aborted() {
+        return new IllegalStateException("Import pipeline failed", error.get());
+    }
+
+    private void denormalise() {
+        try {
+            Chunk chunk;
+            while ((chunk = chunks.take()) != END) {
+                long start = System.nanoTime();
+                List<IndexQuery> queries = new ArrayList<>(chunk.items.size());
+                long[] sizes = new long[chunk.items.size()];
+                for (SearchItemIndex item : chunk.items) {
+                    try {
+                        if (chunk.denormaliser != null) {
+                            chunk.denormaliser.accept(item);
+                        }
+                        IndexQuery query = elasticService.buildIndexQuery(item);
+                        sizes[queries.size()] = SearchItemIndexFields.estimateSize(item);
+                        queries.add(query);
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        logger.error("failed to denormalise: " + item.guid, e);
+                    }
+                }
+                denormalise.items.addAndGet(queries.size());
+                denormalise.busy.addAndGet(System.nanoTime() - start);
+
+                start = System.nanoTime();
+                addToBatch(queries, sizes);
+                denormalise.blocked.addAndGet(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            abort(e);
+        }
+    }
+
+    private synchronized void addToBatch(List<IndexQuery> queries, long[] sizes) throws InterruptedException {
+        for (int i = 0; i < queries.size(); i++) {
+            batch.add(queries.get(i));
+            bytes += sizes[i];
+
+            if (batch.size() >= batchSize || bytes >= batchBytes) {
+                queueBatch();
+            }
+        }
+    }
+
+    // caller holds the lock
+    private void queueBatch() throws InterruptedException {
+        if (!batch.isEmpty()) {
+            bytesIndexed.addAndGet(bytes);
+            if (!put(batches, batch)) {
+                failed.addAndGet(batch.size());
+            }
+            batch = new ArrayList<>();
+            bytes = 0;
+        }
+    }
+
+    private void bulk() {
+        try {
+            List<IndexQuery> next;
+            while ((next = batches.take()) != END_BATCH) {
+                // flushImmediately clears the batch
+                int size = next.size();
+                long start = System.nanoTime();
+                try {
+                    // items that failed after retries are not counted
+                    failed.addAndGet(size - elasticService.flushImmediately(next, index));
+                } catch (Exception e) {
+                    failed.addAndGet(size);
+                    logService.log(taskType, "Bulk index failed: " + e.getMessage());
+                    logger.error("Bulk index failed: " + e.getMessage(), e);
+                }
+                bulk.busy.addAndGet(System.nanoTime() - start);
+
+                long count = bulk.items.addAndGet(size);
+                if (batchCount.incrementAndGet() % 100 == 0) {
+                    logService.log(taskType, "Import progress: " + count);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            abort(e);
+        }
+    }
+
+    /**
+     * Wait for all queued items to be indexed, stop the workers and log the stage metrics.
+     *
+     * @throws IllegalStateException when the pipeline was aborted
+     */
+    @Override
+    public void close() throws InterruptedException {
+        for (int i = 0; i < denormaliseWorkers.size(); i++) {
+            put(chunks, END);
+        }
+        for (Thread worker : denormaliseWorkers) {
+            worker.join();
+        }
+
+        synchronized (this) {
+            queueBatch();
+        }
+        for (int i = 0; i < bulkWorkers.size(); i++) {
+            put(batches, END_BATCH);
+        }
+        for (Thread worker : bulkWorkers) {
+            worker.join();
+        }
+
+        logService.log(taskType, "Import pipeline finished: " + read + ", " + denormalise + ", " + bulk
+                + ", batches=" + batchCount.get() + ", bytes=" + bytesIndexed.get() + ", failed=" + failed.get()
+                + ", bulk={" + elasticService.bulkStatus() + "}");
+
+        if (error.get() != null) {
+            throw aborted();
+        }
+    }
+
+    private static class Chunk {
+        final List<SearchItemIndex> items;
+        final Consumer<SearchItemIndex> denormaliser;
+
+        Chunk(List<SearchItemIndex> items, Consumer<SearchItemIndex> denormaliser) {
+            this.items = items;
+            this.denormaliser = denormaliser;
+        }
+    }
+
+    private static class Stage {
+        final String name;
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong busy = new AtomicLong();
+        final AtomicLong blocked = new AtomicLong();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name + "={items=" + items.get()
+                    + ", busyMs=" + TimeUnit.NANOSECONDS.toMillis(busy.get())
+                    + ", blockedMs=" + TimeUnit.NANOSECONDS.toMillis(blocked.get()) + "}";
+        }
+    }
+}
@@ -34,13 +34,11 @@ import org.gbif.utils.file.ClosableIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.elasticsearch.core.query.IndexQuery;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.lang.reflect.Field;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.gbif.dwc.terms.DwcTerm.Taxon;
 import static org.gbif.dwc.terms.GbifTerm.Identifier;
@@ -51,6 +49,9 @@ public class DwCAImportRunner {
     private static final TaskType taskType = TaskType.DWCA;
 
     private static final Logger logger = LoggerFactory.getLogger(DwCAImportRunner.class);
+
+    // items per submit to the import pipeline
+    private static final int CHUNK_SIZE = 500;
     protected final ElasticService elasticService;
     protected final LogService logService;
     protected final DwCADenormaliseImportService dwCADenormaliseImportService;
@@ -110,118 +111,145 @@ public class DwCAImportRunner {
                 });
     }
 
-    @Async("processExecutor")
-    public CompletableFuture<Integer> importDwcARowType(
-            ArchiveFile archive,
-            Map<String, DatasetInfo> attributionMap,
-            String defaultDatasetName,
-            Date modified,
-            DenormalCache cacheOnly) {
-        Term term = archive.getRowType();
+    /**
+     * @return the table of the cache for the row type, or null when the row type is not cached
+     */
+    public DenormalTable cacheTable(DenormalCache cache, Term term) {
+        if (term == Taxon) {
+            return cache.cacheTaxon;
+        } else if (term == VernacularName) {
+            return cache.cacheVernacular;
+        } else if (term == Identifier) {
+            return cache.cacheIdentifier;
+        } else if (term.simpleName().equals("TaxonVariant")) {
+            return cache.cacheVariant;
+        }
+        return null;
+    }
 
-        logService.log(taskType, (cacheOnly != null ? "Caching " : "Importing ") + term.simpleName());
+    /**
+     * Cache the rows of an archive file in a new table that shares the dictionary of the cache. Archive files are
+     * cached in parallel, and the returned table is appended to cacheTable(cache, term) afterwards.
+     *
+     * @return the cached rows, or null when the row type is not supported
+     */
+    public DenormalTable cacheRowType(ArchiveFile archive, DenormalCache cache) {
+        Term term = archive.getRowType();
+        DenormalTable target = cacheTable(cache, term);
+        if (target == null) {
+            logService.log(taskType, "Unable to import an archive of type " + term.simpleName());
+            return null;
+        }
 
-        List<IndexQuery> buffer = new ArrayList<>();
-        int counter = 0;
+        logService.log(taskType, "Caching " + term.simpleName());
 
-        // when cacheOnly is supplied, only cache, do not index in ES
-        if (cacheOnly != null) {
-            int totalRecords = 0;
-            try (ClosableIterator<Record> iter = archive.iterator()) {
-                while (iter.hasNext()) {
-                    iter.next();
-                    totalRecords++;
-                }
-            } catch (Exception e) {
-                logService.log(taskType, "failed to count number of rows of: " + term.simpleName());
-                logger.error("failed to count number of rows of: " + term.simpleName());
+        int totalRecords = 0;
+        try (ClosableIterator<Record> iter = archive.iterator()) {
+            while (iter.hasNext()) {
+                iter.next();
+                totalRecords++;
             }
+        } catch (Exception e) {
+            logService.log(taskType, "failed to count number of rows of: " + term.simpleName());
+            logger.error("failed to count number of rows of: " + term.simpleName());
+        }
+
+        DenormalTable table = target.emptyCopy();
+        table.ensureCapacity(totalRecords);
+
+        try (ClosableIterator<Record> iter = archive.iterator()) {
+            while (iter.hasNext()) {
+                Record record = iter.next();
 
-            switch (term) {
-                case Taxon -> cacheOnly.cacheTaxon = new DenormalTaxon[totalRecords];
-                case VernacularName -> cacheOnly.cacheVernacular = new DenormalVernacular[totalRecords];
-                case Identifier -> cacheOnly.cacheIdentifier = new DenormalIdentifier[totalRecords];
-                default -> {
-                    if (term.simpleName().equals("TaxonVariant")) {
-                        cacheOnly.cacheVariant = new DenormalVariant[totalRecords];
-                    } else {
-                        logService.log(taskType, "Unable to import an archive of type " + term.simpleName());
-                        return CompletableFuture.completedFuture(0);
+                if (term == Taxon) {
+                    DenormalTaxon.write(table, buildDenormalTaxon(record));
+                } else if (term == VernacularName) {
+                    DenormalVernacular vernacular = buildDenormalVernacular(record);
+                    if (vernacular != null) {
+                        DenormalVernacular.write(table, vernacular);
                     }
+                } else if (term == Identifier) {
+                    DenormalIdentifier.write(table, buildDenormalIdentifier(record));
+                } else {
+                    DenormalVariant.write(table, buildDenormalVariant(record));
                 }
             }
+        } catch (Exception e) {
+            logService.log(taskType, "failed to load: " + term.simpleName());
+            logger.error("failed to load: " + term.simpleName(), e);
+        }
+
+        logService.log(taskType, term.simpleName() + " cached " + table.size());
+
+        return table;
+    }
+
+    /**
+     * Read an archive file and submit the built items to the pipeline, in chunks, for denormalising and indexing.
+     *
+     * @return the number of items submitted
+     * @throws IllegalStateException when the file could not be read or the pipeline was aborted
+     */
+    public int importRowType(
+            ArchiveFile archive,
+            Map<String, DatasetInfo> attributionMap,
+            String defaultDatasetName,
+            Date modified,
+            DwCAImportPipeline pipeline) {
+        Term term = archive.getRowType();
+
+        logService.log(taskType, "Importing " + term.simpleName());
+
+        Consumer<SearchItemIndex> denormaliser = null;
+        if (term == Taxon) {
+            denormaliser = dwCADenormaliseImportService::denormalizeItemOnly;
+        } else if (term == VernacularName) {
+            denormaliser = dwCADenormaliseImportService::denormalizeVernacularOnly;
+        } else if (term != Identifier && !term.simpleName().equals("TaxonVariant")) {
+            logService.log(taskType, "failed to load, DwCA type not supported: " + term.simpleName());
+            logger.warn("DwCA type not supported by import: " + term);
+            return 0;
         }
 
-        int pos = 0;
+        List<SearchItemIndex> chunk = new ArrayList<>(CHUNK_SIZE);
+        int counter = 0;
         try (ClosableIterator<Record> iter = archive.iterator()) {
             while (iter.hasNext()) {
                 Record record = iter.next();
-                SearchItemIndex searchItemIndex = null;
-
-                switch (term) {
-                    case Taxon -> {
-                        if (cacheOnly != null) {
-                            cacheOnly.cacheTaxon[pos++] = buildDenormalTaxon(record);
-                        } else {
-                            searchItemIndex = buildTaxonRecord(record, attributionMap, defaultDatasetName, modified);
-                            dwCADenormaliseImportService.denormalizeItemOnly(searchItemIndex);
-                        }
-                    }
-                    case VernacularName -> {
-                        if (cacheOnly != null) {
-                            cacheOnly.cacheVernacular[pos++] = buildDenormalVernacular(record);
-                        } else {
-                            searchItemIndex = buildVernacularRecord(record, attributionMap, defaultDatasetName, modified);
-                            dwCADenormaliseImportService.denormalizeVernacularOnly(searchItemIndex);
-                        }
-                    }
-                    case Identifier -> {
-                        if (cacheOnly != null) {
-                            cacheOnly.cacheIdentifier[pos++] = buildDenormalIdentifier(record);
-                        } else {
-                            searchItemIndex = buildIdentifierRecord(record, attributionMap, defaultDatasetName, modified);
-                        }
-                    }
-                    default -> {
-                        if (term.simpleName().equals("TaxonVariant")) {
-                            if (cacheOnly != null) {
-                                cacheOnly.cacheVariant[pos++] = buildDenormalVariant(record);
-                            } else {
-                                searchItemIndex = buildTaxonVariantRecord(record, attributionMap, defaultDatasetName, modified);
-                            }
-                        } else {
-                            logService.log(taskType, "failed to load, DwCA type not supported: " + term.simpleName());
-                            logger.warn("DwCA type not supported by import: " + term);
-                            return CompletableFuture.completedFuture(0);
-                        }
-                    }
+                SearchItemIndex searchItemIndex;
+
+                if (term == Taxon) {
+                    searchItemIndex = buildTaxonRecord(record, attributionMap, defaultDatasetName, modified);
+                } else if (term == VernacularName) {
+                    searchItemIndex = buildVernacularRecord(record, attributionMap, defaultDatasetName, modified);
+                } else if (term == Identifier) {
+                    searchItemIndex = buildIdentifierRecord(record, attributionMap, defaultDatasetName, modified);
+                } else {
+                    searchItemIndex = buildTaxonVariantRecord(record, attributionMap, defaultDatasetName, modified);
                 }
 
                 if (searchItemIndex != null) {
-                    buffer.add(elasticService.buildIndexQuery(searchItemIndex));
+                    chunk.add(searchItemIndex);
 
-                    if (buffer.size() >= 1000) {
-                        counter += buffer.size();
-                        elasticService.flush(new ArrayList<>(buffer));
-                        buffer.clear();
-
-                        if (counter % 100000 == 0) {
-                            logService.log(taskType, term.simpleName() + " import progress: " + counter);
-                        }
+                    if (chunk.size() >= CHUNK_SIZE) {
+                        counter += chunk.size();
+                        pipeline.submit(chunk, denormaliser);
+                        chunk = new ArrayList<>(CHUNK_SIZE);
                     }
                 }
             }
+
+            counter += chunk.size();
+            pipeline.submit(chunk, denormaliser);
         } catch (Exception e) {
             logService.log(taskType, "failed to load: " + term.simpleName());
             logger.error("failed to load: " + term.simpleName(), e);
+            throw new IllegalStateException("failed to load " + term.simpleName() + " after " + counter + " items", e);
         }
 
-        counter += buffer.size();
-        elasticService.flush(buffer);
-
-        logService.log(taskType, term.simpleName() + (cacheOnly != null ? " cached " + pos : " indexing finished: " + counter));
+        logService.log(taskType, term.simpleName() + " read finished: " + counter);
 
-        return CompletableFuture.completedFuture(counter);
+        return counter;
     }
 
     SearchItemIndex buildVernacularRecord(
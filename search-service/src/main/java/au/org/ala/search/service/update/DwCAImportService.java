@@ -8,10 +8,12 @@ package au.org.ala.search.service.update;
 
 import au.org.ala.search.model.IndexDocType;
 import au.org.ala.search.model.TaskType;
-import au.org.ala.search.model.cache.*;
+import au.org.ala.search.model.cache.DenormalCache;
+import au.org.ala.search.model.cache.DenormalTable;
 import au.org.ala.search.model.dto.DatasetInfo;
 import au.org.ala.search.names.ALATerm;
 import au.org.ala.search.service.remote.ElasticService;
+import au.org.ala.search.service.remote.IndexRebuildService;
 import au.org.ala.search.service.remote.LogService;
 import org.gbif.api.model.registry.Dataset;
 import org.gbif.dwc.Archive;
@@ -25,6 +27,7 @@ import org.gbif.metadata.eml.parse.DatasetEmlParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
@@ -35,8 +38,13 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Service
 public class DwCAImportService {
@@ -47,150 +55,176 @@ public class DwCAImportService {
     protected final DwCAImportRunner dwCAImportRunner;
     protected final DwCADenormaliseImportService dwCADenormaliseImportService;
     protected final LogService logService;
+    protected final IndexRebuildService indexRebuildService;
     @Value("${dwca.dir}")
     private String dwcaDir;
-
-    public DwCAImportService(ElasticService elasticService, DwCAImportRunner dwCAImportRunner, DwCADenormaliseImportService dwCADenormaliseImportService, LogService logService) {
+    @Value("${dwca.pipeline.threads}")
+    private Integer pipelineThreads;
+    @Value("${dwca.pipeline.bulkThreads}")
+    private Integer pipelineBulkThreads;
+    @Value("${dwca.pipeline.batchSize}")
+    private Integer pipelineBatchSize;
+    @Value("${dwca.pipeline.batchBytes}")
+    private Long pipelineBatchBytes;
+
+    public DwCAImportService(ElasticService elasticService, DwCAImportRunner dwCAImportRunner, DwCADenormaliseImportService dwCADenormaliseImportService, LogService logService, IndexRebuildService indexRebuildService) {
         this.elasticService = elasticService;
         this.dwCAImportRunner = dwCAImportRunner;
         this.dwCADenormaliseImportService = dwCADenormaliseImportService;
         this.logService = logService;
+        this.indexRebuildService = indexRebuildService;
     }
 
     @Async("processExecutor")
     public CompletableFuture<Boolean> run() {
-        long count = elasticService.queryCount("idxtype", IndexDocType.TAXON.name()) +
-                elasticService.queryCount("idxtype", IndexDocType.TAXONVARIANT.name()) +
-                elasticService.queryCount("idxtype", IndexDocType.COMMON.name()) +
-                elasticService.queryCount("idxtype", IndexDocType.IDENTIFIER.name());
-        if (count > 0) {
-            logService.log(taskType, "Skipping DwCA import because records already exist");
-            return CompletableFuture.completedFuture(true);
+        // when rebuilding, import into a new index and move the elastic.index alias to it when finished
+        IndexCoordinates rebuildIndex = null;
+        if (indexRebuildService.isEnabled()) {
+            try {
+                if (!indexRebuildService.canRebuild()) {
+                    logService.log(taskType, "Error Cannot rebuild because elastic.index is an index and not an alias");
+                    return CompletableFuture.completedFuture(false);
+                }
+                rebuildIndex = indexRebuildService.create();
+                logService.log(taskType, "Rebuilding into new index " + rebuildIndex.getIndexName());
+            } catch (Exception ex) {
+                logService.log(taskType, "Error There was problem creating the new index: " + ex.getMessage());
+                logger.error("There was problem creating the new index: " + ex.getMessage(), ex);
+                return CompletableFuture.completedFuture(false);
+            }
+        } else {
+            try {
+                Set<String> binary = indexRebuildService.binaryNamesData();
+                if (!binary.isEmpty()) {
+                    logService.log(taskType, "Error Cannot import because elastic.index has the binary names data "
+                            + "mapping of an earlier version " + binary + ", see the README");
+                    return CompletableFuture.completedFuture(false);
+                }
+            } catch (Exception ex) {
+                logService.log(taskType, "Error There was problem reading the index mapping: " + ex.getMessage());
+                logger.error("There was problem reading the index mapping: " + ex.getMessage(), ex);
+                return CompletableFuture.completedFuture(false);
+            }
+
+            long count = elasticService.queryCount("idxtype", IndexDocType.TAXON.name()) +
+                    elasticService.queryCount("idxtype", IndexDocType.TAXONVARIANT.name()) +
+                    elasticService.queryCount("idxtype", IndexDocType.COMMON.name()) +
+                    elasticService.queryCount("idxtype", IndexDocType.IDENTIFIER.name());
+            if (count > 0) {
+                logService.log(taskType, "Skipping DwCA import because records already exist");
+                return CompletableFuture.completedFuture(true);
+            }
         }
 
         logService.log(taskType, "Starting DwCA import");
+        boolean imported = false;
 
-        List<DenormalCache> caches = new ArrayList<>();
         Map<String, DatasetInfo> attributionMap = new ConcurrentHashMap<>();
+        List<ArchiveRowType> rowTypes = new ArrayList<>();
         for (String dir : retrieveAvailableDwCAPaths()) {
-            caches.add(importDwcA(dir, true, attributionMap));
+            rowTypes.addAll(openArchive(dir, attributionMap));
         }
 
-        // consolidate caches
-        DenormalCache cache = new DenormalCache(aggregateTaxon(caches), aggregateIdentifier(caches), aggregateVariant(caches), aggregateVernacular(caches), attributionMap);
-        dwCADenormaliseImportService.setCache(cache);
+        int threads = Math.min(Math.max(1, rowTypes.size()),
+                pipelineThreads > 0 ? pipelineThreads : Runtime.getRuntime().availableProcessors());
+        ExecutorService readers = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("dwca-read-", 0).factory());
+        try {
+            // cache all row types of all archives in parallel, then add them to the cache in archive order
+            DenormalCache cache = new DenormalCache(attributionMap);
+            List<Future<DenormalTable>> cached = new ArrayList<>();
+            for (ArchiveRowType rowType : rowTypes) {
+                cached.add(readers.submit(() -> dwCAImportRunner.cacheRowType(rowType.file, cache)));
+            }
+            for (int i = 0; i < rowTypes.size(); i++) {
+                DenormalTable table = cached.get(i).get();
+                if (table != null) {
+                    dwCAImportRunner.cacheTable(cache, rowTypes.get(i).file.getRowType()).append(table);
+                }
+            }
+            cache.trim();
+
+            dwCADenormaliseImportService.setCache(cache);
+
+            // read all row types of all archives in parallel into the denormalise and bulk index pipeline
+            boolean readFailed = false;
+            DwCAImportPipeline pipeline = new DwCAImportPipeline(elasticService, logService, rebuildIndex,
+                    pipelineThreads, pipelineBulkThreads, pipelineBatchSize, pipelineBatchBytes);
+            try (pipeline) {
+                List<Future<Integer>> submitted = new ArrayList<>();
+                for (ArchiveRowType rowType : rowTypes) {
+                    submitted.add(readers.submit(() -> dwCAImportRunner.importRowType(rowType.file, attributionMap,
+                            rowType.defaultDatasetName, rowType.modified, pipeline)));
+                }
+                for (int i = 0; i < rowTypes.size(); i++) {
+                    String rowType = rowTypes.get(i).file.getRowType().simpleName() + " from " + rowTypes.get(i).dir;
+                    try {
+                        logService.log(taskType, "Finished reading " + rowType + ": " + submitted.get(i).get());
+                    } catch (ExecutionException e) {
+                        readFailed = true;
+                        logService.log(taskType, "Error Failed reading " + rowType + ": " + e.getCause().getMessage());
+                    }
+                }
+            }
 
-        for (String dir : retrieveAvailableDwCAPaths()) {
-            importDwcA(dir, false, attributionMap);
+            // a partial import is not published
+            imported = !readFailed && pipeline.failed() == 0;
+            if (pipeline.failed() > 0) {
+                logService.log(taskType, "Error " + pipeline.failed() + " items failed to import");
+            }
+        } catch (Exception ex) {
+            logService.log(taskType, "Error There was problem with the import: " + ex.getMessage());
+            logger.error("There was problem with the import: " + ex.getMessage(), ex);
+        } finally {
+            readers.shutdownNow();
         }
 
         dwCADenormaliseImportService.deleteCaches();
 
-        // dynamic fields may have changed, cache the new list
-        elasticService.indexFields(true);
-
-        logService.log(taskType, "Finished");
-
-        return CompletableFuture.completedFuture(true);
-    }
-
-    private DenormalTaxon[] aggregateTaxon(List<DenormalCache> caches) {
-        int totalSize = 0;
-        for (DenormalCache cache : caches) {
-            DenormalTaxon[] list = cache.cacheTaxon;
-            if (list != null) {
-                totalSize += list.length;
+        if (!imported) {
+            if (rebuildIndex != null) {
+                logService.log(taskType, "Error The import failed, " + rebuildIndex.getIndexName() + " was not published");
+            } else {
+                // the imported records are in the live index
+                elasticService.indexFields(true);
+                logService.log(taskType, "Error The import failed, the index may be incomplete");
             }
+            return CompletableFuture.completedFuture(false);
         }
-        DenormalTaxon[] aggregate = new DenormalTaxon[totalSize];
-        int length = 0;
-        for (DenormalCache cache : caches) {
-            DenormalTaxon[] list = cache.cacheTaxon;
-            if (list != null) {
-                System.arraycopy(list, 0, aggregate, length, list.length);
-                length += list.length;
-
-                // unallocate
-                cache.cacheTaxon = null;
-            }
-        }
-        return aggregate;
-    }
 
-    private DenormalIdentifier[] aggregateIdentifier(List<DenormalCache> caches) {
-        int totalSize = 0;
-        for (DenormalCache cache : caches) {
-            DenormalIdentifier[] list = cache.cacheIdentifier;
-            if (list != null) {
-                totalSize += list.length;
-            }
-        }
-        DenormalIdentifier[] aggregate = new DenormalIdentifier[totalSize];
-        int length = 0;
-        for (DenormalCache cache : caches) {
-            DenormalIdentifier[] list = cache.cacheIdentifier;
-            if (list != null) {
-                System.arraycopy(list, 0, aggregate, length, list.length);
-                length += list.length;
-
-                // unallocate
-                cache.cacheIdentifier = null;
+        if (rebuildIndex != null) {
+            try {
+                // everything else is copied from the current index, to be updated by the other tasks
+                long copied = indexRebuildService.copyOther(rebuildIndex, List.of(IndexDocType.TAXON.name(),
+                        IndexDocType.TAXONVARIANT.name(), IndexDocType.COMMON.name(), IndexDocType.IDENTIFIER.name()));
+                logService.log(taskType, "Copied " + copied + " other records from the current index");
+
+                String previous = indexRebuildService.publish(rebuildIndex);
+                logService.log(taskType, "Published " + rebuildIndex.getIndexName() + ", the previous index " + previous
+                        + " is kept for rollback");
+            } catch (Exception ex) {
+                logService.log(taskType, "Error There was problem publishing the new index: " + ex.getMessage());
+                logger.error("There was problem publishing the new index: " + ex.getMessage(), ex);
+                return CompletableFuture.completedFuture(false);
             }
         }
-        return aggregate;
-    }
 
-    private DenormalVariant[] aggregateVariant(List<DenormalCache> caches) {
-        int totalSize = 0;
-        for (DenormalCache cache : caches) {
-            DenormalVariant[] list = cache.cacheVariant;
-            if (list != null) {
-                totalSize += list.length;
-            }
-        }
-        DenormalVariant[] aggregate = new DenormalVariant[totalSize];
-        int length = 0;
-        for (DenormalCache cache : caches) {
-            DenormalVariant[] list = cache.cacheVariant;
-            if (list != null) {
-                System.arraycopy(list, 0, aggregate, length, list.length);
-                length += list.length;
-
-                // unallocate
-                cache.cacheVariant = null;
-            }
-        }
-        return aggregate;
-    }
+        // dynamic fields may have changed, cache the new list
+        elasticService.indexFields(true);
 
-    private DenormalVernacular[] aggregateVernacular(List<DenormalCache> caches) {
-        int totalSize = 0;
-        for (DenormalCache cache : caches) {
-            DenormalVernacular[] list = cache.cacheVernacular;
-            if (list != null) {
-                totalSize += list.length;
-            }
-        }
-        DenormalVernacular[] aggregate = new DenormalVernacular[totalSize];
-        int length = 0;
-        for (DenormalCache cache : caches) {
-            DenormalVernacular[] list = cache.cacheVernacular;
-            if (list != null) {
-                System.arraycopy(list, 0, aggregate, length, list.length);
-                length += list.length;
-
-                // unallocate
-                cache.cacheVernacular = null;
-            }
-        }
-        return aggregate;
+        logService.log(taskType, "Finished");
+
+        return CompletableFuture.completedFuture(true);
     }
 
-    private DenormalCache importDwcA(String dir, boolean cacheOnly, Map<String, DatasetInfo> attributionMap) {
-        String logLabel = cacheOnly ? "building cache" : "importing archive";
-        DenormalCache cache = null;
+    /**
+     * Read the archive metadata and datasets.
+     *
+     * @return the row types of the archive to import, core first
+     */
+    private List<ArchiveRowType> openArchive(String dir, Map<String, DatasetInfo> attributionMap) {
+        List<ArchiveRowType> rowTypes = new ArrayList<>();
         try {
-            logService.log(taskType, logLabel + " from " + dir);
+            logService.log(taskType, "Opening archive from " + dir);
 
             // read the DwC metadata
             java.nio.file.Path dwcLocation = Paths.get(dir);
@@ -216,51 +250,35 @@ public class DwCAImportService {
 
             if (attributionMap.isEmpty()) {
                 logService.log(taskType, "Error No datasets found in the archive");
-                return null;
-            }
-
-            // init cache object
-            if (cacheOnly) {
-                cache = new DenormalCache();
+                return rowTypes;
             }
 
-            CompletableFuture<Integer> main = dwCAImportRunner.importDwcARowType(archive.getCore(), attributionMap, defaultDatasetName, modified, cache);
-            CompletableFuture<Integer> variant = CompletableFuture.completedFuture(null);
-            CompletableFuture<Integer> vernacular = CompletableFuture.completedFuture(null);
-            CompletableFuture<Integer> identifier = CompletableFuture.completedFuture(null);
+            rowTypes.add(new ArchiveRowType(dir, archive.getCore(), defaultDatasetName, modified));
 
             // Legacy behaviour is to import identifiers into elasticsearch. While caching is required, the import is
             // to be removed when deprecating legacy functionality.
             ArchiveFile identifierExtension = archive.getExtension(GbifTerm.Identifier);
             if (identifierExtension != null) {
-                identifier = dwCAImportRunner.importDwcARowType(identifierExtension, attributionMap, defaultDatasetName, modified, cache);
+                rowTypes.add(new ArchiveRowType(dir, identifierExtension, defaultDatasetName, modified));
             }
 
             // Legacy behaviour is to import variants into elasticsearch. While caching is required, the import is
             // to be removed when deprecating legacy functionality.
             ArchiveFile variantExtension = archive.getExtension(ALATerm.TaxonVariant);
             if (variantExtension != null) {
-                variant = dwCAImportRunner.importDwcARowType(variantExtension, attributionMap, defaultDatasetName, modified, cache);
+                rowTypes.add(new ArchiveRowType(dir, variantExtension, defaultDatasetName, modified));
             }
 
             ArchiveFile vernacularExtension = archive.getExtension(GbifTerm.VernacularName);
             if (vernacularExtension != null) {
-                vernacular = dwCAImportRunner.importDwcARowType(vernacularExtension, attributionMap, defaultDatasetName, modified, cache);
+                rowTypes.add(new ArchiveRowType(dir, vernacularExtension, defaultDatasetName, modified));
             }
-
-            CompletableFuture.allOf(main, variant, vernacular, identifier).join();
-
-            logService.log(taskType, "Finished " + (cacheOnly ? "caching" : "importing") + " archive from " + dir
-                    + " finished: taxon=" + main.get()
-                    + ", variant=" + variant.get()
-                    + ", vernacular=" + vernacular.get()
-                    + ", identifier=" + identifier.get());
         } catch (Exception ex) {
-            logService.log(taskType, "Error There was problem with the " + logLabel + ": " + ex.getMessage());
-            logger.error("There was problem with the import: " + ex.getMessage(), ex);
+            logService.log(taskType, "Error There was problem with opening the archive: " + ex.getMessage());
+            logger.error("There was problem with opening the archive: " + ex.getMessage(), ex);
         }
 
-        return cache;
+        return rowTypes;
     }
 
     private Map<String, DatasetInfo> getDatasets(Archive archive) {
@@ -307,4 +325,18 @@ public class DwCAImportService {
 
         return datasets;
     }
+
+    private static class ArchiveRowType {
+        final String dir;
+        final ArchiveFile file;
+        final String defaultDatasetName;
+        final Date modified;
+
+        ArchiveRowType(String dir, ArchiveFile file, String defaultDatasetName, Date modified) {
+            this.dir = dir;
+            this.file = file;
+            this.defaultDatasetName = defaultDatasetName;
+            this.modified = modified;
+        }
+    }
 }
@@ -0,0 +1,394 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.update;
+
+import au.org.ala.search.model.IndexDocType;
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.model.TaskType;
+import au.org.ala.search.service.remote.ElasticService;
+import au.org.ala.search.service.remote.LogService;
+import jakarta.annotation.PostConstruct;
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Crawls the pages listed in a sitemap, for the WordpressImportService and KnowledgebaseImportService.
+ * <p>
+ * Sitemaps and pages are fetched on virtual threads, at most crawler.concurrency requests at a time, and requests to
+ * the same host start at least crawler.hostIntervalMs apart.
+ * <p>
+ * A page in the index is only fetched when its sitemap lastmod is after the indexed modified date, or there is no
+ * lastmod. It is fetched with If-Modified-Since and, when known from a previous crawl, If-None-Match, and a 304
+ * response is skipped. Sitemaps are also fetched conditionally, and the entries of an unchanged sitemap are reused
+ * from the previous crawl.
+ * <p>
+ * importPages indexes the pages as they are fetched, in batches of BATCH_SIZE. A full batch is swapped out under a
+ * ReentrantLock and indexed outside it, so a virtual thread does not hold a monitor, pinning its carrier thread, while
+ * it waits for elasticsearch.
+ */
+@Service
+public class PageCrawler {
+    private static final Logger logger = LoggerFactory.getLogger(PageCrawler.class);
+
+    private static final int NOT_MODIFIED = 304;
+    private static final int BATCH_SIZE = 1000;
+
+    protected final ElasticService elasticService;
+    protected final LogService logService;
+
+    @Value("${crawler.concurrency}")
+    private Integer concurrency;
+
+    @Value("${crawler.hostIntervalMs}")
+    private Long hostIntervalMs;
+
+    private Semaphore permits;
+
+    // start time of the next request, by host
+    private final Map<String, AtomicLong> nextRequest = new ConcurrentHashMap<>();
+
+    // from the previous crawl, by url
+    private final Map<String, Sitemap> sitemaps = new ConcurrentHashMap<>();
+    private final Map<String, String> etags = new ConcurrentHashMap<>();
+
+    public PageCrawler(ElasticService elasticService, LogService logService) {
+        this.elasticService = elasticService;
+        this.logService = logService;
+    }
+
+    @PostConstruct
+    void init() {
+        permits = new Semaphore(Math.max(1, concurrency));
+    }
+
+    @FunctionalInterface
+    public interface PageHandler {
+        /**
+         * Called concurrently, for each new or changed page.
+         */
+        void page(String url, Date lastmod, Document document) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface PageParser {
+        /**
+         * Called concurrently, for each new or changed page.
+         *
+         * @return the item to index, or null when the page is not indexed
+         */
+        SearchItemIndex parse(String url, Date lastmod, Document document) throws Exception;
+    }
+
+    /**
+     * Index the new and changed pages of a sitemap, and delete the indexed pages of the idxtype that are no longer in
+     * it.
+     *
+     * @param pageParams appended to each page url when it is fetched
+     * @param timeout    request timeout in ms
+     */
+    public void importPages(TaskType taskType, IndexDocType idxtype, String sitemapUrl, String pageParams, int timeout,
+                            PageParser parser) {
+        Map<String, Date> existingPages = elasticService.queryItems("idxtype", idxtype.name());
+
+        Batch batch = new Batch();
+        AtomicInteger counter = new AtomicInteger();
+        Result result = crawl(taskType, sitemapUrl, pageParams, timeout, existingPages, (url, lastmod, document) -> {
+            SearchItemIndex searchItemIndex = parser.parse(url, lastmod, document);
+            if (searchItemIndex != null) {
+                List<IndexQuery> full = batch.add(elasticService.buildIndexQuery(searchItemIndex));
+                if (full != null) {
+                    counter.addAndGet(elasticService.flushImmediately(full));
+
+                    logService.log(taskType, taskType.name().toLowerCase() + " import progress: " + counter.get());
+                }
+            }
+        });
+
+        counter.addAndGet(elasticService.flushImmediately(batch.take()));
+
+        // a sitemap that could not be read would otherwise delete all of its pages
+        long deleted = 0;
+        if (result.failedSitemaps.get() == 0) {
+            deleted = elasticService.removeDeletedItems(existingPages);
+        } else {
+            logService.log(taskType, "Not removing deleted pages, sitemaps failed: " + result.failedSitemaps.get());
+        }
+
+        logService.log(taskType, "Finished updates: " + counter.get() + ", deleted: " + deleted + ", " + result);
+    }
+
+    /**
+     * @param sitemapUrl    the sitemap or sitemap index
+     * @param pageParams    appended to each page url when it is fetched
+     * @param timeout       request timeout in ms
+     * @param existingPages modified dates of the indexed pages. Pages in the sitemap are removed, so that it will only
+     *                      contain deleted pages.
+     * @return the counts of the crawl
+     */
+    public Result crawl(TaskType taskType, String sitemapUrl, String pageParams, int timeout,
+                        Map<String, Date> existingPages, PageHandler handler) {
+        Result result = new Result();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Map<String, Date> pages = listPages(taskType, sitemapUrl, timeout, executor, result);
+            result.pages = pages.size();
+
+            for (Map.Entry<String, Date> page : pages.entrySet()) {
+                String url = page.getKey();
+                Date lastmod = page.getValue();
+                Date stored = existingPages.remove(url);
+
+                if (stored != null && lastmod != null && !lastmod.after(stored)) {
+                    result.unchanged.incrementAndGet();
+                    continue;
+                }
+
+                executor.submit(() -> fetchPage(taskType, url, pageParams, timeout, lastmod, stored, handler, result));
+            }
+        }
+
+        logger.info(sitemapUrl + " " + result);
+        return result;
+    }
+
+    // each level of the sitemap tree is fetched concurrently
+    private Map<String, Date> listPages(TaskType taskType, String sitemapUrl, int timeout, ExecutorService executor, Result result) {
+        Map<String, Date> pages = new LinkedHashMap<>();
+        Set<String> seen = new HashSet<>();
+        seen.add(sitemapUrl);
+
+        List<String> level = List.of(sitemapUrl);
+        while (!level.isEmpty()) {
+            List<Future<Sitemap>> futures = new ArrayList<>(level.size());
+            for (String url : level) {
+                futures.add(executor.submit(() -> fetchSitemap(url, timeout)));
+            }
+
+            List<String> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i++) {
+                try {
+                    Sitemap sitemap = futures.get(i).get();
+                    for (String child : sitemap.sitemaps) {
+                        if (seen.add(child)) {
+                            next.add(child);
+                        }
+                    }
+                    for (Map.Entry<String, String> page : sitemap.pages.entrySet()) {
+                        pages.put(page.getKey(), parseLastmod(taskType, page.getKey(), page.getValue()));
+                    }
+                } catch (ExecutionException e) {
+                    result.failedSitemaps.incrementAndGet();
+                    logService.log(taskType, "Unable to retrieve " + level.get(i) + ": " + e.getCause().getMessage() + ", ignoring");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.failedSitemaps.incrementAndGet();
+                    return pages;
+                }
+            }
+            level = next;
+        }
+
+        logService.log(taskType, "pages: " + pages.size());
+        return pages;
+    }
+
+    private Sitemap fetchSitemap(String url, int timeout) throws IOException, InterruptedException {
+        Sitemap previous = sitemaps.get(url);
+        Connection.Response response = request(url, timeout,
+                previous != null ? previous.etag : null,
+                previous != null ? previous.lastModified : null);
+
+        if (response.statusCode() == NOT_MODIFIED && previous != null) {
+            return previous;
+        }
+
+        Document doc = response.parse();
+        Sitemap sitemap = new Sitemap(response.header("ETag"), response.header("Last-Modified"));
+        for (Element loc : doc.select("sitemapindex sitemap loc")) {
+            sitemap.sitemaps.add(loc.text());
+        }
+        for (Element item : doc.select("urlset url")) {
+            sitemap.pages.put(item.select("loc").text(), item.select("lastmod").text());
+        }
+
+        if (sitemap.etag != null || sitemap.lastModified != null) {
+            sitemaps.put(url, sitemap);
+        }
+        return sitemap;
+    }
+
+    private void fetchPage(TaskType taskType, String url, String pageParams, int timeout, Date lastmod, Date stored,
+                           PageHandler handler, Result result) {
+        try {
+            // only conditional when the page is in the index, pages that were not indexed are fetched again
+            Connection.Response response = request(url + pageParams, timeout,
+                    stored != null ? etags.get(url) : null,
+                    stored != null ? DateTimeFormatter.RFC_1123_DATE_TIME.format(stored.toInstant().atOffset(ZoneOffset.UTC)) : null);
+
+            if (response.statusCode() == NOT_MODIFIED) {
+                result.notModified.incrementAndGet();
+                return;
+            }
+
+            String etag = response.header("ETag");
+            if (etag != null) {
+                etags.put(url, etag);
+            }
+
+            handler.page(url, lastmod != null ? lastmod : new Date(), response.parse());
+            result.fetched.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.failed.incrementAndGet();
+        } catch (Exception e) {
+            result.failed.incrementAndGet();
+            logService.log(taskType, "cannot index " + url + ", " + e.getMessage());
+        }
+    }
+
+    private Connection.Response request(String url, int timeout, String etag, String ifModifiedSince) throws IOException, InterruptedException {
+        throttle(url);
+
+        permits.acquire();
+        try {
+            Connection connection = Jsoup.connect(url).timeout(timeout).ignoreHttpErrors(true);
+            if (etag != null) {
+                connection.header("If-None-Match", etag);
+            }
+            if (ifModifiedSince != null) {
+                connection.header("If-Modified-Since", ifModifiedSince);
+            }
+
+            Connection.Response response = connection.execute();
+            if (response.statusCode() >= 400) {
+                throw new HttpStatusException("HTTP error fetching URL", response.statusCode(), url);
+            }
+
+            // read the body while holding the permit
+            return response.bufferUp();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void throttle(String url) throws InterruptedException {
+        if (hostIntervalMs <= 0) {
+            return;
+        }
+
+        String host = StringUtils.substringBefore(StringUtils.substringAfter(url, "://"), "/");
+        AtomicLong next = nextRequest.computeIfAbsent(host, h -> new AtomicLong());
+
+        long start;
+        synchronized (next) {
+            start = Math.max(System.currentTimeMillis(), next.get());
+            next.set(start + hostIntervalMs);
+        }
+
+        long wait = start - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    // W3C datetime, with or without the time
+    private Date parseLastmod(TaskType taskType, String url, String lastmod) {
+        if (StringUtils.isEmpty(lastmod)) {
+            return null;
+        }
+
+        try {
+            return Date.from(OffsetDateTime.parse(lastmod).toInstant());
+        } catch (DateTimeParseException ignored) {
+        }
+        try {
+            return Date.from(LocalDate.parse(lastmod).atStartOfDay(ZoneOffset.UTC).toInstant());
+        } catch (DateTimeParseException e) {
+            logService.log(taskType, "cannot parse lastmod " + lastmod + " for " + url + ", " + e.getMessage());
+        }
+        return null;
+    }
+
+    // index queries of fetched pages, added concurrently
+    private static class Batch {
+        private final ReentrantLock lock = new ReentrantLock();
+        private List<IndexQuery> queries = new ArrayList<>();
+
+        /**
+         * @return the batch to index when it is full, otherwise null
+         */
+        List<IndexQuery> add(IndexQuery query) {
+            lock.lock();
+            try {
+                queries.add(query);
+                return queries.size() >= BATCH_SIZE ? take() : null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<IndexQuery> take() {
+            lock.lock();
+            try {
+                List<IndexQuery> taken = queries;
+                queries = new ArrayList<>();
+                return taken;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Sitemap {
+        final String etag;
+        final String lastModified;
+        final List<String> sitemaps = new ArrayList<>();
+        // lastmod by url
+        final Map<String, String> pages = new LinkedHashMap<>();
+
+        Sitemap(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public static class Result {
+        public int pages;
+        public final AtomicInteger unchanged = new AtomicInteger();
+        public final AtomicInteger notModified = new AtomicInteger();
+        public final AtomicInteger fetched = new AtomicInteger();
+        public final AtomicInteger failed = new AtomicInteger();
+        public final AtomicInteger failedSitemaps = new AtomicInteger();
+
+        @Override
+        public String toString() {
+            return "pages: " + pages + ", unchanged: " + unchanged + ", not modified: " + notModified
+                    + ", fetched: " + fetched + ", failed: " + failed + ", failed sitemaps: " + failedSitemaps;
+        }
+    }
+}
@@ -12,11 +12,10 @@ import au.org.ala.search.model.query.Op;
 import au.org.ala.search.names.TaxonomicType;
 import au.org.ala.search.service.remote.ElasticService;
 import au.org.ala.search.service.remote.LogService;
+import au.org.ala.search.service.remote.PointInTimeCursor;
 import au.org.ala.search.service.remote.SitemapFileStoreService;
 import au.org.ala.search.util.QueryParserUtil;
-import co.elastic.clients.elasticsearch._types.FieldValue;
 import co.elastic.clients.elasticsearch._types.query_dsl.FieldAndFormat;
-import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.json.JsonData;
 import org.apache.commons.io.FileUtils;
@@ -27,16 +26,29 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.*;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
 
+/**
+ * Builds the sitemap of accepted taxa.
+ * <p>
+ * Each point in time slice is streamed into its own series of gzipped temporary files, rolled over at MAX_URLS urls
+ * or MAX_SIZE uncompressed bytes, so no sitemap file is held in memory. The files are then numbered in slice order,
+ * and only the files with a content hash that differs from the previous run are copied to the file store. The hashes
+ * are kept in data.dir.
+ */
 @Service
 public class SitemapService {
     private static final TaskType taskType = TaskType.SITEMAP;
@@ -49,13 +61,14 @@ public class SitemapService {
     protected final ElasticService elasticService;
     protected final LogService logService;
     protected final SitemapFileStoreService sitemapFileStoreService;
-    List<Date> lastMod = new ArrayList<>();
-    Date currentLastMod;
-    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
     @Value("${sitemap.url}")
     private String uiUrl;
     @Value("${speciesUrlPrefix}")
     private String speciesUrl;
+    @Value("${sitemap.slices}")
+    private Integer sitemapSlices;
+    @Value("${data.dir}")
+    private String dataDir;
 
     public SitemapService(ElasticService elasticService, LogService logService, SitemapFileStoreService sitemapFileStoreService) {
         this.elasticService = elasticService;
@@ -66,13 +79,17 @@ public class SitemapService {
     @Async("processExecutor")
     public CompletableFuture<Boolean> run() {
         logService.log(taskType, "Start");
-        lastMod = new ArrayList<>();
-        currentLastMod = null;
 
-        buildSitemapPages();
-        buildSitemapIndex();
+        List<Shard> shards = buildSitemapPages();
+        if (shards != null) {
+            Properties hashes = loadHashes();
+
+            upload(shards, hashes);
+            buildSitemapIndex(shards);
+            removeObsoleteFiles(shards.size(), hashes);
 
-        removeObsoleteFiles();
+            saveHashes(hashes);
+        }
 
         logService.log(taskType, "Finished");
 
@@ -80,45 +97,30 @@ public class SitemapService {
     }
 
     // write parent sitemap file
-    void buildSitemapIndex() {
+    void buildSitemapIndex(List<Shard> shards) {
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
         StringBuilder sb = new StringBuilder();
 
         sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
 
-        for (int i = 0; i < lastMod.size(); i++) {
-            sb.append("<sitemap><loc>").append(uiUrl).append("/sitemap").append(i).append(".xml.gz").append("</loc>");
-            sb.append("<lastmod>").append(simpleDateFormat.format(lastMod.get(i))).append("</lastmod></sitemap>");
+        for (int i = 0; i < shards.size(); i++) {
+            sb.append("<sitemap><loc>").append(uiUrl).append("/").append(shardName(i)).append("</loc>");
+            if (shards.get(i).lastMod != null) {
+                sb.append("<lastmod>").append(simpleDateFormat.format(shards.get(i).lastMod)).append("</lastmod>");
+            }
+            sb.append("</sitemap>");
         }
 
         sb.append("</sitemapindex>");
 
-        write("sitemap.xml", sb.toString(), null, false);
-    }
-
-    void write(String filename, String content, Date date, boolean gzip) {
-        if (lastMod != null) {
-            // child xml
-            lastMod.add(date);
-        }
-
         File tmpFile = null;
-
         try {
-            tmpFile = File.createTempFile("sitemap", ".xml" + (gzip ? ".gz" : ""));
-
-            if (gzip) {
-                try (FileOutputStream fos = new FileOutputStream(tmpFile);
-                     GZIPOutputStream gos = new GZIPOutputStream(fos)) {
-                    gos.write(content.getBytes(StandardCharsets.UTF_8));
-                }
-            } else {
-                FileUtils.write(tmpFile, content, StandardCharsets.UTF_8);
-            }
-
-            sitemapFileStoreService.copyToFileStore(tmpFile, filename + (gzip ? ".gz" : ""), true);
+            tmpFile = File.createTempFile("sitemap", ".xml");
+            FileUtils.write(tmpFile, sb.toString(), StandardCharsets.UTF_8);
+            sitemapFileStoreService.copyToFileStore(tmpFile, "sitemap.xml", true);
         } catch (Exception e) {
-            logService.log(taskType, "Error failed to write sitemap file: " + filename + (gzip ? ".gz" : ""));
-            logger.error("failed to write sitemap file: " + filename + (gzip ? ".gz" : ""));
+            logService.log(taskType, "Error failed to write sitemap file: sitemap.xml");
+            logger.error("failed to write sitemap file: sitemap.xml");
         } finally {
             if (tmpFile != null && tmpFile.exists()) {
                 tmpFile.delete();
@@ -126,7 +128,10 @@ public class SitemapService {
         }
     }
 
-    void buildSitemapPages() {
+    /**
+     * @return the sitemap files, in order, or null when the build failed
+     */
+    List<Shard> buildSitemapPages() {
         List<FieldAndFormat> fieldList = new ArrayList<>(6);
         fieldList.add(new FieldAndFormat.Builder().field("id").build());
         fieldList.add(new FieldAndFormat.Builder().field("guid").build());
@@ -135,20 +140,11 @@ public class SitemapService {
         fieldList.add(new FieldAndFormat.Builder().field("commonNameSingle").build());
         fieldList.add(new FieldAndFormat.Builder().field("nameComplete").build());
 
-        StringBuilder buffer = new StringBuilder();
-        buffer.append(URLSET_HEADER);
-
-        String pit = null;
-
-        int counter = 0;
         int pageSize = 1000;
+        List<Future<List<Shard>>> futures = new ArrayList<>();
         try {
             logService.log(taskType, "Start paging for sitemap");
 
-            pit = elasticService.openPointInTime();
-
-            List<FieldValue> searchAfter = null;
-
             Map<String, Object> query = new HashMap<>();
             query.put("idxtype", "TAXON");
             query.put(
@@ -173,14 +169,46 @@ public class SitemapService {
             Op op = QueryParserUtil.parse(queryString, null, elasticService::isValidField);
             co.elastic.clients.elasticsearch._types.query_dsl.Query queryOp = elasticService.opToQuery(op);
 
-            boolean hasMore = true;
-            while (hasMore) {
-                SearchResponse<SearchItemIndex> result =
-                        elasticService.queryPointInTimeAfter(
-                                pit, searchAfter, pageSize, queryOp, fieldList, null, false);
-                List<Hit<SearchItemIndex>> hits = result.hits().hits();
-                searchAfter = hits.isEmpty() ? null : hits.getLast().sort();
+            List<PointInTimeCursor> cursors = elasticService.openCursors(queryOp, fieldList, pageSize, sitemapSlices);
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (PointInTimeCursor cursor : cursors) {
+                    futures.add(executor.submit(() -> buildSlice(cursor)));
+                }
+            } finally {
+                cursors.forEach(PointInTimeCursor::close);
+            }
 
+            List<Shard> shards = new ArrayList<>();
+            for (Future<List<Shard>> future : futures) {
+                shards.addAll(future.get());
+            }
+
+            long counter = shards.stream().mapToLong(shard -> shard.urls).sum();
+            logService.log(taskType, "Finished urls: " + counter + ", files: " + shards.size());
+            return shards;
+        } catch (Exception ex) {
+            logService.log(taskType, "Error failed sitemap: " + ex.getMessage());
+            logger.error("failed sitemap: " + ex.getMessage(), ex);
+
+            // remove the temporary files of the slices that finished
+            for (Future<List<Shard>> future : futures) {
+                if (future.state() == Future.State.SUCCESS) {
+                    future.resultNow().forEach(Shard::delete);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stream the urls of one slice into sitemap files.
+     */
+    private List<Shard> buildSlice(PointInTimeCursor cursor) throws IOException {
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        List<Shard> shards = new ArrayList<>();
+        Shard shard = null;
+        try {
+            for (List<Hit<SearchItemIndex>> hits : cursor) {
                 for (Hit<SearchItemIndex> hit : hits) {
                     SearchItemIndex item = hitToItem(hit);
 
@@ -189,33 +217,28 @@ public class SitemapService {
                     if (StringUtils.isEmpty(nameString)) nameString = item.getCommonNameSingle();
 
                     if (nameString != null) {
-                        buffer = writeUrl(buffer, "monthly", speciesUrl + URLEncoder.encode(nameString, StandardCharsets.UTF_8), item.modified, true);
-                        counter++;
+                        byte[] url = formatUrl(simpleDateFormat, "monthly", speciesUrl + URLEncoder.encode(nameString, StandardCharsets.UTF_8), item.modified);
+                        if (shard == null || !shard.fits(url)) {
+                            if (shard != null) {
+                                shard.close();
+                            }
+                            shard = new Shard();
+                            shards.add(shard);
+                        }
+                        shard.write(url, item.modified);
                     }
                 }
-
-                hasMore = hits.size() == pageSize;
             }
-
-            // the buffer will never be empty because it will always contain at least URLSET_HEADER, this
-            // is acceptable
-            if (!buffer.isEmpty()) {
-                buffer.append(URLSET_FOOTER);
-                write("sitemap" + lastMod.size() + ".xml", buffer.toString(), currentLastMod, true);
+            if (shard != null) {
+                shard.close();
             }
-
-            logService.log(taskType, "Finished urls: " + counter);
-        } catch (Exception ex) {
-            logService.log(taskType, "Error failed sitemap: " + ex.getMessage());
-            logger.error("failed sitemap: " + ex.getMessage(), ex);
-        } finally {
-            try {
-                if (pit != null) {
-                    elasticService.closePointInTime(pit);
-                }
-            } catch (Exception e) {
-                logger.error("Failed to close point in time", e);
+            return shards;
+        } catch (IOException | RuntimeException e) {
+            if (shard != null) {
+                shard.closeQuietly();
             }
+            shards.forEach(Shard::delete);
+            throw e;
         }
     }
 
@@ -237,37 +260,144 @@ public class SitemapService {
                 .build();
     }
 
-    StringBuilder writeUrl(StringBuilder sb, String changefreq, String encodedUrl, Date date, boolean gzip) {
-        if (currentLastMod == null || date.compareTo(currentLastMod) > 0) {
-            currentLastMod = date;
-        }
-        if (lastMod.size() >= MAX_URLS || sb.length() >= MAX_SIZE) {
-            sb.append(URLSET_FOOTER);
-            write("sitemap" + lastMod.size() + ".xml", sb.toString(), currentLastMod, gzip);
-            currentLastMod = null;
-            sb = new StringBuilder();
-            sb.append(URLSET_HEADER);
-        }
-
+    static byte[] formatUrl(SimpleDateFormat simpleDateFormat, String changefreq, String encodedUrl, Date date) {
+        StringBuilder sb = new StringBuilder(encodedUrl.length() + 100);
         sb.append("<url>")
                 .append("<loc>")
                 .append(encodedUrl)
-                .append("</loc>")
-                .append("<lastmod>")
-                .append(simpleDateFormat.format(date))
-                .append("</lastmod>")
-                .append("<changefreq>")
+                .append("</loc>");
+        if (date != null) {
+            sb.append("<lastmod>")
+                    .append(simpleDateFormat.format(date))
+                    .append("</lastmod>");
+        }
+        sb.append("<changefreq>")
                 .append(changefreq)
                 .append("</changefreq>")
                 .append("</url>");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
 
-        return sb;
+    private static String shardName(int i) {
+        return "sitemap" + i + ".xml.gz";
+    }
+
+    /**
+     * Copy the sitemap files with changed content to the file store, and delete the temporary files.
+     */
+    void upload(List<Shard> shards, Properties hashes) {
+        int unchanged = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            String name = shardName(i);
+            if (shard.hash.equals(hashes.getProperty(name))) {
+                unchanged++;
+                shard.delete();
+            } else if (sitemapFileStoreService.copyToFileStore(shard.file, name, true)) {
+                hashes.setProperty(name, shard.hash);
+            } else {
+                hashes.remove(name);
+                shard.delete();
+                logService.log(taskType, "Error failed to write sitemap file: " + name);
+            }
+        }
+        logService.log(taskType, "Sitemap files copied: " + (shards.size() - unchanged) + ", unchanged: " + unchanged);
     }
 
-    void removeObsoleteFiles() {
+    void removeObsoleteFiles(int count, Properties hashes) {
         boolean hasMore = true;
-        for (int i = lastMod.size() - 1; hasMore; i++) {
-            hasMore = sitemapFileStoreService.deleteFile("sitemap" + i + ".xml");
+        for (int i = count; hasMore; i++) {
+            hashes.remove(shardName(i));
+            hasMore = sitemapFileStoreService.deleteFile(shardName(i));
+        }
+    }
+
+    private File hashesFile() {
+        return new File(dataDir + "/sitemap-hashes.properties");
+    }
+
+    private Properties loadHashes() {
+        Properties hashes = new Properties();
+        File file = hashesFile();
+        if (file.exists()) {
+            try (Reader reader = new FileReader(file, StandardCharsets.UTF_8)) {
+                hashes.load(reader);
+            } catch (IOException e) {
+                logger.error("cannot read: " + file.getPath() + ", all sitemap files will be copied");
+            }
+        }
+        return hashes;
+    }
+
+    private void saveHashes(Properties hashes) {
+        File file = hashesFile();
+        try (Writer writer = new FileWriter(file, StandardCharsets.UTF_8)) {
+            hashes.store(writer, "SHA-256 of the uncompressed sitemap files in the file store");
+        } catch (IOException e) {
+            logger.error("cannot write: " + file.getPath());
+        }
+    }
+
+    /**
+     * A sitemap file being written to a gzipped temporary file. The SHA-256 of the uncompressed content is
+     * available after close.
+     */
+    static class Shard {
+        final File file;
+        private final OutputStream out;
+        private final MessageDigest digest;
+        private final int footerSize = URLSET_FOOTER.getBytes(StandardCharsets.UTF_8).length;
+
+        int urls;
+        long bytes;
+        Date lastMod;
+        String hash;
+
+        Shard() throws IOException {
+            file = File.createTempFile("sitemap", ".xml.gz");
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            out = new DigestOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file)), 64 * 1024), digest);
+            write(URLSET_HEADER.getBytes(StandardCharsets.UTF_8));
+        }
+
+        boolean fits(byte[] url) {
+            return urls < MAX_URLS && bytes + url.length + footerSize <= MAX_SIZE;
+        }
+
+        void write(byte[] url, Date date) throws IOException {
+            write(url);
+            urls++;
+            if (date != null && (lastMod == null || date.compareTo(lastMod) > 0)) {
+                lastMod = date;
+            }
+        }
+
+        private void write(byte[] content) throws IOException {
+            out.write(content);
+            bytes += content.length;
+        }
+
+        void close() throws IOException {
+            write(URLSET_FOOTER.getBytes(StandardCharsets.UTF_8));
+            out.close();
+            hash = HexFormat.of().formatHex(digest.digest());
+        }
+
+        void closeQuietly() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        void delete() {
+            if (file.exists()) {
+                file.delete();
+            }
         }
     }
 }
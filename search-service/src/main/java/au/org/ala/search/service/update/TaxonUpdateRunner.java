@@ -20,12 +20,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.elasticsearch.core.document.Document;
 import org.springframework.data.elasticsearch.core.query.UpdateQuery;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
@@ -50,8 +48,12 @@ public class TaxonUpdateRunner {
         this.logService = logService;
     }
 
-    @Async("blockingExecutor")
-    public CompletableFuture<Integer> updateForList(List<Hit<SearchItemIndex>> list) {
+    /**
+     * Update occurrence counts and images for a page of TAXON hits.
+     *
+     * @return number of updates, or the negative number of hits skipped because of an error
+     */
+    public int updateForList(List<Hit<SearchItemIndex>> list) {
         try {
             List<UpdateQuery> updates = new ArrayList<>();
 
@@ -87,11 +89,11 @@ public class TaxonUpdateRunner {
             int updatesSize = updates.size();
             updates.clear();
 
-            return CompletableFuture.completedFuture(updatesSize);
+            return updatesSize;
         } catch (Exception e) {
             logService.log(taskType, "Error updating counts: " + e.getMessage());
             logger.error(e.getMessage(), e);
-            return CompletableFuture.completedFuture(-1 * list.size());
+            return -1 * list.size();
         }
     }
 
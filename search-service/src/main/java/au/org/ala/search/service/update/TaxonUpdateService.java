@@ -11,24 +11,28 @@ import au.org.ala.search.model.TaskType;
 import au.org.ala.search.model.query.Op;
 import au.org.ala.search.service.remote.ElasticService;
 import au.org.ala.search.service.remote.LogService;
+import au.org.ala.search.service.remote.PointInTimeCursor;
 import au.org.ala.search.util.QueryParserUtil;
-import co.elastic.clients.elasticsearch._types.FieldValue;
 import co.elastic.clients.elasticsearch._types.query_dsl.FieldAndFormat;
-import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.elasticsearch.core.document.Document;
 import org.springframework.data.elasticsearch.core.query.UpdateQuery;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class TaxonUpdateService {
@@ -39,6 +43,8 @@ public class TaxonUpdateService {
     protected final TaxonUpdateRunner taxonUpdateRunner;
     protected final LogService logService;
     Map<String, String> acceptedConceptName;
+    @Value("${taxonUpdate.slices}")
+    Integer taxonUpdateSlices;
 
     public TaxonUpdateService(ElasticService elasticService, TaxonUpdateRunner taxonUpdateRunner, LogService logService) {
         this.elasticService = elasticService;
@@ -68,9 +74,8 @@ public class TaxonUpdateService {
             return false;
         }
 
-        acceptedConceptName = new HashMap<>();
+        acceptedConceptName = new ConcurrentHashMap<>();
 
-        List<CompletableFuture<Integer>> futures = new ArrayList<>(1000);
         List<FieldAndFormat> fieldList = new ArrayList<>(2);
         fieldList.add(new FieldAndFormat.Builder().field("id").build());
         fieldList.add(new FieldAndFormat.Builder().field("occurrenceCount").build());
@@ -79,60 +84,34 @@ public class TaxonUpdateService {
         fieldList.add(new FieldAndFormat.Builder().field("scientificName").build());
         fieldList.add(new FieldAndFormat.Builder().field("image").build());
 
-        String pit = null;
-
-        int counter = 0;
         int pageSize = 1000;
         try {
-            List<FieldValue> searchAfter = null;
-
-            pit = elasticService.openPointInTime();
-
             Op op = QueryParserUtil.parse("idxtype:\"TAXON\" AND -acceptedConceptID:*", null, elasticService::isValidField);
             co.elastic.clients.elasticsearch._types.query_dsl.Query queryOp = elasticService.opToQuery(op);
 
-            boolean hasMore = true;
-            while (hasMore) {
-                SearchResponse<SearchItemIndex> result = elasticService.queryPointInTimeAfter(
-                        pit, searchAfter, pageSize, queryOp, fieldList, null, false);
-                List<Hit<SearchItemIndex>> hits = result.hits().hits();
-
-                if (hits.isEmpty()) {
-                    hasMore = false;
-                    continue;
+            // Each slice has its own reader and its own worker for the biocache counts and image lookups
+            List<PointInTimeCursor> cursors = elasticService.openCursors(queryOp, fieldList, pageSize, taxonUpdateSlices);
+            AtomicInteger progress = new AtomicInteger();
+            List<Future<int[]>> futures = new ArrayList<>(cursors.size());
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < cursors.size(); i++) {
+                    PointInTimeCursor cursor = cursors.get(i);
+                    int slice = i;
+                    futures.add(executor.submit(() -> updateAcceptedSlice(slice, cursor, progress)));
                 }
-
-                searchAfter = hits.isEmpty() ? null : hits.getLast().sort();
-
-                futures.add(taxonUpdateRunner.updateForList(hits));
-
-                for (Hit<SearchItemIndex> item : hits) {
-                    String guid = item.fields().get("guid").toJson().asJsonArray().getJsonString(0).getString();
-                    String nameComplete = item.fields().get("nameComplete").toJson().asJsonArray().getJsonString(0).getString();
-                    String scientificName = item.fields().get("scientificName").toJson().asJsonArray().getJsonString(0).getString();
-                    acceptedConceptName.put(guid, StringUtils.isNotEmpty(nameComplete) ? nameComplete : scientificName);
-                }
-
-                counter += hits.size();
-
-                if (counter % 20000 == 0) {
-                    logService.log(taskType, "occurrence counts progress: " + counter);
-                }
-
-                hasMore = hits.size() == pageSize;
+            } finally {
+                cursors.forEach(PointInTimeCursor::close);
             }
 
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-
             // summarize result
+            int counter = 0;
             int updateCount = 0;
             int skippedCount = 0;
-            for (CompletableFuture<Integer> f : futures) {
-                if (f.get() >= 0) {
-                    updateCount += f.get();
-                } else {
-                    skippedCount += f.get() * -1;
-                }
+            for (Future<int[]> f : futures) {
+                int[] sliceCounts = f.get();
+                counter += sliceCounts[0];
+                updateCount += sliceCounts[1];
+                skippedCount += sliceCounts[2];
             }
 
             logService.log(taskType, "Finished found: " + counter + ", updates: " + updateCount + ", skipped (error): " + skippedCount);
@@ -140,18 +119,47 @@ public class TaxonUpdateService {
             logService.log(taskType, "Error there was problem with occurrences import: " + ex.getMessage());
             logger.error("There was problem with occurrences import: " + ex.getMessage(), ex);
             return false;
-        } finally {
-            try {
-                if (pit != null) {
-                    elasticService.closePointInTime(pit);
-                }
-            } catch (Exception e) {
-                logger.error("Failed to close point in time", e);
-            }
         }
         return true;
     }
 
+    /**
+     * @return counts for the slice; found, updates, skipped (error)
+     */
+    private int[] updateAcceptedSlice(int slice, PointInTimeCursor cursor, AtomicInteger progress) {
+        int counter = 0;
+        int updateCount = 0;
+        int skippedCount = 0;
+
+        for (List<Hit<SearchItemIndex>> hits : cursor) {
+            for (Hit<SearchItemIndex> item : hits) {
+                String guid = item.fields().get("guid").toJson().asJsonArray().getJsonString(0).getString();
+                String nameComplete = item.fields().get("nameComplete").toJson().asJsonArray().getJsonString(0).getString();
+                String scientificName = item.fields().get("scientificName").toJson().asJsonArray().getJsonString(0).getString();
+                acceptedConceptName.put(guid, StringUtils.isNotEmpty(nameComplete) ? nameComplete : scientificName);
+            }
+
+            int result = taxonUpdateRunner.updateForList(hits);
+            if (result >= 0) {
+                updateCount += result;
+            } else {
+                skippedCount += result * -1;
+            }
+
+            counter += hits.size();
+
+            // log progress at each 20000 boundary crossed by this page
+            int total = progress.addAndGet(hits.size());
+            if (total / 20000 != (total - hits.size()) / 20000) {
+                logService.log(taskType, "occurrence counts progress: " + total);
+            }
+        }
+
+        logService.log(taskType, "Finished slice " + slice + " found: " + counter + ", updates: " + updateCount + ", skipped (error): " + skippedCount);
+
+        return new int[]{counter, updateCount, skippedCount};
+    }
+
     // Performance: this is not currently an issue, but when legacy components are deprecated also move this to
     // DwCADenormaliseImportService - take the accepted name cache along.
     private boolean updateNonAccepted() {
@@ -162,54 +170,35 @@ public class TaxonUpdateService {
         List<FieldAndFormat> fieldList = new ArrayList<>(2);
         fieldList.add(new FieldAndFormat.Builder().field("acceptedConceptID").build());
 
-        String pit = null;
-
         int counter = 0;
         int pageSize = 10000;
         try {
-            pit = elasticService.openPointInTime();
-
-            List<FieldValue> searchAfter = null;
-
             Op op = QueryParserUtil.parse("idxtype:\"TAXON\" AND acceptedConceptID:* AND -acceptedConceptName:*", null, elasticService::isValidField);
             co.elastic.clients.elasticsearch._types.query_dsl.Query queryOp = elasticService.opToQuery(op);
 
-            boolean hasMore = true;
-            while (hasMore) {
-                SearchResponse<SearchItemIndex> result =
-                        elasticService.queryPointInTimeAfter(
-                                pit, searchAfter, pageSize, queryOp, fieldList, null, false);
-                List<Hit<SearchItemIndex>> hits = result.hits().hits();
-
-                if (hits.isEmpty()) {
-                    hasMore = false;
-                    continue;
-                }
-
-                searchAfter = hits.isEmpty() ? null : hits.getLast().sort();
-
-                for (Hit<SearchItemIndex> item : hits) {
-                    String acceptedConceptID = item.fields().get("acceptedConceptID").toJson().asJsonArray().getJsonString(0).getString();
-
-                    String acceptedName = acceptedConceptName.get(acceptedConceptID);
-                    if (StringUtils.isNotEmpty(acceptedName)) {
-                        Document doc = Document.create();
-                        doc.put("acceptedConceptName", acceptedName);
-                        updates.add(UpdateQuery.builder(item.id()).withDocument(doc).build());
+            try (PointInTimeCursor cursor = elasticService.openCursor(queryOp, fieldList, pageSize)) {
+                for (List<Hit<SearchItemIndex>> hits : cursor) {
+                    for (Hit<SearchItemIndex> item : hits) {
+                        String acceptedConceptID = item.fields().get("acceptedConceptID").toJson().asJsonArray().getJsonString(0).getString();
+
+                        String acceptedName = acceptedConceptName.get(acceptedConceptID);
+                        if (StringUtils.isNotEmpty(acceptedName)) {
+                            Document doc = Document.create();
+                            doc.put("acceptedConceptName", acceptedName);
+                            updates.add(UpdateQuery.builder(item.id()).withDocument(doc).build());
+                        }
                     }
-                }
 
-                // do not wait for the future
-                elasticService.update(new ArrayList<>(updates));
-                updates.clear();
+                    // do not wait for the future
+                    elasticService.update(new ArrayList<>(updates));
+                    updates.clear();
 
-                counter += hits.size();
+                    counter += hits.size();
 
-                if (counter % 20000 == 0) {
-                    logService.log(taskType, "acceptedConceptName progress: " + counter);
+                    if (counter % 20000 == 0) {
+                        logService.log(taskType, "acceptedConceptName progress: " + counter);
+                    }
                 }
-
-                hasMore = hits.size() == pageSize;
             }
 
             logService.log(taskType, "Finished acceptedConceptName: " + counter);
@@ -217,14 +206,6 @@ public class TaxonUpdateService {
             logService.log(taskType, "Error there was problem with acceptedConceptName import: " + ex.getMessage());
             logger.error("There was problem with acceptedConceptName import: " + ex.getMessage(), ex);
             return false;
-        } finally {
-            try {
-                if (pit != null) {
-                    elasticService.closePointInTime(pit);
-                }
-            } catch (Exception e) {
-                logger.error("Failed to close point in time", e);
-            }
         }
         return true;
     }
@@ -0,0 +1,134 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.util;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.SourceFilter;
+
+import java.util.*;
+
+/**
+ * The fields requested from a search, e.g. with the fl parameter, so that elasticsearch only returns those fields.
+ * <p>
+ * A field that ends with * selects all fields with that prefix, for the dynamic fields rk_*, rkid_*, conservation_*,
+ * iucn_* and sds_*. Required fields are also fetched, because they are used to resolve a result, and are removed
+ * again by project.
+ */
+public class FieldProjection {
+    private final String[] fields;
+    private final String[] includes;
+    private final String key;
+
+    private FieldProjection(String[] fields, String[] required) {
+        this.fields = fields;
+
+        Set<String> all = new LinkedHashSet<>(Arrays.asList(fields));
+        all.addAll(Arrays.asList(required));
+        this.includes = all.toArray(new String[0]);
+
+        String[] sorted = includes.clone();
+        Arrays.sort(sorted);
+        this.key = String.join(",", sorted);
+    }
+
+    /**
+     * @param fl       comma delimited fields
+     * @param required fields that are always fetched
+     * @return the projection, or null when fl is empty and all fields are returned
+     */
+    public static FieldProjection of(String fl, String... required) {
+        return fl != null ? of(fl.split(","), required) : null;
+    }
+
+    /**
+     * @param fl       fields, may be null
+     * @param required fields that are always fetched
+     * @return the projection, or null when fl is empty and all fields are returned
+     */
+    public static FieldProjection of(String[] fl, String... required) {
+        if (fl == null) {
+            return null;
+        }
+
+        Set<String> fields = new LinkedHashSet<>();
+        for (String field : fl) {
+            if (StringUtils.isNotBlank(field)) {
+                fields.add(field.trim());
+            }
+        }
+
+        return fields.isEmpty() ? null : new FieldProjection(fields.toArray(new String[0]), required);
+    }
+
+    /**
+     * @return a projection with more required fields
+     */
+    public FieldProjection require(String... required) {
+        Set<String> all = new LinkedHashSet<>(Arrays.asList(includes));
+        all.removeAll(Arrays.asList(fields));
+        all.addAll(Arrays.asList(required));
+        return new FieldProjection(fields, all.toArray(new String[0]));
+    }
+
+    /**
+     * @return the requested fields
+     */
+    public String[] fields() {
+        return fields.clone();
+    }
+
+    public boolean isRequested(String field) {
+        for (String pattern : fields) {
+            if (matches(pattern, field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the source filter with the requested and required fields
+     */
+    public SourceFilter sourceFilter() {
+        return new FetchSourceFilter(includes, null);
+    }
+
+    /**
+     * @return the requested fields of the source, in the requested order
+     * @param nulls include requested fields that are not in the source, with a null value
+     */
+    public Map<String, Object> project(Map<?, ?> source, boolean nulls) {
+        Map<String, Object> projected = new LinkedHashMap<>();
+        for (String pattern : fields) {
+            if (pattern.endsWith("*")) {
+                for (Map.Entry<?, ?> entry : source.entrySet()) {
+                    if (matches(pattern, entry.getKey().toString())) {
+                        projected.put(entry.getKey().toString(), entry.getValue());
+                    }
+                }
+            } else if (nulls || source.containsKey(pattern)) {
+                projected.put(pattern, source.get(pattern));
+            }
+        }
+        return projected;
+    }
+
+    private static boolean matches(String pattern, String field) {
+        return pattern.endsWith("*")
+                ? field.startsWith(pattern.substring(0, pattern.length() - 1))
+                : pattern.equals(field);
+    }
+
+    /**
+     * @return the requested and required fields, in a stable order, for use in a cache key
+     */
+    @Override
+    public String toString() {
+        return key;
+    }
+}
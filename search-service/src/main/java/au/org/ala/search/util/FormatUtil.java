@@ -8,16 +8,92 @@ package au.org.ala.search.util;
 
 import au.org.ala.search.model.SearchItemIndex;
 import au.org.ala.search.model.dto.Profile;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 public class FormatUtil {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // fields that hold names data
+    public static final String[] NAMES_DATA = {"synonymData", "vernacularData", "identifierData", "variantData"};
+
+    // fields read by itemsToProfiles
+    public static final FieldProjection PROFILE_FIELDS = FieldProjection.of(new String[]{"guid", "scientificName",
+            "acceptedConceptID", "acceptedConceptName", "taxonomicStatus"});
+
+    /**
+     * Read names data (synonymData, vernacularData, identifierData, variantData) that was stored as base64 encoded,
+     * gzipped JSON by earlier versions. Current versions store the list.
+     *
+     * @return the list, or null when the value is empty or cannot be read
+     */
+    public static List<Map<String, String>> decodeNamesData(String base64) {
+        if (StringUtils.isEmpty(base64)) {
+            return null;
+        }
+
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(base64)))) {
+            return objectMapper.readValue(gzipInputStream, new TypeReference<>() {
+            });
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding request header, may be null
+     * @return true when gzip, x-gzip or * is accepted with a q-value above 0. An explicit gzip q-value takes
+     * precedence over *.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+
+        Double gzip = null;
+        Double any = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+
+            if ("gzip".equals(name) || "x-gzip".equals(name)) {
+                gzip = gzip == null ? q : Math.max(gzip, q);
+            } else if ("*".equals(name)) {
+                any = q;
+            }
+        }
+
+        if (gzip != null) {
+            return gzip > 0;
+        }
+        return any != null && any > 0;
+    }
+
     public static String getHighlightedName(String name, String term) {
         String prefix = "<b>";
         String suffix = "</b>";
@@ -8,6 +8,8 @@ package au.org.ala.search.util;
 
 import au.org.ala.search.model.query.Op;
 import au.org.ala.search.model.query.Term;
+import co.elastic.clients.elasticsearch._types.query_dsl.*;
+import co.elastic.clients.json.JsonData;
 import io.micrometer.common.util.StringUtils;
 
 import java.util.ArrayList;
@@ -34,8 +36,19 @@ import java.util.StringTokenizer;
  *   where value is
  *     string
  *     "string"
- *     [value TO value] // TODO: add support for both parsing and the query build for range queries
+ *     [value TO value]
+ *     {value TO value}
+ *   where a range value is
+ *     string
+ *     "string" // can contain spaces, brackets and \"
+ *     * // open ended
  * </pre>
+ * <p>
+ * A range is inclusive at a [ or ] and exclusive at a { or }, and they can be mixed, e.g. rankID:[7000 TO 8000}.
+ * Ranges are compiled to range queries, in filter context when ANDed. A value in brackets without TO, e.g. [abc], is a
+ * plain value.
+ * <p>
+ * toQuery compiles a parsed Op to an Elasticsearch query. Both are cached by QueryPlanCache.
  */
 public class QueryParserUtil {
 
@@ -91,10 +104,12 @@ public class QueryParserUtil {
 
         boolean inString = false;
         boolean isSingleValue = false;
+        StringBuilder rangeString = null;
+        boolean inRangeString = false;
         int inBracket = 0;
         String prevToken = null;
         Term currentTerm = new Term();
-        String currentString = null;
+        StringBuilder currentString = null;
         while (tokenizer.hasMoreTokens()) {
             String token = tokenizer.nextToken();
             if (isSingleValue) {
@@ -103,23 +118,40 @@ public class QueryParserUtil {
                     // the presence of a ':' means this is not a valid isSingleValue
                     return null;
                 }
+                if (" ".equals(token) && currentTerm.value.endsWith(" ")) {
+                    // runs of spaces are one space, as they are between terms
+                    continue;
+                }
                 currentTerm.value += token;
+            } else if (rangeString != null) {
+                rangeString.append(token);
+                if ("\"".equals(token) && !"\\".equals(prevToken)) {
+                    // a bracket in a quoted range value does not end the range
+                    inRangeString = !inRangeString;
+                } else if (!inRangeString && (token.endsWith("]") || token.endsWith("}"))) {
+                    if (!parseRange(currentTerm, rangeString.toString())) {
+                        return null;
+                    }
+                    rangeString = null;
+                    currentOp.terms.add(currentTerm);
+                    currentTerm = new Term();
+                }
             } else if (inString) {
                 if ("\"".equals(token) && "\\".equals(prevToken)) {
-                    currentString += token;
+                    currentString.append(token);
                 } else if ("\"".equals(token)) {
                     inString = false;
-                    currentTerm.value = currentString;
+                    currentTerm.value = currentString.toString();
                     currentOp.terms.add(currentTerm);
                     currentTerm = new Term();
                 } else if ("\\".equals(token)) {
                     // do nothing for this escape character
                 } else {
-                    currentString += token;
+                    currentString.append(token);
                 }
             } else if ("\"".equals(token)) {
                 inString = true;
-                currentString = "";
+                currentString = new StringBuilder();
             } else if ("(".equals(token)) {
                 // start new op
                 inBracket++;
@@ -177,6 +209,16 @@ public class QueryParserUtil {
                         isSingleValue = true;
                         currentOp.terms.add(currentTerm);
                     }
+                } else if (":".equals(prevToken) && (token.startsWith("[") || token.startsWith("{"))) {
+                    rangeString = new StringBuilder(token);
+                    if (token.length() > 1 && (token.endsWith("]") || token.endsWith("}"))) {
+                        if (!parseRange(currentTerm, token)) {
+                            return null;
+                        }
+                        rangeString = null;
+                        currentOp.terms.add(currentTerm);
+                        currentTerm = new Term();
+                    }
                 } else if (!":".equals(token) && ":".equals(prevToken)) { // ':' must appear before a value
                     currentTerm.value = token;
                     currentOp.terms.add(currentTerm);
@@ -185,12 +227,195 @@ public class QueryParserUtil {
             }
             prevToken = token;
         }
+        if (rangeString != null) {
+            // range not closed
+            return null;
+        }
         return parentOp;
     }
 
+    // range is the whole range, including the brackets, e.g. [7000 TO *}. Without TO it is the value of the term.
+    static private boolean parseRange(Term term, String range) {
+        List<String> parts = rangeParts(range.substring(1, range.length() - 1));
+        if (parts == null) {
+            return false;
+        }
+        if (!parts.contains("TO")) {
+            term.value = range;
+            return true;
+        }
+        if (parts.size() != 3 || !"TO".equals(parts.get(1))) {
+            return false;
+        }
+
+        term.range = true;
+        term.includeFrom = range.charAt(0) == '[';
+        term.includeTo = range.charAt(range.length() - 1) == ']';
+        term.from = rangeValue(parts.get(0));
+        term.to = rangeValue(parts.get(2));
+        return true;
+    }
+
+    // the space separated parts of a range. A quoted part is returned in quotes, without its escape characters.
+    // Returns null when a quote is not closed, or is not followed by a space.
+    static private List<String> rangeParts(String range) {
+        List<String> parts = new ArrayList<>(3);
+        int i = 0;
+        while (i < range.length()) {
+            char c = range.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                StringBuilder part = new StringBuilder().append('"');
+                i++;
+                while (i < range.length() && range.charAt(i) != '"') {
+                    if (range.charAt(i) == '\\' && i + 1 < range.length()) {
+                        i++;
+                    }
+                    part.append(range.charAt(i));
+                    i++;
+                }
+                if (i == range.length() || (i + 1 < range.length() && !Character.isWhitespace(range.charAt(i + 1)))) {
+                    return null;
+                }
+                parts.add(part.append('"').toString());
+                i++;
+            } else {
+                int start = i;
+                while (i < range.length() && !Character.isWhitespace(range.charAt(i))) {
+                    i++;
+                }
+                parts.add(range.substring(start, i));
+            }
+        }
+        return parts;
+    }
+
+    static private String rangeValue(String value) {
+        if ("*".equals(value)) {
+            return null;
+        }
+        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
     static public boolean isValid(String query, ValidField validField) {
         Op op = parse(query, validField);
 
         return op != null;
     }
+
+    static public Query toQuery(Op op) {
+        if (op.terms.size() == 1 && op.terms.get(0).range && !op.terms.get(0).negate) {
+            // single range term, in filter context
+            return BoolQuery.of(bq -> bq.filter(termToQuery(op.terms.get(0), false)))._toQuery();
+        } else if (op.terms.size() == 1) {
+            // single term
+            return termToQuery(op.terms.get(0), false);
+        } else {
+            // multiple terms
+            return BoolQuery.of(bq -> {
+                for (Term term : op.terms) {
+                    if (op.andOp) {
+                        if (term.negate) {
+                            bq.mustNot(termToQuery(term, true));
+                        } else if (term.range) {
+                            // no score, and can be cached by elasticsearch
+                            bq.filter(termToQuery(term, true));
+                        } else {
+                            bq.must(termToQuery(term, true));
+                        }
+                    } else {
+                        bq.should(termToQuery(term, false));
+                    }
+                }
+                return bq;
+            })._toQuery();
+        }
+    }
+
+    static private Query termToQuery(Term term, boolean negated) {
+        if (!negated && term.negate) {
+            return BoolQuery.of(bq -> {
+                bq.mustNot(termToQuery(term, true));
+                return bq;
+            })._toQuery();
+        } else {
+            if (term.op != null) {
+                return toQuery(term.op);
+            } else if (term.field == null) {
+                // dismax? attempting to match
+                return DisMaxQuery.of(dmq -> dmq.queries(
+                        TermQuery.of(tq -> tq.field("exact_text").value(term.value))._toQuery(),
+                        MatchQuery.of(mq -> {
+                            // default search field for free text search
+                            mq.field("all");
+                            mq.query(term.value);
+                            return mq;
+                        })._toQuery(),
+                        MatchQuery.of(mq -> {
+                            // default search field for free text search
+                            mq.field("description");
+                            mq.query(term.value);
+                            mq.boost(0.2f);
+                            return mq;
+                        })._toQuery()
+                ).tieBreaker(0.0))._toQuery();
+            } else if (term.range) {
+                return RangeQuery.of(rq -> {
+                    rq.field(term.field);
+                    if (term.from != null) {
+                        if (term.includeFrom) {
+                            rq.gte(rangeJson(term.from));
+                        } else {
+                            rq.gt(rangeJson(term.from));
+                        }
+                    }
+                    if (term.to != null) {
+                        if (term.includeTo) {
+                            rq.lte(rangeJson(term.to));
+                        } else {
+                            rq.lt(rangeJson(term.to));
+                        }
+                    }
+                    return rq;
+                })._toQuery();
+            } else if ("*".equals(term.value)) {
+                return ExistsQuery.of(eq -> eq.field(term.field))._toQuery();
+            } else {
+                if (isKeywordField(term.field)) {
+                    return TermQuery.of(tq -> tq.field(term.field).value(term.value))._toQuery();
+                } else {
+                    return MatchPhraseQuery.of(m -> m.field(term.field).query(term.value))._toQuery();
+                }
+            }
+        }
+    }
+
+    // numbers as numbers, anything else, e.g. a date, as a string
+    static private JsonData rangeJson(String value) {
+        try {
+            return JsonData.of(Long.parseLong(value));
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            return JsonData.of(Double.parseDouble(value));
+        } catch (NumberFormatException ignored) {
+        }
+        return JsonData.of(value);
+    }
+
+    // TODO: document this somewhere so that when a change is made to mappings.json this is also updated, or maybe it
+    //  loads mappings.json and uses that to determine if it is a keyword field.
+    static private boolean isKeywordField(String field) {
+        boolean textField = "commonName".equals(field) || "description".equals(field);
+        if (textField) {
+            return false;
+        }
+
+        boolean keywordDataField = field.startsWith("conservation_") || field.startsWith("rk");
+        return !keywordDataField;
+    }
 }
@@ -0,0 +1,286 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.util;
+
+import au.org.ala.search.model.SearchItemIndex;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Field table for SearchItemIndex, built once, used to convert between SearchItemIndex and the elasticsearch document
+ * map without reflection per document.
+ * <p>
+ * Standard fields are read and written through lambdas bound to the lombok getters and setters. Dynamic fields
+ * (sds_*, iucn_*, conservation_*, rk*) are stored in the *Fields maps and are selected by prefix.
+ */
+public class SearchItemIndexFields {
+
+    private static final Accessor[] ACCESSORS;
+    private static final Map<String, Accessor> BY_NAME;
+
+    static {
+        List<Accessor> accessors = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Field f : SearchItemIndex.class.getFields()) {
+            // dynamic field maps are handled by prefix
+            if (Modifier.isStatic(f.getModifiers()) || f.getName().endsWith("Fields")) {
+                continue;
+            }
+            accessors.add(new Accessor(f, lookup));
+        }
+
+        ACCESSORS = accessors.toArray(new Accessor[0]);
+        BY_NAME = new HashMap<>(ACCESSORS.length * 2);
+        for (Accessor accessor : ACCESSORS) {
+            BY_NAME.put(accessor.name, accessor);
+        }
+    }
+
+    /**
+     * @return accessors for all standard (non-dynamic) fields
+     */
+    public static Accessor[] accessors() {
+        return ACCESSORS;
+    }
+
+    /**
+     * @return the accessor for a standard field, or null if the name is not a standard field
+     */
+    public static Accessor get(String name) {
+        return BY_NAME.get(name);
+    }
+
+    /**
+     * Add all dynamic field values of the item to the target map.
+     */
+    public static void putDynamicFields(SearchItemIndex item, Map<String, Object> target) {
+        if (item.sdsFields != null) target.putAll(item.sdsFields);
+        if (item.iucnFields != null) target.putAll(item.iucnFields);
+        if (item.conservationFields != null) target.putAll(item.conservationFields);
+        if (item.rkFields != null) target.putAll(item.rkFields);
+    }
+
+    /**
+     * Set a dynamic field by prefix.
+     *
+     * @return false when the key is not a dynamic field
+     */
+    public static boolean setDynamicField(SearchItemIndex item, String key, Object value) {
+        if (key.startsWith("sds_")) {
+            if (item.sdsFields == null) {
+                item.sdsFields = new HashMap<>();
+            }
+            item.sdsFields.put(key, value.toString());
+        } else if (key.startsWith("iucn_")) {
+            if (item.iucnFields == null) {
+                item.iucnFields = new HashMap<>();
+            }
+            item.iucnFields.put(key, value.toString());
+        } else if (key.startsWith("conservation_")) {
+            if (item.conservationFields == null) {
+                item.conservationFields = new HashMap<>();
+            }
+            item.conservationFields.put(key, value.toString());
+        } else if (key.startsWith("rk")) {
+            if (item.rkFields == null) {
+                item.rkFields = new HashMap<>();
+            }
+            item.rkFields.put(key, value.toString());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Approximate size of the item as an elasticsearch JSON document, in bytes. Used to limit the size of bulk
+     * requests without serialising the item.
+     */
+    public static long estimateSize(SearchItemIndex item) {
+        long size = 2;
+        for (Accessor accessor : ACCESSORS) {
+            Object value = accessor.get(item);
+            if (value != null) {
+                size += accessor.name.length() + 4 + estimateJsonSize(value);
+            }
+        }
+        size += estimateSize(item.sdsFields);
+        size += estimateSize(item.iucnFields);
+        size += estimateSize(item.conservationFields);
+        size += estimateSize(item.rkFields);
+        return size;
+    }
+
+    private static long estimateSize(Map<String, String> fields) {
+        long size = 0;
+        if (fields != null) {
+            for (Map.Entry<String, String> entry : fields.entrySet()) {
+                size += entry.getKey().length() + 4 + (entry.getValue() != null ? entry.getValue().length() + 2 : 4);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Approximate size of a value as JSON, in bytes. Maps and collections are measured recursively.
+     */
+    public static long estimateJsonSize(Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof CharSequence s) {
+            return s.length() + 2;
+        } else if (value instanceof String[] array) {
+            long size = 2;
+            for (String s : array) {
+                size += (s != null ? s.length() : 2) + 3;
+            }
+            return size;
+        } else if (value instanceof Number || value instanceof Date) {
+            return 16;
+        } else if (value instanceof Map<?, ?> map) {
+            long size = 2;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                size += String.valueOf(entry.getKey()).length() + 4 + estimateJsonSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection<?> collection) {
+            long size = 2;
+            for (Object item : collection) {
+                size += estimateJsonSize(item) + 1;
+            }
+            return size;
+        } else {
+            return value.toString().length();
+        }
+    }
+
+    /**
+     * @return a copy of the item that can be changed without changing the item. String arrays are shared.
+     */
+    public static SearchItemIndex copy(SearchItemIndex item) {
+        SearchItemIndex copy = new SearchItemIndex();
+        for (Accessor accessor : ACCESSORS) {
+            Object value = accessor.get(item);
+            if (value != null) {
+                accessor.setter.accept(copy, value instanceof Date date ? new Date(date.getTime()) : value);
+            }
+        }
+        copy.sdsFields = item.sdsFields != null ? new HashMap<>(item.sdsFields) : null;
+        copy.iucnFields = item.iucnFields != null ? new HashMap<>(item.iucnFields) : null;
+        copy.conservationFields = item.conservationFields != null ? new HashMap<>(item.conservationFields) : null;
+        copy.rkFields = item.rkFields != null ? new HashMap<>(item.rkFields) : null;
+        return copy;
+    }
+
+    public static class Accessor {
+        public final String name;
+        private final Class<?> type;
+        private final Function<SearchItemIndex, Object> getter;
+        private final BiConsumer<SearchItemIndex, Object> setter;
+
+        Accessor(Field field, MethodHandles.Lookup lookup) {
+            this.name = field.getName();
+            this.type = field.getType();
+            this.getter = getter(field, lookup);
+            this.setter = setter(field, lookup);
+        }
+
+        public Object get(SearchItemIndex item) {
+            return getter.apply(item);
+        }
+
+        /**
+         * Set the value read from elasticsearch, converting the JSON types to the field type.
+         */
+        public void set(SearchItemIndex item, Object value) {
+            if (type == Date.class && value instanceof Number) {
+                value = new Date(((Number) value).longValue());
+            } else if (type == String[].class && value instanceof List) {
+                value = ((List<?>) value).toArray(new String[0]);
+            } else if (type == Double.class && value instanceof Number && !(value instanceof Double)) {
+                value = ((Number) value).doubleValue();
+            } else if (type == Integer.class && value instanceof Number && !(value instanceof Integer)) {
+                value = ((Number) value).intValue();
+            } else if (type == List.class && value instanceof String s) {
+                // names data from an index built by an earlier version
+                value = FormatUtil.decodeNamesData(s);
+            }
+
+            setter.accept(item, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Function<SearchItemIndex, Object> getter(Field field, MethodHandles.Lookup lookup) {
+            try {
+                Method method = SearchItemIndex.class.getMethod("get" + capitalize(field.getName()));
+                CallSite site = LambdaMetafactory.metafactory(lookup,
+                        "apply",
+                        MethodType.methodType(Function.class),
+                        MethodType.methodType(Object.class, Object.class),
+                        lookup.unreflect(method),
+                        MethodType.methodType(field.getType(), SearchItemIndex.class));
+                return (Function<SearchItemIndex, Object>) site.getTarget().invoke();
+            } catch (Throwable e) {
+                // no lombok getter, use the field directly
+                try {
+                    MethodHandle handle = lookup.unreflectGetter(field);
+                    return item -> {
+                        try {
+                            return handle.invoke(item);
+                        } catch (Throwable t) {
+                            throw new RuntimeException(t);
+                        }
+                    };
+                } catch (IllegalAccessException ex) {
+                    throw new RuntimeException("Cannot read SearchItemIndex." + field.getName(), ex);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static BiConsumer<SearchItemIndex, Object> setter(Field field, MethodHandles.Lookup lookup) {
+            try {
+                Method method = SearchItemIndex.class.getMethod("set" + capitalize(field.getName()), field.getType());
+                CallSite site = LambdaMetafactory.metafactory(lookup,
+                        "accept",
+                        MethodType.methodType(BiConsumer.class),
+                        MethodType.methodType(void.class, Object.class, Object.class),
+                        lookup.unreflect(method),
+                        MethodType.methodType(void.class, SearchItemIndex.class, field.getType()));
+                return (BiConsumer<SearchItemIndex, Object>) site.getTarget().invoke();
+            } catch (Throwable e) {
+                // no lombok setter, use the field directly
+                try {
+                    MethodHandle handle = lookup.unreflectSetter(field);
+                    return (item, value) -> {
+                        try {
+                            handle.invoke(item, value);
+                        } catch (Throwable t) {
+                            throw new RuntimeException(t);
+                        }
+                    };
+                } catch (IllegalAccessException ex) {
+                    throw new RuntimeException("Cannot write SearchItemIndex." + field.getName(), ex);
+                }
+            }
+        }
+
+        private static String capitalize(String name) {
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+    }
+}
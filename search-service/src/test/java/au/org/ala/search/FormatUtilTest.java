@@ -7,10 +7,16 @@
 package au.org.ala.search;
 
 import au.org.ala.search.util.FormatUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class FormatUtilTest {
 
@@ -63,4 +69,48 @@ public class FormatUtilTest {
 
         assertEquals("one\n\ntwo", result1);
     }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(FormatUtil.acceptsGzip("gzip"));
+        assertTrue(FormatUtil.acceptsGzip("deflate, gzip;q=0.5"));
+        assertTrue(FormatUtil.acceptsGzip("x-gzip"));
+        assertTrue(FormatUtil.acceptsGzip("*"));
+        assertTrue(FormatUtil.acceptsGzip("GZIP ; Q=1.0"));
+    }
+
+    @Test
+    public void testAcceptsGzipRefused() {
+        assertFalse(FormatUtil.acceptsGzip(null));
+        assertFalse(FormatUtil.acceptsGzip(""));
+        assertFalse(FormatUtil.acceptsGzip("identity"));
+        assertFalse(FormatUtil.acceptsGzip("gzip;q=0"));
+        assertFalse(FormatUtil.acceptsGzip("gzip;q=0.0, deflate"));
+        assertFalse(FormatUtil.acceptsGzip("*;q=0"));
+        // an explicit gzip takes precedence over *
+        assertFalse(FormatUtil.acceptsGzip("*, gzip;q=0"));
+        assertFalse(FormatUtil.acceptsGzip("gzip;q=abc"));
+    }
+
+    @Test
+    public void testDecodeNamesData() throws Exception {
+        List<Map<String, String>> namesData = List.of(Map.of("name", "Silver Wattle", "language", "en"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            new ObjectMapper().writeValue(gzip, namesData);
+        }
+
+        assertEquals(namesData, FormatUtil.decodeNamesData(Base64.getEncoder().encodeToString(bytes.toByteArray())));
+    }
+
+    @Test
+    public void testDecodeNamesDataInvalid() {
+        assertNull(FormatUtil.decodeNamesData(null));
+        assertNull(FormatUtil.decodeNamesData(""));
+        // not base64
+        assertNull(FormatUtil.decodeNamesData("not base64!"));
+        // not gzip
+        assertNull(FormatUtil.decodeNamesData(Base64.getEncoder().encodeToString("[]".getBytes())));
+    }
 }
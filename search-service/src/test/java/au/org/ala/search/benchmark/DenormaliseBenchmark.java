@@ -0,0 +1,489 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.benchmark;
+
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.model.TaskType;
+import au.org.ala.search.model.cache.*;
+import au.org.ala.search.model.dto.DatasetInfo;
+import au.org.ala.search.model.dto.RankedName;
+import au.org.ala.search.service.SpeciesGroupService;
+import au.org.ala.search.service.remote.LogService;
+import au.org.ala.search.service.update.DwCADenormaliseImportService;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per taxon cost of DwCA denormalisation over a synthetic taxonomy. The legacy* benchmarks are the previous lookups,
+ * a binary search of a boxed sort permutation with a String comparator, kept here as the baseline.
+ * <p>
+ * legacyDenormalize is the previous denormalizeItemOnly over rows as objects: binary searches of the boxed guid and
+ * acceptedConceptID permutations and of the key sorted extension rows, and a recursive parentGuid walk with a list of
+ * seen guids. It builds the same names data lists as denormalize, so that only the lookups differ.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=au.org.ala.search.benchmark.DenormaliseBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+@State(Scope.Benchmark)
+public class DenormaliseBenchmark {
+    private static final String[] RANKS = {"kingdom", "phylum", "class", "order", "family", "genus", "species"};
+    private static final int[] RANK_IDS = {1000, 2000, 3000, 4000, 5000, 6000, 7000};
+
+    // children per parent for each rank below kingdom, the last is species per genus
+    private static final int[] WIDTH = {10, 10, 10, 10, 10, 18};
+
+    @Param({"2000000"})
+    private int taxa;
+
+    private DwCADenormaliseImportService service;
+    private DenormalTable.Index taxonByGuid;
+    private String[] species;
+    private String[] speciesNames;
+    private String[] parents;
+    private int next;
+
+    // legacy lookup
+    private String[] legacyGuids;
+    private Integer[] legacySortByGuid;
+
+    // legacy denormalize
+    private DenormalCache cache;
+    private SpeciesGroupService speciesGroupService;
+    private LegacyRow[] legacyTaxa;
+    private Integer[] legacySortByAcceptedConceptID;
+    private LegacyRow[] legacyVariants;
+    private LegacyRow[] legacyVernacular;
+    private LegacyRow[] legacyIdentifiers;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DenormaliseBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static String guid(int i) {
+        return "https://biodiversity.org.au/afd/taxa/" + UUID.nameUUIDFromBytes(String.valueOf(i).getBytes());
+    }
+
+    @Setup
+    public void setup() {
+        DenormalCache cache = new DenormalCache(new HashMap<>());
+        cache.cacheTaxon.ensureCapacity(taxa);
+
+        List<String> speciesList = new ArrayList<>();
+        List<String> speciesNameList = new ArrayList<>();
+        List<String> parentList = new ArrayList<>();
+        Random random = new Random(1);
+        int count = 0;
+        List<Integer> level = new ArrayList<>(List.of(count++));
+        addTaxon(cache, 0, null, 0);
+        for (int depth = 1; depth < RANKS.length && count < taxa; depth++) {
+            List<Integer> children = new ArrayList<>();
+            for (int parent : level) {
+                for (int i = 0; i < WIDTH[depth - 1] && count < taxa; i++) {
+                    int id = count++;
+                    addTaxon(cache, id, guid(parent), depth);
+                    children.add(id);
+                    if (depth == RANKS.length - 1) {
+                        speciesList.add(guid(id));
+                        speciesNameList.add(RANKS[depth] + " " + id);
+                        parentList.add(guid(parent));
+                    }
+                }
+            }
+            level = children;
+        }
+
+        // synonyms, vernacular names and identifiers for some of the species
+        for (int i = 0; i < speciesList.size() && count < taxa; i++) {
+            if (random.nextInt(10) == 0) {
+                DenormalTaxon.write(cache.cacheTaxon, DenormalTaxon.builder()
+                        .guid(guid(count++))
+                        .scientificName("Synonym " + i)
+                        .acceptedConceptID(speciesList.get(i))
+                        .taxonomicStatus("synonym")
+                        .build());
+            }
+            if (random.nextInt(4) == 0) {
+                DenormalVernacular.write(cache.cacheVernacular, DenormalVernacular.builder()
+                        .key(speciesList.get(i))
+                        .guid(UUID.randomUUID().toString())
+                        .name("Common " + i)
+                        .language("en")
+                        .build());
+            }
+            if (random.nextInt(4) == 0) {
+                DenormalIdentifier.write(cache.cacheIdentifier, DenormalIdentifier.builder()
+                        .key(speciesList.get(i))
+                        .guid("urn:lsid:biodiversity.org.au:afd.taxon:" + i)
+                        .build());
+            }
+        }
+        cache.trim();
+
+        LogService logService = new LogService(null) {
+            @Override
+            public void log(TaskType task, String message) {
+            }
+        };
+        speciesGroupService = new SpeciesGroupService();
+        service = new DwCADenormaliseImportService(speciesGroupService, logService);
+        ReflectionTestUtils.setField(service, "priorityNorm", 4000);
+        ReflectionTestUtils.setField(service, "commonNamePath", "/dev/null/commonName.csv");
+        service.setCache(cache);
+
+        taxonByGuid = cache.cacheTaxon.index(DenormalTaxon.GUID);
+        species = speciesList.toArray(new String[0]);
+        speciesNames = speciesNameList.toArray(new String[0]);
+        parents = parentList.toArray(new String[0]);
+
+        legacyGuids = new String[cache.cacheTaxon.size()];
+        legacySortByGuid = new Integer[legacyGuids.length];
+        for (int i = 0; i < legacyGuids.length; i++) {
+            legacyGuids[i] = cache.cacheTaxon.get(i, DenormalTaxon.GUID);
+            legacySortByGuid[i] = i;
+        }
+        Arrays.sort(legacySortByGuid, (o1, o2) -> {
+            String a = legacyGuids[o1];
+            String b = legacyGuids[o2];
+
+            a = a == null ? "" : a;
+            b = b == null ? "" : b;
+            return a.compareTo(b);
+        });
+
+        this.cache = cache;
+        legacyTaxa = LegacyRow.of(cache.cacheTaxon, DenormalTaxon.COLUMNS);
+        legacySortByAcceptedConceptID = new Integer[legacyTaxa.length];
+        for (int i = 0; i < legacyTaxa.length; i++) legacySortByAcceptedConceptID[i] = i;
+        Arrays.sort(legacySortByAcceptedConceptID, (o1, o2) -> {
+            String a = legacyTaxa[o1].values[DenormalTaxon.ACCEPTED_CONCEPT_ID];
+            String b = legacyTaxa[o2].values[DenormalTaxon.ACCEPTED_CONCEPT_ID];
+
+            a = a == null ? "" : a;
+            b = b == null ? "" : b;
+            return a.compareTo(b);
+        });
+        legacyVariants = LegacyRow.sortedByKey(cache.cacheVariant, DenormalVariant.COLUMNS);
+        legacyVernacular = LegacyRow.sortedByKey(cache.cacheVernacular, DenormalVernacular.COLUMNS);
+        legacyIdentifiers = LegacyRow.sortedByKey(cache.cacheIdentifier, DenormalIdentifier.COLUMNS);
+    }
+
+    private void addTaxon(DenormalCache cache, int id, String parentGuid, int depth) {
+        String name = RANKS[depth] + " " + id;
+        DenormalTaxon.write(cache.cacheTaxon, DenormalTaxon.builder()
+                .key(parentGuid)
+                .guid(guid(id))
+                .name(name)
+                .scientificName(name)
+                .nameComplete(name)
+                .rank(RANKS[depth])
+                .rankID(RANK_IDS[depth])
+                .taxonomicStatus("accepted")
+                .nameFormatted("<i>" + name + "</i>")
+                .datasetID("dr2699")
+                .source("https://biodiversity.org.au/afd")
+                .build());
+    }
+
+    private int nextSpecies() {
+        next = next + 1 < species.length ? next + 1 : 0;
+        return next;
+    }
+
+    @Benchmark
+    public SearchItemIndex denormalize() {
+        int i = nextSpecies();
+        SearchItemIndex item = new SearchItemIndex();
+        item.guid = species[i];
+        item.parentGuid = parents[i];
+        item.scientificName = speciesNames[i];
+        item.rank = "species";
+        service.denormalizeItemOnly(item);
+        return item;
+    }
+
+    @Benchmark
+    public int lookup() {
+        int group = taxonByGuid.group(species[nextSpecies()]);
+        return taxonByGuid.row(taxonByGuid.from(group));
+    }
+
+    @Benchmark
+    public int legacyLookup() {
+        final String guid = species[nextSpecies()];
+        int idx = Arrays.binarySearch(legacySortByGuid, -1, (o1, o2) -> {
+            String a = o1 == -1 ? guid : legacyGuids[o1];
+            String b = o2 == -1 ? guid : legacyGuids[o2];
+
+            a = a == null ? "" : a;
+            b = b == null ? "" : b;
+            return a.compareTo(b);
+        });
+        return legacySortByGuid[idx];
+    }
+
+    @Benchmark
+    public SearchItemIndex legacyDenormalize() {
+        int i = nextSpecies();
+        SearchItemIndex item = new SearchItemIndex();
+        item.guid = species[i];
+        item.parentGuid = parents[i];
+        item.scientificName = speciesNames[i];
+        item.rank = "species";
+
+        Map<String, String> parentData = new HashMap<>();
+        List<String> seenGuid = new ArrayList<>();
+        List<String> rankSeen = new ArrayList<>();
+        List<RankedName> rankNames = new ArrayList<>();
+        seenGuid.add(item.guid);
+
+        legacyParentValues(item.parentGuid, parentData, rankNames, seenGuid, rankSeen);
+
+        parentData.put("rankOrder", StringUtils.join(rankSeen, ","));
+        rankNames.add(new RankedName(item.scientificName.toLowerCase(), item.rank));
+        List<String> speciesGroups = speciesGroupService.groupsFor(rankNames);
+        if (speciesGroups != null && !speciesGroups.isEmpty()) {
+            item.speciesGroup = speciesGroups.toArray(new String[0]);
+        }
+        item.setRkFields(parentData);
+
+        LegacyRow[] variants = legacyFindByKey(item.guid, legacyVariants);
+        LegacyRow[] commonNames = legacyFindByKey(item.guid, legacyVernacular);
+        LegacyRow[] identifiers = legacyFindByKey(item.guid, legacyIdentifiers);
+
+        Integer priority = null;
+        if (variants != null) {
+            List<String> names = new ArrayList<>();
+            List<Map<String, String>> variantData = new ArrayList<>();
+            for (LegacyRow variant : variants) {
+                int p = variant.number != null ? variant.number : 4000;
+                if (priority == null || p > priority) {
+                    priority = p;
+                }
+                String scientificName = variant.values[DenormalVariant.SCIENTIFIC_NAME];
+                if (StringUtils.isNotEmpty(scientificName)) names.add(scientificName);
+                if (StringUtils.isNotEmpty(variant.values[DenormalVariant.NAME_COMPLETE])) names.add(variant.values[DenormalVariant.NAME_COMPLETE]);
+
+                Map<String, String> variantItem = new HashMap<>();
+                if (scientificName != null) variantItem.put("nameFormatted", StringUtils.isNotEmpty(variant.values[DenormalVariant.NAME_FORMATTED]) ? variant.values[DenormalVariant.NAME_FORMATTED] : scientificName);
+                putIfNotNull(variantItem, "nameAccordingTo", variant.values[DenormalVariant.NAME_ACCORDING_TO]);
+                putIfNotNull(variantItem, "namePublishedIn", variant.values[DenormalVariant.NAME_PUBLISHED_IN]);
+                putIfNotNull(variantItem, "source", variant.values[DenormalVariant.SOURCE]);
+                putDatasetName(variantItem, variant.values[DenormalVariant.DATASET_ID]);
+                variantData.add(variantItem);
+            }
+            names.remove(item.scientificName);
+            names.remove(item.nameComplete);
+            if (!names.isEmpty()) item.nameVariant = names.toArray(new String[0]);
+            item.variantData = variantData;
+        }
+        item.priority = priority != null ? priority : 4000;
+
+        if (commonNames != null) {
+            item.commonName = Arrays.stream(commonNames).map(it -> it.values[DenormalVernacular.NAME]).distinct().toArray(String[]::new);
+            item.commonNameSingle = commonNames[0].values[DenormalVernacular.NAME];
+
+            List<Map<String, String>> vernacularData = new ArrayList<>();
+            for (LegacyRow commonName : commonNames) {
+                Map<String, String> vern = new HashMap<>();
+                putIfNotNull(vern, "name", commonName.values[DenormalVernacular.NAME]);
+                putIfNotNull(vern, "source", commonName.values[DenormalVernacular.SOURCE]);
+                putIfNotNull(vern, "status", commonName.values[DenormalVernacular.STATUS]);
+                putIfNotNull(vern, "language", commonName.values[DenormalVernacular.LANGUAGE]);
+                putDatasetName(vern, commonName.values[DenormalVernacular.DATASET_ID]);
+                vernacularData.add(vern);
+            }
+            item.vernacularData = vernacularData;
+        }
+
+        if (identifiers != null) {
+            item.additionalIdentifiers = Arrays.stream(identifiers).map(it -> it.values[DenormalIdentifier.GUID]).distinct().toArray(String[]::new);
+
+            List<Map<String, String>> identifierData = new ArrayList<>();
+            for (LegacyRow identifier : identifiers) {
+                Map<String, String> identifierItem = new HashMap<>();
+                identifierItem.put("guid", identifier.values[DenormalIdentifier.GUID]);
+                putIfNotNull(identifierItem, "nameAccordingTo", identifier.values[DenormalIdentifier.NAME_ACCORDING_TO]);
+                putIfNotNull(identifierItem, "namePublishedIn", identifier.values[DenormalIdentifier.NAME_PUBLISHED_IN]);
+                putIfNotNull(identifierItem, "source", identifier.values[DenormalIdentifier.SOURCE]);
+                putDatasetName(identifierItem, identifier.values[DenormalIdentifier.DATASET_ID]);
+                identifierData.add(identifierItem);
+            }
+            item.identifierData = identifierData;
+        }
+
+        LegacyRow[] synonyms = legacyFindAssociatedTaxon(item.guid);
+        if (synonyms != null) {
+            item.additionalNames_m_s = Arrays.stream(synonyms).map(it -> it.values[DenormalTaxon.SCIENTIFIC_NAME]).distinct().toArray(String[]::new);
+
+            List<Map<String, String>> synonymData = new ArrayList<>();
+            for (LegacyRow synonym : synonyms) {
+                Map<String, String> syn = new HashMap<>();
+                String nameFormatted = synonym.values[DenormalTaxon.NAME_FORMATTED];
+                syn.put("nameFormatted", StringUtils.isNotEmpty(nameFormatted) ? nameFormatted : synonym.values[DenormalTaxon.SCIENTIFIC_NAME]);
+                putIfNotNull(syn, "nameAccordingTo", synonym.values[DenormalTaxon.NAME_ACCORDING_TO]);
+                putIfNotNull(syn, "namePublishedIn", synonym.values[DenormalTaxon.NAME_PUBLISHED_IN]);
+                putIfNotNull(syn, "source", synonym.values[DenormalTaxon.SOURCE]);
+                putDatasetName(syn, synonym.values[DenormalTaxon.DATASET_ID]);
+                synonymData.add(syn);
+            }
+            item.synonymData = synonymData;
+        }
+
+        return item;
+    }
+
+    private void legacyParentValues(String guid, Map<String, String> parentData, List<RankedName> rankedNames,
+                                    List<String> seenGuid, List<String> rankSeen) {
+        LegacyRow parent = legacyFindByGuid(guid);
+        if (parent == null) {
+            return;
+        }
+
+        String rank = parent.values[DenormalTaxon.RANK];
+        if (StringUtils.isNotEmpty(rank) && parent.number != null && parent.number != 0) {
+            String normalisedRank = rank.toLowerCase().replaceAll("[^a-z]", "_");
+
+            int unique = 0;
+            String uniqueSuffix = "";
+            while (parentData.containsKey("rk_" + normalisedRank + uniqueSuffix)) {
+                unique++;
+                uniqueSuffix = String.valueOf(unique);
+            }
+            parentData.put("rk_" + normalisedRank + uniqueSuffix, parent.values[DenormalTaxon.SCIENTIFIC_NAME]);
+            parentData.put("rkid_" + normalisedRank + uniqueSuffix, parent.values[DenormalTaxon.GUID]);
+            parentData.put("rkf_" + normalisedRank + uniqueSuffix, parent.values[DenormalTaxon.NAME_FORMATTED]);
+            rankSeen.add(normalisedRank + uniqueSuffix);
+            rankedNames.add(new RankedName(parent.values[DenormalTaxon.SCIENTIFIC_NAME].toLowerCase(), normalisedRank));
+        }
+
+        String parentGuid = parent.values[Denormal.KEY];
+        if (parentGuid != null && !seenGuid.contains(parentGuid)) {
+            legacyParentValues(parentGuid, parentData, rankedNames, seenGuid, rankSeen);
+        }
+    }
+
+    private LegacyRow legacyFindByGuid(final String guid) {
+        int idx = Arrays.binarySearch(legacySortByGuid, -1, (o1, o2) -> {
+            String a = o1 == -1 ? guid : legacyGuids[o1];
+            String b = o2 == -1 ? guid : legacyGuids[o2];
+
+            a = a == null ? "" : a;
+            b = b == null ? "" : b;
+            return a.compareTo(b);
+        });
+        return idx < 0 ? null : legacyTaxa[legacySortByGuid[idx]];
+    }
+
+    private LegacyRow[] legacyFindAssociatedTaxon(final String guid) {
+        int anyIdx = Arrays.binarySearch(legacySortByAcceptedConceptID, -1, (o1, o2) -> {
+            String a = o1 == -1 ? guid : legacyTaxa[o1].values[DenormalTaxon.ACCEPTED_CONCEPT_ID];
+            String b = o2 == -1 ? guid : legacyTaxa[o2].values[DenormalTaxon.ACCEPTED_CONCEPT_ID];
+
+            a = a == null ? "" : a;
+            b = b == null ? "" : b;
+            return a.compareTo(b);
+        });
+        if (anyIdx < 0) {
+            return null;
+        }
+
+        int firstIdx = anyIdx;
+        while (firstIdx > 0 && guid.equals(legacyTaxa[legacySortByAcceptedConceptID[firstIdx - 1]].values[DenormalTaxon.ACCEPTED_CONCEPT_ID])) {
+            firstIdx--;
+        }
+        int lastIdx = anyIdx;
+        while (lastIdx < legacyTaxa.length - 1 && guid.equals(legacyTaxa[legacySortByAcceptedConceptID[lastIdx + 1]].values[DenormalTaxon.ACCEPTED_CONCEPT_ID])) {
+            lastIdx++;
+        }
+
+        LegacyRow[] found = new LegacyRow[lastIdx - firstIdx + 1];
+        for (int i = firstIdx; i <= lastIdx; i++) {
+            found[i - firstIdx] = legacyTaxa[legacySortByAcceptedConceptID[i]];
+        }
+        return found;
+    }
+
+    private static LegacyRow[] legacyFindByKey(String key, LegacyRow[] rows) {
+        int anyIdx = Arrays.binarySearch(rows, new LegacyRow(new String[]{key}, null), LegacyRow.BY_KEY);
+        if (anyIdx < 0) {
+            return null;
+        }
+
+        int firstIdx = anyIdx;
+        while (firstIdx > 0 && key.equals(rows[firstIdx - 1].values[Denormal.KEY])) {
+            firstIdx--;
+        }
+        int lastIdx = anyIdx;
+        while (lastIdx < rows.length - 1 && key.equals(rows[lastIdx + 1].values[Denormal.KEY])) {
+            lastIdx++;
+        }
+        return Arrays.copyOfRange(rows, firstIdx, lastIdx + 1);
+    }
+
+    private static void putIfNotNull(Map<String, String> map, String key, String value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+    private void putDatasetName(Map<String, String> map, String datasetID) {
+        DatasetInfo attribution = cache.attributionMap.getOrDefault(datasetID, null);
+        if (attribution != null && attribution.datasetName != null) {
+            map.put("datasetName", attribution.datasetName);
+        }
+    }
+
+    // a row as an object, the previous cache representation
+    private static class LegacyRow {
+        static final Comparator<LegacyRow> BY_KEY = (o1, o2) -> {
+            String a = o1.values[Denormal.KEY];
+            String b = o2.values[Denormal.KEY];
+
+            a = a == null ? "" : a;
+            b = b == null ? "" : b;
+            return a.compareTo(b);
+        };
+
+        final String[] values;
+        final Integer number;
+
+        LegacyRow(String[] values, Integer number) {
+            this.values = values;
+            this.number = number;
+        }
+
+        static LegacyRow[] of(DenormalTable table, int columns) {
+            LegacyRow[] rows = new LegacyRow[table.size()];
+            for (int row = 0; row < rows.length; row++) {
+                String[] values = new String[columns];
+                for (int column = 0; column < columns; column++) {
+                    values[column] = table.get(row, column);
+                }
+                rows[row] = new LegacyRow(values, table.getNumber(row));
+            }
+            return rows;
+        }
+
+        static LegacyRow[] sortedByKey(DenormalTable table, int columns) {
+            LegacyRow[] rows = of(table, columns);
+            Arrays.sort(rows, BY_KEY);
+            return rows;
+        }
+    }
+}
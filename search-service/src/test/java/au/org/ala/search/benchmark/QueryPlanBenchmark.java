@@ -0,0 +1,114 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.benchmark;
+
+import au.org.ala.search.model.query.Op;
+import au.org.ala.search.service.cache.FieldCatalog;
+import au.org.ala.search.service.cache.QueryPlanCache;
+import au.org.ala.search.util.QueryParserUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing and compiling a q and fqs, uncached and with the QueryPlanCache. The typical queries are search
+ * and facet queries, the nested and or queries are adversarial, deeply bracketed or long lists of ORed terms.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=au.org.ala.search.benchmark.QueryPlanBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryPlanBenchmark {
+    private static final Set<String> FIELDS = Set.of("idxtype", "guid", "rank", "rk_genus", "rk_family", "image",
+            "acceptedConceptID", "commonName", "name", "taxonomicStatus", "conservation_AUS", "speciesGroup");
+
+    @Param({"typical", "nested", "or"})
+    private String shape;
+
+    private String[] qs;
+    private String[][] fqs;
+    private QueryPlanCache cache;
+    private int next;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(QueryPlanBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        int count = 100;
+        qs = new String[count];
+        fqs = new String[count][];
+        for (int i = 0; i < count; i++) {
+            switch (shape) {
+                case "typical" -> {
+                    qs[i] = i % 2 == 0 ? "Acacia dealbata " + i : "rk_genus:\"Eucalyptus" + i + "\" AND -acceptedConceptID:*";
+                    fqs[i] = new String[]{"idxtype:TAXON", "rank:species", "speciesGroup:\"Plants\""};
+                }
+                case "nested" -> {
+                    StringBuilder sb = new StringBuilder();
+                    for (int d = 0; d < 50; d++) {
+                        sb.append(d % 2 == 0 ? "(" : "-(").append("rank:r").append(i).append(d).append(" OR ");
+                    }
+                    sb.append("name:x");
+                    sb.append(")".repeat(50));
+                    qs[i] = sb.toString();
+                    fqs[i] = null;
+                }
+                default -> {
+                    StringBuilder sb = new StringBuilder("guid:\"g" + i + "\"");
+                    for (int t = 0; t < 500; t++) {
+                        sb.append(" OR guid:\"https://id.biodiversity.org.au/taxon/apni/").append(i * 1000 + t).append('"');
+                    }
+                    qs[i] = sb.toString();
+                    fqs[i] = new String[]{"idxtype:TAXON"};
+                }
+            }
+        }
+
+        FieldCatalog fieldCatalog = new FieldCatalog(null) {
+            @Override
+            public long version() {
+                return 0;
+            }
+
+            @Override
+            public boolean isValid(String name) {
+                return FIELDS.contains(name);
+            }
+        };
+        cache = new QueryPlanCache(fieldCatalog, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxEntries", count * 2);
+        for (int i = 0; i < count; i++) {
+            cache.get(qs[i], fqs[i]);
+        }
+    }
+
+    @Benchmark
+    public Object parse() {
+        int i = next++ % qs.length;
+        Op op = QueryParserUtil.parse(qs[i], fqs[i], FIELDS::contains);
+        return op != null ? QueryParserUtil.toQuery(op) : null;
+    }
+
+    @Benchmark
+    public Object cached() {
+        int i = next++ % qs.length;
+        return cache.get(qs[i], fqs[i]).query;
+    }
+}
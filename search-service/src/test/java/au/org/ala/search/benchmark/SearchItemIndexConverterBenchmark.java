@@ -0,0 +1,179 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.benchmark;
+
+import au.org.ala.search.Config;
+import au.org.ala.search.model.SearchItemIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per document cost of the SearchItemIndex elasticsearch converters. The legacy* benchmarks are the previous
+ * reflection based converters, kept here as the baseline.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=au.org.ala.search.benchmark.SearchItemIndexConverterBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchItemIndexConverterBenchmark {
+
+    private final Config.SearchItemIndexToElasticsearchConverter writer = new Config.SearchItemIndexToElasticsearchConverter();
+    private final Config.ElasticsearchToSearchItemIndexConverter reader = new Config.ElasticsearchToSearchItemIndexConverter();
+
+    private SearchItemIndex item;
+    private Map<String, Object> document;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SearchItemIndexConverterBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        // a typical TAXON document
+        item = new SearchItemIndex();
+        item.id = "https://biodiversity.org.au/afd/taxa/e6aff6af-ff36-4ad5-95f2-2dfdcca8caff";
+        item.guid = item.id;
+        item.idxtype = "TAXON";
+        item.name = "Macropus rufus";
+        item.scientificName = "Macropus rufus";
+        item.scientificNameAuthorship = "(Desmarest, 1822)";
+        item.nameComplete = "Macropus rufus (Desmarest, 1822)";
+        item.nameFormatted = "<span class=\"scientific-name rank-species\">Macropus rufus</span>";
+        item.rank = "species";
+        item.rankID = 7000;
+        item.rankOrder = "genus,family,order,class,phylum,kingdom";
+        item.taxonomicStatus = "accepted";
+        item.parentGuid = "https://biodiversity.org.au/afd/taxa/macropus";
+        item.datasetID = "dr2699";
+        item.datasetName = "Australian Faunal Directory";
+        item.modified = new Date();
+        item.priority = 4000;
+        item.searchWeight = 1.5;
+        item.suggestWeight = 1.2;
+        item.occurrenceCount = 92000;
+        item.commonName = new String[]{"Red Kangaroo", "Plains Kangaroo"};
+        item.commonNameSingle = "Red Kangaroo";
+        item.speciesGroup = new String[]{"Animals", "Mammals"};
+        item.image = "0f2a5a6e-8f1f-4d3e-9a8c-2b3c4d5e6f70";
+        item.rkFields = new HashMap<>();
+        for (String rank : item.rankOrder.split(",")) {
+            item.rkFields.put("rk_" + rank, rank + " name");
+            item.rkFields.put("rkid_" + rank, "https://biodiversity.org.au/afd/taxa/" + rank);
+        }
+        item.conservationFields = new HashMap<>();
+        item.conservationFields.put("conservation_dr656", "Least Concern");
+        item.iucnFields = new HashMap<>();
+        item.iucnFields.put("iucn_dr656", "LC");
+
+        // the document as returned by elasticsearch, dates are epoch millis and arrays are lists
+        document = new HashMap<>(writer.convert(item));
+        document.put("modified", item.modified.getTime());
+        document.put("commonName", Arrays.asList(item.commonName));
+        document.put("speciesGroup", Arrays.asList(item.speciesGroup));
+    }
+
+    @Benchmark
+    public Map<String, Object> write() {
+        return writer.convert(item);
+    }
+
+    @Benchmark
+    public SearchItemIndex read() {
+        return reader.convert(document);
+    }
+
+    @Benchmark
+    public Map<String, Object> legacyWrite() {
+        Map<String, Object> target = new HashMap<>();
+
+        for (int i = 0; i < SearchItemIndex.class.getFields().length; i++) {
+            try {
+                Field f = SearchItemIndex.class.getFields()[i];
+                Object obj = f.get(item);
+                if (obj == null) {
+                    continue;
+                }
+
+                if (f.getName().endsWith("Fields")) {
+                    target.putAll((Map<String, String>) obj);
+                } else {
+                    target.put(f.getName(), obj);
+                }
+            } catch (Exception ignored) {
+            }
+        }
+
+        return target;
+    }
+
+    @Benchmark
+    public SearchItemIndex legacyRead() {
+        SearchItemIndex target = new SearchItemIndex();
+
+        for (int i = 0; i < SearchItemIndex.class.getFields().length; i++) {
+            Field f = SearchItemIndex.class.getFields()[i];
+            try {
+                Object obj = document.get(f.getName());
+
+                if (obj == null) {
+                    continue;
+                }
+
+                if (f.getType().equals(Date.class)) {
+                    obj = new Date((Long) obj);
+                } else if (obj instanceof List && f.getType().equals(String[].class)) {
+                    obj = ((List) obj).toArray(new String[0]);
+                }
+
+                f.set(target, obj);
+            } catch (Exception ignored) {
+            }
+        }
+
+        for (Map.Entry<String, Object> key : document.entrySet()) {
+            try {
+                if (key.getKey().startsWith("sds_")) {
+                    if (target.sdsFields == null) target.sdsFields = new HashMap<>();
+                    target.sdsFields.put(key.getKey(), key.getValue().toString());
+                } else if (key.getKey().startsWith("iucn_")) {
+                    if (target.iucnFields == null) target.iucnFields = new HashMap<>();
+                    target.iucnFields.put(key.getKey(), key.getValue().toString());
+                } else if (key.getKey().startsWith("conservation_")) {
+                    if (target.conservationFields == null) target.conservationFields = new HashMap<>();
+                    target.conservationFields.put(key.getKey(), key.getValue().toString());
+                } else if (key.getKey().startsWith("rk")) {
+                    if (target.rkFields == null) target.rkFields = new HashMap<>();
+                    target.rkFields.put(key.getKey(), key.getValue().toString());
+                } else {
+                    Field f = SearchItemIndex.class.getField(key.getKey());
+
+                    if (f.getType().equals(Date.class)) {
+                        f.set(target, new Date((Long) key.getValue()));
+                    } else if (key.getValue() instanceof List && f.getType().equals(String[].class)) {
+                        f.set(target, ((List) key.getValue()).toArray(new String[0]));
+                    } else {
+                        f.set(target, key.getValue());
+                    }
+                }
+            } catch (NoSuchFieldException | IllegalAccessException ignored) {
+            }
+        }
+
+        return target;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.model.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DenormalTableTest {
+
+    @Test
+    public void testRows() {
+        DenormalTable table = new DenormalTable(new StringDictionary(), 2);
+        for (int i = 0; i < 100; i++) {
+            int row = table.addRow();
+            assertEquals(i, row);
+            table.set(row, 0, "key" + (i % 10));
+            if (i % 2 == 0) {
+                table.set(row, 1, "value" + i);
+                table.setNumber(row, i);
+            }
+        }
+
+        assertEquals(100, table.size());
+        assertEquals("key3", table.get(13, 0));
+        assertEquals("value12", table.get(12, 1));
+        assertEquals(12, table.getNumber(12));
+
+        // empty values
+        assertNull(table.get(13, 1));
+        assertEquals(StringDictionary.NULL, table.id(13, 1));
+        assertNull(table.getNumber(13));
+
+        // shared strings
+        assertEquals(table.id(3, 0), table.id(13, 0));
+    }
+
+    @Test
+    public void testIndex() {
+        DenormalTable table = new DenormalTable(new StringDictionary(), 2);
+        String[] keys = {"b", "a", "b", null, "c", "b"};
+        for (int i = 0; i < keys.length; i++) {
+            int row = table.addRow();
+            table.set(row, 0, keys[i]);
+            table.set(row, 1, "value" + i);
+        }
+
+        DenormalTable.Index index = table.index(0);
+
+        // rows with the same value are in the order they were added
+        int group = index.group("b");
+        assertEquals(3, index.to(group) - index.from(group));
+        assertEquals(0, index.row(index.from(group)));
+        assertEquals(2, index.row(index.from(group) + 1));
+        assertEquals(5, index.row(index.from(group) + 2));
+
+        group = index.group("a");
+        assertEquals(1, index.to(group) - index.from(group));
+        assertEquals(1, index.row(index.from(group)));
+
+        // missing and empty values
+        assertEquals(-1, index.group("d"));
+        assertEquals(-1, index.group(null));
+
+        // a value in the dictionary that is not in this column
+        assertEquals(-1, index.group("value0"));
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        DenormalTable table = new DenormalTable(new StringDictionary(), 1);
+        assertEquals(-1, table.index(0).group("a"));
+    }
+
+    @Test
+    public void testAppend() {
+        DenormalTable table = new DenormalTable(new StringDictionary(), 2);
+        table.set(table.addRow(), 0, "a");
+
+        DenormalTable copy = table.emptyCopy();
+        assertNotSame(table.strings(), copy.strings());
+        copy.set(copy.addRow(), 0, "b");
+        copy.setNumber(0, 7);
+        copy.set(copy.addRow(), 0, "a");
+        copy.set(1, 1, "c");
+
+        table.append(copy);
+        table.trim();
+
+        assertEquals(3, table.size());
+        assertEquals("a", table.get(0, 0));
+        assertEquals("b", table.get(1, 0));
+        assertNull(table.get(1, 1));
+        assertEquals(7, table.getNumber(1));
+        assertEquals("a", table.get(2, 0));
+        assertEquals("c", table.get(2, 1));
+
+        // the strings of the copy are in the dictionary of the table, once
+        assertEquals(table.id(0, 0), table.id(2, 0));
+        assertEquals(3, table.strings().size());
+        DenormalTable.Index index = table.index(0);
+        int group = index.group("a");
+        assertEquals(2, index.to(group) - index.from(group));
+    }
+
+    @Test
+    public void testAppendOtherColumns() {
+        DenormalTable table = new DenormalTable(new StringDictionary(), 1);
+        DenormalTable other = new DenormalTable(new StringDictionary(), 2);
+
+        assertThrows(IllegalArgumentException.class, () -> table.append(other));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.model.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void testAddAndGet() {
+        StringDictionary strings = new StringDictionary();
+
+        assertEquals(0, strings.add("a"));
+        assertEquals(1, strings.add("b"));
+        assertEquals(0, strings.add("a"));
+        assertEquals(StringDictionary.NULL, strings.add(null));
+
+        assertEquals(2, strings.size());
+        assertEquals("a", strings.get(0));
+        assertEquals("b", strings.get(1));
+        assertNull(strings.get(StringDictionary.NULL));
+    }
+
+    @Test
+    public void testId() {
+        StringDictionary strings = new StringDictionary();
+        strings.add("a");
+
+        assertEquals(0, strings.id("a"));
+        assertEquals(StringDictionary.NULL, strings.id("b"));
+        assertEquals(StringDictionary.NULL, strings.id(null));
+
+        // id does not add
+        assertEquals(1, strings.size());
+    }
+
+    @Test
+    public void testGrowAndTrim() {
+        StringDictionary strings = new StringDictionary(16);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, strings.add("value" + i));
+        }
+        strings.trim();
+
+        assertEquals(10000, strings.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, strings.id("value" + i));
+            assertEquals("value" + i, strings.get(i));
+        }
+
+        // still usable after trim
+        assertEquals(10000, strings.add("new"));
+        assertEquals(5, strings.add("value5"));
+    }
+}
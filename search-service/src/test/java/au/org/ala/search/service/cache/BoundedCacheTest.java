@@ -0,0 +1,81 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BoundedCache<String> cache = new BoundedCache<>("test", () -> 2);
+        cache.bindTo(registry);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals(2, cache.size());
+
+        assertEquals(2, registry.get("cache.gets").tag("cache", "test").tag("result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tag("result", "miss").functionCounter().count());
+        assertEquals(3, registry.get("cache.puts").functionCounter().count());
+        assertEquals(1, registry.get("cache.evictions").functionCounter().count());
+        assertNull(registry.find("cache.bytes").gauge());
+    }
+
+    @Test
+    public void testBytes() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BoundedCache<String> cache = new BoundedCache<>("test", () -> 10, () -> 100);
+        cache.bindTo(registry);
+
+        cache.put("a", "1", Long.MAX_VALUE, 60);
+        cache.put("b", "2", Long.MAX_VALUE, 30);
+        assertEquals(90, cache.bytes());
+
+        // larger than maxBytes, not added
+        cache.put("c", "3", Long.MAX_VALUE, 101);
+        assertNull(cache.get("c"));
+
+        // a is evicted to fit
+        cache.put("d", "4", Long.MAX_VALUE, 50);
+        assertNull(cache.get("a"));
+        assertEquals(80, cache.bytes());
+        assertEquals(80, registry.get("cache.bytes").gauge().value());
+    }
+
+    @Test
+    public void testExpiredAndNotValid() {
+        BoundedCache<String> cache = new BoundedCache<>("test", () -> 10, () -> 100);
+
+        cache.put("a", "1", System.currentTimeMillis() - 1, 10);
+        assertNull(cache.get("a"));
+
+        cache.put("b", "2", Long.MAX_VALUE, 10);
+        assertNull(cache.get("b", value -> false));
+
+        // both removed
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void testDisabled() {
+        BoundedCache<String> cache = new BoundedCache<>("test", () -> 0);
+
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+    }
+}
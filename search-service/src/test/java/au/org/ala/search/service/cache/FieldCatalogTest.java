@@ -0,0 +1,145 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.model.dto.IndexedField;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class FieldCatalogTest {
+    private IndexOperations indexOperations;
+    private FieldCatalog catalog;
+
+    // mapping properties returned by the index
+    private Map<String, Object> properties;
+
+    @BeforeEach
+    public void setup() {
+        properties = new LinkedHashMap<>();
+        properties.put("id", Map.of("type", "keyword"));
+        properties.put("name", Map.of("type", "text"));
+        properties.put("rk_genus", Map.of("type", "keyword"));
+        properties.put("rk_family", Map.of("type", "keyword"));
+        properties.put("rankID", Map.of("type", "integer"));
+
+        indexOperations = mock(IndexOperations.class);
+        when(indexOperations.getMapping()).thenAnswer(invocation -> Map.of("properties", new LinkedHashMap<>(properties)));
+        ElasticsearchOperations elasticsearchOperations = mock(ElasticsearchOperations.class);
+        when(elasticsearchOperations.indexOps(SearchItemIndex.class)).thenReturn(indexOperations);
+
+        catalog = new FieldCatalog(elasticsearchOperations);
+        // a miss always refreshes
+        ReflectionTestUtils.setField(catalog, "missRefreshSeconds", -1);
+    }
+
+    @Test
+    public void testFields() {
+        assertEquals(Set.of("id", "name", "rk_genus", "rk_family", "rankID"), catalog.names());
+        assertEquals(5, catalog.fields().size());
+
+        IndexedField name = field("name");
+        assertEquals("string", name.getDataType());
+        assertFalse(name.getIndexed());
+
+        IndexedField rankID = field("rankID");
+        assertEquals("int", rankID.getDataType());
+        assertTrue(rankID.getIndexed());
+    }
+
+    @Test
+    public void testExpand() {
+        assertEquals(List.of("rk_family", "rk_genus"), catalog.expand("rk_*"));
+        assertEquals(List.of(), catalog.expand("sds_*"));
+        assertEquals(List.of("unknown"), catalog.expand("unknown"));
+    }
+
+    @Test
+    public void testUnchangedMappingKeepsTheSnapshot() {
+        long version = catalog.version();
+        List<IndexedField> fields = catalog.fields();
+
+        catalog.refresh();
+
+        assertEquals(version, catalog.version());
+        assertSame(fields, catalog.fields());
+    }
+
+    @Test
+    public void testAddedField() {
+        long version = catalog.version();
+
+        properties.put("rk_order", Map.of("type", "keyword"));
+        catalog.refresh();
+
+        assertEquals(version + 1, catalog.version());
+        assertEquals(List.of("rk_family", "rk_genus", "rk_order"), catalog.expand("rk_*"));
+    }
+
+    @Test
+    public void testRemovedField() {
+        long version = catalog.version();
+
+        properties.remove("rk_family");
+        catalog.refresh();
+
+        assertEquals(version + 1, catalog.version());
+        assertFalse(catalog.names().contains("rk_family"));
+        assertEquals(List.of("rk_genus"), catalog.expand("rk_*"));
+    }
+
+    @Test
+    public void testChangedFieldType() {
+        long version = catalog.version();
+        IndexedField unchanged = field("id");
+
+        // e.g. the index was rebuilt with a new mapping
+        properties.put("rankID", Map.of("type", "long"));
+        properties.put("name", Map.of("type", "keyword"));
+        catalog.refresh();
+
+        assertEquals(version + 1, catalog.version());
+        assertEquals(5, catalog.fields().size());
+        assertEquals("long", field("rankID").getDataType());
+        assertTrue(field("name").getIndexed());
+        assertSame(unchanged, field("id"));
+    }
+
+    @Test
+    public void testUnknownDynamicFieldRefreshes() {
+        assertFalse(catalog.isValid("rk_order"));
+
+        properties.put("rk_order", Map.of("type", "keyword"));
+
+        assertTrue(catalog.isValid("rk_order"));
+        assertTrue(catalog.names().contains("rk_order"));
+    }
+
+    @Test
+    public void testUnknownFieldDoesNotRefresh() {
+        catalog.version();
+        properties.put("other", Map.of("type", "keyword"));
+
+        assertFalse(catalog.isValid("other"));
+        verify(indexOperations, times(1)).getMapping();
+    }
+
+    private IndexedField field(String name) {
+        return catalog.fields().stream().filter(f -> f.getName().equals(name)).findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import au.org.ala.search.util.ValidField;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class QueryPlanCacheTest {
+    private static final Set<String> FIELDS = Set.of("idxtype", "rankID", "name");
+    private static final ValidField VALID_FIELD = FIELDS::contains;
+
+    private SimpleMeterRegistry registry;
+    private QueryPlanCache cache;
+
+    @BeforeEach
+    public void setup() {
+        FieldCatalog fieldCatalog = mock(FieldCatalog.class);
+        when(fieldCatalog.version()).thenReturn(1L);
+        when(fieldCatalog.isValid(anyString())).thenAnswer(invocation -> FIELDS.contains(invocation.<String>getArgument(0)));
+
+        registry = new SimpleMeterRegistry();
+        cache = new QueryPlanCache(fieldCatalog, registry);
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+        cache.init();
+    }
+
+    @Test
+    public void testKeySpaces() {
+        assertEquals(key("idxtype:TAXON AND rankID:7000"), key("  idxtype:TAXON   AND  rankID:7000 "));
+        assertEquals(key("idxtype:TAXON", "rankID:[7000 TO 8000]"), key("idxtype:TAXON", " rankID:[7000  TO 8000] "));
+
+        // spaces in a quoted value are kept
+        assertNotEquals(key("name:\"a b\""), key("name:\"a  b\""));
+        assertNotEquals(key("name:\"a \\\" b\""), key("name:\"a \\\"  b\""));
+    }
+
+    @Test
+    public void testKeyCase() {
+        // free text is not case sensitive
+        assertEquals(key("Acacia  Dealbata"), key("acacia dealbata"));
+        assertEquals(key("-Acacia"), key("-acacia"));
+
+        // fields, values and operators are
+        assertNotEquals(key("idxtype:TAXON"), key("idxtype:taxon"));
+        assertNotEquals(key("RankID:7000"), key("rankid:7000"));
+        assertNotEquals(key("OR acacia"), key("or acacia"));
+
+        // free text is not the same as a query that starts with a field
+        assertNotEquals(key("Name"), key("name"));
+    }
+
+    @Test
+    public void testKeyFqs() {
+        assertEquals(key("acacia", "idxtype:TAXON"), key("acacia", " ", "idxtype:TAXON"));
+        assertNotEquals(key("acacia", "idxtype:TAXON", "rankID:7000"), key("acacia", "rankID:7000", "idxtype:TAXON"));
+        assertNotEquals(key("acacia idxtype:TAXON"), key("acacia", "idxtype:TAXON"));
+    }
+
+    @Test
+    public void testGet() {
+        QueryPlanCache.Plan plan = cache.get("idxtype:TAXON", null);
+        assertNotNull(plan.op);
+        assertNotNull(plan.query);
+
+        assertSame(plan, cache.get(" idxtype:TAXON ", new String[]{""}));
+        assertTrue(cache.isValid("Acacia"));
+        assertFalse(cache.isValid("rankID:[7000 TO"));
+
+        assertEquals(1, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(3, registry.get("cache.gets").tag("result", "miss").functionCounter().count());
+        assertEquals(3, registry.get("cache.puts").functionCounter().count());
+        assertEquals(1, registry.get("cache.evictions").functionCounter().count());
+    }
+
+    private static String key(String q, String... fqs) {
+        return QueryPlanCache.key(q, fqs, 1, VALID_FIELD);
+    }
+}
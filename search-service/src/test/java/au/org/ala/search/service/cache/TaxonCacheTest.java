@@ -0,0 +1,190 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.cache;
+
+import au.org.ala.search.model.SearchItemIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TaxonCacheTest {
+    private SimpleMeterRegistry registry;
+    private TaxonCache cache;
+
+    private final AtomicInteger searches = new AtomicInteger();
+
+    @BeforeEach
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        cache = new TaxonCache(registry);
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "maxBytes", 1000000L);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+        cache.init();
+    }
+
+    @Test
+    public void testHit() {
+        assertEquals("a", cache.getTaxon("a", () -> search("a")).guid);
+        assertEquals("a", cache.getTaxon("a", () -> search("a")).guid);
+
+        assertEquals(1, searches.get());
+        assertEquals(1, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tag("result", "miss").functionCounter().count());
+        assertEquals(1, registry.get("cache.puts").functionCounter().count());
+    }
+
+    @Test
+    public void testNotFoundIsCached() {
+        assertNull(cache.getTaxon("a", () -> {
+            searches.incrementAndGet();
+            return null;
+        }));
+        assertNull(cache.getTaxon("a", () -> search("a")));
+
+        assertEquals(1, searches.get());
+    }
+
+    @Test
+    public void testValuesAreCopied() {
+        SearchItemIndex taxon = cache.getTaxon("a", () -> search("a"));
+        taxon.guid = "changed";
+        assertEquals("a", cache.getTaxon("a", () -> search("a")).guid);
+
+        Map map = cache.getTaxonMap("m", () -> new HashMap<>(Map.of("list", new ArrayList<>(List.of("x")))));
+        ((List) map.get("list")).add("y");
+        map.put("other", "z");
+        assertEquals(Map.of("list", List.of("x")), cache.getTaxonMap("m", HashMap::new));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.getTaxon("a", () -> search("a"));
+        assertFalse(cache.takeChanged());
+
+        cache.invalidate();
+        cache.getTaxon("a", () -> search("a"));
+        assertEquals(2, searches.get());
+
+        // broadcast once
+        assertTrue(cache.takeChanged());
+        assertFalse(cache.takeChanged());
+    }
+
+    @Test
+    public void testInvalidateLocal() {
+        cache.getTaxon("a", () -> search("a"));
+
+        cache.invalidateLocal();
+        cache.getTaxon("a", () -> search("a"));
+        assertEquals(2, searches.get());
+
+        // not broadcast again
+        assertFalse(cache.takeChanged());
+    }
+
+    @Test
+    public void testExpiry() {
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 0L);
+
+        cache.getTaxon("a", () -> search("a"));
+        cache.getTaxon("a", () -> search("a"));
+
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+
+        cache.getTaxon("a", () -> search("a"));
+        cache.getTaxon("b", () -> search("b"));
+        cache.getTaxon("a", () -> search("a"));
+        cache.getTaxon("c", () -> search("c"));
+        assertEquals(3, searches.get());
+
+        // b was evicted, a was not
+        cache.getTaxon("a", () -> search("a"));
+        assertEquals(3, searches.get());
+        cache.getTaxon("b", () -> search("b"));
+        assertEquals(4, searches.get());
+
+        assertEquals(2, registry.get("cache.evictions").functionCounter().count());
+    }
+
+    @Test
+    public void testLargeValueIsNotCached() {
+        ReflectionTestUtils.setField(cache, "maxBytes", 100L);
+
+        cache.getTaxon("a", () -> {
+            SearchItemIndex item = search("a");
+            item.name = "x".repeat(1000);
+            return item;
+        });
+        cache.getTaxon("a", () -> search("a"));
+
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    public void testDisabled() {
+        ReflectionTestUtils.setField(cache, "maxEntries", 0);
+
+        cache.getTaxon("a", () -> search("a"));
+        cache.getTaxon("a", () -> search("a"));
+
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    public void testGetTaxonMaps() {
+        List<List<String>> requests = new ArrayList<>();
+
+        List<Map> first = cache.getTaxonMaps("p:", Arrays.asList("a", null, "b", "a", "missing"), ids -> {
+            requests.add(ids);
+            return ids.stream().map(id -> id.equals("missing") ? null : (Map) new HashMap<>(Map.of("guid", id))).toList();
+        });
+
+        assertEquals(5, first.size());
+        assertEquals("a", first.get(0).get("guid"));
+        assertNull(first.get(1));
+        assertEquals("b", first.get(2).get("guid"));
+        assertNull(first.get(4));
+
+        // repeated ids share a map
+        assertSame(first.get(0), first.get(3));
+
+        // only the new ids are searched, not found ids are cached
+        List<Map> second = cache.getTaxonMaps("p:", List.of("a", "c", "missing"), ids -> {
+            requests.add(ids);
+            return ids.stream().map(id -> (Map) new HashMap<>(Map.of("guid", id))).toList();
+        });
+        assertEquals("c", second.get(1).get("guid"));
+        assertNull(second.get(2));
+        assertEquals(List.of(List.of("a", "b", "missing"), List.of("c")), requests);
+
+        // the same keys as getTaxonMap with the prefix
+        assertEquals("b", cache.getTaxonMap("p:b", HashMap::new).get("guid"));
+
+        // copies
+        second.get(0).put("guid", "changed");
+        assertEquals("a", cache.getTaxonMap("p:a", HashMap::new).get("guid"));
+    }
+
+    private SearchItemIndex search(String guid) {
+        searches.incrementAndGet();
+        SearchItemIndex item = new SearchItemIndex();
+        item.guid = guid;
+        return item;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.queue;
+
+import au.org.ala.search.model.TaskType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConsumerLimitsTest {
+    private SimpleMeterRegistry registry;
+    private QueueService queueService;
+    private ConsumerLimits consumerLimits;
+
+    @BeforeEach
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        queueService = mock(QueueService.class);
+
+        consumerLimits = new ConsumerLimits(registry, queueService);
+        ReflectionTestUtils.setField(consumerLimits, "elasticsearchLimit", 4);
+        ReflectionTestUtils.setField(consumerLimits, "pdfLimit", 1);
+        ReflectionTestUtils.setField(consumerLimits, "uploadLimit", 2);
+        consumerLimits.init();
+    }
+
+    @Test
+    public void testAcquireAndRelease() throws InterruptedException {
+        ConsumerLimits.Limit limit = new ConsumerLimits.Limit("test", 2);
+
+        limit.acquire();
+        limit.acquire();
+        assertEquals(2, limit.active());
+
+        limit.release();
+        assertEquals(1, limit.active());
+        limit.release();
+        assertEquals(0, limit.active());
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        ConsumerLimits.Limit limit = new ConsumerLimits.Limit("test", 1);
+        limit.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiting = Thread.ofVirtual().start(() -> {
+            try {
+                limit.acquire();
+                acquired.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limit.release();
+        assertTrue(acquired.await(2, TimeUnit.SECONDS));
+        assertEquals(1, limit.active());
+        waiting.join();
+    }
+
+    @Test
+    public void testAcquireIsInterruptible() throws Exception {
+        ConsumerLimits.Limit limit = new ConsumerLimits.Limit("test", 0);
+
+        AtomicInteger interrupted = new AtomicInteger();
+        Thread waiting = Thread.ofVirtual().start(() -> {
+            try {
+                limit.acquire();
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+            }
+        });
+
+        waiting.interrupt();
+        waiting.join(2000);
+        assertEquals(1, interrupted.get());
+        assertEquals(0, limit.active());
+    }
+
+    @Test
+    public void testRaisedLimitWakesWaiting() throws Exception {
+        ConsumerLimits.Limit limit = new ConsumerLimits.Limit("test", 1);
+        limit.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(2);
+        List<Thread> waiting = List.of(
+                Thread.ofVirtual().start(() -> acquire(limit, acquired)),
+                Thread.ofVirtual().start(() -> acquire(limit, acquired)));
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limit.setLimit(3);
+        assertTrue(acquired.await(2, TimeUnit.SECONDS));
+        assertEquals(3, limit.active());
+        for (Thread thread : waiting) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testLoweredLimitWhilePermitsAreHeld() throws Exception {
+        ConsumerLimits.Limit limit = new ConsumerLimits.Limit("test", 3);
+        limit.acquire();
+        limit.acquire();
+
+        limit.setLimit(1);
+        assertEquals(1, limit.limit());
+        assertEquals(2, limit.active());
+
+        // no new permit until active is below the new limit
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiting = Thread.ofVirtual().start(() -> acquire(limit, acquired));
+
+        limit.release();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limit.release();
+        assertTrue(acquired.await(2, TimeUnit.SECONDS));
+        waiting.join();
+    }
+
+    @Test
+    public void testNegativeLimit() {
+        assertEquals(0, new ConsumerLimits.Limit("test", -1).limit());
+
+        ConsumerLimits.Limit limit = new ConsumerLimits.Limit("test", 1);
+        limit.setLimit(-5);
+        assertEquals(0, limit.limit());
+    }
+
+    @Test
+    public void testStatus() throws InterruptedException {
+        consumerLimits.get(ConsumerLimits.PDF).acquire();
+
+        Map<String, Map<String, Integer>> status = consumerLimits.status();
+        assertEquals(List.of(ConsumerLimits.ELASTICSEARCH, ConsumerLimits.PDF, ConsumerLimits.UPLOAD), List.copyOf(status.keySet()));
+        assertEquals(Map.of("limit", 4, "active", 0), status.get(ConsumerLimits.ELASTICSEARCH));
+        assertEquals(Map.of("limit", 1, "active", 1), status.get(ConsumerLimits.PDF));
+        assertEquals(Map.of("limit", 2, "active", 0), status.get(ConsumerLimits.UPLOAD));
+    }
+
+    @Test
+    public void testSetLimit() {
+        assertTrue(consumerLimits.setLimit(ConsumerLimits.UPLOAD, 5));
+        assertEquals(5, consumerLimits.get(ConsumerLimits.UPLOAD).limit());
+        assertEquals(5, consumerLimits.status().get(ConsumerLimits.UPLOAD).get("limit"));
+        assertEquals(5, registry.get("consumer.limit").tag("name", ConsumerLimits.UPLOAD).gauge().value());
+    }
+
+    @Test
+    public void testSetLimitOfUnknownName() {
+        assertFalse(consumerLimits.setLimit("unknown", 5));
+        assertNull(consumerLimits.get("unknown"));
+        assertFalse(consumerLimits.status().containsKey("unknown"));
+    }
+
+    @Test
+    public void testQueue() throws InterruptedException {
+        when(queueService.countQueued(TaskType.FIELDGUIDE)).thenReturn(7L);
+
+        ConsumerLimits.Limit limit = consumerLimits.queue(TaskType.FIELDGUIDE, 2);
+        assertSame(limit, consumerLimits.get("fieldguide"));
+        limit.acquire();
+
+        assertEquals(7, registry.get("queue.depth").tag("queue", "fieldguide").gauge().value());
+        assertEquals(1, registry.get("consumer.active").tag("name", "fieldguide").gauge().value());
+        assertTrue(consumerLimits.setLimit("fieldguide", 3));
+        assertEquals(Map.of("limit", 3, "active", 1), consumerLimits.status().get("fieldguide"));
+    }
+
+    @Test
+    public void testTimers() {
+        consumerLimits.recordWait(TaskType.SEARCH_DOWNLOAD, Duration.ofSeconds(2));
+        consumerLimits.recordService(TaskType.SEARCH_DOWNLOAD, Duration.ofSeconds(3));
+
+        assertEquals(2, registry.get("queue.wait").tag("queue", "search_download").timer().totalTime(TimeUnit.SECONDS));
+        assertEquals(3, registry.get("queue.service").tag("queue", "search_download").timer().totalTime(TimeUnit.SECONDS));
+    }
+
+    private static void acquire(ConsumerLimits.Limit limit, CountDownLatch acquired) {
+        try {
+            limit.acquire();
+            acquired.countDown();
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
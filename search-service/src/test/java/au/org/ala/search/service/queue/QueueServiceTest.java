@@ -0,0 +1,212 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.queue;
+
+import au.org.ala.search.model.TaskType;
+import au.org.ala.search.model.queue.QueueItem;
+import au.org.ala.search.model.queue.Status;
+import au.org.ala.search.model.queue.StatusCode;
+import au.org.ala.search.repo.QueueMongoRepository;
+import au.org.ala.search.service.remote.ElasticService;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class QueueServiceTest {
+    private MongoTemplate mongoTemplate;
+    private QueueService queueService;
+    private String instanceId;
+
+    @BeforeEach
+    public void setup() {
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.indexOps(QueueItem.class)).thenReturn(mock(IndexOperations.class));
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), eq(QueueItem.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        updated(1);
+
+        queueService = new QueueService(mock(QueueMongoRepository.class), mongoTemplate, mock(ElasticService.class));
+        ReflectionTestUtils.setField(queueService, "leaseSeconds", 120);
+        ReflectionTestUtils.setField(queueService, "heartbeatMs", 60000L);
+        ReflectionTestUtils.setField(queueService, "pollMs", 10L);
+        ReflectionTestUtils.setField(queueService, "maxAttempts", 3);
+        queueService.init();
+
+        instanceId = (String) ReflectionTestUtils.getField(queueService, "instanceId");
+    }
+
+    @AfterEach
+    public void teardown() {
+        queueService.destroy();
+    }
+
+    @Test
+    public void testClaimAndRenew() throws InterruptedException {
+        QueueItem item = claim("1");
+        assertEquals("1", item.status.id);
+
+        ArgumentCaptor<Query> claimed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findAndModify(claimed.capture(), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(QueueItem.class));
+        assertEquals(StatusCode.QUEUED, claimed.getValue().getQueryObject().get("status.statusCode"));
+
+        queueService.heartbeat();
+
+        // the lease of the claimed item is renewed, by its owner only
+        Document renewed = updateMultiQueries().getFirst();
+        assertEquals(List.of("1"), List.copyOf((Collection<?>) ((Document) renewed.get("_id")).get("$in")));
+        assertEquals(instanceId, renewed.get("owner"));
+
+        // released items are not renewed
+        queueService.release(item);
+        clearInvocations(mongoTemplate);
+        queueService.heartbeat();
+        assertEquals(2, updateMultiQueries().size());
+    }
+
+    @Test
+    public void testExpiredIncludesMissingLease() {
+        queueService.heartbeat();
+
+        // nothing leased, so only the failed and requeued updates
+        List<Document> queries = updateMultiQueries();
+        assertEquals(2, queries.size());
+
+        Document failed = queries.get(0);
+        List<?> and = (List<?>) failed.get("$and");
+        assertEquals(StatusCode.RUNNING, ((Document) and.get(0)).get("status.statusCode"));
+        assertExpired((Document) and.get(0));
+        assertEquals(new Document("$gte", 3), ((Document) and.get(1)).get("attempts"));
+
+        Document requeued = queries.get(1);
+        assertEquals(StatusCode.RUNNING, requeued.get("status.statusCode"));
+        assertExpired(requeued);
+    }
+
+    @Test
+    public void testUpdateStatusByOwner() throws InterruptedException {
+        QueueItem item = claim("1");
+
+        Status status = queueService.updateStatus(item, StatusCode.RUNNING, "step 1");
+        assertEquals(StatusCode.RUNNING, status.statusCode);
+        assertSame(status, item.status);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateFirst(query.capture(), any(UpdateDefinition.class), eq(QueueItem.class));
+        assertEquals("1", query.getValue().getQueryObject().get("_id"));
+        assertEquals(instanceId, query.getValue().getQueryObject().get("owner"));
+    }
+
+    @Test
+    public void testLostLeaseStopsProcessing() throws InterruptedException {
+        QueueItem item = claim("1");
+        updated(0);
+
+        // e.g. requeued after this instance was paused for longer than the lease
+        assertThrows(IllegalStateException.class, () -> queueService.updateStatus(item, StatusCode.RUNNING, "step 2"));
+        assertEquals(StatusCode.CANCELLED, item.status.statusCode);
+
+        // the error of the consumer is not written, and the lease is not renewed
+        assertEquals(StatusCode.CANCELLED, queueService.updateStatus(item, StatusCode.ERROR, "lost").statusCode);
+        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(QueueItem.class));
+
+        queueService.heartbeat();
+        assertEquals(2, updateMultiQueries().size());
+    }
+
+    @Test
+    public void testLostLeaseWhenFinished() throws InterruptedException {
+        QueueItem item = claim("1");
+        updated(0);
+
+        assertEquals(StatusCode.CANCELLED, queueService.updateStatus(item, StatusCode.FINISHED, "").statusCode);
+        assertEquals(StatusCode.CANCELLED, queueService.updateStatus(item, StatusCode.QUEUED, "interrupted").statusCode);
+    }
+
+    @Test
+    public void testRequeue() throws InterruptedException {
+        QueueItem item = claim("1");
+
+        queueService.updateStatus(item, StatusCode.QUEUED, "interrupted");
+
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(QueueItem.class));
+        Document unset = (Document) update.getValue().getUpdateObject().get("$unset");
+        assertTrue(unset.containsKey("owner"));
+        assertTrue(unset.containsKey("leaseExpires"));
+
+        // no longer renewed
+        queueService.heartbeat();
+        assertEquals(2, updateMultiQueries().size());
+    }
+
+    @Test
+    public void testHeartbeatThread() {
+        queueService.destroy();
+
+        ReflectionTestUtils.setField(queueService, "heartbeatMs", 10L);
+        doAnswer(invocation -> {
+            assertEquals("queue-heartbeat", Thread.currentThread().getName());
+            return UpdateResult.acknowledged(0, 0L, null);
+        }).when(mongoTemplate).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(QueueItem.class));
+        queueService.init();
+
+        verify(mongoTemplate, timeout(2000).atLeast(4)).updateMulti(any(Query.class), any(UpdateDefinition.class), eq(QueueItem.class));
+    }
+
+    private QueueItem claim(String id) throws InterruptedException {
+        QueueItem candidate = QueueItem.builder().id(id).createdDate(LocalDateTime.now()).build();
+        when(mongoTemplate.find(any(Query.class), eq(QueueItem.class))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            return StatusCode.QUEUED.equals(query.getQueryObject().get("status.statusCode")) ? List.of(candidate) : List.of();
+        });
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), eq(QueueItem.class)))
+                .thenReturn(QueueItem.builder().id(id)
+                        .status(Status.builder().statusCode(StatusCode.RUNNING).build())
+                        .owner(instanceId)
+                        .attempts(1)
+                        .build());
+
+        return queueService.next(TaskType.SEARCH_DOWNLOAD);
+    }
+
+    private void updated(long matched) {
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(QueueItem.class)))
+                .thenReturn(UpdateResult.acknowledged(matched, matched, null));
+    }
+
+    private List<Document> updateMultiQueries() {
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, atLeastOnce()).updateMulti(queries.capture(), any(UpdateDefinition.class), eq(QueueItem.class));
+        return queries.getAllValues().stream().map(Query::getQueryObject).toList();
+    }
+
+    // leaseExpires is missing or before now
+    private static void assertExpired(Document expired) {
+        List<?> or = (List<?>) expired.get("$or");
+        assertEquals(2, or.size());
+        assertEquals(new Document("$exists", false), ((Document) or.get(0)).get("leaseExpires"));
+        assertInstanceOf(LocalDateTime.class, ((Document) ((Document) or.get(1)).get("leaseExpires")).get("$lt"));
+    }
+}
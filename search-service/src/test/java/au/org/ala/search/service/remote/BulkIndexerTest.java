@@ -0,0 +1,209 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.remote;
+
+import au.org.ala.search.model.SearchItemIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class BulkIndexerTest {
+    private ElasticsearchOperations operations;
+
+    // ids of each bulk request
+    private final List<List<String>> requests = new ArrayList<>();
+
+    @BeforeEach
+    public void setup() {
+        operations = mock(ElasticsearchOperations.class);
+    }
+
+    @Test
+    public void testSplitByItems() {
+        recordRequests();
+
+        int indexed = new BulkIndexer(operations, 10, Long.MAX_VALUE, 2, 1000, 3, 1).index(queries(25, 10));
+
+        assertEquals(25, indexed);
+        assertEquals(List.of(10, 10, 5), requests.stream().map(List::size).toList());
+    }
+
+    @Test
+    public void testSplitByBytes() {
+        recordRequests();
+
+        // 3 sources of 100 bytes fit in 350
+        int indexed = new BulkIndexer(operations, 1000, 350, 2, 1000, 3, 1).index(queries(10, 100));
+
+        assertEquals(10, indexed);
+        assertEquals(List.of(3, 3, 3, 1), requests.stream().map(List::size).toList());
+    }
+
+    @Test
+    public void testLargeQueryIsSentAlone() {
+        recordRequests();
+
+        int indexed = new BulkIndexer(operations, 1000, 10, 2, 1000, 3, 1).index(queries(3, 100));
+
+        assertEquals(3, indexed);
+        assertEquals(List.of(1, 1, 1), requests.stream().map(List::size).toList());
+    }
+
+    @Test
+    public void testRetryOnlyRejectedQueries() {
+        when(operations.bulkIndex(anyList(), eq(SearchItemIndex.class)))
+                .thenAnswer(invocation -> {
+                    List<IndexQuery> batch = invocation.getArgument(0);
+                    requests.add(batch.stream().map(IndexQuery::getId).toList());
+                    if (requests.size() == 1) {
+                        throw new BulkFailureException("rejected", Map.of(
+                                "1", new BulkFailureException.FailureDetails(429, "rejected"),
+                                "3", new BulkFailureException.FailureDetails(503, "unavailable")));
+                    }
+                    return List.of();
+                });
+
+        int indexed = new BulkIndexer(operations, 10, Long.MAX_VALUE, 2, 1000, 3, 1).index(queries(5, 10));
+
+        assertEquals(5, indexed);
+        assertEquals(2, requests.size());
+        assertEquals(List.of("1", "3"), requests.get(1));
+    }
+
+    @Test
+    public void testMappingErrorIsNotRetried() {
+        when(operations.bulkIndex(anyList(), eq(SearchItemIndex.class)))
+                .thenAnswer(invocation -> {
+                    List<IndexQuery> batch = invocation.getArgument(0);
+                    requests.add(batch.stream().map(IndexQuery::getId).toList());
+                    throw new BulkFailureException("failed", Map.of(
+                            "2", new BulkFailureException.FailureDetails(400, "mapper_parsing_exception")));
+                });
+
+        BulkIndexer bulkIndexer = new BulkIndexer(operations, 10, Long.MAX_VALUE, 2, 1000, 3, 1);
+        int indexed = bulkIndexer.index(queries(5, 10));
+
+        assertEquals(4, indexed);
+        assertEquals(1, requests.size());
+        assertTrue(bulkIndexer.toString().contains("failed=1"));
+    }
+
+    @Test
+    public void testUnmatchedFailureIsLost() {
+        List<IndexQuery> queries = queries(3, 10);
+        queries.get(1).setId(null);
+
+        when(operations.bulkIndex(anyList(), eq(SearchItemIndex.class)))
+                .thenAnswer(invocation -> {
+                    List<IndexQuery> batch = invocation.getArgument(0);
+                    requests.add(batch.stream().map(IndexQuery::getId).toList());
+                    // the id generated by elasticsearch for the query without an id
+                    throw new BulkFailureException("rejected", Map.of(
+                            "generated", new BulkFailureException.FailureDetails(429, "rejected")));
+                });
+
+        BulkIndexer bulkIndexer = new BulkIndexer(operations, 10, Long.MAX_VALUE, 2, 1000, 3, 1);
+        int indexed = bulkIndexer.index(queries);
+
+        assertEquals(2, indexed);
+        assertEquals(1, requests.size());
+        assertTrue(bulkIndexer.toString().contains("failed=1"));
+    }
+
+    @Test
+    public void testDuplicateIdsAreInSeparateRequests() {
+        List<IndexQuery> queries = queries(4, 10);
+        queries.get(2).setId("0");
+
+        when(operations.bulkIndex(anyList(), eq(SearchItemIndex.class)))
+                .thenAnswer(invocation -> {
+                    List<IndexQuery> batch = invocation.getArgument(0);
+                    requests.add(batch.stream().map(IndexQuery::getId).toList());
+                    if (requests.size() == 2) {
+                        throw new BulkFailureException("rejected", Map.of(
+                                "0", new BulkFailureException.FailureDetails(503, "unavailable")));
+                    }
+                    return List.of();
+                });
+
+        int indexed = new BulkIndexer(operations, 10, Long.MAX_VALUE, 2, 1000, 3, 1).index(queries);
+
+        // only the failed query with the id is retried
+        assertEquals(4, indexed);
+        assertEquals(List.of(List.of("0", "1"), List.of("0", "3"), List.of("0")), requests);
+    }
+
+    @Test
+    public void testFailedRequestIsRetriedUntilMaxRetries() {
+        when(operations.bulkIndex(anyList(), eq(SearchItemIndex.class)))
+                .thenThrow(new RuntimeException("connection refused"));
+
+        BulkIndexer bulkIndexer = new BulkIndexer(operations, 10, Long.MAX_VALUE, 2, 1000, 3, 1);
+        int indexed = bulkIndexer.index(queries(5, 10));
+
+        assertEquals(0, indexed);
+        // the first attempt and 3 retries
+        verify(operations, times(4)).bulkIndex(anyList(), eq(SearchItemIndex.class));
+        assertTrue(bulkIndexer.toString().contains("failed=5"));
+    }
+
+    @Test
+    public void testIndexCoordinates() {
+        IndexCoordinates index = IndexCoordinates.of("search-rebuild");
+
+        int indexed = new BulkIndexer(operations, 10, Long.MAX_VALUE, 2, 1000, 3, 1).index(queries(5, 10), index);
+
+        assertEquals(5, indexed);
+        verify(operations).bulkIndex(anyList(), eq(index));
+        verify(operations, never()).bulkIndex(anyList(), eq(SearchItemIndex.class));
+    }
+
+    @Test
+    public void testUpdate() {
+        List<UpdateQuery> queries = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            queries.add(UpdateQuery.builder(String.valueOf(i)).build());
+        }
+
+        int updated = new BulkIndexer(operations, 10, Long.MAX_VALUE, 2, 1000, 3, 1).update(queries);
+
+        assertEquals(15, updated);
+        verify(operations, times(2)).bulkUpdate(anyList(), eq(SearchItemIndex.class));
+    }
+
+    private void recordRequests() {
+        when(operations.bulkIndex(anyList(), eq(SearchItemIndex.class)))
+                .thenAnswer(invocation -> {
+                    List<IndexQuery> batch = invocation.getArgument(0);
+                    requests.add(batch.stream().map(IndexQuery::getId).toList());
+                    return List.of();
+                });
+    }
+
+    private static List<IndexQuery> queries(int count, int sourceSize) {
+        List<IndexQuery> queries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            IndexQuery query = new IndexQuery();
+            query.setId(String.valueOf(i));
+            query.setSource("x".repeat(sourceSize));
+            queries.add(query);
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.remote;
+
+import au.org.ala.search.model.AdminIndex;
+import au.org.ala.search.model.TaskType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class LogServiceTest {
+    private ElasticsearchOperations elasticsearchOperations;
+    private LogService logService;
+
+    // the admin index, guarded by itself
+    private final List<AdminIndex> index = new ArrayList<>();
+
+    @BeforeEach
+    public void setup() {
+        elasticsearchOperations = mock(ElasticsearchOperations.class);
+        when(elasticsearchOperations.bulkIndex(anyList(), eq(AdminIndex.class))).thenAnswer(invocation -> {
+            List<IndexQuery> queries = invocation.getArgument(0);
+            synchronized (index) {
+                queries.forEach(query -> index.add((AdminIndex) query.getObject()));
+            }
+            return List.of();
+        });
+        when(elasticsearchOperations.search(any(Query.class), eq(AdminIndex.class), any(IndexCoordinates.class))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            return hits(query.getPageable().getPageSize());
+        });
+
+        logService = new LogService(elasticsearchOperations);
+        ReflectionTestUtils.setField(logService, "elasticAdminIndex", "admin");
+        ReflectionTestUtils.setField(logService, "bufferSize", 10);
+        ReflectionTestUtils.setField(logService, "batchSize", 5);
+        ReflectionTestUtils.setField(logService, "flushMs", 60000L);
+        ReflectionTestUtils.setField(logService, "tailSize", 3);
+        ReflectionTestUtils.setField(logService, "tailFreshMs", 0L);
+        logService.init();
+    }
+
+    @AfterEach
+    public void teardown() throws InterruptedException {
+        logService.destroy();
+    }
+
+    @Test
+    public void testTail() {
+        logService.log(TaskType.DWCA, "a");
+        logService.log(TaskType.DWCA, "b");
+        logService.log(TaskType.DWCA, "c");
+        logService.log(TaskType.DWCA, "d");
+
+        assertEquals(List.of("d", "c"), messages(logService.getStatus(TaskType.DWCA, 2)));
+        assertEquals(List.of("d", "c", "b"), messages(logService.getStatus(TaskType.DWCA, 3)));
+
+        // unique and increasing, even when logged in the same millisecond
+        List<AdminIndex> status = logService.getStatus(TaskType.DWCA, 3);
+        assertTrue(status.get(0).getModified().after(status.get(1).getModified()));
+        assertTrue(status.get(1).getModified().after(status.get(2).getModified()));
+        assertEquals(3, new HashSet<>(ids(status)).size());
+    }
+
+    @Test
+    public void testLargerThanTailIsSearched() {
+        for (String message : List.of("a", "b", "c", "d")) {
+            logService.log(TaskType.DWCA, message);
+        }
+
+        // flushed first, so that all messages are found
+        assertEquals(List.of("d", "c", "b", "a"), messages(logService.getStatus(TaskType.DWCA, 10)));
+    }
+
+    @Test
+    public void testTaskNotLoggedOnThisInstanceIsSearched() {
+        indexed(TaskType.DWCA, "other", 1000);
+
+        assertEquals(List.of("other"), messages(logService.getStatus(TaskType.DWCA, 2)));
+    }
+
+    @Test
+    public void testTailIsSeeded() {
+        // logged before this instance started
+        indexed(TaskType.DWCA, "previous", 1000);
+
+        logService.log(TaskType.DWCA, "a");
+
+        assertEquals(List.of("a", "previous"), messages(logService.getStatus(TaskType.DWCA, 3)));
+    }
+
+    @Test
+    public void testNewerMessageFromAnotherInstance() throws InterruptedException {
+        logService.log(TaskType.DWCA, "a");
+        logService.flush();
+        List<AdminIndex> status = logService.getStatus(TaskType.DWCA, 2);
+        assertEquals(List.of("a"), messages(status));
+
+        // the task now runs on another instance
+        indexed(TaskType.DWCA, "other", status.getFirst().getModified().getTime() + 1);
+
+        assertEquals(List.of("other", "a"), messages(logService.getStatus(TaskType.DWCA, 2)));
+        assertEquals(List.of("other", "a"), messages(logService.getStatus(TaskType.DWCA, 2)));
+
+        // and again on this instance
+        Thread.sleep(5);
+        logService.log(TaskType.DWCA, "b");
+        assertEquals(List.of("b", "other", "a"), messages(logService.getStatus(TaskType.DWCA, 3)));
+    }
+
+    @Test
+    public void testFreshTailIsNotChecked() {
+        ReflectionTestUtils.setField(logService, "tailFreshMs", 60000L);
+
+        logService.log(TaskType.DWCA, "a");
+        assertEquals(List.of("a"), messages(logService.getStatus(TaskType.DWCA, 2)));
+        indexed(TaskType.DWCA, "other", System.currentTimeMillis() + 1000);
+
+        // only the seed is searched
+        assertEquals(List.of("a"), messages(logService.getStatus(TaskType.DWCA, 2)));
+        verify(elasticsearchOperations, times(1)).search(any(Query.class), eq(AdminIndex.class), any(IndexCoordinates.class));
+
+        // checked once the task has not logged within tailFreshMs
+        ReflectionTestUtils.setField(logService, "tailFreshMs", 0L);
+        assertEquals(List.of("other", "a"), messages(logService.getStatus(TaskType.DWCA, 2)));
+    }
+
+    @Test
+    public void testUnflushedMessagesAreNotBehind() {
+        logService.log(TaskType.DWCA, "a");
+        logService.flush();
+        logService.log(TaskType.DWCA, "b");
+
+        // b is only in memory
+        assertEquals(List.of("b", "a"), messages(logService.getStatus(TaskType.DWCA, 2)));
+        synchronized (index) {
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    public void testFullBufferIsWritten() {
+        // more than the buffer, while the writer waits
+        for (int i = 0; i < 25; i++) {
+            logService.log(TaskType.DWCA, String.valueOf(i));
+        }
+        logService.flush();
+
+        synchronized (index) {
+            assertEquals(25, index.size());
+            assertEquals(25, new HashSet<>(ids(index)).size());
+        }
+    }
+
+    @Test
+    public void testFailedWriteIsNotThrown() {
+        doThrow(new RuntimeException("unavailable")).when(elasticsearchOperations).bulkIndex(anyList(), eq(AdminIndex.class));
+
+        logService.log(TaskType.DWCA, "a");
+        assertDoesNotThrow(() -> logService.flush());
+        assertEquals(List.of("a"), messages(logService.getStatus(TaskType.DWCA, 1)));
+    }
+
+    private void indexed(TaskType task, String message, long time) {
+        synchronized (index) {
+            index.add(AdminIndex.builder().id(task.name() + "-" + time + "-" + message)
+                    .task(task.name())
+                    .message(message)
+                    .modified(new Date(time))
+                    .build());
+        }
+    }
+
+    // most recent first, as searched by LogService
+    @SuppressWarnings("unchecked")
+    private SearchHits<AdminIndex> hits(int size) {
+        List<SearchHit<AdminIndex>> hits = new ArrayList<>();
+        synchronized (index) {
+            index.stream()
+                    .sorted(Comparator.comparing(AdminIndex::getModified).reversed())
+                    .limit(size)
+                    .forEach(item -> {
+                        SearchHit<AdminIndex> hit = mock(SearchHit.class);
+                        when(hit.getContent()).thenReturn(item);
+                        hits.add(hit);
+                    });
+        }
+        SearchHits<AdminIndex> searchHits = mock(SearchHits.class);
+        when(searchHits.stream()).thenReturn(hits.stream());
+        return searchHits;
+    }
+
+    private static List<String> messages(List<AdminIndex> items) {
+        return items.stream().map(AdminIndex::getMessage).toList();
+    }
+
+    private static List<String> ids(List<AdminIndex> items) {
+        return items.stream().map(AdminIndex::getId).toList();
+    }
+}
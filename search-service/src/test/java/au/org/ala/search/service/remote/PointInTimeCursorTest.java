@@ -0,0 +1,195 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.remote;
+
+import au.org.ala.search.model.SearchItemIndex;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SlicedScroll;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PointInTimeCursorTest {
+    private ElasticService elasticService;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        elasticService = mock(ElasticService.class);
+        when(elasticService.openPointInTime()).thenReturn("pit");
+    }
+
+    @Test
+    public void testPagesThroughAllResults() throws Exception {
+        stubResults(25);
+
+        List<Integer> sizes = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        try (PointInTimeCursor cursor = PointInTimeCursor.open(elasticService, null, null, 10, 2, 1).getFirst()) {
+            for (List<Hit<SearchItemIndex>> hits : cursor) {
+                sizes.add(hits.size());
+                hits.forEach(hit -> ids.add(hit.id()));
+            }
+        }
+
+        assertEquals(List.of(10, 10, 5), sizes);
+        assertEquals(25, ids.size());
+        assertEquals("0", ids.getFirst());
+        assertEquals("24", ids.getLast());
+        verify(elasticService, timeout(2000)).closePointInTime("pit");
+    }
+
+    @Test
+    public void testExactMultipleOfPageSize() throws Exception {
+        stubResults(20);
+
+        int pages = 0;
+        try (PointInTimeCursor cursor = PointInTimeCursor.open(elasticService, null, null, 10, 2, 1).getFirst()) {
+            for (List<Hit<SearchItemIndex>> hits : cursor) {
+                assertEquals(10, hits.size());
+                pages++;
+            }
+        }
+
+        // the empty last page is not returned
+        assertEquals(2, pages);
+        verify(elasticService, timeout(2000)).closePointInTime("pit");
+    }
+
+    @Test
+    public void testEmptyResults() throws Exception {
+        stubResults(0);
+
+        try (PointInTimeCursor cursor = PointInTimeCursor.open(elasticService, null, null, 10, 2, 1).getFirst()) {
+            assertFalse(cursor.hasNext());
+        }
+        verify(elasticService, timeout(2000)).closePointInTime("pit");
+    }
+
+    @Test
+    public void testErrorIsThrownAndPointInTimeClosed() throws Exception {
+        when(elasticService.queryPointInTimeAfter(eq("pit"), any(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(page(0, 10))
+                .thenThrow(new IOException("search failed"));
+
+        try (PointInTimeCursor cursor = PointInTimeCursor.open(elasticService, null, null, 10, 2, 1).getFirst()) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> {
+                for (List<Hit<SearchItemIndex>> ignored : cursor) {
+                    // read until the error
+                }
+            });
+            assertInstanceOf(IOException.class, e.getCause());
+        }
+        verify(elasticService, timeout(2000)).closePointInTime("pit");
+    }
+
+    @Test
+    public void testCloseEarlyReleasesPointInTime() throws Exception {
+        stubResults(1000);
+
+        try (PointInTimeCursor cursor = PointInTimeCursor.open(elasticService, null, null, 10, 1, 1).getFirst()) {
+            assertEquals(10, cursor.next().size());
+        }
+
+        verify(elasticService, timeout(2000)).closePointInTime("pit");
+        // prefetching stops, it does not read the remaining pages
+        verify(elasticService, atMost(5)).queryPointInTimeAfter(any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void testHasNextIsFalseAfterClose() throws Exception {
+        stubResults(5);
+
+        PointInTimeCursor cursor = PointInTimeCursor.open(elasticService, null, null, 10, 2, 1).getFirst();
+        // the producer has finished, and END is in the pages
+        verify(elasticService, timeout(2000)).closePointInTime("pit");
+        cursor.close();
+
+        assertFalse(cursor.hasNext());
+        assertThrows(NoSuchElementException.class, cursor::next);
+    }
+
+    @Test
+    public void testCloseIsIdempotent() throws Exception {
+        stubResults(5);
+
+        PointInTimeCursor cursor = PointInTimeCursor.open(elasticService, null, null, 10, 2, 1).getFirst();
+        cursor.close();
+        cursor.close();
+
+        verify(elasticService, timeout(2000).times(1)).closePointInTime("pit");
+    }
+
+    @Test
+    public void testSlicesSharePointInTime() throws Exception {
+        CountDownLatch slice1 = new CountDownLatch(1);
+        when(elasticService.queryPointInTimeAfter(eq("pit"), any(), any(), any(), any(), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    SlicedScroll slice = invocation.getArgument(7);
+                    if ("1".equals(slice.id())) {
+                        slice1.await();
+                        return page(100, 103);
+                    }
+                    return page(0, 5);
+                });
+
+        List<PointInTimeCursor> cursors = PointInTimeCursor.open(elasticService, null, null, 10, 2, 2);
+        assertEquals(2, cursors.size());
+
+        int count = 0;
+        for (List<Hit<SearchItemIndex>> hits : cursors.get(0)) {
+            count += hits.size();
+        }
+        assertEquals(5, count);
+
+        // slice 1 is still reading
+        verify(elasticService, after(200).never()).closePointInTime(any());
+
+        slice1.countDown();
+        count = 0;
+        for (List<Hit<SearchItemIndex>> hits : cursors.get(1)) {
+            count += hits.size();
+        }
+        assertEquals(3, count);
+
+        cursors.forEach(PointInTimeCursor::close);
+        verify(elasticService, timeout(2000).times(1)).closePointInTime("pit");
+        verify(elasticService, times(1)).openPointInTime();
+    }
+
+    // pages of the results 0 to total - 1, sorted by their number
+    private void stubResults(int total) throws IOException {
+        when(elasticService.queryPointInTimeAfter(eq("pit"), any(), any(), any(), any(), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    List<FieldValue> searchAfter = invocation.getArgument(1);
+                    int pageSize = invocation.getArgument(2);
+                    int from = searchAfter == null ? 0 : (int) searchAfter.getFirst().longValue() + 1;
+                    return page(from, Math.min(total, from + pageSize));
+                });
+    }
+
+    private static SearchResponse<SearchItemIndex> page(int from, int to) {
+        List<Hit<SearchItemIndex>> hits = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            final int n = i;
+            hits.add(Hit.of(h -> h.index("search").id(String.valueOf(n)).sort(List.of(FieldValue.of(n)))));
+        }
+        return SearchResponse.of(r -> r.took(1).timedOut(false)
+                .shards(s -> s.total(1).successful(1).failed(0))
+                .hits(h -> h.hits(hits)));
+    }
+}
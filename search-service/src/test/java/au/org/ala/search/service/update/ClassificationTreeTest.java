@@ -0,0 +1,192 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.update;
+
+import au.org.ala.search.model.cache.DenormalTable;
+import au.org.ala.search.model.cache.DenormalTaxon;
+import au.org.ala.search.model.cache.StringDictionary;
+import au.org.ala.search.model.dto.RankedName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ClassificationTreeTest {
+    private DenormalTable taxa;
+
+    private Map<String, String> parentData;
+    private List<RankedName> rankedNames;
+    private List<String> rankSeen;
+
+    @BeforeEach
+    public void setup() {
+        taxa = new DenormalTable(new StringDictionary(), DenormalTaxon.COLUMNS);
+        parentData = new HashMap<>();
+        rankedNames = new ArrayList<>();
+        rankSeen = new ArrayList<>();
+    }
+
+    @Test
+    public void testClassification() {
+        int kingdom = add("k", null, "kingdom", 1000);
+        add("f", "k", "family", 5000);
+        int genus = add("g", "f", "genus", 6000);
+        int species = add("s", "g", "species", 7000);
+
+        ClassificationTree tree = tree();
+        tree.classify(species, genus, parentData, rankedNames, rankSeen);
+
+        assertEquals(0, tree.cycles());
+        assertEquals(List.of("genus", "family", "kingdom"), rankSeen);
+        assertEquals("name g", parentData.get("rk_genus"));
+        assertEquals("g", parentData.get("rkid_genus"));
+        assertEquals("<i>name g</i>", parentData.get("rkf_genus"));
+        assertEquals("name k", parentData.get("rk_kingdom"));
+        assertEquals(3, rankedNames.size());
+
+        // the root has no classification
+        parentData.clear();
+        rankSeen.clear();
+        tree.classify(kingdom, ClassificationTree.NONE, parentData, rankedNames, rankSeen);
+        assertEquals(List.of(), rankSeen);
+    }
+
+    @Test
+    public void testUnrankedParentsAreSkipped() {
+        add("k", null, "kingdom", 1000);
+        add("u", "k", null, 0);
+        int unranked = add("z", "u", "unranked", 0);
+        add("s", "z", "species", 7000);
+
+        ClassificationTree tree = tree();
+        tree.classify(ClassificationTree.NONE, unranked, parentData, rankedNames, rankSeen);
+
+        assertEquals(List.of("kingdom"), rankSeen);
+        assertNull(parentData.get("rk_unranked"));
+    }
+
+    @Test
+    public void testRepeatedRanksAreNumbered() {
+        add("g1", null, "genus", 6000);
+        add("g2", "g1", "genus", 6000);
+        int g3 = add("g3", "g2", "genus", 6000);
+
+        tree().classify(ClassificationTree.NONE, g3, parentData, rankedNames, rankSeen);
+
+        assertEquals(List.of("genus", "genus1", "genus2"), rankSeen);
+        assertEquals("name g3", parentData.get("rk_genus"));
+        assertEquals("name g2", parentData.get("rk_genus1"));
+        assertEquals("name g1", parentData.get("rk_genus2"));
+    }
+
+    @Test
+    public void testSharedClassification() {
+        add("f", null, "family", 5000);
+        int g1 = add("g1", "f", "genus", 6000);
+        int g2 = add("g2", "g1", "genus", 6000);
+
+        ClassificationTree tree = tree();
+
+        // the classification of g1 is computed for the first child, and copied for the second
+        for (int i = 0; i < 2; i++) {
+            parentData.clear();
+            rankSeen.clear();
+            rankedNames.clear();
+            tree.classify(ClassificationTree.NONE, g1, parentData, rankedNames, rankSeen);
+            assertEquals(List.of("genus", "family"), rankSeen);
+            assertEquals("name g1", parentData.get("rk_genus"));
+            assertEquals(6, parentData.size());
+            assertEquals(List.of("name g1", "name f"), rankedNames.stream().map(RankedName::getName).toList());
+        }
+
+        // built on the classification of g1, with its genus numbered again
+        parentData.clear();
+        rankSeen.clear();
+        tree.classify(ClassificationTree.NONE, g2, parentData, rankedNames, rankSeen);
+        assertEquals(List.of("genus", "genus1", "family"), rankSeen);
+        assertEquals("name g2", parentData.get("rk_genus"));
+        assertEquals("name g1", parentData.get("rk_genus1"));
+        assertEquals("g1", parentData.get("rkid_genus1"));
+        assertEquals("<i>name g1</i>", parentData.get("rkf_genus1"));
+        assertEquals("name f", parentData.get("rk_family"));
+    }
+
+    @Test
+    public void testLoopThroughTheTaxonStopsAtTheTaxon() {
+        // a -> b -> c -> a
+        int a = add("a", "c", "genus", 6000);
+        int b = add("b", "a", "family", 5000);
+        int c = add("c", "b", "order", 4000);
+
+        ClassificationTree tree = tree();
+        assertEquals(1, tree.cycles());
+
+        // whichever taxon the loop was cut at, the taxon's own rank is not in its classification
+        tree.classify(a, c, parentData, rankedNames, rankSeen);
+        assertEquals(List.of("order", "family"), rankSeen);
+
+        parentData.clear();
+        rankSeen.clear();
+        tree.classify(b, a, parentData, rankedNames, rankSeen);
+        assertEquals(List.of("genus", "order"), rankSeen);
+
+        parentData.clear();
+        rankSeen.clear();
+        tree.classify(c, b, parentData, rankedNames, rankSeen);
+        assertEquals(List.of("family", "genus"), rankSeen);
+    }
+
+    @Test
+    public void testTaxonThatIsItsOwnParent() {
+        int a = add("a", "a", "genus", 6000);
+
+        ClassificationTree tree = tree();
+        tree.classify(a, a, parentData, rankedNames, rankSeen);
+
+        // the parent is added once, as before
+        assertEquals(List.of("genus"), rankSeen);
+    }
+
+    @Test
+    public void testLoopAboveTheTaxonIsCut() {
+        // s -> a -> b -> a
+        int a = add("a", "b", "genus", 6000);
+        add("b", "a", "family", 5000);
+        int s = add("s", "a", "species", 7000);
+
+        ClassificationTree tree = tree();
+        tree.classify(s, a, parentData, rankedNames, rankSeen);
+
+        // the walk ends, each parent is added once
+        assertEquals(1, tree.cycles());
+        assertEquals("genus", rankSeen.getFirst());
+        assertEquals(rankSeen.size(), Set.copyOf(rankSeen).size());
+    }
+
+    private ClassificationTree tree() {
+        return new ClassificationTree(taxa, taxa.index(DenormalTaxon.GUID));
+    }
+
+    private int add(String guid, String parentGuid, String rank, int rankID) {
+        DenormalTaxon.write(taxa, DenormalTaxon.builder()
+                .key(parentGuid)
+                .guid(guid)
+                .scientificName("name " + guid)
+                .nameFormatted("<i>name " + guid + "</i>")
+                .rank(rank)
+                .rankID(rankID)
+                .build());
+        return taxa.size() - 1;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.service.update;
+
+import au.org.ala.search.model.SearchItemIndex;
+import au.org.ala.search.service.remote.ElasticService;
+import au.org.ala.search.service.remote.LogService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class DwCAImportPipelineTest {
+    private ElasticService elasticService;
+    private LogService logService;
+
+    private final AtomicInteger indexed = new AtomicInteger();
+
+    @BeforeEach
+    public void setup() {
+        elasticService = mock(ElasticService.class);
+        logService = mock(LogService.class);
+        when(elasticService.buildIndexQuery(any())).thenAnswer(invocation -> new IndexQuery());
+        when(elasticService.flushImmediately(any(), any())).thenAnswer(invocation -> {
+            List<IndexQuery> batch = invocation.getArgument(0);
+            int size = batch.size();
+            indexed.addAndGet(size);
+            batch.clear();
+            return size;
+        });
+    }
+
+    @Test
+    public void testAllItemsAreIndexed() throws Exception {
+        AtomicInteger denormalised = new AtomicInteger();
+        try (DwCAImportPipeline pipeline = new DwCAImportPipeline(elasticService, logService, null, 2, 2, 7, Long.MAX_VALUE)) {
+            for (int i = 0; i < 20; i++) {
+                pipeline.submit(items(10), item -> denormalised.incrementAndGet());
+            }
+            pipeline.submit(List.of(), null);
+        }
+
+        assertEquals(200, denormalised.get());
+        assertEquals(200, indexed.get());
+    }
+
+    @Test
+    public void testBatchesAreLimitedByBytes() throws Exception {
+        try (DwCAImportPipeline pipeline = new DwCAImportPipeline(elasticService, logService, null, 1, 1, 1000, 1)) {
+            pipeline.submit(items(5), null);
+        }
+
+        // each item is larger than the limit, so it is a batch
+        verify(elasticService, times(5)).flushImmediately(any(), any());
+        assertEquals(5, indexed.get());
+    }
+
+    @Test
+    public void testDenormaliseExceptionSkipsTheItem() throws Exception {
+        try (DwCAImportPipeline pipeline = new DwCAImportPipeline(elasticService, logService, null, 1, 1, 10, Long.MAX_VALUE)) {
+            pipeline.submit(items(10), item -> {
+                if (item.guid.equals("3")) {
+                    throw new IllegalArgumentException("bad item");
+                }
+            });
+        }
+
+        assertEquals(9, indexed.get());
+    }
+
+    @Test
+    public void testBulkErrorAbortsTheImport() {
+        when(elasticService.flushImmediately(any(), any())).thenThrow(new OutOfMemoryError("test"));
+
+        // the readers and close do not block forever on the full queues
+        IllegalStateException e = assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                assertThrows(IllegalStateException.class, () -> {
+                    try (DwCAImportPipeline pipeline = new DwCAImportPipeline(elasticService, logService, null, 1, 1, 1, Long.MAX_VALUE)) {
+                        for (int i = 0; i < 1000; i++) {
+                            pipeline.submit(items(1), null);
+                        }
+                    }
+                }));
+        assertInstanceOf(OutOfMemoryError.class, e.getCause());
+    }
+
+    @Test
+    public void testDenormaliseErrorAbortsTheImport() {
+        IllegalStateException e = assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                assertThrows(IllegalStateException.class, () -> {
+                    try (DwCAImportPipeline pipeline = new DwCAImportPipeline(elasticService, logService, null, 2, 1, 10, Long.MAX_VALUE)) {
+                        pipeline.submit(items(10), item -> {
+                            throw new StackOverflowError();
+                        });
+                    }
+                }));
+        assertInstanceOf(StackOverflowError.class, e.getCause());
+    }
+
+    private static List<SearchItemIndex> items(int count) {
+        List<SearchItemIndex> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(SearchItemIndex.builder().guid(String.valueOf(i)).build());
+        }
+        return items;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FieldProjectionTest {
+
+    @Test
+    public void testOf() {
+        assertNull(FieldProjection.of((String) null));
+        assertNull(FieldProjection.of(""));
+        assertNull(FieldProjection.of(" , ,"));
+        assertNull(FieldProjection.of((String[]) null));
+
+        FieldProjection projection = FieldProjection.of(" guid, scientificName,,guid ");
+        assertArrayEquals(new String[]{"guid", "scientificName"}, projection.fields());
+    }
+
+    @Test
+    public void testSourceFilter() {
+        FieldProjection projection = FieldProjection.of("guid,rk_*", "acceptedConceptID");
+
+        assertArrayEquals(new String[]{"guid", "rk_*", "acceptedConceptID"}, projection.sourceFilter().getIncludes());
+
+        // required fields are not requested
+        assertArrayEquals(new String[]{"guid", "rk_*"}, projection.fields());
+        assertFalse(projection.isRequested("acceptedConceptID"));
+    }
+
+    @Test
+    public void testRequire() {
+        FieldProjection projection = FieldProjection.of("guid", "acceptedConceptID").require("taxonGuid", "guid");
+
+        assertArrayEquals(new String[]{"guid", "acceptedConceptID", "taxonGuid"}, projection.sourceFilter().getIncludes());
+        assertArrayEquals(new String[]{"guid"}, projection.fields());
+    }
+
+    @Test
+    public void testIsRequested() {
+        FieldProjection projection = FieldProjection.of("guid,rk_*");
+
+        assertTrue(projection.isRequested("guid"));
+        assertTrue(projection.isRequested("rk_genus"));
+        assertTrue(projection.isRequested("rk_"));
+        assertFalse(projection.isRequested("rkid_genus"));
+        assertFalse(projection.isRequested("guidX"));
+    }
+
+    @Test
+    public void testProject() {
+        Map<String, Object> source = new LinkedHashMap<>();
+        source.put("acceptedConceptID", "a");
+        source.put("rk_genus", "Acacia");
+        source.put("rkid_genus", "g");
+        source.put("rk_family", "Fabaceae");
+        source.put("guid", "x");
+
+        FieldProjection projection = FieldProjection.of("guid,rk_*,missing", "acceptedConceptID");
+
+        // requested order, without the required fields
+        Map<String, Object> projected = projection.project(source, false);
+        assertEquals(List.of("guid", "rk_genus", "rk_family"), new ArrayList<>(projected.keySet()));
+        assertEquals("Acacia", projected.get("rk_genus"));
+
+        projected = projection.project(source, true);
+        assertTrue(projected.containsKey("missing"));
+        assertNull(projected.get("missing"));
+    }
+
+    @Test
+    public void testKey() {
+        // the same fetched fields in any order have the same key
+        assertEquals(FieldProjection.of("guid,rank").toString(), FieldProjection.of("rank, guid").toString());
+        assertEquals(FieldProjection.of("guid", "rank").toString(), FieldProjection.of("rank,guid").toString());
+        assertNotEquals(FieldProjection.of("guid").toString(), FieldProjection.of("guid,rank").toString());
+    }
+}
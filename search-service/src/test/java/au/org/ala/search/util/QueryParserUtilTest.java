@@ -0,0 +1,130 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.util;
+
+import au.org.ala.search.model.query.Op;
+import au.org.ala.search.model.query.Term;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryParserUtilTest {
+    private static final ValidField VALID_FIELD = Set.of("rankID", "idxtype", "date", "name")::contains;
+
+    @Test
+    public void testInclusiveRange() {
+        Term term = term("rankID:[7000 TO 8000]");
+        assertRange(term, "7000", "8000", true, true);
+        assertEquals("rankID", term.field);
+    }
+
+    @Test
+    public void testExclusiveRange() {
+        assertRange(term("rankID:{7000 TO 8000}"), "7000", "8000", false, false);
+    }
+
+    @Test
+    public void testMixedRange() {
+        assertRange(term("rankID:[7000 TO 8000}"), "7000", "8000", true, false);
+        assertRange(term("rankID:{7000 TO 8000]"), "7000", "8000", false, true);
+    }
+
+    @Test
+    public void testOpenEndedRange() {
+        assertRange(term("rankID:[7000 TO *]"), "7000", null, true, true);
+        assertRange(term("rankID:[* TO 8000}"), null, "8000", true, false);
+        assertRange(term("rankID:[ 7000   TO  * ]"), "7000", null, true, true);
+    }
+
+    @Test
+    public void testQuotedRange() {
+        assertRange(term("date:[\"2020 01\" TO *]"), "2020 01", null, true, true);
+        assertRange(term("date:[\"2020-01-01T00:00:00\" TO \"2021-01-01T00:00:00\"}"),
+                "2020-01-01T00:00:00", "2021-01-01T00:00:00", true, false);
+        assertRange(term("name:[\"a]\" TO \"b} c\"]"), "a]", "b} c", true, true);
+        assertRange(term("name:[\"a \\\" b\" TO *]"), "a \" b", null, true, true);
+
+        // a quoted * is not open ended
+        assertRange(term("name:[\"*\" TO *]"), "*", null, true, true);
+    }
+
+    @Test
+    public void testUnquotedTimeRange() {
+        assertRange(term("date:[2020-01-01T00:00:00 TO *]"), "2020-01-01T00:00:00", null, true, true);
+    }
+
+    @Test
+    public void testBracketedValue() {
+        Term term = term("name:[abc]");
+        assertFalse(term.range);
+        assertEquals("[abc]", term.value);
+
+        term = term("name:[abc def]");
+        assertFalse(term.range);
+        assertEquals("[abc def]", term.value);
+
+        assertEquals("{abc}", term("name:{abc}").value);
+    }
+
+    @Test
+    public void testRangeWithOtherTerms() {
+        Op op = QueryParserUtil.parse("rankID:[7000 TO 8000] AND idxtype:TAXON", VALID_FIELD);
+        assertNotNull(op);
+        assertTrue(op.andOp);
+        assertEquals(2, op.terms.size());
+        assertRange(op.terms.get(0), "7000", "8000", true, true);
+        assertEquals("TAXON", op.terms.get(1).value);
+
+        // in filter context
+        Query query = QueryParserUtil.toQuery(op);
+        assertTrue(query.isBool());
+        assertEquals(1, query.bool().filter().size());
+        assertTrue(query.bool().filter().getFirst().isRange());
+        assertEquals(1, query.bool().must().size());
+    }
+
+    @Test
+    public void testSingleRangeQuery() {
+        Query query = QueryParserUtil.toQuery(QueryParserUtil.parse("rankID:[7000 TO *]", VALID_FIELD));
+        assertTrue(query.isBool());
+        assertEquals("rankID", query.bool().filter().getFirst().range().field());
+    }
+
+    @Test
+    public void testInvalidRange() {
+        assertInvalid("rankID:[7000 TO");
+        assertInvalid("rankID:[7000 TO]");
+        assertInvalid("rankID:[TO 8000]");
+        assertInvalid("rankID:[7000 8000 TO]");
+        assertInvalid("rankID:[7000 TO 8000 TO 9000]");
+        assertInvalid("rankID:[\"7000 TO *]");
+        assertInvalid("rankID:[\"7000\"8000 TO *]");
+    }
+
+    private static Term term(String q) {
+        Op op = QueryParserUtil.parse(q, VALID_FIELD);
+        assertNotNull(op, q);
+        assertEquals(1, op.terms.size(), q);
+        return op.terms.getFirst();
+    }
+
+    private static void assertRange(Term term, String from, String to, boolean includeFrom, boolean includeTo) {
+        assertTrue(term.range);
+        assertEquals(from, term.from);
+        assertEquals(to, term.to);
+        assertEquals(includeFrom, term.includeFrom);
+        assertEquals(includeTo, term.includeTo);
+    }
+
+    private static void assertInvalid(String q) {
+        assertNull(QueryParserUtil.parse(q, VALID_FIELD), q);
+        assertFalse(QueryParserUtil.isValid(q, VALID_FIELD), q);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package au.org.ala.search.util;
+
+import au.org.ala.search.model.SearchItemIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchItemIndexFieldsTest {
+
+    @Test
+    public void testEstimateSizeOfFields() {
+        long empty = SearchItemIndexFields.estimateSize(new SearchItemIndex());
+        assertEquals(2, empty);
+
+        // "guid":"abc",
+        SearchItemIndex item = new SearchItemIndex();
+        item.guid = "abc";
+        assertEquals(empty + 4 + 4 + 5, SearchItemIndexFields.estimateSize(item));
+
+        // "rk_genus":"Acacia",
+        item.rkFields = Map.of("rk_genus", "Acacia");
+        assertEquals(empty + 4 + 4 + 5 + 8 + 4 + 8, SearchItemIndexFields.estimateSize(item));
+    }
+
+    @Test
+    public void testEstimateJsonSize() {
+        assertEquals(4, SearchItemIndexFields.estimateJsonSize(null));
+        assertEquals(5, SearchItemIndexFields.estimateJsonSize("abc"));
+        assertEquals(16, SearchItemIndexFields.estimateJsonSize(42));
+        assertEquals(16, SearchItemIndexFields.estimateJsonSize(new Date()));
+
+        // ["a","bc"]
+        assertEquals(2 + 4 + 5, SearchItemIndexFields.estimateJsonSize(new String[]{"a", "bc"}));
+
+        // [{"k":"v"}]
+        assertEquals(2 + (2 + 1 + 4 + 3) + 1, SearchItemIndexFields.estimateJsonSize(List.of(Map.of("k", "v"))));
+    }
+
+    @Test
+    public void testEstimateSizeIsCloseToTheJsonSize() throws Exception {
+        SearchItemIndex item = new SearchItemIndex();
+        item.id = "https://id.biodiversity.org.au/taxon/apni/51286863";
+        item.guid = item.id;
+        item.idxtype = "TAXON";
+        item.name = "Acacia dealbata";
+        item.scientificName = "Acacia dealbata";
+        item.nameComplete = "Acacia dealbata Link";
+        item.rank = "species";
+        item.rankID = 7000;
+        item.modified = new Date();
+        item.searchWeight = 1.5;
+        item.commonName = new String[]{"Silver Wattle", "Blue Wattle", "Mimosa"};
+        item.synonymData = List.of(Map.of("guid", "syn1", "scientificName", "Racosperma dealbatum"));
+
+        ObjectMapper om = new ObjectMapper();
+        long json = om.writeValueAsBytes(item).length;
+        long estimate = SearchItemIndexFields.estimateSize(item);
+
+        // good enough to limit bulk request sizes
+        assertTrue(estimate > json * 0.75 && estimate < json * 1.25, "estimate " + estimate + ", json " + json);
+    }
+
+    @Test
+    public void testCopy() {
+        SearchItemIndex item = new SearchItemIndex();
+        item.guid = "abc";
+        item.modified = new Date(1000);
+        item.rkFields = new HashMap<>(Map.of("rk_genus", "Acacia"));
+
+        SearchItemIndex copy = SearchItemIndexFields.copy(item);
+        copy.modified.setTime(2000);
+        copy.rkFields.put("rk_family", "Fabaceae");
+
+        assertEquals("abc", copy.guid);
+        assertEquals(1000, item.modified.getTime());
+        assertEquals(1, item.rkFields.size());
+    }
+}